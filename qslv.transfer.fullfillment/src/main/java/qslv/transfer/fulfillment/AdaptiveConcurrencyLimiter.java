@@ -0,0 +1,128 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Gradient concurrency limit. The lowest latency seen stands for the latency without queueing;
+ * a short moving average stands for the current latency. While the average stays within tolerance
+ * of the lowest latency the limit grows by about sqrt(limit) per limit's worth of samples; once
+ * calls start to queue downstream the average rises and the limit shrinks in proportion, by half at
+ * most. A limit's worth of failed calls takes a tenth off it. The limit only grows while at least
+ * half of it is in use, so an idle endpoint does not drift up to maxLimit.
+ * The limit is never reset. The sqrt(limit) allowance lets it settle a little above tolerance; when
+ * no call has come back within tolerance of the lowest latency for a whole window the allowance is
+ * dropped, so a queue of our own making drains and calls come back within tolerance again. If none
+ * has after another window the service has become slower for good, and the current average becomes
+ * the new lowest latency instead of throttling the endpoint to minLimit.
+ */
+public class AdaptiveConcurrencyLimiter {
+	private static final double SMOOTHING = 0.2;
+	private static final double SHORT_ALPHA = 0.1;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double tolerance;
+	private final long windowNanos;
+	private final LongSupplier nanoClock;
+	private double limit;
+	private double shortRtt;
+	private double noLoadRtt;
+	private long noLoadSeenAt;		// the last sample within tolerance of noLoadRtt
+	private boolean draining;
+	private int inFlight;
+
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowMillis) {
+		this(initialLimit, minLimit, maxLimit, tolerance, windowMillis, System::nanoTime);
+	}
+
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowMillis,
+			LongSupplier nanoClock) {
+		if (minLimit < 1 || maxLimit < minLimit || tolerance < 1.0 || windowMillis <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid concurrency limits %d..%d, tolerance %f.", minLimit, maxLimit, tolerance));
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.nanoClock = nanoClock;
+		this.noLoadSeenAt = nanoClock.getAsLong();
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Waits at most waitMillis for the in-flight count to drop below the limit.
+	 */
+	public synchronized boolean tryAcquire(long waitMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		while (inFlight >= (int) limit) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Releases a call acquired without a sample, e.g. one that was never made.
+	 */
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * @param rttNanos the latency of the completed call.
+	 * @param success false for a timeout or an overloaded answer.
+	 */
+	public synchronized void release(long rttNanos, boolean success) {
+		boolean utilized = inFlight * 2 >= (int) limit;
+		inFlight--;
+		if (!success) {
+			limit = Math.max(minLimit, limit - 0.1);
+		} else if (rttNanos > 0) {
+			long now = nanoClock.getAsLong();
+			shortRtt = shortRtt == 0 ? rttNanos : shortRtt + (rttNanos - shortRtt) * SHORT_ALPHA;
+			if (noLoadRtt == 0 || rttNanos < noLoadRtt) {
+				noLoadRtt = rttNanos;
+			}
+			if (rttNanos <= noLoadRtt * tolerance) {
+				noLoadSeenAt = now;
+				draining = false;
+			} else if (now - noLoadSeenAt >= windowNanos) {
+				if (draining) {
+					noLoadRtt = shortRtt;
+				}
+				draining = !draining;
+				noLoadSeenAt = now;
+			}
+			double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRtt / shortRtt));
+			double queueSize = utilized && !draining ? Math.sqrt(limit) : 0.0;
+			double target = limit * gradient + queueSize;
+			if (target < limit || utilized) {
+				// a limit's worth of samples together move the limit SMOOTHING of the way to the target
+				limit = Math.max(minLimit, Math.min(maxLimit, limit + (target - limit) * SMOOTHING / limit));
+			}
+		}
+		notifyAll();
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+}
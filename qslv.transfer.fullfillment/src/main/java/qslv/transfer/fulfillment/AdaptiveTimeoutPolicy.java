@@ -0,0 +1,101 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Read timeouts per endpoint for restAdaptiveTimeout. The timeout is restTimeoutMultiple times the
+ * restTimeoutPercentile latency of the endpoint's calls over the last one to two restTimeoutWindow,
+ * no lower than restTimeoutFloor and no higher than restTimeout. A call that runs into it is an
+ * outlier, and the retry goes out after a few times the usual latency instead of the worst case.
+ * A timed-out call is recorded at its timeout, so a service that slows down for good raises the
+ * timeout again. Until an endpoint has restTimeoutMinSamples recent calls its timeout is restTimeout.
+ */
+@Component
+public class AdaptiveTimeoutPolicy {
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final ConcurrentHashMap<String, RollingLatencyHistogram> endpoints = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public boolean isEnabled() {
+		return config.isRestAdaptiveTimeout();
+	}
+
+	/**
+	 * @return the read timeout in millis for the next call to the endpoint.
+	 */
+	public int readTimeout(String endpoint) {
+		if (!isEnabled()) {
+			return config.getRestTimeout();
+		}
+		RollingLatencyHistogram latency = latency(endpoint);
+		if (latency.getCount() < config.getRestTimeoutMinSamples()) {
+			return config.getRestTimeout();
+		}
+		long percentile = TimeUnit.NANOSECONDS.toMillis(latency.percentile(config.getRestTimeoutPercentile()));
+		long timeout = (long) Math.ceil(percentile * config.getRestTimeoutMultiple());
+		return (int) Math.max(config.getRestTimeoutFloor(), Math.min(config.getRestTimeout(), timeout));
+	}
+
+	public void record(String endpoint, long nanos) {
+		if (isEnabled()) {
+			latency(endpoint).record(nanos);
+		}
+	}
+
+	/**
+	 * Records the latency of every RestTemplate call, and the timeout of those that run into it.
+	 */
+	public ClientHttpRequestInterceptor interceptor() {
+		return (request, body, execution) -> {
+			long start = System.nanoTime();
+			boolean answered = true;
+			try {
+				return execution.execute(request, body);
+			} catch (IOException ex) {
+				answered = false;
+				if (ex instanceof SocketTimeoutException) {
+					record(request.getURI().toString(), System.nanoTime() - start);
+				}
+				throw ex;
+			} finally {
+				if (answered) {
+					record(request.getURI().toString(), System.nanoTime() - start);
+				}
+			}
+		};
+	}
+
+	private RollingLatencyHistogram latency(String endpoint) {
+		RollingLatencyHistogram latency = endpoints.get(endpoint);
+		return latency != null ? latency : endpoints.computeIfAbsent(endpoint, this::newLatency);
+	}
+
+	private RollingLatencyHistogram newLatency(String endpoint) {
+		RollingLatencyHistogram latency = new RollingLatencyHistogram(config.getRestTimeoutWindow());
+		Gauge.builder("qslv.transaction.read.timeout", this, policy -> policy.readTimeout(endpoint))
+				.tag("endpoint", endpoint).baseUnit("milliseconds").register(registry);
+		return latency;
+	}
+}
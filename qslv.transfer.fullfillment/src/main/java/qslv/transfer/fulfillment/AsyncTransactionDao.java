@@ -0,0 +1,396 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import qslv.common.TimedResponse;
+import qslv.common.TraceableRequest;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+
+/**
+ * Non-blocking counterpart of TransactionDao used by the ASYNC consumer mode. Requests are
+ * multiplexed over a few I/O reactor threads, so hundreds of transfers can be in flight
+ * without a thread each. Retries and error mapping follow TransactionDao: connection failures,
+ * read timeouts and 5xx answers are retried with the same backoff and the same RetryBudget, and
+ * an exhausted retryable failure is transient; any other answer but 201 is final.
+ * Responses are read on restAsyncResponseThreads threads, off the reactor threads. The client is
+ * only started in the ASYNC mode; a call in any other mode fails with an IllegalStateException.
+ */
+@Repository
+public class AsyncTransactionDao {
+	private static final Logger log = LoggerFactory.getLogger(AsyncTransactionDao.class);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private BulkTransactionDao bulkTransactionDao;
+	@Autowired
+	private ServiceLatencyRecorder serviceLatencyRecorder;
+	@Autowired
+	private TransactionServiceGuard transactionServiceGuard;
+	@Autowired
+	private EndpointBalancer endpointBalancer;
+	@Autowired
+	private AdaptiveTimeoutPolicy adaptiveTimeoutPolicy;
+	@Autowired
+	private TransferDeadline transferDeadline;
+	@Autowired
+	private RetryBudget retryBudget;
+
+	private CloseableHttpAsyncClient httpClient;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService responseExecutor;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setObjectMapper(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public void setBulkTransactionDao(BulkTransactionDao bulkTransactionDao) {
+		this.bulkTransactionDao = bulkTransactionDao;
+	}
+
+	public void setServiceLatencyRecorder(ServiceLatencyRecorder serviceLatencyRecorder) {
+		this.serviceLatencyRecorder = serviceLatencyRecorder;
+	}
+
+	public void setTransactionServiceGuard(TransactionServiceGuard transactionServiceGuard) {
+		this.transactionServiceGuard = transactionServiceGuard;
+	}
+
+	public void setEndpointBalancer(EndpointBalancer endpointBalancer) {
+		this.endpointBalancer = endpointBalancer;
+	}
+
+	public void setAdaptiveTimeoutPolicy(AdaptiveTimeoutPolicy adaptiveTimeoutPolicy) {
+		this.adaptiveTimeoutPolicy = adaptiveTimeoutPolicy;
+	}
+
+	public void setTransferDeadline(TransferDeadline transferDeadline) {
+		this.transferDeadline = transferDeadline;
+	}
+
+	public void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+
+	public void setHttpClient(CloseableHttpAsyncClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		if (httpClient == null) {
+			if (config.getConsumerMode() != ConfigProperties.ConsumerMode.ASYNC) {
+				return;
+			}
+			PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+					new DefaultConnectingIOReactor(IOReactorConfig.custom().setSoTimeout(config.getRestTimeout()).build()));
+			connectionManager.setDefaultMaxPerRoute(config.getRestPoolMaxPerRoute());
+			int routes = EndpointBalancer.hosts(config.getPostTransactionUrl(), config.getCommitReservationUrl()).size();
+			connectionManager.setMaxTotal(Math.max(config.getRestPoolMaxTotal(), routes * config.getRestPoolMaxPerRoute()));
+
+			httpClient = HttpAsyncClients.custom()
+					.setConnectionManager(connectionManager)
+					.setDefaultRequestConfig(RequestConfig.custom()
+							.setConnectionRequestTimeout(config.getRestConnectionRequestTimeout())
+							.setConnectTimeout(config.getRestConnectTimeout())
+							.setSocketTimeout(config.getRestTimeout())
+							.build())
+					.build();
+		}
+		httpClient.start();
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "async-transaction-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger count = new AtomicInteger();
+		responseExecutor = Executors.newFixedThreadPool(config.getRestAsyncResponseThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "async-transaction-response-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (responseExecutor != null) {
+			responseExecutor.shutdownNow();
+		}
+		if (httpClient != null) {
+			httpClient.close();
+		}
+	}
+
+	public CompletableFuture<TransactionResponse> recordTransaction(final TraceableMessage<?> message, final TransactionRequest request) {
+		log.trace("recordTransaction ENTRY");
+		if (isBulk()) {
+			return bulkTransactionDao.recordTransaction(message, request);
+		}
+		return callService(message,
+				config.getPostTransactionUrl(),
+				TransactionRequest.VERSION_1_0,
+				request,
+				TransactionResponse.class,
+				deadline(message));
+	}
+
+	public CompletableFuture<CommitReservationResponse> commitReservation(final TraceableMessage<?> message, final CommitReservationRequest request) {
+		log.trace("commitReservation ENTRY");
+		if (isBulk()) {
+			return bulkTransactionDao.commitReservation(message, request);
+		}
+		return callService(message,
+				config.getCommitReservationUrl(),
+				CommitReservationRequest.VERSION_1_0,
+				request,
+				CommitReservationResponse.class,
+				TransferDeadline.NONE);
+	}
+
+	private long deadline(final TraceableMessage<?> message) {
+		return transferDeadline == null ? TransferDeadline.NONE : transferDeadline.deadline(message);
+	}
+
+	private boolean isBulk() {
+		return bulkTransactionDao != null && bulkTransactionDao.isEnabled();
+	}
+
+	/**
+	 * @param deadline of the transfer, or NONE for a step that must complete whatever the time.
+	 */
+	private <M,R> CompletableFuture<R> callService(final TraceableMessage<?> message, String url, String version, M request, Class<R> responseClass,
+			long deadline) {
+		if (scheduler == null) {
+			throw new IllegalStateException(String.format("AsyncTransactionDao is only started in the ASYNC consumer mode, not %s.",
+					config.getConsumerMode()));
+		}
+		CompletableFuture<R> result = new CompletableFuture<>();
+		byte[] body;
+		try {
+			body = objectMapper.writeValueAsBytes(request);
+		} catch (JsonProcessingException ex) {
+			result.completeExceptionally(new NonTransientDataAccessResourceException("Jackson JSON object Mapper failed for POST " + url, ex));
+			return result;
+		}
+		JavaType responseType = objectMapper.getTypeFactory().constructParametricType(TimedResponse.class, responseClass);
+		if (transactionServiceGuard != null) {
+			final TransactionServiceGuard.Permit permit;
+			try {
+				// never wait for a bulkhead permit on the caller's thread
+				permit = transactionServiceGuard.acquire(url, 0L);
+			} catch (TransientDataAccessResourceException ex) {
+				result.completeExceptionally(ex);
+				return result;
+			}
+			final long start = System.nanoTime();
+			result.whenComplete((r, ex) -> permit.release(ex == null || !TransactionServiceGuard.isFailure(ex), start));
+		}
+		if (retryBudget != null) {
+			result.whenComplete((r, ex) -> retryBudget.deposit(url));
+		}
+
+		attempt(url, buildPost(message, version, body), responseType, 1, config.getRestBackoffDelay(), System.nanoTime(), deadline, result);
+		return result;
+	}
+
+	private <R> void attempt(final String url, final HttpPost post, final JavaType responseType, final int attempt, final long backoff,
+			final long start, final long deadline, final CompletableFuture<R> result) {
+		if (deadline != TransferDeadline.NONE) {
+			long remaining = transferDeadline.remaining(deadline);
+			if (remaining <= 0) {
+				expire(result);
+				return;
+			}
+			post.setHeader(TransferDeadline.BUDGET_HEADER, Long.toString(remaining));
+		}
+		// each attempt may go to another of the endpoints in the url setting
+		final EndpointBalancer.Selection endpoint = endpointBalancer == null ? null : endpointBalancer.select(url);
+		post.setURI(URI.create(endpoint == null ? url : endpoint.getUrl()));
+		final boolean adaptiveTimeout = adaptiveTimeoutPolicy != null && adaptiveTimeoutPolicy.isEnabled();
+		if (adaptiveTimeout || deadline != TransferDeadline.NONE) {
+			int readTimeout = adaptiveTimeout ? adaptiveTimeoutPolicy.readTimeout(post.getURI().toString()) : config.getRestTimeout();
+			post.setConfig(RequestConfig.custom()
+					.setConnectionRequestTimeout(config.getRestConnectionRequestTimeout())
+					.setConnectTimeout(config.getRestConnectTimeout())
+					.setSocketTimeout(deadline == TransferDeadline.NONE ? readTimeout : transferDeadline.cap(readTimeout, deadline))
+					.build());
+		}
+		final long attemptStart = System.nanoTime();
+		httpClient.execute(post, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse response) {
+				int status = response.getStatusLine().getStatusCode();
+				complete(endpoint, status < HttpStatus.SC_INTERNAL_SERVER_ERROR);
+				if (adaptiveTimeout) {
+					adaptiveTimeoutPolicy.record(post.getURI().toString(), System.nanoTime() - attemptStart);
+				}
+				if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+					// retried like the HttpServerErrorException of the RestTemplate; there is nothing to read
+					retry(url, post, responseType, attempt, backoff, start, deadline, result,
+							new TransientDataAccessResourceException(String.format("POST %s answered %s.", post.getURI(), response.getStatusLine())));
+					return;
+				}
+				if (status >= HttpStatus.SC_BAD_REQUEST && retryBudget != null) {
+					retryBudget.notRetryable(url);
+				}
+				// the entity is buffered, so it can be deserialized off the reactor thread
+				try {
+					responseExecutor.execute(() -> {
+						try {
+							result.complete(readResponse(url, post, response, responseType, start));
+						} catch (RuntimeException ex) {
+							result.completeExceptionally(ex);
+						}
+					});
+				} catch (RejectedExecutionException ex) {
+					result.completeExceptionally(new TransientDataAccessResourceException("Response of POST " + post.getURI() + " not read.", ex));
+				}
+			}
+
+			@Override
+			public void failed(Exception ex) {
+				complete(endpoint, false);
+				if (adaptiveTimeout && ex instanceof SocketTimeoutException) {
+					adaptiveTimeoutPolicy.record(post.getURI().toString(), System.nanoTime() - attemptStart);
+				}
+				retry(url, post, responseType, attempt, backoff, start, deadline, result, ex);
+			}
+
+			@Override
+			public void cancelled() {
+				complete(endpoint, true);
+				result.completeExceptionally(new TransientDataAccessResourceException("POST " + post.getURI() + " cancelled."));
+			}
+		});
+	}
+
+	/**
+	 * After a retryable failure: the next attempt after the backoff, or the failure once restAttempts
+	 * are used up, the retry budget is spent or the deadline would pass during the backoff.
+	 */
+	private <R> void retry(final String url, final HttpPost post, final JavaType responseType, final int attempt, final long backoff,
+			final long start, final long deadline, final CompletableFuture<R> result, Exception ex) {
+		if (attempt >= config.getRestAttempts()) {
+			if (retryBudget != null) {
+				retryBudget.exhausted(url);
+			}
+			String msg = String.format("Exhausted %d retries for POST %s.", config.getRestAttempts(), post.getURI());
+			log.warn(msg);
+			result.completeExceptionally(new TransientDataAccessResourceException(msg, ex));
+			return;
+		}
+		if (retryBudget != null && !retryBudget.tryRetry(url)) {
+			String msg = String.format("Retry budget for POST %s spent after %d attempts.", url, attempt);
+			log.warn(msg);
+			result.completeExceptionally(new TransientDataAccessResourceException(msg, ex));
+			return;
+		}
+		long nextBackoff = Math.min(backoff * 2, config.getRestBackoffDelayMax());
+		// stretched by 1 to 2 times, like the RetryTemplate's backoff, so failures together do not retry together
+		long delay = (long) (backoff * (1.0 + ThreadLocalRandom.current().nextDouble()));
+		if (deadline != TransferDeadline.NONE && transferDeadline.remaining(deadline) <= delay) {
+			// the retry would start past the deadline; fail now rather than after the backoff
+			expire(result);
+			return;
+		}
+		try {
+			scheduler.schedule(() -> attempt(url, post, responseType, attempt + 1, nextBackoff, start, deadline, result), delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException rejected) {
+			result.completeExceptionally(new TransientDataAccessResourceException("Retry of POST " + post.getURI() + " not scheduled.", ex));
+		}
+	}
+
+	private void expire(CompletableFuture<?> result) {
+		TransferDeadlineExceededException ex = transferDeadline.exceeded(TransferDeadline.POST);
+		log.warn(ex.getLocalizedMessage());
+		result.completeExceptionally(ex);
+	}
+
+	private void complete(EndpointBalancer.Selection endpoint, boolean success) {
+		if (endpoint != null) {
+			endpoint.complete(success);
+		}
+	}
+
+	private <R> R readResponse(String url, HttpPost post, HttpResponse response, JavaType responseType, long start) {
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED || response.getEntity() == null) {
+			String msg = String.format("Unexpected return from %s Service. %s", post.getURI(), response.getStatusLine());
+			log.error(msg);
+			throw new NonTransientDataAccessResourceException(msg);
+		}
+		try (InputStream content = response.getEntity().getContent()) {
+			TimedResponse<R> timedResponse = objectMapper.readValue(content, responseType);
+			if (serviceLatencyRecorder != null) {
+				serviceLatencyRecorder.record(url, start, timedResponse.getServiceTimeElapsed());
+			}
+			return timedResponse.getPayload();
+		} catch (IOException ex) {
+			String msg = String.format("Unreadable response from %s Service.", post.getURI());
+			log.error(msg);
+			throw new NonTransientDataAccessResourceException(msg, ex);
+		}
+	}
+
+	private HttpPost buildPost(final TraceableMessage<?> message, String version, byte[] body) {
+		HttpPost post = new HttpPost();
+		post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+		post.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+		post.setHeader(TraceableRequest.AIT_ID, config.getAitid());
+		post.setHeader(TraceableRequest.BUSINESS_TAXONOMY_ID, message.getBusinessTaxonomyId());
+		post.setHeader(TraceableRequest.CORRELATION_ID, message.getCorrelationId());
+		post.setHeader(TraceableRequest.ACCEPT_VERSION, version);
+		return post;
+	}
+}
@@ -0,0 +1,142 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Pauses the consumers while the downstream services are saturated, instead of letting consumer
+ * threads sleep in nack() or block on full pools. Every backpressureInterval it samples the
+ * transaction service calls of the interval (error rate and mean latency, once there are
+ * backpressureMinCalls of them, so a single slow or failed call cannot pause the consumers), the
+ * calls in flight against the guard's limits, and the dead letters in flight. Each signal is divided by its threshold;
+ * the largest quotient is the pressure. Consumers pause once the pressure reaches 1 and resume only
+ * when it has fallen below backpressureResumeRatio, so they do not flap around the threshold.
+ * Open circuits pause the consumers through the ConsumerPauseController's own reason.
+ */
+@Component
+public class BackpressureController {
+	private static final Logger log = LoggerFactory.getLogger(BackpressureController.class);
+	public static final String BACKPRESSURE = "backpressure";
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private TransactionServiceGuard transactionServiceGuard;
+	@Autowired
+	private DeadLetterPublisher deadLetterPublisher;
+	@Autowired
+	private ConsumerPauseController consumerPauseController;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private ScheduledExecutorService scheduler;
+	private Counter pauses;
+	private volatile double pressure;
+	private long calls;
+	private long failures;
+	private long latencyNanos;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setTransactionServiceGuard(TransactionServiceGuard transactionServiceGuard) {
+		this.transactionServiceGuard = transactionServiceGuard;
+	}
+
+	public void setDeadLetterPublisher(DeadLetterPublisher deadLetterPublisher) {
+		this.deadLetterPublisher = deadLetterPublisher;
+	}
+
+	public void setConsumerPauseController(ConsumerPauseController consumerPauseController) {
+		this.consumerPauseController = consumerPauseController;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@PostConstruct
+	public void init() {
+		pauses = Counter.builder("qslv.backpressure.pauses").register(registry);
+		Gauge.builder("qslv.backpressure.pressure", this, c -> c.pressure).register(registry);
+		if (!config.isBackpressureEnabled()) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "backpressure");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				evaluate();
+			} catch (RuntimeException ex) {
+				log.error("Backpressure evaluation failed. {}", ex.getLocalizedMessage());
+			}
+		}, config.getBackpressureInterval(), config.getBackpressureInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	public double getPressure() {
+		return pressure;
+	}
+
+	/**
+	 * Samples the signals and pauses or resumes the consumers.
+	 * @return the pressure of this interval.
+	 */
+	synchronized double evaluate() {
+		long intervalCalls = transactionServiceGuard.getCalls() - calls;
+		long intervalFailures = transactionServiceGuard.getFailures() - failures;
+		long intervalLatency = transactionServiceGuard.getLatencyNanos() - latencyNanos;
+		calls += intervalCalls;
+		failures += intervalFailures;
+		latencyNanos += intervalLatency;
+
+		double level = 0.0;
+		if (intervalCalls > 0 && intervalCalls >= config.getBackpressureMinCalls()) {
+			level = Math.max(level, ((double) intervalFailures / intervalCalls) / config.getBackpressureErrorRate());
+			double meanMillis = intervalLatency / 1e6 / intervalCalls;
+			level = Math.max(level, meanMillis / config.getBackpressureLatency());
+		}
+		if (config.getRestBulkheadMaxConcurrent() > 0) {
+			// the adaptive limit, when it has shrunk, is what the service can take now
+			level = Math.max(level, ((double) transactionServiceGuard.getInFlight() / Math.max(1, transactionServiceGuard.getLimit()))
+					/ config.getBackpressureInFlight());
+		}
+		level = Math.max(level, ((double) deadLetterPublisher.getInFlight() / config.getKafkaDlqMaxInFlight())
+				/ config.getBackpressureDlqInFlight());
+		pressure = level;
+
+		boolean paused = consumerPauseController.isPaused(BACKPRESSURE);
+		if (!paused && level >= 1.0) {
+			log.warn("Backpressure {}. {} calls, {} failed, {} in flight, {} dead letters in flight.", String.format("%.2f", level),
+					intervalCalls, intervalFailures, transactionServiceGuard.getInFlight(), deadLetterPublisher.getInFlight());
+			pauses.increment();
+			consumerPauseController.pause(BACKPRESSURE);
+		} else if (paused && level < config.getBackpressureResumeRatio()) {
+			consumerPauseController.resume(BACKPRESSURE);
+		}
+		return level;
+	}
+}
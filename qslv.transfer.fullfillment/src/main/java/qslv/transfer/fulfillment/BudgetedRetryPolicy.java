@@ -0,0 +1,86 @@
+package qslv.transfer.fulfillment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.classify.BinaryExceptionClassifier;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retry policy for the transaction service. Connection failures, read timeouts and 5xx answers
+ * are retried; a 4xx answer, or anything else, is final. The service deduplicates on the
+ * requestUuid, so a POST that may have arrived is safe to send again.
+ * Retries also draw on the RetryBudget of the endpoint. During an outage retries stay at a fraction
+ * of the live traffic instead of multiplying it by the number of attempts.
+ * Callers set the ENDPOINT attribute on the retry context so budgets and metrics are per endpoint.
+ */
+public class BudgetedRetryPolicy extends SimpleRetryPolicy {
+	private static final long serialVersionUID = 1L;
+	public static final String ENDPOINT = "qslv.endpoint";
+	private static final String BUDGET_EXHAUSTED = "qslv.budgetExhausted";
+	private static final String UNKNOWN = "unknown";
+
+	private final BinaryExceptionClassifier classifier;
+	private final RetryBudget budget;
+
+	public BudgetedRetryPolicy(int maxAttempts, double budgetRatio, double budgetMax, MeterRegistry registry) {
+		this(maxAttempts, new RetryBudget(budgetRatio, budgetMax, registry));
+	}
+
+	public BudgetedRetryPolicy(int maxAttempts, RetryBudget budget) {
+		this(maxAttempts, retryableExceptions(), budget);
+	}
+
+	private BudgetedRetryPolicy(int maxAttempts, Map<Class<? extends Throwable>, Boolean> retryableExceptions, RetryBudget budget) {
+		super(maxAttempts, retryableExceptions, true, false);
+		this.classifier = new BinaryExceptionClassifier(retryableExceptions, false);
+		this.classifier.setTraverseCauses(true);
+		this.budget = budget;
+	}
+
+	private static Map<Class<? extends Throwable>, Boolean> retryableExceptions() {
+		Map<Class<? extends Throwable>, Boolean> retryable = new HashMap<>();
+		retryable.put(ResourceAccessException.class, true);
+		retryable.put(HttpServerErrorException.class, true);
+		retryable.put(HttpClientErrorException.class, false);
+		return retryable;
+	}
+
+	@Override
+	public boolean canRetry(RetryContext context) {
+		return super.canRetry(context) && !context.hasAttribute(BUDGET_EXHAUSTED);
+	}
+
+	/**
+	 * Decides once per failed attempt whether the next one may go out, and counts the outcome.
+	 */
+	@Override
+	public void registerThrowable(RetryContext context, Throwable throwable) {
+		super.registerThrowable(context, throwable);
+		String endpoint = endpoint(context);
+		if (!classifier.classify(throwable)) {
+			budget.notRetryable(endpoint);
+		} else if (!super.canRetry(context)) {
+			budget.exhausted(endpoint);
+		} else if (!budget.tryRetry(endpoint)) {
+			context.setAttribute(BUDGET_EXHAUSTED, true);
+		}
+	}
+
+	@Override
+	public void close(RetryContext context) {
+		super.close(context);
+		budget.deposit(endpoint(context));
+	}
+
+	private String endpoint(RetryContext context) {
+		Object attribute = context.getAttribute(ENDPOINT);
+		return attribute == null ? UNKNOWN : attribute.toString();
+	}
+}
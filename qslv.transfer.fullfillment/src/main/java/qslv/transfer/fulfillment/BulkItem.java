@@ -0,0 +1,44 @@
+package qslv.transfer.fulfillment;
+
+/**
+ * One request inside a bulk POST. Tracing headers differ per transfer, so they travel with
+ * the request instead of on the HTTP call.
+ */
+public class BulkItem<T> {
+	private String businessTaxonomyId;
+	private String correlationId;
+	private T request;
+
+	public BulkItem() {
+	}
+
+	public BulkItem(String businessTaxonomyId, String correlationId, T request) {
+		this.businessTaxonomyId = businessTaxonomyId;
+		this.correlationId = correlationId;
+		this.request = request;
+	}
+
+	public String getBusinessTaxonomyId() {
+		return businessTaxonomyId;
+	}
+
+	public void setBusinessTaxonomyId(String businessTaxonomyId) {
+		this.businessTaxonomyId = businessTaxonomyId;
+	}
+
+	public String getCorrelationId() {
+		return correlationId;
+	}
+
+	public void setCorrelationId(String correlationId) {
+		this.correlationId = correlationId;
+	}
+
+	public T getRequest() {
+		return request;
+	}
+
+	public void setRequest(T request) {
+		this.request = request;
+	}
+}
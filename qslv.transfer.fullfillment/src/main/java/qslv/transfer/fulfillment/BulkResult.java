@@ -0,0 +1,44 @@
+package qslv.transfer.fulfillment;
+
+/**
+ * Outcome of one request inside a bulk POST, in the same position as the request. The status
+ * is the HTTP status the single-request endpoint would have returned.
+ */
+public class BulkResult<R> {
+	private int status;
+	private String message;
+	private R payload;
+
+	public BulkResult() {
+	}
+
+	public BulkResult(int status, String message, R payload) {
+		this.status = status;
+		this.message = message;
+		this.payload = payload;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public R getPayload() {
+		return payload;
+	}
+
+	public void setPayload(R payload) {
+		this.payload = payload;
+	}
+}
@@ -0,0 +1,201 @@
+package qslv.transfer.fulfillment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import qslv.common.TimedResponse;
+import qslv.common.TraceableRequest;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+
+/**
+ * Posts transactions and reservation commits of concurrent transfers in bulk. Requests are
+ * collected by a MicroBatcher per endpoint and sent as one POST of BulkItems; the response
+ * carries one BulkResult per item, in order, which is handed back to the waiting caller.
+ * A result with a 4xx status fails its caller with a NonTransientDataAccessResourceException,
+ * any other non-201 status with a TransientDataAccessResourceException, matching TransactionDao.
+ * Enabled when both bulk URLs are configured.
+ */
+@Repository
+public class BulkTransactionDao {
+	private static final Logger log = LoggerFactory.getLogger(BulkTransactionDao.class);
+	private static ParameterizedTypeReference<TimedResponse<List<BulkResult<TransactionResponse>>>> transactionResponseType =
+			new ParameterizedTypeReference<TimedResponse<List<BulkResult<TransactionResponse>>>>() {};
+	private static ParameterizedTypeReference<TimedResponse<List<BulkResult<CommitReservationResponse>>>> commitResponseType =
+			new ParameterizedTypeReference<TimedResponse<List<BulkResult<CommitReservationResponse>>>>() {};
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private RestTemplateProxy restTemplateProxy;
+	@Autowired
+	private RetryTemplate retryTemplate;
+	@Autowired
+	private ServiceLatencyRecorder serviceLatencyRecorder;
+	@Autowired
+	private TransactionServiceGuard transactionServiceGuard;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private ExecutorService flushExecutor;
+	private MicroBatcher<TransactionRequest, TransactionResponse> transactionBatcher;
+	private MicroBatcher<CommitReservationRequest, CommitReservationResponse> commitBatcher;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRestTemplateProxy(RestTemplateProxy restTemplateProxy) {
+		this.restTemplateProxy = restTemplateProxy;
+	}
+
+	public void setRetryTemplate(RetryTemplate retryTemplate) {
+		this.retryTemplate = retryTemplate;
+	}
+
+	public void setServiceLatencyRecorder(ServiceLatencyRecorder serviceLatencyRecorder) {
+		this.serviceLatencyRecorder = serviceLatencyRecorder;
+	}
+
+	public void setTransactionServiceGuard(TransactionServiceGuard transactionServiceGuard) {
+		this.transactionServiceGuard = transactionServiceGuard;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@PostConstruct
+	public void init() {
+		if (!isEnabled()) {
+			return;
+		}
+		AtomicInteger count = new AtomicInteger();
+		flushExecutor = Executors.newFixedThreadPool(config.getBulkFlushThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "bulk-flush-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		transactionBatcher = new MicroBatcher<>("transaction", config.getBulkMaxSize(), config.getBulkLinger(), flushExecutor,
+				batch -> post(config.getBulkTransactionUrl(), TransactionRequest.VERSION_1_0, batch, transactionResponseType),
+				registry);
+		commitBatcher = new MicroBatcher<>("commit-reservation", config.getBulkMaxSize(), config.getBulkLinger(), flushExecutor,
+				batch -> post(config.getBulkCommitReservationUrl(), CommitReservationRequest.VERSION_1_0, batch, commitResponseType),
+				registry);
+		log.info("Bulk transaction posting enabled, up to {} requests or {} ms per batch.", config.getBulkMaxSize(), config.getBulkLinger());
+	}
+
+	@PreDestroy
+	public void close() {
+		if (transactionBatcher != null) {
+			transactionBatcher.close();
+			commitBatcher.close();
+			flushExecutor.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return config.getBulkTransactionUrl() != null && !config.getBulkTransactionUrl().isEmpty()
+				&& config.getBulkCommitReservationUrl() != null && !config.getBulkCommitReservationUrl().isEmpty();
+	}
+
+	public CompletableFuture<TransactionResponse> recordTransaction(final TraceableMessage<?> message, final TransactionRequest request) {
+		return transactionBatcher.submit(message, request);
+	}
+
+	public CompletableFuture<CommitReservationResponse> commitReservation(final TraceableMessage<?> message, final CommitReservationRequest request) {
+		return commitBatcher.submit(message, request);
+	}
+
+	private <T,R> void post(String url, String version, List<MicroBatcher.Entry<T, R>> batch,
+			ParameterizedTypeReference<TimedResponse<List<BulkResult<R>>>> typereference) {
+		List<BulkItem<T>> items = new ArrayList<>(batch.size());
+		for (MicroBatcher.Entry<T, R> entry : batch) {
+			items.add(new BulkItem<T>(entry.getMessage().getBusinessTaxonomyId(), entry.getMessage().getCorrelationId(), entry.getRequest()));
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+		headers.add(TraceableRequest.AIT_ID, config.getAitid());
+		headers.add(TraceableRequest.ACCEPT_VERSION, version);
+
+		ResponseEntity<TimedResponse<List<BulkResult<R>>>> response;
+		final long start = System.nanoTime();
+		try {
+			response = transactionServiceGuard == null
+					? exchange(url, headers, items, typereference)
+					: transactionServiceGuard.call(url, () -> exchange(url, headers, items, typereference));
+		} catch (ResourceAccessException | HttpServerErrorException ex) {
+			// the retry template rethrows the last failure once restAttempts are used up
+			String msg = String.format("Exhausted %d retries for POST %s.", config.getRestAttempts(), url);
+			log.warn(msg);
+			throw new TransientDataAccessResourceException(msg, ex);
+		}
+		if (!response.hasBody() || !response.getStatusCode().equals(HttpStatus.CREATED)
+				|| response.getBody().getPayload() == null || response.getBody().getPayload().size() != batch.size()) {
+			String msg = String.format("Unexpected return from %s Service. %s", url, response.toString());
+			log.error(msg);
+			throw new NonTransientDataAccessResourceException(msg);
+		}
+
+		if (serviceLatencyRecorder != null) {
+			// one sample per batch; the service time covers every item
+			serviceLatencyRecorder.record(url, start, response.getBody().getServiceTimeElapsed());
+		}
+		List<BulkResult<R>> results = response.getBody().getPayload();
+		for (int i = 0; i < batch.size(); i++) {
+			BulkResult<R> result = results.get(i);
+			CompletableFuture<R> future = batch.get(i).getResult();
+			if (result.getStatus() == HttpStatus.CREATED.value()) {
+				future.complete(result.getPayload());
+			} else {
+				String msg = String.format("Unexpected return from %s Service. %d %s", url, result.getStatus(), result.getMessage());
+				log.error(msg);
+				future.completeExceptionally(result.getStatus() >= 400 && result.getStatus() < 500
+						? new NonTransientDataAccessResourceException(msg)
+						: new TransientDataAccessResourceException(msg));
+			}
+		}
+	}
+
+	private <T,R> ResponseEntity<TimedResponse<List<BulkResult<R>>>> exchange(String url, HttpHeaders headers, List<BulkItem<T>> items,
+			ParameterizedTypeReference<TimedResponse<List<BulkResult<R>>>> typereference) {
+		return retryTemplate.execute(new RetryCallback<ResponseEntity<TimedResponse<List<BulkResult<R>>>>, ResourceAccessException>() {
+			public ResponseEntity<TimedResponse<List<BulkResult<R>>>> doWithRetry(RetryContext context) throws ResourceAccessException {
+				context.setAttribute(BudgetedRetryPolicy.ENDPOINT, url);
+				return restTemplateProxy.exchange(url, HttpMethod.POST, new HttpEntity<List<BulkItem<T>>>(items, headers), typereference);
+		}});
+	}
+}
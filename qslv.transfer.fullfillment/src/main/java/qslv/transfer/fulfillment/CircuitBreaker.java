@@ -0,0 +1,135 @@
+package qslv.transfer.fulfillment;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Consecutive-failure circuit breaker. failureThreshold failures in a row open the circuit and
+ * calls are refused for openMillis. After that one probe call is let through (HALF_OPEN): its
+ * success closes the circuit, its failure opens it again for another openMillis.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	public interface Listener {
+		void onTransition(CircuitBreaker breaker, State from, State to);
+		void onProbe(CircuitBreaker breaker, boolean success);
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openMillis;
+	private final LongSupplier clock;
+	private final Listener listener;
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+	private boolean probing;
+
+	public CircuitBreaker(String name, int failureThreshold, long openMillis, Listener listener) {
+		this(name, failureThreshold, openMillis, listener, System::currentTimeMillis);
+	}
+
+	public CircuitBreaker(String name, int failureThreshold, long openMillis, Listener listener, LongSupplier clock) {
+		if (failureThreshold < 1 || openMillis < 0) {
+			throw new IllegalArgumentException(String.format("Invalid circuit breaker threshold %d, open time %d.", failureThreshold, openMillis));
+		}
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.listener = listener;
+		this.clock = clock;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return false if the call must not be made.
+	 */
+	public boolean tryAcquire() {
+		synchronized (this) {
+			switch (state) {
+			case CLOSED:
+				return true;
+			case HALF_OPEN:
+				if (probing) {
+					return false;
+				}
+				probing = true;
+				return true;
+			default:
+				if (clock.getAsLong() - openedAt < openMillis) {
+					return false;
+				}
+				state = State.HALF_OPEN;
+				probing = true;
+			}
+		}
+		notifyTransition(State.OPEN, State.HALF_OPEN);
+		return true;
+	}
+
+	public void onSuccess() {
+		synchronized (this) {
+			failures = 0;
+			if (state != State.HALF_OPEN) {
+				return;
+			}
+			state = State.CLOSED;
+			probing = false;
+		}
+		notifyProbe(true);
+		notifyTransition(State.HALF_OPEN, State.CLOSED);
+	}
+
+	/**
+	 * The acquired call was not made after all. A half-open probe may be let through again.
+	 */
+	public synchronized void onCancel() {
+		probing = false;
+	}
+
+	public void onFailure() {
+		State from;
+		synchronized (this) {
+			from = state;
+			if (state == State.OPEN || (state == State.CLOSED && ++failures < failureThreshold)) {
+				return;
+			}
+			state = State.OPEN;
+			openedAt = clock.getAsLong();
+			probing = false;
+			failures = 0;
+		}
+		if (from == State.HALF_OPEN) {
+			notifyProbe(false);
+		}
+		notifyTransition(from, State.OPEN);
+	}
+
+	private void notifyTransition(State from, State to) {
+		if (listener != null) {
+			listener.onTransition(this, from, to);
+		}
+	}
+
+	private void notifyProbe(boolean success) {
+		if (listener != null) {
+			listener.onProbe(this, success);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package qslv.transfer.fulfillment;
+
+/**
+ * Published by the TransactionServiceGuard when an endpoint's circuit changes state.
+ */
+public class CircuitBreakerEvent {
+	private final String endpoint;
+	private final CircuitBreaker.State from;
+	private final CircuitBreaker.State to;
+	private final long openMillis;
+
+	public CircuitBreakerEvent(String endpoint, CircuitBreaker.State from, CircuitBreaker.State to, long openMillis) {
+		this.endpoint = endpoint;
+		this.from = from;
+		this.to = to;
+		this.openMillis = openMillis;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public CircuitBreaker.State getFrom() {
+		return from;
+	}
+
+	public CircuitBreaker.State getTo() {
+		return to;
+	}
+
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreakerEvent [endpoint=" + endpoint + ", from=" + from + ", to=" + to + "]";
+	}
+}
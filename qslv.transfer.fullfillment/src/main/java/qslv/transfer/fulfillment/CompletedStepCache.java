@@ -0,0 +1,244 @@
+package qslv.transfer.fulfillment;
+
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Remembers which transaction service steps of a transfer have completed, keyed by requestUuid,
+ * so a redelivered message resumes at the first step still outstanding instead of repeating POSTs.
+ *
+ * The uuid is held as two longs in a linear-probing table of primitive arrays; lookups allocate
+ * nothing. A ring of keys in insertion order drives eviction: the oldest entry goes when the
+ * cache is full (idempotencyCacheSize) or older than idempotencyCacheMaxAge. The cache is local
+ * to this instance; a transfer redelivered elsewhere relies on the transaction service rejecting
+ * the duplicate requestUuid as before. A size of 0 disables it.
+ * A transfer looks up each of its steps, so hits and misses are counted per step.
+ */
+@Component
+public class CompletedStepCache {
+	public static final int RECORDED = 1;
+	public static final int COMMITTED = 2;
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private LongSupplier clock = System::currentTimeMillis;
+
+	private int capacity;
+	private long maxAge;
+	private int mask;
+	private long[] keyHi;
+	private long[] keyLo;
+	private long[] created;
+	private byte[] steps;
+	private long[] ringHi;
+	private long[] ringLo;
+	private int ringHead;
+	private int size;
+
+	private final Counter[] hits = new Counter[COMMITTED + 1];
+	private final Counter[] misses = new Counter[COMMITTED + 1];
+	private Counter sizeEvictions;
+	private Counter ageEvictions;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	@PostConstruct
+	public void init() {
+		capacity = config.getIdempotencyCacheSize();
+		if (capacity <= 0) {
+			return;
+		}
+		maxAge = config.getIdempotencyCacheMaxAge();
+		// at most half full, which keeps probe sequences short
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		mask = tableSize - 1;
+		keyHi = new long[tableSize];
+		keyLo = new long[tableSize];
+		created = new long[tableSize];
+		steps = new byte[tableSize];
+		ringHi = new long[capacity];
+		ringLo = new long[capacity];
+
+		for (int step : new int[] { RECORDED, COMMITTED }) {
+			String name = step == RECORDED ? "recorded" : "committed";
+			hits[step] = Counter.builder("qslv.idempotency.cache").tag("step", name).tag("result", "hit").register(registry);
+			misses[step] = Counter.builder("qslv.idempotency.cache").tag("step", name).tag("result", "miss").register(registry);
+		}
+		sizeEvictions = Counter.builder("qslv.idempotency.cache.evictions").tag("cause", "size").register(registry);
+		ageEvictions = Counter.builder("qslv.idempotency.cache.evictions").tag("cause", "age").register(registry);
+		Gauge.builder("qslv.idempotency.cache.size", this, CompletedStepCache::size).register(registry);
+	}
+
+	/**
+	 * @return true when the step was recorded for this requestUuid and has not aged out.
+	 */
+	public boolean isCompleted(UUID requestUuid, int step) {
+		if (steps == null || requestUuid == null) {
+			return false;
+		}
+		boolean hit;
+		synchronized (this) {
+			int slot = find(requestUuid.getMostSignificantBits(), requestUuid.getLeastSignificantBits());
+			hit = slot >= 0 && (steps[slot] & step) != 0 && clock.getAsLong() - created[slot] < maxAge;
+		}
+		(hit ? hits : misses)[step].increment();
+		return hit;
+	}
+
+	public synchronized void complete(UUID requestUuid, int step) {
+		if (steps == null || requestUuid == null) {
+			return;
+		}
+		long now = clock.getAsLong();
+		expire(now);
+
+		put(requestUuid.getMostSignificantBits(), requestUuid.getLeastSignificantBits(), now, step);
+	}
+
+	/**
+	 * Re-creates an entry read back from the StepJournal, keeping its original creation time.
+	 * Entries must be restored in the order they were created.
+	 */
+	public synchronized void restore(long hi, long lo, long createdAt, int step) {
+		if (steps == null || clock.getAsLong() - createdAt >= maxAge) {
+			return;
+		}
+		put(hi, lo, createdAt, step);
+	}
+
+	/**
+	 * Visits the live entries oldest first.
+	 */
+	public synchronized void forEachEntry(EntryVisitor visitor) {
+		if (steps == null) {
+			return;
+		}
+		long now = clock.getAsLong();
+		for (int i = 0; i < size; i++) {
+			int index = (ringHead + i) % capacity;
+			int slot = find(ringHi[index], ringLo[index]);
+			if (slot >= 0 && now - created[slot] < maxAge) {
+				visitor.visit(keyHi[slot], keyLo[slot], created[slot], steps[slot]);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private void put(long hi, long lo, long createdAt, int step) {
+		int slot = find(hi, lo);
+		if (slot >= 0) {
+			steps[slot] |= step;
+			return;
+		}
+		if (size == capacity) {
+			evictOldest();
+			sizeEvictions.increment();
+			slot = find(hi, lo);
+		}
+		slot = -1 - slot;
+		keyHi[slot] = hi;
+		keyLo[slot] = lo;
+		created[slot] = createdAt;
+		steps[slot] = (byte) step;
+
+		int tail = (ringHead + size) % capacity;
+		ringHi[tail] = hi;
+		ringLo[tail] = lo;
+		size++;
+	}
+
+	/**
+	 * Entries enter the ring in creation order, so the expired ones are all at its head.
+	 */
+	private void expire(long now) {
+		while (size > 0) {
+			int slot = find(ringHi[ringHead], ringLo[ringHead]);
+			if (slot >= 0 && now - created[slot] < maxAge) {
+				return;
+			}
+			evictOldest();
+			ageEvictions.increment();
+		}
+	}
+
+	private void evictOldest() {
+		int slot = find(ringHi[ringHead], ringLo[ringHead]);
+		if (slot >= 0) {
+			delete(slot);
+		}
+		ringHead = (ringHead + 1) % capacity;
+		size--;
+	}
+
+	/**
+	 * @return the slot holding the key, or -1 - (the empty slot where it would be inserted).
+	 */
+	private int find(long hi, long lo) {
+		int slot = home(hi, lo);
+		while (steps[slot] != 0) {
+			if (keyHi[slot] == hi && keyLo[slot] == lo) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1 - slot;
+	}
+
+	/**
+	 * Backward-shift deletion: later entries of the probe run move into the hole so that
+	 * lookups never stop early at an emptied slot.
+	 */
+	private void delete(int slot) {
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (steps[next] != 0) {
+			int home = home(keyHi[next], keyLo[next]);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keyHi[hole] = keyHi[next];
+				keyLo[hole] = keyLo[next];
+				created[hole] = created[next];
+				steps[hole] = steps[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		steps[hole] = 0;
+	}
+
+	private int home(long hi, long lo) {
+		long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+	public interface EntryVisitor {
+		void visit(long hi, long lo, long created, int steps);
+	}
+}
@@ -1,5 +1,9 @@
 package qslv.transfer.fulfillment;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -7,20 +11,113 @@ import org.springframework.context.annotation.Configuration;
 @ConfigurationProperties(prefix = "qslv")
 public class ConfigProperties {
 
+	public enum ConsumerMode {
+		RECORD,			// one record at a time per partition
+		KEY_ORDERED,	// records dispatched in parallel, ordered per from-account key until one enters a retry tier
+		BATCH,			// whole poll result fanned out per from-account key
+		ASYNC			// like KEY_ORDERED, with non-blocking calls to the transaction service
+	}
+
+	public enum DlqFormat {
+		JSON,			// compact JSON
+		AVRO			// Avro binary, schema from the schema registry
+	}
+
 	private String aitid;
 	private String postTransactionUrl;
 	private String commitReservationUrl;
+	private String bulkTransactionUrl;
+	private String bulkCommitReservationUrl;
+	private int bulkMaxSize = 50;
+	private int bulkLinger = 5;
+	private int bulkFlushThreads = 4;
 	private int restConnectionRequestTimeout = 1000;
 	private int restConnectTimeout = 1000;
 	private int restTimeout = 1000;
 	private int restAttempts = 3;
 	private int restBackoffDelay = 100;
 	private int restBackoffDelayMax = 500; 
+	private double restRetryBudgetRatio = 0.1;
+	private int restRetryBudgetMax = 10;
+	private int restPoolMaxTotal = 200;
+	private int restPoolMaxPerRoute = 50;
+	private int restKeepAlive = 30000;
+	private int restIdleTimeout = 30000;
+	private int restValidateAfterInactivity = 2000;
+	private int restBreakerFailureThreshold = 5;
+	private int restBreakerOpenTime = 5000;
+	private boolean restBreakerPauseConsumer = true;
+	private int restBulkheadMaxConcurrent = 50;
+	private int restBulkheadWait = 100;
+	private boolean restAdaptiveConcurrency = false;
+	private int restAdaptiveInitialLimit = 20;
+	private int restAdaptiveMinLimit = 2;
+	private double restAdaptiveTolerance = 1.5;
+	private int restAdaptiveWindow = 10000;
+	private boolean restHedging = false;
+	private double restHedgePercentile = 0.95;
+	private double restHedgeBudget = 5.0;
+	private int restHedgeMinDelay = 5;
+	private int restHedgeMinSamples = 100;
+	private int restHedgeWindow = 10000;
+	private int restHedgeThreads = 100;
+	private int restAsyncResponseThreads = 4;
+	private TimeUnit restServiceTimeUnit = TimeUnit.NANOSECONDS;
+	private int restBalancerDecay = 10000;
+	private int restOutlierFailures = 5;
+	private int restOutlierEjectTime = 30000;
+	private int restOutlierMaxEjectedPercent = 50;
+	private boolean restAdaptiveTimeout = false;
+	private double restTimeoutMultiple = 3.0;
+	private double restTimeoutPercentile = 0.99;
+	private int restTimeoutFloor = 50;
+	private int restTimeoutMinSamples = 100;
+	private int restTimeoutWindow = 10000;
+	private int transferDeadline = 0;
+	private boolean backpressureEnabled = false;
+	private int backpressureInterval = 1000;
+	private int backpressureMinCalls = 10;
+	private double backpressureErrorRate = 0.5;
+	private int backpressureLatency = 1000;
+	private double backpressureInFlight = 0.9;
+	private double backpressureDlqInFlight = 0.9;
+	private double backpressureResumeRatio = 0.5;
 	private String kafkaTransferRequestQueue;
 	private String kafkaDeadLetterQueue;
+	private String kafkaExpiredQueue;
+	private int kafkaDlqMaxInFlight = 1000;
+	private DlqFormat kafkaDlqFormat = DlqFormat.JSON;
+	private String kafkaDlqSpillPath;
+	private int kafkaDlqSpillSegmentSize = 64 * 1024 * 1024;
+	private long kafkaDlqSpillMaxSize = 1024L * 1024 * 1024;
+	private long kafkaDlqSpillDrainInterval = 5000L;
+	private double dlqReplayRate = 50.0;
+	private int dlqReplayConcurrency = 4;
+	private boolean dlqReplayCli = false;
+	private boolean dlqReplayEndpoint = false;
+	private List<String> kafkaRetryQueues = new ArrayList<>();
+	private List<Long> kafkaRetryDelays = new ArrayList<>();
 	private int kafkaTimeout;
 	private String kafkaConsumerPropertiesPath;
 	private String kafkaProducerPropertiesPath;
+	private int kafkaConcurrency = 1;
+	private int kafkaMaxPollRecords = 500;
+	private boolean kafkaTransactional = false;
+	private String kafkaTransactionIdPrefix = "transfer-fulfillment-tx-";
+	private int kafkaTransactionMaxRollbacks = 3;
+	private boolean kafkaAsyncCommits = false;
+	private int kafkaCommitCount = 500;
+	private long kafkaCommitInterval = 1000L;
+	private ConsumerMode consumerMode = ConsumerMode.RECORD;
+	private int fulfillmentThreads = 16;
+	private boolean fulfillmentVirtualThreads = false;
+	private int fulfillmentMaxInFlight = 500;
+	private int fulfillmentDrainTimeout = 30000;
+	private int idempotencyCacheSize = 100000;
+	private long idempotencyCacheMaxAge = 3600000L;
+	private String stepJournalPath;
+	private int stepJournalSize = 16 * 1024 * 1024;
+	private long stepJournalCompactInterval = 60000L;
 
 	public String getAitid() {
 		return aitid;
@@ -94,6 +191,46 @@ public class ConfigProperties {
 		this.restBackoffDelayMax = restBackoffDelayMax;
 	}
 
+	public int getRestPoolMaxTotal() {
+		return restPoolMaxTotal;
+	}
+
+	public void setRestPoolMaxTotal(int restPoolMaxTotal) {
+		this.restPoolMaxTotal = restPoolMaxTotal;
+	}
+
+	public int getRestPoolMaxPerRoute() {
+		return restPoolMaxPerRoute;
+	}
+
+	public void setRestPoolMaxPerRoute(int restPoolMaxPerRoute) {
+		this.restPoolMaxPerRoute = restPoolMaxPerRoute;
+	}
+
+	public int getRestKeepAlive() {
+		return restKeepAlive;
+	}
+
+	public void setRestKeepAlive(int restKeepAlive) {
+		this.restKeepAlive = restKeepAlive;
+	}
+
+	public int getRestIdleTimeout() {
+		return restIdleTimeout;
+	}
+
+	public void setRestIdleTimeout(int restIdleTimeout) {
+		this.restIdleTimeout = restIdleTimeout;
+	}
+
+	public int getRestValidateAfterInactivity() {
+		return restValidateAfterInactivity;
+	}
+
+	public void setRestValidateAfterInactivity(int restValidateAfterInactivity) {
+		this.restValidateAfterInactivity = restValidateAfterInactivity;
+	}
+
 	public String getKafkaTransferRequestQueue() {
 		return kafkaTransferRequestQueue;
 	}
@@ -110,6 +247,22 @@ public class ConfigProperties {
 		this.kafkaDeadLetterQueue = kafkaDeadLetterQueue;
 	}
 
+	public List<String> getKafkaRetryQueues() {
+		return kafkaRetryQueues;
+	}
+
+	public void setKafkaRetryQueues(List<String> kafkaRetryQueues) {
+		this.kafkaRetryQueues = kafkaRetryQueues;
+	}
+
+	public List<Long> getKafkaRetryDelays() {
+		return kafkaRetryDelays;
+	}
+
+	public void setKafkaRetryDelays(List<Long> kafkaRetryDelays) {
+		this.kafkaRetryDelays = kafkaRetryDelays;
+	}
+
 	public String getKafkaConsumerPropertiesPath() {
 		return kafkaConsumerPropertiesPath;
 	}
@@ -133,5 +286,597 @@ public class ConfigProperties {
 	public void setKafkaTimeout(int kafkaTimeout) {
 		this.kafkaTimeout = kafkaTimeout;
 	}
-	
+
+	public int getKafkaConcurrency() {
+		return kafkaConcurrency;
+	}
+
+	public void setKafkaConcurrency(int kafkaConcurrency) {
+		this.kafkaConcurrency = kafkaConcurrency;
+	}
+
+	public int getKafkaMaxPollRecords() {
+		return kafkaMaxPollRecords;
+	}
+
+	public void setKafkaMaxPollRecords(int kafkaMaxPollRecords) {
+		this.kafkaMaxPollRecords = kafkaMaxPollRecords;
+	}
+
+	public ConsumerMode getConsumerMode() {
+		return consumerMode;
+	}
+
+	public void setConsumerMode(ConsumerMode consumerMode) {
+		this.consumerMode = consumerMode;
+	}
+
+	public int getFulfillmentThreads() {
+		return fulfillmentThreads;
+	}
+
+	public void setFulfillmentThreads(int fulfillmentThreads) {
+		this.fulfillmentThreads = fulfillmentThreads;
+	}
+
+	public boolean isFulfillmentVirtualThreads() {
+		return fulfillmentVirtualThreads;
+	}
+
+	public void setFulfillmentVirtualThreads(boolean fulfillmentVirtualThreads) {
+		this.fulfillmentVirtualThreads = fulfillmentVirtualThreads;
+	}
+
+	public int getFulfillmentMaxInFlight() {
+		return fulfillmentMaxInFlight;
+	}
+
+	public void setFulfillmentMaxInFlight(int fulfillmentMaxInFlight) {
+		this.fulfillmentMaxInFlight = fulfillmentMaxInFlight;
+	}
+
+	public int getFulfillmentDrainTimeout() {
+		return fulfillmentDrainTimeout;
+	}
+
+	public void setFulfillmentDrainTimeout(int fulfillmentDrainTimeout) {
+		this.fulfillmentDrainTimeout = fulfillmentDrainTimeout;
+	}
+
+	public int getIdempotencyCacheSize() {
+		return idempotencyCacheSize;
+	}
+
+	public void setIdempotencyCacheSize(int idempotencyCacheSize) {
+		this.idempotencyCacheSize = idempotencyCacheSize;
+	}
+
+	public long getIdempotencyCacheMaxAge() {
+		return idempotencyCacheMaxAge;
+	}
+
+	public void setIdempotencyCacheMaxAge(long idempotencyCacheMaxAge) {
+		this.idempotencyCacheMaxAge = idempotencyCacheMaxAge;
+	}
+
+	public String getStepJournalPath() {
+		return stepJournalPath;
+	}
+
+	public void setStepJournalPath(String stepJournalPath) {
+		this.stepJournalPath = stepJournalPath;
+	}
+
+	public int getStepJournalSize() {
+		return stepJournalSize;
+	}
+
+	public void setStepJournalSize(int stepJournalSize) {
+		this.stepJournalSize = stepJournalSize;
+	}
+
+	public long getStepJournalCompactInterval() {
+		return stepJournalCompactInterval;
+	}
+
+	public void setStepJournalCompactInterval(long stepJournalCompactInterval) {
+		this.stepJournalCompactInterval = stepJournalCompactInterval;
+	}
+
+	public String getBulkTransactionUrl() {
+		return bulkTransactionUrl;
+	}
+
+	public void setBulkTransactionUrl(String bulkTransactionUrl) {
+		this.bulkTransactionUrl = bulkTransactionUrl;
+	}
+
+	public String getBulkCommitReservationUrl() {
+		return bulkCommitReservationUrl;
+	}
+
+	public void setBulkCommitReservationUrl(String bulkCommitReservationUrl) {
+		this.bulkCommitReservationUrl = bulkCommitReservationUrl;
+	}
+
+	public int getBulkMaxSize() {
+		return bulkMaxSize;
+	}
+
+	public void setBulkMaxSize(int bulkMaxSize) {
+		this.bulkMaxSize = bulkMaxSize;
+	}
+
+	public int getBulkLinger() {
+		return bulkLinger;
+	}
+
+	public void setBulkLinger(int bulkLinger) {
+		this.bulkLinger = bulkLinger;
+	}
+
+	public int getBulkFlushThreads() {
+		return bulkFlushThreads;
+	}
+
+	public void setBulkFlushThreads(int bulkFlushThreads) {
+		this.bulkFlushThreads = bulkFlushThreads;
+	}
+
+	public int getKafkaDlqMaxInFlight() {
+		return kafkaDlqMaxInFlight;
+	}
+
+	public void setKafkaDlqMaxInFlight(int kafkaDlqMaxInFlight) {
+		this.kafkaDlqMaxInFlight = kafkaDlqMaxInFlight;
+	}
+
+	public DlqFormat getKafkaDlqFormat() {
+		return kafkaDlqFormat;
+	}
+
+	public void setKafkaDlqFormat(DlqFormat kafkaDlqFormat) {
+		this.kafkaDlqFormat = kafkaDlqFormat;
+	}
+
+	public String getKafkaDlqSpillPath() {
+		return kafkaDlqSpillPath;
+	}
+
+	public void setKafkaDlqSpillPath(String kafkaDlqSpillPath) {
+		this.kafkaDlqSpillPath = kafkaDlqSpillPath;
+	}
+
+	public int getKafkaDlqSpillSegmentSize() {
+		return kafkaDlqSpillSegmentSize;
+	}
+
+	public void setKafkaDlqSpillSegmentSize(int kafkaDlqSpillSegmentSize) {
+		this.kafkaDlqSpillSegmentSize = kafkaDlqSpillSegmentSize;
+	}
+
+	public long getKafkaDlqSpillMaxSize() {
+		return kafkaDlqSpillMaxSize;
+	}
+
+	public void setKafkaDlqSpillMaxSize(long kafkaDlqSpillMaxSize) {
+		this.kafkaDlqSpillMaxSize = kafkaDlqSpillMaxSize;
+	}
+
+	public long getKafkaDlqSpillDrainInterval() {
+		return kafkaDlqSpillDrainInterval;
+	}
+
+	public void setKafkaDlqSpillDrainInterval(long kafkaDlqSpillDrainInterval) {
+		this.kafkaDlqSpillDrainInterval = kafkaDlqSpillDrainInterval;
+	}
+
+	public double getDlqReplayRate() {
+		return dlqReplayRate;
+	}
+
+	public void setDlqReplayRate(double dlqReplayRate) {
+		this.dlqReplayRate = dlqReplayRate;
+	}
+
+	public int getDlqReplayConcurrency() {
+		return dlqReplayConcurrency;
+	}
+
+	public void setDlqReplayConcurrency(int dlqReplayConcurrency) {
+		this.dlqReplayConcurrency = dlqReplayConcurrency;
+	}
+
+	public boolean isDlqReplayCli() {
+		return dlqReplayCli;
+	}
+
+	public void setDlqReplayCli(boolean dlqReplayCli) {
+		this.dlqReplayCli = dlqReplayCli;
+	}
+
+	public boolean isKafkaTransactional() {
+		return kafkaTransactional;
+	}
+
+	public void setKafkaTransactional(boolean kafkaTransactional) {
+		this.kafkaTransactional = kafkaTransactional;
+	}
+
+	public String getKafkaTransactionIdPrefix() {
+		return kafkaTransactionIdPrefix;
+	}
+
+	public void setKafkaTransactionIdPrefix(String kafkaTransactionIdPrefix) {
+		this.kafkaTransactionIdPrefix = kafkaTransactionIdPrefix;
+	}
+
+	public boolean isKafkaAsyncCommits() {
+		return kafkaAsyncCommits;
+	}
+
+	public void setKafkaAsyncCommits(boolean kafkaAsyncCommits) {
+		this.kafkaAsyncCommits = kafkaAsyncCommits;
+	}
+
+	public int getKafkaCommitCount() {
+		return kafkaCommitCount;
+	}
+
+	public void setKafkaCommitCount(int kafkaCommitCount) {
+		this.kafkaCommitCount = kafkaCommitCount;
+	}
+
+	public long getKafkaCommitInterval() {
+		return kafkaCommitInterval;
+	}
+
+	public void setKafkaCommitInterval(long kafkaCommitInterval) {
+		this.kafkaCommitInterval = kafkaCommitInterval;
+	}
+
+	public int getRestBreakerFailureThreshold() {
+		return restBreakerFailureThreshold;
+	}
+
+	public void setRestBreakerFailureThreshold(int restBreakerFailureThreshold) {
+		this.restBreakerFailureThreshold = restBreakerFailureThreshold;
+	}
+
+	public int getRestBreakerOpenTime() {
+		return restBreakerOpenTime;
+	}
+
+	public void setRestBreakerOpenTime(int restBreakerOpenTime) {
+		this.restBreakerOpenTime = restBreakerOpenTime;
+	}
+
+	public boolean isRestBreakerPauseConsumer() {
+		return restBreakerPauseConsumer;
+	}
+
+	public void setRestBreakerPauseConsumer(boolean restBreakerPauseConsumer) {
+		this.restBreakerPauseConsumer = restBreakerPauseConsumer;
+	}
+
+	public int getRestBulkheadMaxConcurrent() {
+		return restBulkheadMaxConcurrent;
+	}
+
+	public void setRestBulkheadMaxConcurrent(int restBulkheadMaxConcurrent) {
+		this.restBulkheadMaxConcurrent = restBulkheadMaxConcurrent;
+	}
+
+	public int getRestBulkheadWait() {
+		return restBulkheadWait;
+	}
+
+	public void setRestBulkheadWait(int restBulkheadWait) {
+		this.restBulkheadWait = restBulkheadWait;
+	}
+
+	public boolean isBackpressureEnabled() {
+		return backpressureEnabled;
+	}
+
+	public void setBackpressureEnabled(boolean backpressureEnabled) {
+		this.backpressureEnabled = backpressureEnabled;
+	}
+
+	public int getBackpressureInterval() {
+		return backpressureInterval;
+	}
+
+	public void setBackpressureInterval(int backpressureInterval) {
+		this.backpressureInterval = backpressureInterval;
+	}
+
+	public int getBackpressureMinCalls() {
+		return backpressureMinCalls;
+	}
+
+	public void setBackpressureMinCalls(int backpressureMinCalls) {
+		this.backpressureMinCalls = backpressureMinCalls;
+	}
+
+	public double getBackpressureErrorRate() {
+		return backpressureErrorRate;
+	}
+
+	public void setBackpressureErrorRate(double backpressureErrorRate) {
+		this.backpressureErrorRate = backpressureErrorRate;
+	}
+
+	public int getBackpressureLatency() {
+		return backpressureLatency;
+	}
+
+	public void setBackpressureLatency(int backpressureLatency) {
+		this.backpressureLatency = backpressureLatency;
+	}
+
+	public double getBackpressureInFlight() {
+		return backpressureInFlight;
+	}
+
+	public void setBackpressureInFlight(double backpressureInFlight) {
+		this.backpressureInFlight = backpressureInFlight;
+	}
+
+	public double getBackpressureDlqInFlight() {
+		return backpressureDlqInFlight;
+	}
+
+	public void setBackpressureDlqInFlight(double backpressureDlqInFlight) {
+		this.backpressureDlqInFlight = backpressureDlqInFlight;
+	}
+
+	public double getBackpressureResumeRatio() {
+		return backpressureResumeRatio;
+	}
+
+	public void setBackpressureResumeRatio(double backpressureResumeRatio) {
+		this.backpressureResumeRatio = backpressureResumeRatio;
+	}
+
+	public boolean isRestAdaptiveConcurrency() {
+		return restAdaptiveConcurrency;
+	}
+
+	public void setRestAdaptiveConcurrency(boolean restAdaptiveConcurrency) {
+		this.restAdaptiveConcurrency = restAdaptiveConcurrency;
+	}
+
+	public int getRestAdaptiveInitialLimit() {
+		return restAdaptiveInitialLimit;
+	}
+
+	public void setRestAdaptiveInitialLimit(int restAdaptiveInitialLimit) {
+		this.restAdaptiveInitialLimit = restAdaptiveInitialLimit;
+	}
+
+	public int getRestAdaptiveMinLimit() {
+		return restAdaptiveMinLimit;
+	}
+
+	public void setRestAdaptiveMinLimit(int restAdaptiveMinLimit) {
+		this.restAdaptiveMinLimit = restAdaptiveMinLimit;
+	}
+
+	public double getRestAdaptiveTolerance() {
+		return restAdaptiveTolerance;
+	}
+
+	public void setRestAdaptiveTolerance(double restAdaptiveTolerance) {
+		this.restAdaptiveTolerance = restAdaptiveTolerance;
+	}
+
+	public int getRestAdaptiveWindow() {
+		return restAdaptiveWindow;
+	}
+
+	public void setRestAdaptiveWindow(int restAdaptiveWindow) {
+		this.restAdaptiveWindow = restAdaptiveWindow;
+	}
+
+	public boolean isRestHedging() {
+		return restHedging;
+	}
+
+	public void setRestHedging(boolean restHedging) {
+		this.restHedging = restHedging;
+	}
+
+	public double getRestHedgePercentile() {
+		return restHedgePercentile;
+	}
+
+	public void setRestHedgePercentile(double restHedgePercentile) {
+		this.restHedgePercentile = restHedgePercentile;
+	}
+
+	public double getRestHedgeBudget() {
+		return restHedgeBudget;
+	}
+
+	public void setRestHedgeBudget(double restHedgeBudget) {
+		this.restHedgeBudget = restHedgeBudget;
+	}
+
+	public int getRestHedgeMinDelay() {
+		return restHedgeMinDelay;
+	}
+
+	public void setRestHedgeMinDelay(int restHedgeMinDelay) {
+		this.restHedgeMinDelay = restHedgeMinDelay;
+	}
+
+	public int getRestHedgeMinSamples() {
+		return restHedgeMinSamples;
+	}
+
+	public void setRestHedgeMinSamples(int restHedgeMinSamples) {
+		this.restHedgeMinSamples = restHedgeMinSamples;
+	}
+
+	public int getRestHedgeWindow() {
+		return restHedgeWindow;
+	}
+
+	public void setRestHedgeWindow(int restHedgeWindow) {
+		this.restHedgeWindow = restHedgeWindow;
+	}
+
+	public int getRestBalancerDecay() {
+		return restBalancerDecay;
+	}
+
+	public void setRestBalancerDecay(int restBalancerDecay) {
+		this.restBalancerDecay = restBalancerDecay;
+	}
+
+	public int getRestOutlierFailures() {
+		return restOutlierFailures;
+	}
+
+	public void setRestOutlierFailures(int restOutlierFailures) {
+		this.restOutlierFailures = restOutlierFailures;
+	}
+
+	public int getRestOutlierEjectTime() {
+		return restOutlierEjectTime;
+	}
+
+	public void setRestOutlierEjectTime(int restOutlierEjectTime) {
+		this.restOutlierEjectTime = restOutlierEjectTime;
+	}
+
+	public int getRestOutlierMaxEjectedPercent() {
+		return restOutlierMaxEjectedPercent;
+	}
+
+	public void setRestOutlierMaxEjectedPercent(int restOutlierMaxEjectedPercent) {
+		this.restOutlierMaxEjectedPercent = restOutlierMaxEjectedPercent;
+	}
+
+	public double getRestTimeoutMultiple() {
+		return restTimeoutMultiple;
+	}
+
+	public void setRestTimeoutMultiple(double restTimeoutMultiple) {
+		this.restTimeoutMultiple = restTimeoutMultiple;
+	}
+
+	public double getRestTimeoutPercentile() {
+		return restTimeoutPercentile;
+	}
+
+	public void setRestTimeoutPercentile(double restTimeoutPercentile) {
+		this.restTimeoutPercentile = restTimeoutPercentile;
+	}
+
+	public int getRestTimeoutFloor() {
+		return restTimeoutFloor;
+	}
+
+	public void setRestTimeoutFloor(int restTimeoutFloor) {
+		this.restTimeoutFloor = restTimeoutFloor;
+	}
+
+	public int getRestTimeoutMinSamples() {
+		return restTimeoutMinSamples;
+	}
+
+	public void setRestTimeoutMinSamples(int restTimeoutMinSamples) {
+		this.restTimeoutMinSamples = restTimeoutMinSamples;
+	}
+
+	public int getRestTimeoutWindow() {
+		return restTimeoutWindow;
+	}
+
+	public void setRestTimeoutWindow(int restTimeoutWindow) {
+		this.restTimeoutWindow = restTimeoutWindow;
+	}
+
+	public boolean isRestAdaptiveTimeout() {
+		return restAdaptiveTimeout;
+	}
+
+	public void setRestAdaptiveTimeout(boolean restAdaptiveTimeout) {
+		this.restAdaptiveTimeout = restAdaptiveTimeout;
+	}
+
+	public double getRestRetryBudgetRatio() {
+		return restRetryBudgetRatio;
+	}
+
+	public void setRestRetryBudgetRatio(double restRetryBudgetRatio) {
+		this.restRetryBudgetRatio = restRetryBudgetRatio;
+	}
+
+	public int getRestRetryBudgetMax() {
+		return restRetryBudgetMax;
+	}
+
+	public void setRestRetryBudgetMax(int restRetryBudgetMax) {
+		this.restRetryBudgetMax = restRetryBudgetMax;
+	}
+
+	public int getTransferDeadline() {
+		return transferDeadline;
+	}
+
+	public void setTransferDeadline(int transferDeadline) {
+		this.transferDeadline = transferDeadline;
+	}
+
+	public String getKafkaExpiredQueue() {
+		return kafkaExpiredQueue;
+	}
+
+	public void setKafkaExpiredQueue(String kafkaExpiredQueue) {
+		this.kafkaExpiredQueue = kafkaExpiredQueue;
+	}
+
+	public int getKafkaTransactionMaxRollbacks() {
+		return kafkaTransactionMaxRollbacks;
+	}
+
+	public void setKafkaTransactionMaxRollbacks(int kafkaTransactionMaxRollbacks) {
+		this.kafkaTransactionMaxRollbacks = kafkaTransactionMaxRollbacks;
+	}
+
+	public int getRestHedgeThreads() {
+		return restHedgeThreads;
+	}
+
+	public void setRestHedgeThreads(int restHedgeThreads) {
+		this.restHedgeThreads = restHedgeThreads;
+	}
+
+	public int getRestAsyncResponseThreads() {
+		return restAsyncResponseThreads;
+	}
+
+	public void setRestAsyncResponseThreads(int restAsyncResponseThreads) {
+		this.restAsyncResponseThreads = restAsyncResponseThreads;
+	}
+
+	public TimeUnit getRestServiceTimeUnit() {
+		return restServiceTimeUnit;
+	}
+
+	public void setRestServiceTimeUnit(TimeUnit restServiceTimeUnit) {
+		this.restServiceTimeUnit = restServiceTimeUnit;
+	}
+
+	public boolean isDlqReplayEndpoint() {
+		return dlqReplayEndpoint;
+	}
+
+	public void setDlqReplayEndpoint(boolean dlqReplayEndpoint) {
+		this.dlqReplayEndpoint = dlqReplayEndpoint;
+	}
+
 }
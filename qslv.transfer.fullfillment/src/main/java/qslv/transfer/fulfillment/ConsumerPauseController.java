@@ -0,0 +1,140 @@
+package qslv.transfer.fulfillment;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Pauses every listener container while at least one reason to pause is set. A paused consumer
+ * keeps polling without fetching, so it keeps its partitions and its heartbeat and no rebalance
+ * is triggered.
+ *
+ * A transaction service circuit that opens sets the CIRCUIT reason, so consumers stop fetching
+ * records that could only fail fast. It is cleared when the open time has passed; the next record
+ * is the half-open probe, and if it fails the circuit opens and the consumers pause again. The
+ * BackpressureController sets and clears its own reason.
+ */
+@Component
+public class ConsumerPauseController {
+	private static final Logger log = LoggerFactory.getLogger(ConsumerPauseController.class);
+	public static final String CIRCUIT = "circuit";
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private KafkaListenerEndpointRegistry registry;
+	@Autowired
+	private KafkaRetryListener kafkaRetryListener;
+
+	private MeterRegistry meterRegistry = Metrics.globalRegistry;
+	private ScheduledExecutorService scheduler;
+	private long resumeAt;
+	private final Set<String> reasons = new HashSet<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(KafkaListenerEndpointRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setKafkaRetryListener(KafkaRetryListener kafkaRetryListener) {
+		this.kafkaRetryListener = kafkaRetryListener;
+	}
+
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@PostConstruct
+	public void init() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "consumer-resume");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Gauge.builder("qslv.kafka.consumer.paused", this, c -> c.isPaused() ? 1 : 0).register(meterRegistry);
+	}
+
+	@PreDestroy
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	@EventListener
+	public void onCircuitBreakerEvent(CircuitBreakerEvent event) {
+		if (!config.isRestBreakerPauseConsumer() || event.getTo() != CircuitBreaker.State.OPEN) {
+			return;
+		}
+		synchronized (this) {
+			resumeAt = Math.max(resumeAt, System.currentTimeMillis() + event.getOpenMillis());
+		}
+		pause(CIRCUIT);
+		scheduler.schedule(this::resumeIfDue, event.getOpenMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private void resumeIfDue() {
+		synchronized (this) {
+			// another circuit opened later and is still open
+			if (System.currentTimeMillis() < resumeAt) {
+				return;
+			}
+		}
+		resume(CIRCUIT);
+	}
+
+	public synchronized void pause(String reason) {
+		if (reasons.add(reason) && reasons.size() == 1) {
+			log.warn("Pausing consumers. {}", reason);
+			setPaused(true);
+		}
+	}
+
+	public synchronized void resume(String reason) {
+		if (reasons.remove(reason) && reasons.isEmpty()) {
+			log.warn("Resuming consumers. {}", reason);
+			setPaused(false);
+		}
+	}
+
+	public synchronized boolean isPaused() {
+		return !reasons.isEmpty();
+	}
+
+	public synchronized boolean isPaused(String reason) {
+		return reasons.contains(reason);
+	}
+
+	private void setPaused(boolean paused) {
+		for (MessageListenerContainer container : registry.getListenerContainers()) {
+			if (paused) {
+				container.pause();
+			} else {
+				container.resume();
+			}
+		}
+		if (paused) {
+			kafkaRetryListener.pause();
+		} else {
+			kafkaRetryListener.resume();
+		}
+	}
+}
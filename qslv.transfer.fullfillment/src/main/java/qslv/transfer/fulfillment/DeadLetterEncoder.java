@@ -0,0 +1,79 @@
+package qslv.transfer.fulfillment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import qslv.common.kafka.JacksonAvroSerializer;
+import qslv.transfer.response.TransferFulfillmentDeadLetter;
+
+/**
+ * Encodes dead letters in the configured DLQ wire format, straight to bytes. JSON is compact and
+ * written through one cached ObjectWriter; AVRO goes through the JacksonAvroSerializer, whose
+ * payload carries the schema registry id of the writer schema. Every record is tagged with its
+ * format and the dead letter schema version so DLQ readers can handle old and new records alike.
+ */
+@Component
+public class DeadLetterEncoder {
+	public static final String FORMAT_HEADER = "qslv-dlq-format";
+	public static final String SCHEMA_VERSION_HEADER = "qslv-dlq-schema-version";
+	public static final String SCHEMA_VERSION = "1.0";	// bump when TransferFulfillmentDeadLetter changes shape
+	private static final byte[] SCHEMA_VERSION_BYTES = SCHEMA_VERSION.getBytes(StandardCharsets.UTF_8);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Resource(name="producerConfig")
+	private Map<String,Object> producerConfig;
+
+	private ObjectWriter jsonWriter;
+	private Serializer<TransferFulfillmentDeadLetter> avroSerializer;
+	private byte[] formatBytes;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setObjectMapper(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public void setProducerConfig(Map<String, Object> producerConfig) {
+		this.producerConfig = producerConfig;
+	}
+
+	@PostConstruct
+	public void init() {
+		jsonWriter = objectMapper.writerFor(TransferFulfillmentDeadLetter.class);
+		if (config.getKafkaDlqFormat() == ConfigProperties.DlqFormat.AVRO) {
+			JacksonAvroSerializer<TransferFulfillmentDeadLetter> jas = new JacksonAvroSerializer<>();
+			jas.configure(producerConfig);
+			avroSerializer = jas;
+		}
+		formatBytes = config.getKafkaDlqFormat().name().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @throws JsonProcessingException JSON encoding failed.
+	 * @throws org.apache.kafka.common.errors.SerializationException AVRO encoding failed.
+	 */
+	public ProducerRecord<String, byte[]> encode(String topic, String key, TransferFulfillmentDeadLetter message) throws JsonProcessingException {
+		byte[] value = (avroSerializer == null) ? jsonWriter.writeValueAsBytes(message) : avroSerializer.serialize(topic, message);
+		ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key, value);
+		record.headers().add(FORMAT_HEADER, formatBytes);
+		record.headers().add(SCHEMA_VERSION_HEADER, SCHEMA_VERSION_BYTES);
+		return record;
+	}
+}
@@ -0,0 +1,121 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Sends dead letters without blocking the caller. A send that fails transiently is sent again
+ * after kafkaTimeout until the broker takes it, the asynchronous counterpart of nacking the
+ * source record. The returned future completes only once the dead letter is confirmed, so the
+ * source offset is never acknowledged before that. With kafkaDlqMaxInFlight sends outstanding,
+ * publish() blocks, which pushes back on the consumer.
+ */
+@Component
+public class DeadLetterPublisher {
+	private static final Logger log = LoggerFactory.getLogger(DeadLetterPublisher.class);
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private Semaphore inFlight;
+	private ScheduledExecutorService scheduler;
+	private Counter resends;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@PostConstruct
+	public void init() {
+		inFlight = new Semaphore(config.getKafkaDlqMaxInFlight());
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dlq-resend");
+			thread.setDaemon(true);
+			return thread;
+		});
+		resends = Counter.builder("qslv.dlq.resends").register(registry);
+		Gauge.builder("qslv.dlq.in.flight", this, p -> config.getKafkaDlqMaxInFlight() - p.inFlight.availablePermits())
+				.register(registry);
+	}
+
+	@PreDestroy
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	public int getInFlight() {
+		return config.getKafkaDlqMaxInFlight() - inFlight.availablePermits();
+	}
+
+	/**
+	 * @param send starts one send attempt. Called again for each resend.
+	 * @return completes when a send succeeded, or exceptionally on a non-transient failure.
+	 */
+	public CompletableFuture<Void> publish(Supplier<CompletableFuture<Void>> send) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			result.completeExceptionally(new TransientDataAccessResourceException("Interrupted waiting to send to DLQ.", ex));
+			return result;
+		}
+		result.whenComplete((v, ex) -> inFlight.release());
+		attempt(send, result);
+		return result;
+	}
+
+	private void attempt(Supplier<CompletableFuture<Void>> send, CompletableFuture<Void> result) {
+		CompletableFuture<Void> sent;
+		try {
+			sent = send.get();
+		} catch (RuntimeException ex) {
+			sent = new CompletableFuture<>();
+			sent.completeExceptionally(ex);
+		}
+		sent.whenComplete((v, throwable) -> {
+			if (throwable == null) {
+				result.complete(null);
+				return;
+			}
+			Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+			if (!(cause instanceof TransientDataAccessException)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			log.warn("DLQ send failed. Sending again in {} ms. {}", config.getKafkaTimeout(), cause.getLocalizedMessage());
+			resends.increment();
+			try {
+				scheduler.schedule(() -> attempt(send, result), config.getKafkaTimeout(), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ex) {
+				result.completeExceptionally(cause);
+			}
+		});
+	}
+}
@@ -0,0 +1,71 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Admin endpoint for DlqReplayService. POST validates the request and starts the replay on its
+ * own thread, answering 202 at once, 400 for an invalid request and 409 while another replay
+ * runs. GET answers 202 while the last replay runs, then its report, so no request lasts as long
+ * as the replay.
+ *
+ * A replay moves money and the endpoint has no authentication of its own, so the controller only
+ * exists with dlqReplayEndpoint set, which is off by default. Turn it on only where the port is
+ * reachable by operators alone; the --replay-dlq command line mode needs no endpoint.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "qslv", name = "dlq-replay-endpoint", havingValue = "true")
+public class DlqReplayController {
+	private static final Logger log = LoggerFactory.getLogger(DlqReplayController.class);
+	static final String PATH = "/admin/dlq-replay";
+
+	@Autowired
+	private DlqReplayService dlqReplayService;
+
+	public void setDlqReplayService(DlqReplayService dlqReplayService) {
+		this.dlqReplayService = dlqReplayService;
+	}
+
+	@PostMapping(PATH)
+	public ResponseEntity<String> replay(@RequestBody(required = false) DlqReplayRequest request) {
+		log.warn("DLQ replay requested. {}", request);
+		try {
+			dlqReplayService.start(request == null ? new DlqReplayRequest() : request);
+			return ResponseEntity.status(HttpStatus.ACCEPTED).header("Location", PATH).build();
+		} catch (IllegalArgumentException ex) {
+			log.warn(ex.getLocalizedMessage());
+			return ResponseEntity.badRequest().body(ex.getLocalizedMessage());
+		} catch (IllegalStateException ex) {
+			log.warn(ex.getLocalizedMessage());
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getLocalizedMessage());
+		}
+	}
+
+	@GetMapping(PATH)
+	public ResponseEntity<DlqReplayReport> status() throws InterruptedException {
+		CompletableFuture<DlqReplayReport> replay = dlqReplayService.getLastReplay();
+		if (replay == null) {
+			return ResponseEntity.notFound().build();
+		}
+		if (!replay.isDone()) {
+			return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+		}
+		try {
+			return ResponseEntity.ok(replay.get());
+		} catch (ExecutionException ex) {
+			// the cause is logged by the replay thread
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package qslv.transfer.fulfillment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of a DLQ replay, with one result per record in the order the records were read.
+ */
+public class DlqReplayReport {
+	private long replayed;
+	private long succeeded;
+	private long failed;
+	private long skipped;
+	private long elapsedMillis;
+	private List<DlqReplayResult> results = new ArrayList<>();
+
+	public long getReplayed() {
+		return replayed;
+	}
+
+	public void setReplayed(long replayed) {
+		this.replayed = replayed;
+	}
+
+	public long getSucceeded() {
+		return succeeded;
+	}
+
+	public void setSucceeded(long succeeded) {
+		this.succeeded = succeeded;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(long skipped) {
+		this.skipped = skipped;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public List<DlqReplayResult> getResults() {
+		return results;
+	}
+
+	public void setResults(List<DlqReplayResult> results) {
+		this.results = results;
+	}
+}
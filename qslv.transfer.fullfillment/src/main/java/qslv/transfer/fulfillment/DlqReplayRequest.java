@@ -0,0 +1,72 @@
+package qslv.transfer.fulfillment;
+
+import java.time.Instant;
+
+/**
+ * Where a DLQ replay starts and how hard it may push. Unset fields fall back to the
+ * beginning of the topic, every record up to the end offsets at the start of the replay, and
+ * the configured dlqReplayRate and dlqReplayConcurrency. fromOffset is an offset within partition
+ * and needs it set; fromTime applies to every partition replayed.
+ */
+public class DlqReplayRequest {
+	private Integer partition;
+	private Long fromOffset;
+	private Instant fromTime;
+	private Integer maxRecords;
+	private Double rate;
+	private Integer concurrency;
+
+	public Integer getPartition() {
+		return partition;
+	}
+
+	public void setPartition(Integer partition) {
+		this.partition = partition;
+	}
+
+	public Long getFromOffset() {
+		return fromOffset;
+	}
+
+	public void setFromOffset(Long fromOffset) {
+		this.fromOffset = fromOffset;
+	}
+
+	public Instant getFromTime() {
+		return fromTime;
+	}
+
+	public void setFromTime(Instant fromTime) {
+		this.fromTime = fromTime;
+	}
+
+	public Integer getMaxRecords() {
+		return maxRecords;
+	}
+
+	public void setMaxRecords(Integer maxRecords) {
+		this.maxRecords = maxRecords;
+	}
+
+	public Double getRate() {
+		return rate;
+	}
+
+	public void setRate(Double rate) {
+		this.rate = rate;
+	}
+
+	public Integer getConcurrency() {
+		return concurrency;
+	}
+
+	public void setConcurrency(Integer concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("partition=%s fromOffset=%s fromTime=%s maxRecords=%s rate=%s concurrency=%s",
+				partition, fromOffset, fromTime, maxRecords, rate, concurrency);
+	}
+}
@@ -0,0 +1,68 @@
+package qslv.transfer.fulfillment;
+
+import java.util.UUID;
+
+/**
+ * Outcome of replaying one DLQ record.
+ */
+public class DlqReplayResult {
+	public enum Status {
+		SUCCEEDED,		// transfer completed
+		FAILED,			// transferFunds threw; the record stays on the DLQ
+		SKIPPED			// not a readable dead letter
+	}
+
+	private int partition;
+	private long offset;
+	private UUID requestUuid;
+	private Status status;
+	private String message;
+
+	public DlqReplayResult() {
+	}
+
+	public DlqReplayResult(int partition, long offset) {
+		this.partition = partition;
+		this.offset = offset;
+	}
+
+	public int getPartition() {
+		return partition;
+	}
+
+	public void setPartition(int partition) {
+		this.partition = partition;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	public UUID getRequestUuid() {
+		return requestUuid;
+	}
+
+	public void setRequestUuid(UUID requestUuid) {
+		this.requestUuid = requestUuid;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+}
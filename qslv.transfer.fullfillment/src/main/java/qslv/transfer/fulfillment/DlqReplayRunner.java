@@ -0,0 +1,77 @@
+package qslv.transfer.fulfillment;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Command line mode: start with --replay-dlq and the application replays the DLQ once, logs the
+ * report and exits, non-zero if any record failed. The listeners stay stopped in this mode.
+ * Options: --partition --from-offset --from-time (ISO instant) --max-records --rate --concurrency
+ */
+@Component
+public class DlqReplayRunner implements ApplicationRunner {
+	private static final Logger log = LoggerFactory.getLogger(DlqReplayRunner.class);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private DlqReplayService dlqReplayService;
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setDlqReplayService(DlqReplayService dlqReplayService) {
+		this.dlqReplayService = dlqReplayService;
+	}
+
+	public void setContext(ConfigurableApplicationContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if (!config.isDlqReplayCli()) {
+			return;
+		}
+		DlqReplayRequest request = parse(args);
+		log.warn("DLQ replay from the command line. {}", request);
+		DlqReplayReport report = dlqReplayService.replay(request);
+		for (DlqReplayResult result : report.getResults()) {
+			if (result.getStatus() != DlqReplayResult.Status.SUCCEEDED) {
+				log.error("{}-{} {} {} {}", result.getPartition(), result.getOffset(), result.getRequestUuid(),
+						result.getStatus(), result.getMessage());
+			}
+		}
+		final int exitCode = report.getFailed() > 0 ? 1 : 0;
+		System.exit(SpringApplication.exit(context, () -> exitCode));
+	}
+
+	static DlqReplayRequest parse(ApplicationArguments args) {
+		DlqReplayRequest request = new DlqReplayRequest();
+		String value;
+		if ((value = option(args, "partition")) != null) request.setPartition(Integer.valueOf(value));
+		if ((value = option(args, "from-offset")) != null) request.setFromOffset(Long.valueOf(value));
+		if ((value = option(args, "from-time")) != null) request.setFromTime(Instant.parse(value));
+		if ((value = option(args, "max-records")) != null) request.setMaxRecords(Integer.valueOf(value));
+		if ((value = option(args, "rate")) != null) request.setRate(Double.valueOf(value));
+		if ((value = option(args, "concurrency")) != null) request.setConcurrency(Integer.valueOf(value));
+		return request;
+	}
+
+	private static String option(ApplicationArguments args, String name) {
+		List<String> values = args.getOptionValues(name);
+		return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+}
@@ -0,0 +1,359 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import qslv.common.kafka.JacksonAvroDeserializer;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+import qslv.transfer.response.TransferFulfillmentDeadLetter;
+
+/**
+ * Replays dead letters through FulfillmentService.replayTransfer, which does not apply
+ * transferDeadline: the operator decides a dead letter should still be fulfilled. The DLQ is read
+ * with its own unassigned consumer that never commits, from the requested offset or time up to the
+ * end offsets taken when the replay starts. Transfers run on a pool of the requested concurrency
+ * and are started no faster than the requested rate, so a large backlog does not flood the
+ * transaction service. Completed steps are skipped through the CompletedStepCache as on redelivery. Failed
+ * records are reported, not dead-lettered again. One replay runs at a time, either on the caller's
+ * thread through replay or on its own thread through start, which keeps the last replay for polling.
+ */
+@Service
+public class DlqReplayService {
+	private static final Logger log = LoggerFactory.getLogger(DlqReplayService.class);
+	static final String REPLAY_TAXONOMY_ID = "dlq.replay";
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private FulfillmentService fulfillmentService;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Resource(name="listenerConfig")
+	private Map<String,Object> listenerConfig;
+
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private volatile CompletableFuture<DlqReplayReport> lastReplay;
+	private Deserializer<TransferFulfillmentDeadLetter> avroDeserializer;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setFulfillmentService(FulfillmentService fulfillmentService) {
+		this.fulfillmentService = fulfillmentService;
+	}
+
+	public void setObjectMapper(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	public void setListenerConfig(Map<String, Object> listenerConfig) {
+		this.listenerConfig = listenerConfig;
+	}
+
+	/**
+	 * @throws IllegalArgumentException the request or the configured defaults are invalid.
+	 * @throws IllegalStateException another replay is running.
+	 */
+	public DlqReplayReport replay(DlqReplayRequest request) throws InterruptedException {
+		validate(request);
+		try (Consumer<String, byte[]> consumer = createConsumer()) {
+			return replay(consumer, request);
+		}
+	}
+
+	DlqReplayReport replay(Consumer<String, byte[]> consumer, DlqReplayRequest request) throws InterruptedException {
+		validate(request);
+		if (!running.compareAndSet(false, true)) {
+			throw new IllegalStateException("A DLQ replay is already running.");
+		}
+		try {
+			return run(consumer, request);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Starts the replay on its own thread and returns at once.
+	 * @throws IllegalArgumentException the request or the configured defaults are invalid.
+	 * @throws IllegalStateException another replay is running.
+	 */
+	public CompletableFuture<DlqReplayReport> start(DlqReplayRequest request) {
+		validate(request);
+		if (!running.compareAndSet(false, true)) {
+			throw new IllegalStateException("A DLQ replay is already running.");
+		}
+		CompletableFuture<DlqReplayReport> replay = new CompletableFuture<>();
+		lastReplay = replay;
+		Thread thread = new Thread(() -> {
+			try (Consumer<String, byte[]> consumer = createConsumer()) {
+				replay.complete(run(consumer, request));
+			} catch (Throwable ex) {
+				log.error("DLQ replay failed. {}", ex.getLocalizedMessage());
+				replay.completeExceptionally(ex);
+			} finally {
+				running.set(false);
+			}
+		}, "dlq-replay");
+		thread.setDaemon(true);
+		try {
+			thread.start();
+		} catch (RuntimeException | Error ex) {
+			running.set(false);
+			throw ex;
+		}
+		return replay;
+	}
+
+	/**
+	 * @return the replay last started through start, null if there was none.
+	 */
+	public CompletableFuture<DlqReplayReport> getLastReplay() {
+		return lastReplay;
+	}
+
+	/**
+	 * Rejects what would fail inside the replay, such as a rate the TokenBucket refuses. An offset
+	 * only means something within one partition, so fromOffset needs partition.
+	 * @throws IllegalArgumentException
+	 */
+	void validate(DlqReplayRequest request) {
+		double rate = request.getRate() == null ? config.getDlqReplayRate() : request.getRate();
+		int concurrency = request.getConcurrency() == null ? config.getDlqReplayConcurrency() : request.getConcurrency();
+		if (!(rate > 0) || Double.isInfinite(rate)) {
+			throw new IllegalArgumentException(String.format("rate must be a positive number, not %s.", rate));
+		}
+		if (concurrency < 1) {
+			throw new IllegalArgumentException(String.format("concurrency must be at least 1, not %d.", concurrency));
+		}
+		if (request.getMaxRecords() != null && request.getMaxRecords() < 1) {
+			throw new IllegalArgumentException(String.format("maxRecords must be at least 1, not %d.", request.getMaxRecords()));
+		}
+		if (request.getPartition() != null && request.getPartition() < 0) {
+			throw new IllegalArgumentException(String.format("partition must not be negative, not %d.", request.getPartition()));
+		}
+		if (request.getFromOffset() != null) {
+			if (request.getPartition() == null) {
+				throw new IllegalArgumentException("fromOffset needs a partition.");
+			}
+			if (request.getFromOffset() < 0) {
+				throw new IllegalArgumentException(String.format("fromOffset must not be negative, not %d.", request.getFromOffset()));
+			}
+			if (request.getFromTime() != null) {
+				throw new IllegalArgumentException("Set fromOffset or fromTime, not both.");
+			}
+		}
+	}
+
+	private Consumer<String, byte[]> createConsumer() {
+		Map<String, Object> consumerConfig = new HashMap<>(listenerConfig);
+		consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+		consumerConfig.remove(ConsumerConfig.GROUP_ID_CONFIG);
+		// skip dead letters of rolled back kafkaTransactional batches
+		consumerConfig.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+		return new DefaultKafkaConsumerFactory<>(consumerConfig, new StringDeserializer(), new ByteArrayDeserializer()).createConsumer();
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	private DlqReplayReport run(Consumer<String, byte[]> consumer, DlqReplayRequest request) throws InterruptedException {
+		final String topic = config.getKafkaDeadLetterQueue();
+		final double rate = request.getRate() == null ? config.getDlqReplayRate() : request.getRate();
+		final int concurrency = request.getConcurrency() == null ? config.getDlqReplayConcurrency() : request.getConcurrency();
+		final long maxRecords = request.getMaxRecords() == null ? Long.MAX_VALUE : request.getMaxRecords();
+		final long start = System.currentTimeMillis();
+
+		List<TopicPartition> partitions = new ArrayList<>();
+		for (PartitionInfo info : consumer.partitionsFor(topic)) {
+			if (request.getPartition() == null || request.getPartition() == info.partition()) {
+				partitions.add(new TopicPartition(topic, info.partition()));
+			}
+		}
+		if (request.getPartition() != null && partitions.isEmpty()) {
+			throw new IllegalArgumentException(String.format("%s has no partition %d.", topic, request.getPartition()));
+		}
+		consumer.assign(partitions);
+		Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+		seek(consumer, partitions, request, endOffsets);
+		log.warn("Replaying {} from {} partitions at {} per second, {} at a time.", topic, partitions.size(), rate, concurrency);
+
+		TokenBucket bucket = new TokenBucket(rate, Math.max(1.0, Math.min(rate, concurrency)));
+		Semaphore permits = new Semaphore(concurrency);
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "dlq-replay-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		DlqReplayReport report = new DlqReplayReport();
+		try {
+			while (report.getResults().size() < maxRecords && remaining(consumer, partitions, endOffsets)) {
+				for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(config.getKafkaTimeout()))) {
+					if (report.getResults().size() >= maxRecords) {
+						break;
+					}
+					if (record.offset() >= endOffsets.get(new TopicPartition(record.topic(), record.partition()))) {
+						continue;
+					}
+					DlqReplayResult result = new DlqReplayResult(record.partition(), record.offset());
+					report.getResults().add(result);
+					TraceableMessage<TransferFulfillmentMessage> message = rebuild(record, result);
+					if (message == null) {
+						continue;
+					}
+					bucket.acquire();
+					permits.acquire();
+					executor.execute(() -> {
+						try {
+							fulfillmentService.replayTransfer(message);
+							result.setStatus(DlqReplayResult.Status.SUCCEEDED);
+						} catch (Exception ex) {
+							result.setStatus(DlqReplayResult.Status.FAILED);
+							result.setMessage(ex.getLocalizedMessage());
+						} finally {
+							permits.release();
+						}
+					});
+				}
+			}
+			// every transfer has finished once all permits are back
+			permits.acquire(concurrency);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (DlqReplayResult result : report.getResults()) {
+			switch (result.getStatus()) {
+			case SUCCEEDED: report.setSucceeded(report.getSucceeded() + 1); break;
+			case FAILED: report.setFailed(report.getFailed() + 1); break;
+			default: report.setSkipped(report.getSkipped() + 1); break;
+			}
+		}
+		report.setReplayed(report.getResults().size());
+		report.setElapsedMillis(System.currentTimeMillis() - start);
+		log.warn("Replayed {} dead letters in {} ms. {} succeeded, {} failed, {} skipped.", report.getReplayed(),
+				report.getElapsedMillis(), report.getSucceeded(), report.getFailed(), report.getSkipped());
+		return report;
+	}
+
+	private void seek(Consumer<String, byte[]> consumer, List<TopicPartition> partitions, DlqReplayRequest request,
+			Map<TopicPartition, Long> endOffsets) {
+		if (request.getFromOffset() != null) {
+			// validate allows fromOffset only with a partition, so partitions holds just that one
+			consumer.seek(partitions.get(0), request.getFromOffset());
+		} else if (request.getFromTime() != null) {
+			Map<TopicPartition, Long> times = new HashMap<>();
+			for (TopicPartition partition : partitions) {
+				times.put(partition, request.getFromTime().toEpochMilli());
+			}
+			for (Map.Entry<TopicPartition, OffsetAndTimestamp> entry : consumer.offsetsForTimes(times).entrySet()) {
+				// no record at or after the time: nothing to replay from this partition
+				consumer.seek(entry.getKey(), entry.getValue() == null ? endOffsets.get(entry.getKey()) : entry.getValue().offset());
+			}
+		} else {
+			consumer.seekToBeginning(partitions);
+		}
+	}
+
+	private boolean remaining(Consumer<String, byte[]> consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets) {
+		for (TopicPartition partition : partitions) {
+			if (consumer.position(partition) < endOffsets.get(partition)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The dead letter only keeps the payload, so the tracing fields are rebuilt: this service as
+	 * producer, the DLQ position as correlation id and the DLQ record time as creation time, in the
+	 * system zone as TransferDeadline and FulfillmentController read it.
+	 * @return null, with the result marked SKIPPED, if the record is not a readable dead letter.
+	 */
+	private TraceableMessage<TransferFulfillmentMessage> rebuild(ConsumerRecord<String, byte[]> record, DlqReplayResult result) {
+		TransferFulfillmentDeadLetter letter;
+		try {
+			letter = decode(record);
+		} catch (IOException | RuntimeException ex) {
+			result.setStatus(DlqReplayResult.Status.SKIPPED);
+			result.setMessage("Unreadable dead letter. " + ex.getLocalizedMessage());
+			return null;
+		}
+		if (letter == null || letter.getRequest() == null) {
+			result.setStatus(DlqReplayResult.Status.SKIPPED);
+			result.setMessage("Dead letter without a transfer request.");
+			return null;
+		}
+		result.setRequestUuid(letter.getRequest().getRequestUuid());
+
+		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+		message.setProducerAit(config.getAitid());
+		message.setBusinessTaxonomyId(REPLAY_TAXONOMY_ID);
+		message.setCorrelationId(String.format("%s-%d-%d", record.topic(), record.partition(), record.offset()));
+		message.setMessageCreationTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault()));
+		message.setPayload(letter.getRequest());
+		return message;
+	}
+
+	/**
+	 * Records without a format header predate the DeadLetterEncoder and hold JSON.
+	 */
+	private TransferFulfillmentDeadLetter decode(ConsumerRecord<String, byte[]> record) throws IOException {
+		Header format = record.headers().lastHeader(DeadLetterEncoder.FORMAT_HEADER);
+		if (format != null && ConfigProperties.DlqFormat.AVRO.name().equals(new String(format.value(), StandardCharsets.UTF_8))) {
+			return avroDeserializer().deserialize(record.topic(), record.value());
+		}
+		// the letter carries the serialized exception; only the request is needed
+		return objectMapper.readerFor(TransferFulfillmentDeadLetter.class)
+				.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+				.readValue(record.value());
+	}
+
+	private synchronized Deserializer<TransferFulfillmentDeadLetter> avroDeserializer() {
+		if (avroDeserializer == null) {
+			JacksonAvroDeserializer<TransferFulfillmentDeadLetter> jad = new JacksonAvroDeserializer<>();
+			jad.configure(listenerConfig);
+			avroDeserializer = jad;
+		}
+		return avroDeserializer;
+	}
+}
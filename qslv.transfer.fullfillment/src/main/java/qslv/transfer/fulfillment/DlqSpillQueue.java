@@ -0,0 +1,464 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Durable local queue for dead letters the DLQ topic would not take. Encoded records are appended
+ * to segment files, each record framed as length, CRC32 and body, and forced to disk before the
+ * append is reported, so the source offset can be committed. A background drainer sends them to
+ * the topic in order once the broker answers again, and deletes segments it has fully sent.
+ * Progress is checkpointed after every drained batch; a crash may resend the last batch.
+ * Enabled when kafkaDlqSpillPath is set.
+ */
+@Component
+public class DlqSpillQueue {
+	private static final Logger log = LoggerFactory.getLogger(DlqSpillQueue.class);
+	static final int FRAME_SIZE = 8;		// int length, int crc
+	private static final int DRAIN_BATCH = 500;
+	private static final String SEGMENT_PREFIX = "dlq-";
+	private static final String SEGMENT_SUFFIX = ".spill";
+	private static final String CHECKPOINT = "drain.checkpoint";
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private Path directory;
+	private final TreeMap<Long, Path> segments = new TreeMap<>();
+	private FileChannel writeChannel;
+	private long writeSegment;
+	private long writePosition;
+	private long readSegment;			// drainer thread only
+	private long readPosition;			// drainer thread only
+	private final AtomicLong depth = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private Counter spilled;
+	private Counter drained;
+	private ExecutorService writer;
+	private ScheduledExecutorService drainer;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setKafkaTemplate(KafkaTemplate<String, byte[]> kafkaTemplate) {
+		this.kafkaTemplate = kafkaTemplate;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public boolean isEnabled() {
+		return config.getKafkaDlqSpillPath() != null && !config.getKafkaDlqSpillPath().isEmpty();
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		if (!isEnabled()) {
+			return;
+		}
+		directory = Paths.get(config.getKafkaDlqSpillPath());
+		Files.createDirectories(directory);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path segment : stream) {
+				String name = segment.getFileName().toString();
+				segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), segment);
+			}
+		}
+		readCheckpoint();
+		for (Map.Entry<Long, Path> segment : segments.tailMap(readSegment).entrySet()) {
+			List<ProducerRecord<String, byte[]>> records = new ArrayList<>();
+			try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+				long from = (segment.getKey() == readSegment) ? readPosition : 0L;
+				long to = read(channel, from, channel.size(), Integer.MAX_VALUE, records);
+				depth.addAndGet(records.size());
+				bytes.addAndGet(to - from);
+			}
+		}
+		openSegment(segments.isEmpty() ? 1L : segments.lastKey() + 1);
+		if (depth.get() > 0) {
+			log.warn("{} dead letters spilled to {} before restart. Draining to {}.", depth.get(), directory, config.getKafkaDeadLetterQueue());
+		}
+
+		spilled = Counter.builder("qslv.dlq.spill.appended").register(registry);
+		drained = Counter.builder("qslv.dlq.spill.drained").register(registry);
+		Gauge.builder("qslv.dlq.spill.depth", depth, AtomicLong::get).register(registry);
+		Gauge.builder("qslv.dlq.spill.bytes", bytes, AtomicLong::get).register(registry);
+
+		writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dlq-spill-write");
+			thread.setDaemon(true);
+			return thread;
+		});
+		drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dlq-spill-drain");
+			thread.setDaemon(true);
+			return thread;
+		});
+		drainer.scheduleWithFixedDelay(this::drain, config.getKafkaDlqSpillDrainInterval(),
+				config.getKafkaDlqSpillDrainInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (drainer == null) {
+			return;
+		}
+		drainer.shutdownNow();
+		writer.shutdown();
+		try {
+			writer.awaitTermination(config.getKafkaTimeout(), TimeUnit.MILLISECONDS);
+			drainer.awaitTermination(config.getKafkaTimeout(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			writeChannel.close();
+			writeChannel = null;
+		}
+	}
+
+	/**
+	 * True while spilled dead letters wait for the topic. New dead letters should queue behind them.
+	 */
+	public boolean hasBacklog() {
+		return depth.get() > 0;
+	}
+
+	public long depth() {
+		return depth.get();
+	}
+
+	/**
+	 * Append on the spill writer thread, off the caller's and the producer's threads.
+	 * @return completes true once the record is on disk, false if it could not be spilled.
+	 */
+	public CompletableFuture<Boolean> appendAsync(final ProducerRecord<String, byte[]> record) {
+		try {
+			return CompletableFuture.supplyAsync(() -> append(record), writer);
+		} catch (RejectedExecutionException ex) {
+			return CompletableFuture.completedFuture(false);
+		}
+	}
+
+	/**
+	 * @return true once the record is on disk, false if the queue is disabled, full, or the write failed.
+	 */
+	public synchronized boolean append(final ProducerRecord<String, byte[]> record) {
+		if (writeChannel == null) {
+			return false;
+		}
+		ByteBuffer frame = encode(record);
+		int length = frame.remaining();
+		if (bytes.get() + length > config.getKafkaDlqSpillMaxSize()) {
+			log.error("DLQ spill full at {} bytes. Dead letter not spilled.", bytes.get());
+			return false;
+		}
+		try {
+			if (writePosition > 0 && writePosition + length > config.getKafkaDlqSpillSegmentSize()) {
+				roll();
+			}
+			// positional writes, so a failed write is overwritten by the next append
+			long position = writePosition;
+			while (frame.hasRemaining()) {
+				position += writeChannel.write(frame, position);
+			}
+			writeChannel.force(false);
+		} catch (IOException ex) {
+			log.error("DLQ spill write failed. {}", ex.getLocalizedMessage());
+			return false;
+		}
+		writePosition += length;
+		bytes.addAndGet(length);
+		depth.incrementAndGet();
+		spilled.increment();
+		return true;
+	}
+
+	/**
+	 * Send spilled records to the DLQ topic until the queue is empty or a send fails.
+	 */
+	void drain() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<ProducerRecord<String, byte[]>> batch = new ArrayList<>();
+				long end = readBatch(batch);
+				if (batch.isEmpty()) {
+					return;
+				}
+				if (!send(batch)) {
+					return;
+				}
+				bytes.addAndGet(readPosition - end);
+				readPosition = end;
+				depth.addAndGet(-batch.size());
+				drained.increment(batch.size());
+				writeCheckpoint();
+			}
+		} catch (IOException | RuntimeException ex) {
+			log.error("DLQ spill drain failed. {}", ex.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Read the next records of the oldest segment. Fully read closed segments are deleted.
+	 * @return the position after the batch within readSegment.
+	 */
+	private long readBatch(List<ProducerRecord<String, byte[]>> batch) throws IOException {
+		while (true) {
+			Path path;
+			long limit;
+			boolean active;
+			synchronized (this) {
+				Map.Entry<Long, Path> entry = segments.ceilingEntry(readSegment);
+				if (entry == null) {
+					return readPosition;
+				}
+				if (entry.getKey() != readSegment) {
+					readSegment = entry.getKey();
+					readPosition = 0L;
+				}
+				path = entry.getValue();
+				active = (readSegment == writeSegment);
+				limit = active ? writePosition : Long.MAX_VALUE;
+			}
+			long end;
+			long size;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				size = Math.min(limit, channel.size());
+				end = read(channel, readPosition, size, DRAIN_BATCH, batch);
+			}
+			if (!batch.isEmpty() || active) {
+				return end;
+			}
+			if (end < size) {
+				log.warn("Torn record at {} of {}. Rest of segment dropped.", end, path);
+			}
+			synchronized (this) {
+				segments.remove(readSegment);
+			}
+			Files.deleteIfExists(path);
+			readSegment++;
+			readPosition = 0L;
+		}
+	}
+
+	private boolean send(List<ProducerRecord<String, byte[]>> batch) {
+		List<ListenableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>(batch.size());
+		try {
+			for (ProducerRecord<String, byte[]> record : batch) {
+				futures.add(kafkaTemplate.send(record));
+			}
+			for (ListenableFuture<SendResult<String, byte[]>> future : futures) {
+				future.get(config.getKafkaTimeout(), TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException | TimeoutException | RuntimeException ex) {
+			log.warn("DLQ still unavailable. {} dead letters spilled. {}", depth.get(), ex.getLocalizedMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Called with the lock held.
+	 */
+	private void roll() throws IOException {
+		writeChannel.truncate(writePosition);
+		writeChannel.close();
+		openSegment(writeSegment + 1);
+	}
+
+	private void openSegment(long segment) throws IOException {
+		Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+		writeChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		writeSegment = segment;
+		writePosition = 0L;
+		segments.put(segment, path);
+	}
+
+	private void readCheckpoint() throws IOException {
+		Path checkpoint = directory.resolve(CHECKPOINT);
+		readSegment = segments.isEmpty() ? 1L : segments.firstKey();
+		readPosition = 0L;
+		if (Files.exists(checkpoint) && Files.size(checkpoint) == 16) {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+			long segment = buffer.getLong();
+			long position = buffer.getLong();
+			if (segments.containsKey(segment)) {
+				readSegment = segment;
+				readPosition = position;
+			}
+		}
+	}
+
+	private void writeCheckpoint() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(readSegment).putLong(readPosition);
+		Files.write(directory.resolve(CHECKPOINT), buffer.array());
+	}
+
+	/**
+	 * Read whole records from position up to end.
+	 * @return the position after the last whole record with a valid checksum.
+	 */
+	static long read(FileChannel channel, long position, long end, int max, List<ProducerRecord<String, byte[]>> records) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+		while (records.size() < max && position + FRAME_SIZE <= end) {
+			frame.clear();
+			readFully(channel, frame, position);
+			frame.flip();
+			int length = frame.getInt();
+			int checksum = frame.getInt();
+			if (length <= 0 || position + FRAME_SIZE + length > end) {
+				break;
+			}
+			ByteBuffer body = ByteBuffer.allocate(length);
+			readFully(channel, body, position + FRAME_SIZE);
+			if (checksum(body.array()) != checksum) {
+				break;
+			}
+			body.flip();
+			records.add(decode(body));
+			position += FRAME_SIZE + length;
+		}
+		return position;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of spill segment.");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Body: topic, key, header count, headers as name and value, value. Strings and byte arrays
+	 * are length prefixed; -1 stands for null.
+	 */
+	static ByteBuffer encode(ProducerRecord<String, byte[]> record) {
+		List<byte[]> parts = new ArrayList<>();
+		parts.add(record.topic().getBytes(StandardCharsets.UTF_8));
+		parts.add(record.key() == null ? null : record.key().getBytes(StandardCharsets.UTF_8));
+		List<Header> headers = new ArrayList<>();
+		for (Header header : record.headers()) {
+			headers.add(header);
+		}
+		int size = 4;	// header count
+		for (byte[] part : parts) {
+			size += 4 + (part == null ? 0 : part.length);
+		}
+		for (Header header : headers) {
+			size += 8 + header.key().getBytes(StandardCharsets.UTF_8).length + (header.value() == null ? 0 : header.value().length);
+		}
+		size += 4 + (record.value() == null ? 0 : record.value().length);
+
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE + size);
+		frame.position(FRAME_SIZE);
+		put(frame, parts.get(0));
+		put(frame, parts.get(1));
+		frame.putInt(headers.size());
+		for (Header header : headers) {
+			put(frame, header.key().getBytes(StandardCharsets.UTF_8));
+			put(frame, header.value());
+		}
+		put(frame, record.value());
+		frame.putInt(0, size);
+		frame.putInt(4, checksum(frame.array(), FRAME_SIZE, size));
+		frame.position(0);
+		return frame;
+	}
+
+	static ProducerRecord<String, byte[]> decode(ByteBuffer body) {
+		String topic = new String(get(body), StandardCharsets.UTF_8);
+		byte[] key = get(body);
+		int count = body.getInt();
+		List<byte[][]> headers = new ArrayList<>(count);
+		for (int index = 0; index < count; index++) {
+			headers.add(new byte[][] { get(body), get(body) });
+		}
+		byte[] value = get(body);
+		ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key == null ? null : new String(key, StandardCharsets.UTF_8), value);
+		for (byte[][] header : headers) {
+			record.headers().add(new String(header[0], StandardCharsets.UTF_8), header[1]);
+		}
+		return record;
+	}
+
+	private static void put(ByteBuffer buffer, byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static byte[] get(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static int checksum(byte[] bytes) {
+		return checksum(bytes, 0, bytes.length);
+	}
+
+	private static int checksum(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,248 @@
+package qslv.transfer.fulfillment;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Client-side balancing for URL settings that list several transaction service endpoints,
+ * separated by commas. Each call picks two endpoints at random and takes the one with the lower
+ * peak EWMA latency times outstanding calls, so a slow or busy endpoint gets less traffic within
+ * a few calls while the random choice keeps concurrent callers from all piling onto the same
+ * fastest one. The EWMA forgets with a time constant of restBalancerDecay and jumps straight to a
+ * slower sample. A failed call counts as restTimeout.
+ * An endpoint with restOutlierFailures consecutive failures is ejected for restOutlierEjectTime,
+ * but never more than restOutlierMaxEjectedPercent of the endpoints at once; if every endpoint is
+ * ejected, all of them are used again. A setting with a single URL passes straight through.
+ */
+@Component
+public class EndpointBalancer {
+	private static final Logger log = LoggerFactory.getLogger(EndpointBalancer.class);
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private LongSupplier nanoClock = System::nanoTime;
+	private final ConcurrentHashMap<String, List<Endpoint>> groups = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setNanoClock(LongSupplier nanoClock) {
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * @param setting one URL, or several separated by commas.
+	 * @return the endpoint to call. Complete it when the call ends.
+	 */
+	public Selection select(String setting) {
+		if (setting == null || setting.indexOf(',') < 0) {
+			return new Selection(setting, null);
+		}
+		List<Endpoint> group = group(setting);
+		long now = nanoClock.getAsLong();
+		List<Endpoint> healthy = new ArrayList<>(group.size());
+		for (Endpoint endpoint : group) {
+			if (!endpoint.isEjected(now)) {
+				healthy.add(endpoint);
+			}
+		}
+		if (healthy.isEmpty()) {
+			healthy = group;
+		}
+		Endpoint chosen;
+		if (healthy.size() == 1) {
+			chosen = healthy.get(0);
+		} else {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int first = random.nextInt(healthy.size());
+			int second = random.nextInt(healthy.size() - 1);
+			if (second >= first) {
+				second++;
+			}
+			Endpoint a = healthy.get(first);
+			Endpoint b = healthy.get(second);
+			chosen = a.cost(now) <= b.cost(now) ? a : b;
+		}
+		chosen.outstanding.incrementAndGet();
+		chosen.requests.increment();
+		return new Selection(chosen.url, chosen);
+	}
+
+	/**
+	 * @return the URLs of a setting, trimmed, without empty entries.
+	 */
+	public static List<String> urls(String setting) {
+		List<String> urls = new ArrayList<>();
+		if (setting != null) {
+			for (String url : setting.split(",")) {
+				if (!url.trim().isEmpty()) {
+					urls.add(url.trim());
+				}
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * @return the distinct hosts the settings point at, each a route with its own connection pool.
+	 */
+	public static Set<HttpHost> hosts(String... settings) {
+		Set<HttpHost> hosts = new LinkedHashSet<>();
+		for (String setting : settings) {
+			for (String url : urls(setting)) {
+				URI uri = URI.create(url);
+				hosts.add(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+			}
+		}
+		return hosts;
+	}
+
+	private List<Endpoint> group(String setting) {
+		List<Endpoint> group = groups.get(setting);
+		return group != null ? group : groups.computeIfAbsent(setting, this::newGroup);
+	}
+
+	private List<Endpoint> newGroup(String setting) {
+		List<Endpoint> group = new ArrayList<>();
+		for (String url : urls(setting)) {
+			group.add(new Endpoint(url, group));
+		}
+		return Collections.unmodifiableList(group);
+	}
+
+	public class Selection {
+		private final String url;
+		private final Endpoint endpoint;
+		private final long start;
+
+		Selection(String url, Endpoint endpoint) {
+			this.url = url;
+			this.endpoint = endpoint;
+			this.start = endpoint == null ? 0L : nanoClock.getAsLong();
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @param success false when the endpoint failed, i.e. an I/O error or a 5xx answer.
+		 */
+		public void complete(boolean success) {
+			if (endpoint != null) {
+				endpoint.complete(nanoClock.getAsLong() - start, success);
+			}
+		}
+	}
+
+	private class Endpoint {
+		final String url;
+		final List<Endpoint> group;
+		final AtomicInteger outstanding = new AtomicInteger();
+		final Counter requests;
+		final Counter ejections;
+		private volatile double ewma;
+		private volatile long updatedAt = nanoClock.getAsLong();
+		private int failures;
+		private volatile long ejectedUntil;
+		private volatile boolean ejected;
+
+		Endpoint(String url, List<Endpoint> group) {
+			this.url = url;
+			this.group = group;
+			requests = Counter.builder("qslv.transaction.endpoint.requests").tag("endpoint", url).register(registry);
+			ejections = Counter.builder("qslv.transaction.endpoint.ejections").tag("endpoint", url).register(registry);
+			Gauge.builder("qslv.transaction.endpoint.latency", this, endpoint -> endpoint.ewma / 1e6)
+					.tag("endpoint", url).baseUnit("milliseconds").register(registry);
+			Gauge.builder("qslv.transaction.endpoint.outstanding", this, endpoint -> endpoint.outstanding.get())
+					.tag("endpoint", url).register(registry);
+			Gauge.builder("qslv.transaction.endpoint.ejected", this, endpoint -> endpoint.isEjected(nanoClock.getAsLong()) ? 1.0 : 0.0)
+					.tag("endpoint", url).register(registry);
+		}
+
+		boolean isEjected(long now) {
+			return ejected && now - ejectedUntil < 0;
+		}
+
+		/**
+		 * The EWMA decays while the endpoint gets no calls, so one that was slow is tried again
+		 * after a while. An endpoint without samples costs its outstanding calls and is tried early.
+		 */
+		double cost(long now) {
+			return (ewma * decay(now - updatedAt) + 1.0) * (outstanding.get() + 1);
+		}
+
+		double decay(long elapsedNanos) {
+			return Math.exp(-(double) Math.max(0L, elapsedNanos) / TimeUnit.MILLISECONDS.toNanos(config.getRestBalancerDecay()));
+		}
+
+		void complete(long rttNanos, boolean success) {
+			outstanding.decrementAndGet();
+			long now = nanoClock.getAsLong();
+			double sample = success ? rttNanos : Math.max(rttNanos, TimeUnit.MILLISECONDS.toNanos(config.getRestTimeout()));
+			boolean eject = false;
+			synchronized (this) {
+				double weight = decay(now - updatedAt);
+				ewma = sample > ewma ? sample : ewma * weight + sample * (1.0 - weight);
+				updatedAt = now;
+				if (success) {
+					failures = 0;
+				} else if (++failures >= config.getRestOutlierFailures() && !isEjected(now)) {
+					failures = 0;
+					eject = true;
+				}
+			}
+			if (eject) {
+				eject(now);
+			}
+		}
+
+		private void eject(long now) {
+			synchronized (group) {
+				int ejectedCount = 0;
+				for (Endpoint endpoint : group) {
+					if (endpoint.isEjected(now)) {
+						ejectedCount++;
+					}
+				}
+				if ((ejectedCount + 1) * 100 > group.size() * config.getRestOutlierMaxEjectedPercent()) {
+					log.debug("Not ejecting {}; {} of {} endpoints are already ejected.", url, ejectedCount, group.size());
+					return;
+				}
+				ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(config.getRestOutlierEjectTime());
+				ejected = true;
+				// it comes back without the failures in its latency, so the first calls probe it
+				ewma = 0.0;
+			}
+			ejections.increment();
+			log.warn("Ejected {} for {} ms after {} consecutive failures.", url, config.getRestOutlierEjectTime(), config.getRestOutlierFailures());
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ExecutorConfig {
+	private static final Logger log = LoggerFactory.getLogger(ExecutorConfig.class);
+
+	@Autowired
+	private ConfigProperties config;
+
+	@Bean(destroyMethod = "shutdownNow")
+	public ExecutorService fulfillmentExecutor() {
+		if (config.isFulfillmentVirtualThreads()) {
+			ExecutorService executor = virtualThreadExecutor();
+			if (executor != null) {
+				log.info("Fulfillment runs one virtual thread per transfer.");
+				return executor;
+			}
+			log.warn("Virtual threads need Java 21. Java {} found, using {} platform threads.",
+					System.getProperty("java.version"), config.getFulfillmentThreads());
+		}
+		return platformThreadExecutor(config.getFulfillmentThreads());
+	}
+
+	public static ExecutorService platformThreadExecutor(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "fulfillment-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(threads, factory);
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively so the service still
+	 * compiles for and runs on Java 8.
+	 * @return null when the running JVM has no virtual threads.
+	 */
+	public static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package qslv.transfer.fulfillment;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.TreeMap;
 
 import javax.annotation.PostConstruct;
@@ -9,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.EnumerablePropertySource;
@@ -27,6 +29,11 @@ public class FulfillmentApplication {
 	    	
 	    	application.setAdditionalProfiles("local");
 	    }
+	    if (source.containsProperty("replay-dlq")) {
+	    	// one-shot DLQ replay; see DlqReplayRunner
+	    	application.setWebApplicationType(WebApplicationType.NONE);
+	    	application.setDefaultProperties(Collections.singletonMap("qslv.dlq-replay-cli", "true"));
+	    }
         application.run(args);
 	}
 
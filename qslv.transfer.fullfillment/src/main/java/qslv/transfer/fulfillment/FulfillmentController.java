@@ -2,7 +2,16 @@ package qslv.transfer.fulfillment;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
@@ -10,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.NonTransientDataAccessResourceException;
 import org.springframework.dao.TransientDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Controller;
 import qslv.common.kafka.TraceableMessage;
@@ -29,6 +39,22 @@ public class FulfillmentController {
 	private ConfigProperties config;	
 	@Autowired
 	private FulfillmentService fulfillmentService;
+	@Autowired
+	private DeadLetterPublisher deadLetterPublisher;
+	@Autowired
+	private StageLatencyRecorder stageLatencyRecorder;
+	@Autowired
+	private TransactionRollbackTracker transactionRollbackTracker;
+	@Resource(name = "fulfillmentExecutor")
+	private ExecutorService executor;
+
+	enum Outcome {
+		ACKNOWLEDGE,	// processed, dead-lettered or moved to a retry tier; offset may be committed
+		RETRY			// return to Kafka
+	}
+	static final int MAIN_QUEUE = -1;
+	private static final CompletableFuture<Outcome> ACKNOWLEDGED = CompletableFuture.completedFuture(Outcome.ACKNOWLEDGE);
+	private static final CompletableFuture<Outcome> RETRIED = CompletableFuture.completedFuture(Outcome.RETRY);
 
 	public void setConfig(ConfigProperties config) {
 		this.config = config;
@@ -36,39 +62,400 @@ public class FulfillmentController {
 	public void setFulfillmentService(FulfillmentService fulfillmentService) {
 		this.fulfillmentService = fulfillmentService;
 	}
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+	public void setDeadLetterPublisher(DeadLetterPublisher deadLetterPublisher) {
+		this.deadLetterPublisher = deadLetterPublisher;
+	}
+	public void setStageLatencyRecorder(StageLatencyRecorder stageLatencyRecorder) {
+		this.stageLatencyRecorder = stageLatencyRecorder;
+	}
+	public void setTransactionRollbackTracker(TransactionRollbackTracker transactionRollbackTracker) {
+		this.transactionRollbackTracker = transactionRollbackTracker;
+	}
 
 	@LogKafkaTracingData(value="TransferFulfillment::#{@configProperties.kafkaTransferRequestQueue}", ait="#{#{@configProperties.aitid}}" )
 	@ServiceElapsedTimeSLI(value="TransferFulfillment::onMessage", injectResponse = false, ait = "#{@configProperties.aitid}")
 	public void fulfill(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Acknowledgment acknowledgment) {
 
-		try {
-			validateMessage(data.value());
-			//TODO Log instrumentation
-			//TODO time processing of message.
+		complete(data, process(data, MAIN_QUEUE), acknowledgment);
+	}
+
+	@ServiceElapsedTimeSLI(value="TransferFulfillment::onRetry", injectResponse = false, ait = "#{@configProperties.aitid}")
+	public void fulfillRetry(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Acknowledgment acknowledgment, int tier) {
+
+		complete(data, process(data, tier), acknowledgment);
+	}
+
+	/**
+	 * An outcome that is still pending is a dead letter on its way to the broker. Its offset is
+	 * acknowledged from the producer callback once the broker has confirmed it; the consumer thread
+	 * moves on meanwhile.
+	 */
+	private void complete(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data,
+			CompletableFuture<Outcome> outcome, Acknowledgment acknowledgment) {
+		if (outcome.isDone()) {
+			if (Outcome.RETRY == outcome.join()) {
+				acknowledgment.nack(config.getKafkaTimeout());
+				return;
+			}
+			acknowledge(acknowledgment);
+			return;
+		}
+		outcome.thenAccept(result -> {
+			if (Outcome.RETRY == result) {
+				// off the consumer thread the acknowledgment marks the record failed; the consumer thread seeks back to it
+				log.error("Dead letter for offset {} was not sent. Record will be redelivered.", data.offset());
+				acknowledgment.nack(config.getKafkaTimeout());
+				return;
+			}
+			acknowledge(acknowledgment);
+		});
+	}
+
+	private void acknowledge(Acknowledgment acknowledgment) {
+		long start = System.nanoTime();
+		acknowledgment.acknowledge();
+		recordStage(StageLatencyRecorder.Stage.ACK, start);
+	}
+
+	@ServiceElapsedTimeSLI(value="TransferFulfillment::onBatch", injectResponse = false, ait = "#{@configProperties.aitid}")
+	public void fulfillBatch(final List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data, Acknowledgment acknowledgment) {
+		if (config.isKafkaTransactional()) {
+			fulfillBatchInTransaction(data);
+			return;
+		}
+		final Outcome[] outcomes = new Outcome[data.size()];
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		// -- validate in one pass, grouping valid records by from-account so each account keeps its order
+		Map<String, List<Integer>> lanes = new LinkedHashMap<>();
+		for (int index = 0; index < data.size(); index++) {
+			final int position = index;
+			final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = data.get(index);
+			recordQueueWait(record);
+			try {
+				validate(record.value());
+				lanes.computeIfAbsent(record.value().getPayload().getFromAccountNumber(), k -> new ArrayList<>()).add(index);
+			} catch (Exception ex) {
+				log.error("Malformed message at offset {}. Sending to DLQ. {}", record.offset(), ex.getLocalizedMessage());
+				futures.add(deadLetter(record, ex).thenAccept(outcome -> outcomes[position] = outcome));
+			}
+		}
+
+		// -- fan out one task per account
+		for (List<Integer> lane : lanes.values()) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				boolean blocked = false;
+				for (int index : lane) {
+					// once a record of an account must be retried, later records of that account wait for it
+					outcomes[index] = blocked ? Outcome.RETRY : transfer(data.get(index), MAIN_QUEUE).join();
+					blocked = (outcomes[index] == Outcome.RETRY);
+				}
+			}, executor));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+		for (int index = 0; index < outcomes.length; index++) {
+			if (outcomes[index] != Outcome.ACKNOWLEDGE) {
+				log.warn("Batch of {} records. Committing {} and returning the rest to Kafka.", outcomes.length, index);
+				acknowledgment.nack(index, config.getKafkaTimeout());
+				return;
+			}
+		}
+		acknowledge(acknowledgment);
+	}
+
+	/**
+	 * kafkaTransactional BATCH mode. The container has begun a Kafka transaction for the batch and
+	 * sends the batch's offsets to it when this returns, so dead letters and retry records produced
+	 * here on the consumer thread become visible together with the offset commit, or not at all. A
+	 * record that must go back to Kafka rolls back the whole batch instead of committing a prefix:
+	 * posted steps are skipped on redelivery through the CompletedStepCache, and the aborted records
+	 * are never read by a read_committed consumer.
+	 *
+	 * A batch that has rolled back kafkaTransactionMaxRollbacks times, e.g. because the broker rejects
+	 * its dead letters at commit, sends them outside the transaction instead.
+	 */
+	private void fulfillBatchInTransaction(final List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data) {
+		final boolean exhausted = transactionRollbackTracker != null && transactionRollbackTracker.isExhausted(data);
+		if (exhausted) {
+			log.error("Batch at offset {} rolled back {} times. Producing its dead letters and retries outside the transaction.",
+					data.get(0).offset(), config.getKafkaTransactionMaxRollbacks());
+		}
+		final Exception[] failures = new Exception[data.size()];
+		final boolean[] retries = new boolean[data.size()];
+		final Outcome[] outcomes = new Outcome[data.size()];
+
+		Map<String, List<Integer>> lanes = new LinkedHashMap<>();
+		for (int index = 0; index < data.size(); index++) {
+			final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = data.get(index);
+			recordQueueWait(record);
+			try {
+				validate(record.value());
+				lanes.computeIfAbsent(record.value().getPayload().getFromAccountNumber(), k -> new ArrayList<>()).add(index);
+			} catch (Exception ex) {
+				log.error("Malformed message at offset {}. Sending to DLQ. {}", record.offset(), ex.getLocalizedMessage());
+				failures[index] = ex;
+				outcomes[index] = Outcome.ACKNOWLEDGE;
+			}
+		}
+
+		// -- the transaction is bound to the consumer thread, so lanes only collect their dead letters and retries
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (List<Integer> lane : lanes.values()) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				for (int index : lane) {
+					final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = data.get(index);
+					try {
+						fulfillmentService.transferFunds(record.value());
+						logElapsedTime(record);
+						outcomes[index] = Outcome.ACKNOWLEDGE;
+					} catch (TransferDeadlineExceededException ex) {
+						log.warn("Transfer expired. Sending to expiry queue. {}", ex.getLocalizedMessage());
+						failures[index] = ex;
+						outcomes[index] = Outcome.ACKNOWLEDGE;
+					} catch (TransientDataAccessException ex) {
+						if (exhausted) {
+							outcomes[index] = scheduleRetry(record, MAIN_QUEUE + 1, ex).join();
+						} else {
+							outcomes[index] = retryInTransaction(record, ex, failures, retries, index);
+						}
+					} catch (Exception ex) {
+						log.error("Unexpected exception thrown. Sending to DLQ. {}", ex.getLocalizedMessage());
+						failures[index] = ex;
+						outcomes[index] = Outcome.ACKNOWLEDGE;
+					}
+					if (outcomes[index] == Outcome.RETRY) {
+						return;
+					}
+				}
+			}, executor));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+		for (int index = 0; index < outcomes.length; index++) {
+			if (outcomes[index] != Outcome.ACKNOWLEDGE) {
+				log.warn("Batch of {} records. Rolling back and returning it to Kafka.", outcomes.length);
+				throw new TransientDataAccessResourceException(String.format("Record at offset %d returned to Kafka.",
+						data.get(index).offset()));
+			}
+		}
+		for (int index = 0; index < failures.length; index++) {
+			if (failures[index] == null) {
+				continue;
+			}
+			final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = data.get(index);
+			if (retries[index]) {
+				String topic = config.getKafkaRetryQueues().get(MAIN_QUEUE + 1);
+				fulfillmentService.sendToRetryQueueInTransaction(topic, record.value(), failures[index] instanceof RecordedTransferException);
+				log.warn("Recoverable error. Retry in {} ms from {}.", config.getKafkaRetryDelays().get(MAIN_QUEUE + 1), topic);
+			} else if (exhausted) {
+				if (deadLetter(record, failures[index]).join() != Outcome.ACKNOWLEDGE) {
+					throw new TransientDataAccessResourceException(String.format("Dead letter for offset %d was not sent.", record.offset()));
+				}
+			} else {
+				TransferFulfillmentDeadLetter letter = new TransferFulfillmentDeadLetter(record.value().getPayload(), failures[index]);
+				if (failures[index] instanceof TransferDeadlineExceededException) {
+					fulfillmentService.sendToExpiredQueueInTransaction(letter);
+				} else {
+					fulfillmentService.sendToDeadLetterQueueInTransaction(letter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * scheduleRetry() for a record of a Kafka transaction. The retry record is produced into the
+	 * transaction on the consumer thread; this only notes it.
+	 */
+	private Outcome retryInTransaction(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Exception ex,
+			Exception[] failures, boolean[] retries, int index) {
+		if (!(ex instanceof RecordedTransferException)) {
+			try {
+				fulfillmentService.checkDeadline(data.value(), TransferDeadline.RETRY);
+			} catch (TransferDeadlineExceededException dex) {
+				log.warn("Recoverable error after the transfer deadline. Sending to expiry queue. {}", ex.getLocalizedMessage());
+				failures[index] = dex;
+				return Outcome.ACKNOWLEDGE;
+			}
+		}
+		if (config.getKafkaRetryQueues().isEmpty()) {
+			log.warn("Recoverable error. Rolling back the batch. {}", ex.getLocalizedMessage());
+			return Outcome.RETRY;
+		}
+		failures[index] = ex;
+		retries[index] = true;
+		return Outcome.ACKNOWLEDGE;
+	}
 
-			validatePayload(data.value().getPayload());	
-			fulfillmentService.transferFunds(data.value());
+	/**
+	 * @param tier MAIN_QUEUE, or the index of the retry tier the record was consumed from.
+	 */
+	private CompletableFuture<Outcome> process(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, int tier) {
+		if (tier == MAIN_QUEUE) {
+			// a retry tier's wait is mostly its configured delay
+			recordQueueWait(data);
+		}
+		try {
+			validate(data.value());
+		} catch (Exception ex) {
+			log.error("Malformed message. Sending to DLQ. {}", ex.getLocalizedMessage());
+			return deadLetter(data, ex);
+		}
+		return transfer(data, tier);
+	}
 
-			LocalDateTime now = LocalDateTime.now();
-			long elapsedSeconds = now.toEpochSecond(ZoneOffset.UTC) - data.value().getMessageCreationTime().toEpochSecond(ZoneOffset.UTC);
-			ServiceLevelIndicator.logAsyncServiceElapsedTime(log, "TransferFulfillment", "2342", data.value().getMessageCreationTime(), 
-					now, Duration.ofSeconds(elapsedSeconds));
+	private CompletableFuture<Outcome> transfer(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, int tier) {
+		try {
+			if (isRecorded(data)) {
+				fulfillmentService.commitRecorded(data.value());
+			} else {
+				fulfillmentService.transferFunds(data.value());
+			}
+			logElapsedTime(data);
+		} catch (TransferDeadlineExceededException ex) {
+			log.warn("Transfer expired. Sending to expiry queue. {}", ex.getLocalizedMessage());
+			return deadLetter(data, ex);
 		} catch (TransientDataAccessException ex) {
-			log.warn("Recoverable error. Return message to Kafka and sleep for {} ms.", config.getKafkaTimeout());
-			acknowledgment.nack(10000L);
-			return;			
+			return scheduleRetry(data, tier + 1, ex);
 		} catch (Exception ex) {
 			log.error("Unexpected exception thrown. Sending to DLQ. {}", ex.getLocalizedMessage());
-			try {
-				fulfillmentService.sendToDeadLetterQueue(new TransferFulfillmentDeadLetter(data.value().getPayload(), ex));
-			} catch (Exception iex) {
-				log.error("Unexpected exception while sending to DLQ. Keep on Kafka. {}", iex.getLocalizedMessage());
-				acknowledgment.nack(10000L);
-				return;	
+			return deadLetter(data, ex);
+		}
+		return ACKNOWLEDGED;
+	}
+
+	/**
+	 * Non-blocking variant of fulfill() for the ASYNC consumer mode. The returned future
+	 * completes with the record's outcome; the caller owns the acknowledgment.
+	 */
+	public CompletableFuture<Outcome> fulfillAsync(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data) {
+		recordQueueWait(data);
+		try {
+			validate(data.value());
+		} catch (Exception ex) {
+			log.error("Malformed message. Sending to DLQ. {}", ex.getLocalizedMessage());
+			return deadLetter(data, ex);
+		}
+
+		// outcome handling may produce to Kafka, so keep it off the HTTP I/O threads
+		return fulfillmentService.transferFundsAsync(data.value()).handleAsync((v, throwable) -> {
+			if (throwable == null) {
+				logElapsedTime(data);
+				return ACKNOWLEDGED;
+			}
+			Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+			Exception ex = (cause instanceof Exception) ? (Exception) cause : new RuntimeException(cause);
+			if (ex instanceof TransferDeadlineExceededException) {
+				log.warn("Transfer expired. Sending to expiry queue. {}", ex.getLocalizedMessage());
+				return deadLetter(data, ex);
 			}
+			if (ex instanceof TransientDataAccessException) {
+				return scheduleRetry(data, MAIN_QUEUE + 1, ex);
+			}
+			log.error("Unexpected exception thrown. Sending to DLQ. {}", ex.getLocalizedMessage());
+			return deadLetter(data, ex);
+		}, executor).thenCompose(outcome -> outcome);
+	}
+
+	private boolean isRecorded(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data) {
+		return data.headers() != null && data.headers().lastHeader(KafkaDao.RECORDED_HEADER) != null;
+	}
+
+	private void logElapsedTime(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data) {
+		LocalDateTime now = LocalDateTime.now();
+		Duration elapsed = Duration.between(data.value().getMessageCreationTime(), now);
+		ServiceLevelIndicator.logAsyncServiceElapsedTime(log, "TransferFulfillment", config.getAitid(), data.value().getMessageCreationTime(), 
+				now, elapsed);
+		if (stageLatencyRecorder != null) {
+			stageLatencyRecorder.record(StageLatencyRecorder.Stage.END_TO_END, elapsed.toNanos());
 		}
+	}
 
-		acknowledgment.acknowledge();
+	/**
+	 * Time from the record's broker timestamp until the listener picked it up.
+	 */
+	private void recordQueueWait(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data) {
+		if (stageLatencyRecorder != null && data.timestamp() > 0) {
+			stageLatencyRecorder.record(StageLatencyRecorder.Stage.QUEUE_WAIT,
+					TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - data.timestamp()));
+		}
+	}
+
+	private void recordStage(StageLatencyRecorder.Stage stage, long start) {
+		if (stageLatencyRecorder != null) {
+			stageLatencyRecorder.recordSince(stage, start);
+		}
+	}
+
+	private CompletableFuture<Outcome> scheduleRetry(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, int tier, Exception ex) {
+		// this attempt recorded the transaction; the retry must commit it whatever the deadline
+		final boolean recorded = ex instanceof RecordedTransferException;
+		try {
+			// a retry could only finish it later still
+			if (!recorded) {
+				fulfillmentService.checkDeadline(data.value(), TransferDeadline.RETRY);
+			}
+		} catch (TransferDeadlineExceededException dex) {
+			log.warn("Recoverable error after the transfer deadline. Sending to expiry queue. {}", ex.getLocalizedMessage());
+			return deadLetter(data, dex);
+		}
+		if (config.getKafkaRetryQueues().isEmpty()) {
+			log.warn("Recoverable error. Return message to Kafka and sleep for {} ms.", config.getKafkaTimeout());
+			return RETRIED;
+		}
+		if (tier >= config.getKafkaRetryQueues().size()) {
+			log.error("Recoverable error after {} retry tiers. Sending to DLQ. {}", tier, ex.getLocalizedMessage());
+			return deadLetter(data, ex);
+		}
+		String topic = config.getKafkaRetryQueues().get(tier);
+		try {
+			fulfillmentService.sendToRetryQueue(topic, data.value(), recorded);
+		} catch (Exception iex) {
+			log.error("Unexpected exception while sending to {}. Keep on Kafka. {}", topic, iex.getLocalizedMessage());
+			return RETRIED;
+		}
+		log.warn("Recoverable error. Retry in {} ms from {}.", config.getKafkaRetryDelays().get(tier), topic);
+		return ACKNOWLEDGED;
+	}
+
+	/**
+	 * Completes once the broker has confirmed the dead letter. Transient send failures are sent
+	 * again by the DeadLetterPublisher; only a dead letter that can never be sent completes with RETRY.
+	 * Expired transfers go to kafkaExpiredQueue.
+	 */
+	private CompletableFuture<Outcome> deadLetter(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Exception ex) {
+		final TransferFulfillmentDeadLetter letter;
+		try {
+			letter = new TransferFulfillmentDeadLetter(data.value().getPayload(), ex);
+		} catch (Exception iex) {
+			log.error("Unexpected exception while sending to DLQ. Keep on Kafka. {}", iex.getLocalizedMessage());
+			return RETRIED;
+		}
+		final long start = System.nanoTime();
+		final boolean expired = ex instanceof TransferDeadlineExceededException;
+		return deadLetterPublisher.publish(() -> expired
+				? fulfillmentService.sendToExpiredQueueAsync(letter)
+				: fulfillmentService.sendToDeadLetterQueueAsync(letter)).handle((v, iex) -> {
+			recordStage(StageLatencyRecorder.Stage.DLQ, start);
+			if (iex != null) {
+				log.error("Unexpected exception while sending to DLQ. Keep on Kafka. {}", iex.getLocalizedMessage());
+				return Outcome.RETRY;
+			}
+			return Outcome.ACKNOWLEDGE;
+		});
+	}
+
+	private void validate(TraceableMessage<TransferFulfillmentMessage> message) throws NonTransientDataAccessResourceException {
+		long start = System.nanoTime();
+		try {
+			validateMessage(message);
+			validatePayload(message.getPayload());
+		} finally {
+			recordStage(StageLatencyRecorder.Stage.VALIDATION, start);
+		}
 	}
 
 	private void validatePayload(TransferFulfillmentMessage payload) throws NonTransientDataAccessResourceException {
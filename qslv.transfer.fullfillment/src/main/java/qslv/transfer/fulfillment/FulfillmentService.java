@@ -1,7 +1,12 @@
 package qslv.transfer.fulfillment;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.stereotype.Service;
 
 import qslv.common.kafka.TraceableMessage;
@@ -19,7 +24,17 @@ public class FulfillmentService {
 	@Autowired
 	private TransactionDao transactionDao;
 	@Autowired
+	private AsyncTransactionDao asyncTransactionDao;
+	@Autowired
 	private KafkaDao kafkaDao;
+	@Autowired
+	private CompletedStepCache completedStepCache;
+	@Autowired
+	private StepJournal stepJournal;
+	@Autowired
+	private StageLatencyRecorder stageLatencyRecorder;
+	@Autowired
+	private TransferDeadline transferDeadline;
 
 	public TransactionDao getTransactionDao() {
 		return transactionDao;
@@ -29,6 +44,14 @@ public class FulfillmentService {
 		this.transactionDao = transactionDao;
 	}
 
+	public AsyncTransactionDao getAsyncTransactionDao() {
+		return asyncTransactionDao;
+	}
+
+	public void setAsyncTransactionDao(AsyncTransactionDao asyncTransactionDao) {
+		this.asyncTransactionDao = asyncTransactionDao;
+	}
+
 	public KafkaDao getKafkaDao() {
 		return kafkaDao;
 	}
@@ -37,37 +60,253 @@ public class FulfillmentService {
 		this.kafkaDao = kafkaDao;
 	}
 
+	public CompletedStepCache getCompletedStepCache() {
+		return completedStepCache;
+	}
+
+	public void setCompletedStepCache(CompletedStepCache completedStepCache) {
+		this.completedStepCache = completedStepCache;
+	}
+
+	public StepJournal getStepJournal() {
+		return stepJournal;
+	}
+
+	public void setStepJournal(StepJournal stepJournal) {
+		this.stepJournal = stepJournal;
+	}
+
+	public StageLatencyRecorder getStageLatencyRecorder() {
+		return stageLatencyRecorder;
+	}
+
+	public void setStageLatencyRecorder(StageLatencyRecorder stageLatencyRecorder) {
+		this.stageLatencyRecorder = stageLatencyRecorder;
+	}
+
+	public TransferDeadline getTransferDeadline() {
+		return transferDeadline;
+	}
+
+	public void setTransferDeadline(TransferDeadline transferDeadline) {
+		this.transferDeadline = transferDeadline;
+	}
+
 	public void transferFunds(final TraceableMessage<TransferFulfillmentMessage> message) {
+		transferFunds(message, true);
+	}
+
+	/**
+	 * A transfer replayed from the DLQ by an operator. It is not checked against transferDeadline,
+	 * and its POST carries no BUDGET_HEADER: the DLQ record time it was rebuilt with says when it was
+	 * dead-lettered, not how long its sender is still waiting, and after an outage most of the
+	 * backlog would be past the deadline.
+	 */
+	public void replayTransfer(final TraceableMessage<TransferFulfillmentMessage> message) {
+		transferFunds(message, false);
+	}
+
+	private void transferFunds(final TraceableMessage<TransferFulfillmentMessage> message, boolean withDeadline) {
 		log.trace("service.transferFunds ENTRY");
 
 		// ---Move money to account first-------------
+		if (!isCompleted(message, CompletedStepCache.RECORDED)) {
+			if (withDeadline) {
+				checkDeadline(message, TransferDeadline.RECORD);
+			}
+			long start = System.nanoTime();
+			TransactionResponse transferResponse;
+			try {
+				transferResponse = withDeadline
+					? transactionDao.recordTransaction(message, buildTransactionRequest(message))
+					: transactionDao.recordTransaction(message, buildTransactionRequest(message), TransferDeadline.NONE);
+			} finally {
+				recordStage(StageLatencyRecorder.Stage.RECORD_TRANSACTION, start);
+			}
+			log.debug(transferResponse.toString());
+			complete(message, CompletedStepCache.RECORDED);
+		}
+
+		commitReservation(message);
+	
+		log.trace("service.transferFunds EXIT");
+	}
+
+	/**
+	 * Finishes a transfer whose transaction an earlier attempt recorded: only the reservation is
+	 * committed and the deadline does not apply.
+	 * @throws RecordedTransferException the commit failed transiently.
+	 */
+	public void commitRecorded(final TraceableMessage<TransferFulfillmentMessage> message) {
+		log.trace("service.commitRecorded ENTRY");
+		commitReservation(message);
+		log.trace("service.commitRecorded EXIT");
+	}
+
+	// ---commit reservation in from account second-------------
+	private void commitReservation(final TraceableMessage<TransferFulfillmentMessage> message) {
+		if (isCompleted(message, CompletedStepCache.COMMITTED)) {
+			return;
+		}
+		long start = System.nanoTime();
+		CommitReservationResponse commitResponse;
+		try {
+			commitResponse = transactionDao.commitReservation(message, buildCommitReservationRequest(message));
+		} catch (TransientDataAccessException ex) {
+			throw recorded(message, ex);
+		} finally {
+			recordStage(StageLatencyRecorder.Stage.COMMIT_RESERVATION, start);
+		}
+		log.debug(commitResponse.toString());
+		complete(message, CompletedStepCache.COMMITTED);
+	}
+
+	public CompletableFuture<Void> transferFundsAsync(final TraceableMessage<TransferFulfillmentMessage> message) {
+		log.trace("service.transferFundsAsync ENTRY");
+
+		final long start = System.nanoTime();
+		CompletableFuture<Void> recorded = isCompleted(message, CompletedStepCache.RECORDED)
+			? CompletableFuture.completedFuture(null)
+			: beforeDeadline(message, TransferDeadline.RECORD, () ->
+				asyncTransactionDao.recordTransaction(message, buildTransactionRequest(message))
+				.whenComplete((r, ex) -> recordStage(StageLatencyRecorder.Stage.RECORD_TRANSACTION, start))
+				.thenAccept(transferResponse -> {
+					log.debug(transferResponse.toString());
+					complete(message, CompletedStepCache.RECORDED);
+				}));
+
+		return recorded.thenCompose(v -> isCompleted(message, CompletedStepCache.COMMITTED)
+			? CompletableFuture.completedFuture(null)
+			: commitReservationAsync(message));
+	}
+
+	private CompletableFuture<Void> commitReservationAsync(final TraceableMessage<TransferFulfillmentMessage> message) {
+		final long start = System.nanoTime();
+		return asyncTransactionDao.commitReservation(message, buildCommitReservationRequest(message))
+				.whenComplete((r, ex) -> recordStage(StageLatencyRecorder.Stage.COMMIT_RESERVATION, start))
+				.handle((commitResponse, ex) -> {
+					if (ex != null) {
+						Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+						throw (cause instanceof TransientDataAccessException)
+							? recorded(message, (TransientDataAccessException) cause)
+							: new CompletionException(cause);
+					}
+					log.debug(commitResponse.toString());
+					complete(message, CompletedStepCache.COMMITTED);
+					return null;
+				});
+	}
+
+	private RecordedTransferException recorded(final TraceableMessage<TransferFulfillmentMessage> message, TransientDataAccessException ex) {
+		return new RecordedTransferException(String.format("Transfer %s recorded. Commit of reservation failed. %s",
+				message.getPayload().getRequestUuid(), ex.getLocalizedMessage()), ex);
+	}
+
+	/**
+	 * A transfer whose transaction is recorded is never expired; its reservation must be committed.
+	 * The attempt that recorded it reports that with RecordedTransferException; the cache only covers
+	 * redeliveries of a record whose attempt ended without saying so.
+	 * @throws TransferDeadlineExceededException the transfer has not been recorded and is past its deadline.
+	 */
+	public void checkDeadline(final TraceableMessage<TransferFulfillmentMessage> message, String stage) {
+		if (transferDeadline != null && transferDeadline.isExpired(message)
+				&& !isCompleted(message, CompletedStepCache.RECORDED)) {
+			throw transferDeadline.exceeded(stage);
+		}
+	}
+
+	private CompletableFuture<Void> beforeDeadline(final TraceableMessage<TransferFulfillmentMessage> message, String stage,
+			Supplier<CompletableFuture<Void>> step) {
+		try {
+			checkDeadline(message, stage);
+		} catch (TransferDeadlineExceededException ex) {
+			CompletableFuture<Void> expired = new CompletableFuture<>();
+			expired.completeExceptionally(ex);
+			return expired;
+		}
+		return step.get();
+	}
+
+	private boolean isCompleted(final TraceableMessage<TransferFulfillmentMessage> message, int step) {
+		if (completedStepCache != null && completedStepCache.isCompleted(message.getPayload().getRequestUuid(), step)) {
+			log.debug("Step {} of {} already completed. Skipped.", step, message.getPayload().getRequestUuid());
+			return true;
+		}
+		return false;
+	}
+
+	private void complete(final TraceableMessage<TransferFulfillmentMessage> message, int step) {
+		if (completedStepCache != null) {
+			completedStepCache.complete(message.getPayload().getRequestUuid(), step);
+		}
+		if (stepJournal != null) {
+			stepJournal.append(message.getPayload().getRequestUuid(), step);
+		}
+	}
+
+	private void recordStage(StageLatencyRecorder.Stage stage, long start) {
+		if (stageLatencyRecorder != null) {
+			stageLatencyRecorder.recordSince(stage, start);
+		}
+	}
+
+	private TransactionRequest buildTransactionRequest(final TraceableMessage<TransferFulfillmentMessage> message) {
 		TransactionRequest request = new TransactionRequest();
 		request.setAccountNumber(message.getPayload().getToAccountNumber());
 		request.setDebitCardNumber(null);
 		request.setRequestUuid(message.getPayload().getRequestUuid());
 		request.setTransactionAmount(message.getPayload().getTransactionAmount());
 		request.setTransactionMetaDataJson(message.getPayload().getTransactionMetaDataJson());
+		return request;
+	}
 
-		TransactionResponse transferResponse = transactionDao.recordTransaction(message, request);
-		log.debug(transferResponse.toString());
-
-		// ---commit reservation in from account second-------------
+	private CommitReservationRequest buildCommitReservationRequest(final TraceableMessage<TransferFulfillmentMessage> message) {
 		CommitReservationRequest commit = new CommitReservationRequest();
 		commit.setRequestUuid(message.getPayload().getRequestUuid());
 		commit.setReservationUuid(message.getPayload().getReservationUuid());
 		commit.setTransactionAmount(0L - message.getPayload().getTransactionAmount());
 		commit.setTransactionMetaDataJson(message.getPayload().getTransactionMetaDataJson());
-
-		CommitReservationResponse commitResponse = transactionDao.commitReservation(message, commit);
-		log.debug(commitResponse.toString());
-	
-		log.trace("service.transferFunds EXIT");
+		return commit;
 	}
 	
-	public void sendToDeadLetterQueue(final TransferFulfillmentDeadLetter message) {
-		log.trace("service.sendToDeadLetterQueue ENTRY");
-		kafkaDao.produceDLQMessage(message);
-		log.trace("service.sendToDeadLetterQueue EXIT");
+	public CompletableFuture<Void> sendToDeadLetterQueueAsync(final TransferFulfillmentDeadLetter message) {
+		log.trace("service.sendToDeadLetterQueueAsync ENTRY");
+		CompletableFuture<Void> future = kafkaDao.produceDLQMessageAsync(message);
+		log.trace("service.sendToDeadLetterQueueAsync EXIT");
+		return future;
+	}
+
+	public void sendToDeadLetterQueueInTransaction(final TransferFulfillmentDeadLetter message) {
+		log.trace("service.sendToDeadLetterQueueInTransaction ENTRY");
+		kafkaDao.produceDLQMessageInTransaction(message);
+		log.trace("service.sendToDeadLetterQueueInTransaction EXIT");
+	}
+
+	public CompletableFuture<Void> sendToExpiredQueueAsync(final TransferFulfillmentDeadLetter message) {
+		log.trace("service.sendToExpiredQueueAsync ENTRY");
+		CompletableFuture<Void> future = kafkaDao.produceExpiredMessageAsync(message);
+		log.trace("service.sendToExpiredQueueAsync EXIT");
+		return future;
+	}
+
+	public void sendToExpiredQueueInTransaction(final TransferFulfillmentDeadLetter message) {
+		log.trace("service.sendToExpiredQueueInTransaction ENTRY");
+		kafkaDao.produceExpiredMessageInTransaction(message);
+		log.trace("service.sendToExpiredQueueInTransaction EXIT");
+	}
+
+	/**
+	 * @param recorded the transaction is recorded; the retry tier commits the reservation only.
+	 */
+	public void sendToRetryQueue(final String topic, final TraceableMessage<TransferFulfillmentMessage> message, boolean recorded) {
+		log.trace("service.sendToRetryQueue ENTRY");
+		kafkaDao.produceRetryMessage(topic, message, recorded);
+		log.trace("service.sendToRetryQueue EXIT");
+	}
 
+	public void sendToRetryQueueInTransaction(final String topic, final TraceableMessage<TransferFulfillmentMessage> message, boolean recorded) {
+		log.trace("service.sendToRetryQueueInTransaction ENTRY");
+		kafkaDao.produceRetryMessageInTransaction(topic, message, recorded);
+		log.trace("service.sendToRetryQueueInTransaction EXIT");
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Connection pool that reports how long callers wait to lease a connection and how much
+ * of the pool is in use. A growing lease wait with a full pool means pool starvation; a
+ * short lease wait with slow calls means the downstream itself is slow.
+ */
+public class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+	private final Timer leaseWait;
+
+	public InstrumentedConnectionManager(MeterRegistry registry, String pool) {
+		super();
+		Tags tags = Tags.of("pool", pool);
+		leaseWait = Timer.builder("qslv.http.pool.lease.wait").tags(tags)
+				.publishPercentiles(0.5, 0.99).register(registry);
+		Gauge.builder("qslv.http.pool.leased", this, cm -> cm.getTotalStats().getLeased()).tags(tags).register(registry);
+		Gauge.builder("qslv.http.pool.available", this, cm -> cm.getTotalStats().getAvailable()).tags(tags).register(registry);
+		Gauge.builder("qslv.http.pool.pending", this, cm -> cm.getTotalStats().getPending()).tags(tags).register(registry);
+		Gauge.builder("qslv.http.pool.max", this, cm -> cm.getTotalStats().getMax()).tags(tags).register(registry);
+		Gauge.builder("qslv.http.pool.utilization", this,
+				cm -> cm.getTotalStats().getMax() == 0 ? 0.0 : (double) cm.getTotalStats().getLeased() / cm.getTotalStats().getMax())
+				.tags(tags).register(registry);
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+		final ConnectionRequest request = super.requestConnection(route, state);
+		return new ConnectionRequest() {
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+					throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				try {
+					return request.get(timeout, timeUnit);
+				} finally {
+					leaseWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				}
+			}
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+		};
+	}
+}
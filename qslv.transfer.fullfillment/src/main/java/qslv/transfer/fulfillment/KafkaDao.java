@@ -1,10 +1,19 @@
 package qslv.transfer.fulfillment;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Resource;
+
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,62 +23,280 @@ import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Repository;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
 import qslv.transfer.response.TransferFulfillmentDeadLetter;
 
 @Repository
 public class KafkaDao {
 	private static final Logger log = LoggerFactory.getLogger(KafkaDao.class);
+	// on retry tier records whose transaction is already recorded
+	public static final String RECORDED_HEADER = "transfer-recorded";
 
 	@Autowired
 	private ConfigProperties config;
 	@Autowired
-	private KafkaTemplate<String, String> kafkaTemplate;
+	private KafkaTemplate<String, byte[]> kafkaTemplate;
+	@Autowired
+	private KafkaTemplate<String, TraceableMessage<TransferFulfillmentMessage>> retryKafkaTemplate;
+	@Resource(name="transactionalDlqKafkaTemplate")
+	private KafkaTemplate<String, byte[]> transactionalKafkaTemplate;
+	@Resource(name="retryValueSerializer")
+	private Serializer<TraceableMessage<TransferFulfillmentMessage>> retryValueSerializer;
+	@Autowired
+	private DeadLetterEncoder deadLetterEncoder;
 	@Autowired
-	private ObjectMapper objectMapper;
+	private DlqSpillQueue dlqSpillQueue;
 
 
 	public void setConfig(ConfigProperties config) {
 		this.config = config;
 	}
 
-	public void setKafkaTemplate(KafkaTemplate<String, String> kafkaTemplate) {
+	public void setKafkaTemplate(KafkaTemplate<String, byte[]> kafkaTemplate) {
 		this.kafkaTemplate = kafkaTemplate;
 	}
 
-	public void setObjectMapper(ObjectMapper objectMapper) {
-		this.objectMapper = objectMapper;
+	public void setRetryKafkaTemplate(KafkaTemplate<String, TraceableMessage<TransferFulfillmentMessage>> retryKafkaTemplate) {
+		this.retryKafkaTemplate = retryKafkaTemplate;
+	}
+
+	public void setTransactionalKafkaTemplate(KafkaTemplate<String, byte[]> transactionalKafkaTemplate) {
+		this.transactionalKafkaTemplate = transactionalKafkaTemplate;
+	}
+
+	public void setRetryValueSerializer(Serializer<TraceableMessage<TransferFulfillmentMessage>> retryValueSerializer) {
+		this.retryValueSerializer = retryValueSerializer;
+	}
+
+	public void setDeadLetterEncoder(DeadLetterEncoder deadLetterEncoder) {
+		this.deadLetterEncoder = deadLetterEncoder;
+	}
+
+	public void setDlqSpillQueue(DlqSpillQueue dlqSpillQueue) {
+		this.dlqSpillQueue = dlqSpillQueue;
 	}
 
+	/**
+	 * With the DlqSpillQueue enabled, a failed send returns once the record is spilled to disk, and
+	 * while spilled records wait for the topic new ones are spilled behind them, as in produceDLQMessageAsync().
+	 */
 	public void produceDLQMessage(TransferFulfillmentDeadLetter message) throws DataAccessException {
 		log.trace("ENTRY produceDLQMessage");
 		
+		ProducerRecord<String, byte[]> deadLetter;
 		try {
-			String messageJson = objectMapper.writer().withDefaultPrettyPrinter().writeValueAsString(message);
+			deadLetter = deadLetterEncoder.encode(config.getKafkaDeadLetterQueue(),
+					message.getRequest().getFromAccountNumber(), message);
+		} catch (JsonProcessingException | SerializationException ex) {
+			log.debug(ex.getLocalizedMessage());
+			throw new NonTransientDataAccessResourceException("Dead letter encoding failed for Kafka Producer.",
+					ex);
+		}
+
+		if (canSpill() && dlqSpillQueue.hasBacklog()) {
+			spill(deadLetter, null);
+			log.trace("EXIT produceDLQMessage");
+			return;
+		}
 
+		try {
 			// TODO: retries across data centers
 			// retries handled internally in kafka
 			// wait with timemout for post to complete.
-			// kafkaTemplate auto-flush is set to true. timeouts are in properties.
+			// kafkaTemplate auto-flush is off, so this waits up to linger.ms for the batch. timeouts are in properties.
 
-			ProducerRecord<String, String> record = kafkaTemplate
-					.send(config.getKafkaDeadLetterQueue(), message.getRequest().getFromAccountNumber(), messageJson)
+			ProducerRecord<String, byte[]> record = kafkaTemplate.send(deadLetter)
 					.get(config.getKafkaTimeout(), TimeUnit.MILLISECONDS).getProducerRecord();
 
-			log.debug("Kakfa Produce {}", record.value());
-		} catch (ExecutionException ex) {
+			log.debug("Kakfa Produce {} bytes to {}", record.value().length, record.topic());
+		} catch (ExecutionException | TimeoutException | InterruptedException | KafkaException ex) {
+			log.debug(ex.getLocalizedMessage());
+			if (!canSpill()) {
+				throw new TransientDataAccessResourceException("Kafka Producer failure", ex);
+			}
+			spill(deadLetter, ex);
+		}
+		
+		// TODO: log time it took
+		log.trace("EXIT produceDLQMessage");
+	}
+
+	/**
+	 * Non-blocking variant of produceDLQMessage(). The record joins the producer's current batch;
+	 * the future completes once the broker has confirmed it, or with a TransientDataAccessResourceException
+	 * if the send failed. A message that cannot be serialized fails with a NonTransientDataAccessResourceException.
+	 * With the DlqSpillQueue enabled, a failed send completes once the record is spilled to disk, and
+	 * while spilled records wait for the topic new ones are spilled behind them.
+	 */
+	public CompletableFuture<Void> produceDLQMessageAsync(TransferFulfillmentDeadLetter message) {
+		return produceDeadLetterAsync(config.getKafkaDeadLetterQueue(), message);
+	}
+
+	/**
+	 * produceDLQMessageAsync() to kafkaExpiredQueue, for transfers past their transferDeadline.
+	 * Without a kafkaExpiredQueue they go to the DLQ.
+	 */
+	public CompletableFuture<Void> produceExpiredMessageAsync(TransferFulfillmentDeadLetter message) {
+		return produceDeadLetterAsync(expiredQueue(), message);
+	}
+
+	private CompletableFuture<Void> produceDeadLetterAsync(String topic, TransferFulfillmentDeadLetter message) {
+		log.trace("ENTRY produceDLQMessageAsync");
+		CompletableFuture<Void> result = new CompletableFuture<>();
+
+		ProducerRecord<String, byte[]> deadLetter;
+		try {
+			deadLetter = deadLetterEncoder.encode(topic, message.getRequest().getFromAccountNumber(), message);
+		} catch (JsonProcessingException | SerializationException ex) {
+			log.debug(ex.getLocalizedMessage());
+			result.completeExceptionally(new NonTransientDataAccessResourceException("Dead letter encoding failed for Kafka Producer.",
+					ex));
+			return result;
+		}
+
+		if (canSpill() && dlqSpillQueue.hasBacklog()) {
+			spill(deadLetter, result, null);
+			return result;
+		}
+
+		try {
+			kafkaTemplate.send(deadLetter)
+				.addCallback(sendResult -> {
+					log.debug("Kakfa Produce {} bytes to {}", sendResult.getProducerRecord().value().length, sendResult.getProducerRecord().topic());
+					result.complete(null);
+				}, ex -> sendFailed(deadLetter, result, ex));
+		} catch (RuntimeException ex) {
+			// buffer full past max.block.ms, producer closed
+			sendFailed(deadLetter, result, ex);
+		}
+
+		log.trace("EXIT produceDLQMessageAsync");
+		return result;
+	}
+
+	/**
+	 * Produces into the Kafka transaction the listener container began for the current batch, on the
+	 * consumer thread. The send is not awaited: the transaction commit flushes it and fails, rolling
+	 * back the batch, if the broker did not take it. Dead letters are never spilled in this mode.
+	 */
+	public void produceDLQMessageInTransaction(TransferFulfillmentDeadLetter message) throws DataAccessException {
+		produceDeadLetterInTransaction(config.getKafkaDeadLetterQueue(), message);
+	}
+
+	public void produceExpiredMessageInTransaction(TransferFulfillmentDeadLetter message) throws DataAccessException {
+		produceDeadLetterInTransaction(expiredQueue(), message);
+	}
+
+	private void produceDeadLetterInTransaction(String topic, TransferFulfillmentDeadLetter message) throws DataAccessException {
+		log.trace("ENTRY produceDLQMessageInTransaction");
+
+		try {
+			ProducerRecord<String, byte[]> deadLetter = deadLetterEncoder.encode(topic,
+					message.getRequest().getFromAccountNumber(), message);
+			transactionalKafkaTemplate.send(deadLetter);
+			log.debug("Kakfa Produce {} bytes to {} in transaction", deadLetter.value().length, deadLetter.topic());
+		} catch (JsonProcessingException | SerializationException ex) {
+			log.debug(ex.getLocalizedMessage());
+			throw new NonTransientDataAccessResourceException("Dead letter encoding failed for Kafka Producer.",
+					ex);
+		} catch (KafkaException ex) {
 			log.debug(ex.getLocalizedMessage());
 			throw new TransientDataAccessResourceException("Kafka Producer failure", ex);
-		} catch (TimeoutException | InterruptedException ex) {
+		}
+
+		log.trace("EXIT produceDLQMessageInTransaction");
+	}
+
+	private String expiredQueue() {
+		return config.getKafkaExpiredQueue() == null || config.getKafkaExpiredQueue().isEmpty()
+				? config.getKafkaDeadLetterQueue() : config.getKafkaExpiredQueue();
+	}
+
+	private boolean canSpill() {
+		return dlqSpillQueue != null && dlqSpillQueue.isEnabled();
+	}
+
+	private void sendFailed(ProducerRecord<String, byte[]> deadLetter, CompletableFuture<Void> result, Throwable ex) {
+		log.debug(ex.getLocalizedMessage());
+		if (canSpill()) {
+			spill(deadLetter, result, ex);
+		} else {
+			result.completeExceptionally(new TransientDataAccessResourceException("Kafka Producer failure", ex));
+		}
+	}
+
+	/**
+	 * Spills on the calling thread, which was waiting for the broker anyway.
+	 */
+	private void spill(ProducerRecord<String, byte[]> deadLetter, Exception ex) {
+		if (!dlqSpillQueue.append(deadLetter)) {
+			throw new TransientDataAccessResourceException("Kafka Producer failure. DLQ spill unavailable.", ex);
+		}
+		log.warn("DLQ unavailable. Dead letter spilled to disk, {} waiting.", dlqSpillQueue.depth());
+	}
+
+	private void spill(ProducerRecord<String, byte[]> deadLetter, CompletableFuture<Void> result, Throwable ex) {
+		dlqSpillQueue.appendAsync(deadLetter).thenAccept(spilled -> {
+			if (spilled) {
+				log.warn("DLQ unavailable. Dead letter spilled to disk, {} waiting.", dlqSpillQueue.depth());
+				result.complete(null);
+			} else {
+				result.completeExceptionally(new TransientDataAccessResourceException("Kafka Producer failure. DLQ spill unavailable.", ex));
+			}
+		});
+	}
+
+	public void produceRetryMessage(String topic, TraceableMessage<TransferFulfillmentMessage> message, boolean recorded) throws DataAccessException {
+		log.trace("ENTRY produceRetryMessage");
+
+		try {
+			// the record timestamp set by the producer is the base of the tier's delivery delay.
+			ProducerRecord<String, TraceableMessage<TransferFulfillmentMessage>> retry = new ProducerRecord<>(topic, null,
+					message.getPayload().getFromAccountNumber(), message, retryHeaders(recorded));
+			ProducerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = retryKafkaTemplate
+					.send(retry)
+					.get(config.getKafkaTimeout(), TimeUnit.MILLISECONDS).getProducerRecord();
+
+			log.debug("Kakfa Produce {} to {}", record.value().getPayload().getRequestUuid(), topic);
+		} catch (ExecutionException | TimeoutException | InterruptedException ex) {
 			log.debug(ex.getLocalizedMessage());
 			throw new TransientDataAccessResourceException("Kafka Producer failure", ex);
-		} catch (JsonProcessingException ex) {
+		}
+
+		log.trace("EXIT produceRetryMessage");
+	}
+
+	/**
+	 * produceRetryMessage() into the Kafka transaction the listener container began for the current
+	 * batch, on the consumer thread, so the retry record is committed with the batch's offsets or
+	 * aborted with them. The value is serialized as the retry producer would.
+	 */
+	public void produceRetryMessageInTransaction(String topic, TraceableMessage<TransferFulfillmentMessage> message, boolean recorded) throws DataAccessException {
+		log.trace("ENTRY produceRetryMessageInTransaction");
+
+		try {
+			Headers headers = retryHeaders(recorded);
+			ProducerRecord<String, byte[]> retry = new ProducerRecord<>(topic, null, message.getPayload().getFromAccountNumber(),
+					retryValueSerializer.serialize(topic, headers, message), headers);
+			transactionalKafkaTemplate.send(retry);
+			log.debug("Kakfa Produce {} to {} in transaction", message.getPayload().getRequestUuid(), topic);
+		} catch (SerializationException ex) {
 			log.debug(ex.getLocalizedMessage());
-			throw new NonTransientDataAccessResourceException("Jackson JSON object Mapper failed for Kafka Producer.",
-					ex);
+			throw new NonTransientDataAccessResourceException("Retry serialization failed for Kafka Producer.", ex);
+		} catch (KafkaException ex) {
+			log.debug(ex.getLocalizedMessage());
+			throw new TransientDataAccessResourceException("Kafka Producer failure", ex);
 		}
-		
-		// TODO: log time it took
-		log.trace("EXIT produceDLQMessage");
+
+		log.trace("EXIT produceRetryMessageInTransaction");
+	}
+
+	private Headers retryHeaders(boolean recorded) {
+		Headers headers = new RecordHeaders();
+		if (recorded) {
+			headers.add(new RecordHeader(RECORDED_HEADER, new byte[] { 1 }));
+		}
+		return headers;
 	}
 }
@@ -1,5 +1,8 @@
 package qslv.transfer.fulfillment;
 
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,21 +17,87 @@ import qslv.transfer.request.TransferFulfillmentMessage;
 public class KafkaFulfillmentListener {
 	private static final Logger log = LoggerFactory.getLogger(KafkaFulfillmentListener.class);
 
+	@Autowired
+	private ConfigProperties config;
 	@Autowired
 	private FulfillmentController fulfillmentController;
+	@Autowired
+	private KeyOrderedDispatcher keyOrderedDispatcher;
+	@Autowired
+	private PendingAcknowledgments pendingAcknowledgments;
+	@Autowired
+	private OffsetCommitCoordinator offsetCommitCoordinator;
+	@Autowired
+	private TransactionRollbackTracker transactionRollbackTracker;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
 
 	public void setFulfillmentController(FulfillmentController fulfillmentController) {
 		this.fulfillmentController = fulfillmentController;
 	}
 
-	@KafkaListener(topics = "#{@configProperties.kafkaTransferRequestQueue}")
-	void onMessage(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Acknowledgment acknowledgment) {
+	public void setKeyOrderedDispatcher(KeyOrderedDispatcher keyOrderedDispatcher) {
+		this.keyOrderedDispatcher = keyOrderedDispatcher;
+	}
+
+	public void setPendingAcknowledgments(PendingAcknowledgments pendingAcknowledgments) {
+		this.pendingAcknowledgments = pendingAcknowledgments;
+	}
+
+	public void setOffsetCommitCoordinator(OffsetCommitCoordinator offsetCommitCoordinator) {
+		this.offsetCommitCoordinator = offsetCommitCoordinator;
+	}
+
+	public void setTransactionRollbackTracker(TransactionRollbackTracker transactionRollbackTracker) {
+		this.transactionRollbackTracker = transactionRollbackTracker;
+	}
+
+	@KafkaListener(topics = "#{@configProperties.kafkaTransferRequestQueue}",
+			autoStartup = "#{@configProperties.consumerMode.name() != 'BATCH' && !@configProperties.dlqReplayCli}")
+	void onMessage(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Acknowledgment acknowledgment,
+			Consumer<?, ?> consumer) throws InterruptedException {
 		log.trace("onMessage ENTRY");
 
-		fulfillmentController.fulfill(data, acknowledgment);
+		boolean keyOrdered = config.getConsumerMode() == ConfigProperties.ConsumerMode.KEY_ORDERED
+				|| config.getConsumerMode() == ConfigProperties.ConsumerMode.ASYNC;
+		if (keyOrdered) {
+			keyOrderedDispatcher.seekFailed(consumer);
+		} else {
+			pendingAcknowledgments.seekFailed(consumer);
+		}
+		if (keyOrdered ? keyOrderedDispatcher.isStale(data) : pendingAcknowledgments.isStale(data)) {
+			// fetched before its partition was sought back to a failed record; it comes again after it
+			log.trace("onMessage EXIT");
+			return;
+		}
+
+		Acknowledgment coordinated = offsetCommitCoordinator.track(data, acknowledgment);
+		if (keyOrdered) {
+			keyOrderedDispatcher.dispatch(data, coordinated);
+		} else {
+			fulfillmentController.fulfill(data, pendingAcknowledgments.track(data, coordinated));
+		}
+		offsetCommitCoordinator.commitIfDue(consumer);
 
 		log.trace("onMessage EXIT");
 	}
 
+	@KafkaListener(topics = "#{@configProperties.kafkaTransferRequestQueue}", containerFactory = "batchKafkaListenerContainerFactory",
+			autoStartup = "#{@configProperties.consumerMode.name() == 'BATCH' && !@configProperties.dlqReplayCli}")
+	void onBatch(final List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data, Acknowledgment acknowledgment,
+			Consumer<?, ?> consumer) {
+		log.trace("onBatch ENTRY");
+
+		if (config.isKafkaTransactional()) {
+			// partitions of rolled back batches; the others keep delivering while they are paused
+			transactionRollbackTracker.resumeDue(consumer);
+		}
+
+		fulfillmentController.fulfillBatch(data, acknowledgment);
+
+		log.trace("onBatch EXIT");
+	}
 
 }
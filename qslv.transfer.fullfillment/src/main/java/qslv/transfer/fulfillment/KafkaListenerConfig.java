@@ -1,8 +1,15 @@
 package qslv.transfer.fulfillment;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Resource;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -11,8 +18,12 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
 import org.springframework.kafka.listener.ContainerProperties.AckMode;
+import org.springframework.kafka.listener.ContainerProperties.EOSMode;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 
 import qslv.common.kafka.JacksonAvroDeserializer;
 import qslv.common.kafka.TraceableMessage;
@@ -23,6 +34,18 @@ public class KafkaListenerConfig {
 
 	@Autowired
 	ConfigProperties config;
+	@Autowired
+	KeyOrderedDispatcher keyOrderedDispatcher;
+	@Autowired
+	PendingAcknowledgments pendingAcknowledgments;
+	@Autowired
+	OffsetCommitCoordinator offsetCommitCoordinator;
+	@Autowired
+	KafkaTransactionManager<String, byte[]> kafkaTransactionManager;
+	@Autowired
+	StageLatencyRecorder stageLatencyRecorder;
+	@Autowired
+	TransactionRollbackTracker transactionRollbackTracker;
 
 	@Resource(name="listenerConfig")
 	public Map<String,Object> listenerConfig;	
@@ -34,15 +57,95 @@ public class KafkaListenerConfig {
     	JacksonAvroDeserializer<TraceableMessage<TransferFulfillmentMessage>> jad = new JacksonAvroDeserializer<>();
     	jad.configure(listenerConfig);
     	
-        return new DefaultKafkaConsumerFactory<>(listenerConfig, new StringDeserializer(),  jad);
+        return new DefaultKafkaConsumerFactory<>(listenerConfig, new StringDeserializer(),  new TimedDeserializer<>(jad, stageLatencyRecorder));
     }
     
     @Bean
     public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, TraceableMessage<TransferFulfillmentMessage>>> kafkaListenerContainerFactory() throws Exception {
     
+        ConcurrentKafkaListenerContainerFactory<String, TraceableMessage<TransferFulfillmentMessage>> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(config.getKafkaConcurrency());
+        factory.getContainerProperties().setAckMode(AckMode.MANUAL_IMMEDIATE);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+        	@Override
+        	public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        		// let parallel work and pending dead letters finish so their acknowledgments are committed with the revoke
+        		keyOrderedDispatcher.drain(partitions);
+        		pendingAcknowledgments.drain(partitions);
+        		offsetCommitCoordinator.commitSync(consumer, partitions, true);
+        	}
+        });
+        // idle consumers still commit acknowledgments that complete after their last record,
+        // and seek back to records whose dead letter failed after they moved on
+        factory.getContainerProperties().setIdleEventInterval(idleEventInterval());
+        return factory;
+    }
+
+    private long idleEventInterval() {
+    	return config.isKafkaAsyncCommits() ? Math.min(config.getKafkaCommitInterval(), config.getKafkaTimeout()) : config.getKafkaTimeout();
+    }
+
+    //--Fulfillment Batch Consumer
+    @Bean
+    public ConsumerFactory<String, TraceableMessage<TransferFulfillmentMessage>> batchConsumerFactory() throws Exception {
+    	Map<String,Object> batchConfig = new HashMap<>(listenerConfig);
+    	batchConfig.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, config.getKafkaMaxPollRecords());
+    	if (config.isKafkaTransactional()) {
+    		batchConfig.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+    	}
+
+    	JacksonAvroDeserializer<TraceableMessage<TransferFulfillmentMessage>> jad = new JacksonAvroDeserializer<>();
+    	jad.configure(batchConfig);
+
+        return new DefaultKafkaConsumerFactory<>(batchConfig, new StringDeserializer(),  new TimedDeserializer<>(jad, stageLatencyRecorder));
+    }
+
+    @Bean
+    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, TraceableMessage<TransferFulfillmentMessage>>> batchKafkaListenerContainerFactory() throws Exception {
+
+        ConcurrentKafkaListenerContainerFactory<String, TraceableMessage<TransferFulfillmentMessage>> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(batchConsumerFactory());
+        factory.setConcurrency(config.getKafkaConcurrency());
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(AckMode.MANUAL);
+        if (config.isKafkaTransactional()) {
+        	if (config.getConsumerMode() != ConfigProperties.ConsumerMode.BATCH) {
+        		throw new IllegalStateException(String.format("Kafka transactions need the BATCH consumer mode, not %s.", config.getConsumerMode()));
+        	}
+        	// one transaction per poll, so kafkaMaxPollRecords sets how many records share its cost
+        	factory.getContainerProperties().setTransactionManager(kafkaTransactionManager);
+        	factory.setAfterRollbackProcessor(new DefaultAfterRollbackProcessor<String, TraceableMessage<TransferFulfillmentMessage>>() {
+        		@Override
+        		public void process(List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> records,
+        				Consumer<String, TraceableMessage<TransferFulfillmentMessage>> consumer, Exception exception,
+        				boolean recoverable, EOSMode eosMode) {
+        			// the batch has been seeked back; its partitions pause before it is redelivered, as nack() would sleep
+        			super.process(records, consumer, exception, recoverable, eosMode);
+        			transactionRollbackTracker.rolledBack(records, consumer);
+        		}
+        	});
+        	// resumes paused partitions when no batch arrives
+        	factory.getContainerProperties().setIdleEventInterval((long) config.getKafkaTimeout());
+        }
+        return factory;
+    }
+
+    //--Delayed Retry Consumer. Each retry tier gets its own container so a sleeping tier never holds up another.
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, TraceableMessage<TransferFulfillmentMessage>> retryKafkaListenerContainerFactory() throws Exception {
+
         ConcurrentKafkaListenerContainerFactory<String, TraceableMessage<TransferFulfillmentMessage>> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
         factory.getContainerProperties().setAckMode(AckMode.MANUAL_IMMEDIATE);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+        	@Override
+        	public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        		pendingAcknowledgments.drain(partitions);
+        		offsetCommitCoordinator.commitSync(consumer, partitions, true);
+        	}
+        });
+        factory.getContainerProperties().setIdleEventInterval(idleEventInterval());
         return factory;
     }
 }
@@ -3,18 +3,26 @@ package qslv.transfer.fulfillment;
 import java.util.Map;
 import javax.annotation.Resource;
 
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import qslv.common.kafka.JacksonAvroSerializer;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
 @Configuration
 public class KafkaProducerConfig {
 	@Autowired
@@ -24,15 +32,54 @@ public class KafkaProducerConfig {
 	Map<String,Object> producerConfig;
 
 	@Bean
-	public ProducerFactory<String, String> transferDlqProducerFactory() throws Exception {
-		return new DefaultKafkaProducerFactory<>(producerConfig, new StringSerializer(), new StringSerializer());
+	@Primary
+	public ProducerFactory<String, byte[]> transferDlqProducerFactory() throws Exception {
+		// values arrive encoded by the DeadLetterEncoder
+		return new DefaultKafkaProducerFactory<>(producerConfig, new StringSerializer(), new ByteArraySerializer());
+	}
+
+	@Bean
+	@Primary
+	public KafkaTemplate<String, byte[]> transferDlqKafkaTemplate() throws Exception {
+		return new KafkaTemplate<>(transferDlqProducerFactory(), false); // batched per linger.ms/batch.size; senders wait on the send future.
+	}
+
+	//--Transactional DLQ producer for the kafkaTransactional BATCH consumer. Producers are created on first use.
+	@Bean
+	public ProducerFactory<String, byte[]> transactionalDlqProducerFactory() throws Exception {
+		DefaultKafkaProducerFactory<String, byte[]> factory = new DefaultKafkaProducerFactory<>(producerConfig,
+				new StringSerializer(), new ByteArraySerializer());
+		factory.setTransactionIdPrefix(config.getKafkaTransactionIdPrefix());
+		return factory;
+	}
+
+	@Bean
+	public KafkaTemplate<String, byte[]> transactionalDlqKafkaTemplate() throws Exception {
+		return new KafkaTemplate<>(transactionalDlqProducerFactory(), false); // flushed by the transaction commit.
 	}
 
 	@Bean
-	public KafkaTemplate<String, String> transferDlqKafkaTemplate() throws Exception {
-		return new KafkaTemplate<>(transferDlqProducerFactory(), true); // auto-flush true, to force each message to broker.
+	public KafkaTransactionManager<String, byte[]> kafkaTransactionManager() throws Exception {
+		return new KafkaTransactionManager<>(transactionalDlqProducerFactory());
 	}
 	
+	@Bean
+	public Serializer<TraceableMessage<TransferFulfillmentMessage>> retryValueSerializer() throws Exception {
+		JacksonAvroSerializer<TraceableMessage<TransferFulfillmentMessage>> jas = new JacksonAvroSerializer<>();
+		jas.configure(producerConfig);
+		return jas;
+	}
+
+	@Bean
+	public ProducerFactory<String, TraceableMessage<TransferFulfillmentMessage>> retryProducerFactory() throws Exception {
+		return new DefaultKafkaProducerFactory<>(producerConfig, new StringSerializer(), retryValueSerializer());
+	}
+
+	@Bean
+	public KafkaTemplate<String, TraceableMessage<TransferFulfillmentMessage>> retryKafkaTemplate() throws Exception {
+		return new KafkaTemplate<>(retryProducerFactory(), true); // auto-flush true, to force each message to broker.
+	}
+
 	@Bean
 	ObjectMapper objectMapper() {
 		ObjectMapper mapper = new ObjectMapper();
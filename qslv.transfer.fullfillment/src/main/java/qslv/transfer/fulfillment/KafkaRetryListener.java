@@ -0,0 +1,161 @@
+package qslv.transfer.fulfillment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+/**
+ * Consumes the delayed retry tiers. Every record of a tier waits the same delay, so records
+ * become due in offset order and the tier's consumer can simply wait for the head record.
+ * Only that tier's consumer waits; the main queue and the other tiers keep flowing.
+ * <p>
+ * Each tier consumes in its own consumer group, so a waiting tier never delays the rebalances
+ * or the commits of another. A wait is capped at half of max.poll.interval.ms; a longer delay
+ * is waited out over several redeliveries of the head record.
+ * <p>
+ * Records in the retry tiers are keyed by from-account but leave the main queue's order:
+ * a later transfer of the same account can complete before an earlier one waiting in a tier,
+ * whatever the consumerMode. KEY_ORDERED only orders records within one topic.
+ */
+@Component
+public class KafkaRetryListener implements SmartLifecycle {
+	private static final Logger log = LoggerFactory.getLogger(KafkaRetryListener.class);
+	private static final long DEFAULT_MAX_POLL_INTERVAL = 300000L;
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private FulfillmentController fulfillmentController;
+	@Autowired
+	private PendingAcknowledgments pendingAcknowledgments;
+	@Autowired
+	private OffsetCommitCoordinator offsetCommitCoordinator;
+	@Resource(name="listenerConfig")
+	private Map<String,Object> listenerConfig;
+	@Autowired
+	private ConcurrentKafkaListenerContainerFactory<String, TraceableMessage<TransferFulfillmentMessage>> retryKafkaListenerContainerFactory;
+
+	private final List<ConcurrentMessageListenerContainer<String, TraceableMessage<TransferFulfillmentMessage>>> containers = new ArrayList<>();
+	private volatile boolean running = false;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setFulfillmentController(FulfillmentController fulfillmentController) {
+		this.fulfillmentController = fulfillmentController;
+	}
+
+	public void setPendingAcknowledgments(PendingAcknowledgments pendingAcknowledgments) {
+		this.pendingAcknowledgments = pendingAcknowledgments;
+	}
+
+	public void setOffsetCommitCoordinator(OffsetCommitCoordinator offsetCommitCoordinator) {
+		this.offsetCommitCoordinator = offsetCommitCoordinator;
+	}
+
+	public void setListenerConfig(Map<String, Object> listenerConfig) {
+		this.listenerConfig = listenerConfig;
+	}
+
+	@Override
+	public void start() {
+		if (config.getKafkaRetryQueues().size() != config.getKafkaRetryDelays().size()) {
+			throw new IllegalStateException(String.format("%d retry queues configured with %d retry delays.",
+					config.getKafkaRetryQueues().size(), config.getKafkaRetryDelays().size()));
+		}
+		for (int tier = 0; tier < config.getKafkaRetryQueues().size(); tier++) {
+			final int thisTier = tier;
+			ConcurrentMessageListenerContainer<String, TraceableMessage<TransferFulfillmentMessage>> container =
+					retryKafkaListenerContainerFactory.createContainer(config.getKafkaRetryQueues().get(tier));
+			container.setBeanName("retry-tier-" + tier);
+			String groupId = groupId(config.getKafkaRetryQueues().get(tier));
+			if (groupId != null) {
+				container.getContainerProperties().setGroupId(groupId);
+			}
+			container.setupMessageListener(
+					(AcknowledgingConsumerAwareMessageListener<String, TraceableMessage<TransferFulfillmentMessage>>) (data, acknowledgment, consumer) -> {
+						pendingAcknowledgments.seekFailed(consumer);
+						if (pendingAcknowledgments.isStale(data)) {
+							return;
+						}
+						onMessage(data, offsetCommitCoordinator.track(data, acknowledgment), thisTier);
+						offsetCommitCoordinator.commitIfDue(consumer);
+					});
+			container.start();
+			containers.add(container);
+			log.info("Retry tier {} consuming {} with {} ms delay.", tier, config.getKafkaRetryQueues().get(tier),
+					config.getKafkaRetryDelays().get(tier));
+		}
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		containers.forEach(ConcurrentMessageListenerContainer::stop);
+		containers.clear();
+		running = false;
+	}
+
+	public void pause() {
+		containers.forEach(ConcurrentMessageListenerContainer::pause);
+	}
+
+	public void resume() {
+		containers.forEach(ConcurrentMessageListenerContainer::resume);
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return !config.isDlqReplayCli();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	void onMessage(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data, Acknowledgment acknowledgment, int tier) {
+		log.trace("onMessage ENTRY");
+
+		// an earlier record's dead letter may still be in flight; hold this record's commit behind it
+		Acknowledgment tracked = pendingAcknowledgments.track(data, acknowledgment);
+		long wait = data.timestamp() + config.getKafkaRetryDelays().get(tier) - System.currentTimeMillis();
+		if (wait > 0) {
+			// not due yet. Seek back and sleep until the head of this tier is due, polling
+			// again in time to stay in the group.
+			tracked.nack(Math.min(wait, maxPollInterval() / 2));
+		} else {
+			fulfillmentController.fulfillRetry(data, tracked, tier);
+		}
+
+		log.trace("onMessage EXIT");
+	}
+
+	private String groupId(String topic) {
+		Object groupId = (listenerConfig == null) ? null : listenerConfig.get(ConsumerConfig.GROUP_ID_CONFIG);
+		return (groupId == null) ? null : groupId + "-" + topic;
+	}
+
+	private long maxPollInterval() {
+		Object interval = (listenerConfig == null) ? null : listenerConfig.get(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG);
+		return (interval == null) ? DEFAULT_MAX_POLL_INTERVAL : Long.parseLong(interval.toString());
+	}
+}
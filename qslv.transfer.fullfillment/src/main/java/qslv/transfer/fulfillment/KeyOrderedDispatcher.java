@@ -0,0 +1,269 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+/**
+ * Runs records with different from-account keys in parallel while records sharing a key
+ * run strictly in offset order. Offsets are only acknowledged once every earlier record of
+ * the partition has completed, so a commit never skips unfinished work. The in-flight
+ * window (fulfillmentMaxInFlight) bounds both the KEY_ORDERED and the ASYNC modes.
+ */
+@Component
+public class KeyOrderedDispatcher {
+	private static final Logger log = LoggerFactory.getLogger(KeyOrderedDispatcher.class);
+	private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private FulfillmentController fulfillmentController;
+	@Resource(name = "fulfillmentExecutor")
+	private ExecutorService executor;
+
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<TopicPartition, PartitionOffsetTracker> trackers = new ConcurrentHashMap<>();
+	private Semaphore inFlight;
+	private ScheduledExecutorService scheduler;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setFulfillmentController(FulfillmentController fulfillmentController) {
+		this.fulfillmentController = fulfillmentController;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	@PostConstruct
+	public void init() {
+		inFlight = new Semaphore(config.getFulfillmentMaxInFlight());
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "fulfillment-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Called on the consumer thread. Blocks only when the in-flight window is full.
+	 */
+	public void dispatch(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data,
+			final Acknowledgment acknowledgment) throws InterruptedException {
+		inFlight.acquire();
+
+		PartitionOffsetTracker tracker = trackers.computeIfAbsent(new TopicPartition(data.topic(), data.partition()),
+				tp -> new PartitionOffsetTracker());
+		tracker.register(data.offset(), acknowledgment);
+
+		final String key = orderingKey(data);
+		final Supplier<CompletableFuture<Void>> task = (config.getConsumerMode() == ConfigProperties.ConsumerMode.ASYNC)
+				? () -> processAsync(data, tracker)
+				: () -> process(data, tracker);
+		// each record starts when the previous record of its key has finished
+		CompletableFuture<Void> lane = lanes.compute(key, (k, tail) -> (tail == null ? DONE : tail)
+				.thenComposeAsync(v -> task.get(), executor));
+		lane.whenComplete((v, ex) -> lanes.remove(key, lane));
+	}
+
+	/**
+	 * Wait for in-flight work of revoked partitions so their offsets can be committed
+	 * before the partitions move to another consumer.
+	 */
+	public void drain(Collection<TopicPartition> partitions) {
+		for (TopicPartition partition : partitions) {
+			PartitionOffsetTracker tracker = trackers.get(partition);
+			if (tracker == null) {
+				continue;
+			}
+			try {
+				if (!tracker.awaitEmpty(config.getFulfillmentDrainTimeout())) {
+					log.warn("{} records of {} still in flight after {} ms. They will be redelivered.",
+							tracker.size(), partition, config.getFulfillmentDrainTimeout());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			trackers.remove(partition, tracker);
+		}
+	}
+
+	/**
+	 * Consumer thread, before dispatch().
+	 * @return true if the record must be skipped because its partition was sought back to an
+	 * earlier failed record.
+	 */
+	public boolean isStale(final ConsumerRecord<?, ?> data) {
+		PartitionOffsetTracker tracker = trackers.get(new TopicPartition(data.topic(), data.partition()));
+		return tracker != null && tracker.isStale(data.offset());
+	}
+
+	/**
+	 * Consumer thread. Seeks back to records whose dead letter could not be sent after their lane moved on.
+	 */
+	public void seekFailed(Consumer<?, ?> consumer) {
+		PartitionOffsetTracker.seekFailed(consumer, trackers, config.getKafkaTimeout());
+	}
+
+	@EventListener
+	public void onIdle(ListenerContainerIdleEvent event) {
+		if (event.getConsumer() != null) {
+			seekFailed(event.getConsumer());
+		}
+	}
+
+	public int inFlightCount() {
+		return config.getFulfillmentMaxInFlight() - inFlight.availablePermits();
+	}
+
+	private CompletableFuture<Void> process(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data,
+			final PartitionOffsetTracker tracker) {
+		OrderedAcknowledgment acknowledgment = new OrderedAcknowledgment(data.offset(), tracker);
+		try {
+			while (true) {
+				fulfillmentController.fulfill(data, acknowledgment);
+				long sleep = acknowledgment.takeRetry();
+				if (sleep < 0) {
+					break;
+				}
+				// the lane stays blocked so later records of this key cannot overtake the retry
+				Thread.sleep(sleep);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while retrying offset {}. Record will be redelivered.", data.offset());
+		} catch (Exception ex) {
+			log.error("Unexpected exception processing offset {}. {}", data.offset(), ex.getLocalizedMessage());
+		} finally {
+			inFlight.release();
+		}
+		return DONE;
+	}
+
+	/**
+	 * ASYNC mode: the worker thread only starts the transfer; the lane advances when the
+	 * transaction service has answered.
+	 */
+	private CompletableFuture<Void> processAsync(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data,
+			final PartitionOffsetTracker tracker) {
+		OrderedAcknowledgment acknowledgment = new OrderedAcknowledgment(data.offset(), tracker);
+		CompletableFuture<Void> result;
+		try {
+			result = attemptAsync(data, acknowledgment);
+		} catch (Exception ex) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(ex);
+		}
+		return result.handle((v, ex) -> {
+			if (ex != null) {
+				log.error("Unexpected exception processing offset {}. {}", data.offset(), ex.getLocalizedMessage());
+			}
+			inFlight.release();
+			return null;
+		});
+	}
+
+	private CompletableFuture<Void> attemptAsync(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data,
+			final OrderedAcknowledgment acknowledgment) {
+		return fulfillmentController.fulfillAsync(data).thenCompose(outcome -> {
+			if (outcome == FulfillmentController.Outcome.RETRY) {
+				return delay(config.getKafkaTimeout()).thenCompose(v -> attemptAsync(data, acknowledgment));
+			}
+			acknowledgment.acknowledge();
+			return DONE;
+		});
+	}
+
+	private CompletableFuture<Void> delay(long millis) {
+		CompletableFuture<Void> delayed = new CompletableFuture<>();
+		scheduler.schedule(() -> delayed.complete(null), millis, TimeUnit.MILLISECONDS);
+		return delayed;
+	}
+
+	private String orderingKey(final ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data) {
+		if (data.value() != null && data.value().getPayload() != null
+				&& data.value().getPayload().getFromAccountNumber() != null) {
+			return data.value().getPayload().getFromAccountNumber();
+		}
+		return data.key() == null ? "" : data.key();
+	}
+
+	/**
+	 * Acknowledgment handed to the controller. acknowledge() releases the offset through the
+	 * partition tracker; nack() cannot seek from a worker thread, so it re-runs the record in its lane.
+	 * A nack() that arrives after the lane moved on, from a dead letter that could not be sent,
+	 * marks the record failed for seekFailed() instead.
+	 */
+	private static class OrderedAcknowledgment implements Acknowledgment {
+		private final long offset;
+		private final PartitionOffsetTracker tracker;
+		private long retrySleep = -1;
+		private boolean released = false;
+
+		OrderedAcknowledgment(long offset, PartitionOffsetTracker tracker) {
+			this.offset = offset;
+			this.tracker = tracker;
+		}
+
+		@Override
+		public void acknowledge() {
+			Acknowledgment release = tracker.complete(offset);
+			if (release != null) {
+				release.acknowledge();
+			}
+		}
+
+		@Override
+		public synchronized void nack(long sleep) {
+			if (released) {
+				tracker.fail(offset);
+				return;
+			}
+			retrySleep = sleep;
+		}
+
+		/**
+		 * @return the sleep before the record is re-run, or -1 once the lane may move on.
+		 */
+		synchronized long takeRetry() {
+			long sleep = retrySleep;
+			retrySleep = -1;
+			released = sleep < 0;
+			return sleep;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package qslv.transfer.fulfillment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+
+/**
+ * Collects requests from concurrent callers into batches. A batch is flushed when it reaches
+ * maxBatchSize or when its first request has waited lingerMillis, whichever comes first.
+ * Flushes run on the given executor so a slow bulk call does not hold up collection of the
+ * next batch. The flusher completes each entry's future; entries it leaves incomplete fail.
+ */
+public class MicroBatcher<T, R> {
+	private static final Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+	private final String name;
+	private final int maxBatchSize;
+	private final long lingerNanos;
+	private final Consumer<List<Entry<T, R>>> flusher;
+	private final Executor flushExecutor;
+	private final LinkedBlockingQueue<Entry<T, R>> queue = new LinkedBlockingQueue<>();
+	private final DistributionSummary batchSize;
+	private final Thread collector;
+	private volatile boolean running = true;
+
+	public MicroBatcher(String name, int maxBatchSize, long lingerMillis, Executor flushExecutor,
+			Consumer<List<Entry<T, R>>> flusher, MeterRegistry registry) {
+		this.name = name;
+		this.maxBatchSize = maxBatchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.flushExecutor = flushExecutor;
+		this.flusher = flusher;
+		this.batchSize = DistributionSummary.builder("qslv.bulk.batch.size").tag("endpoint", name)
+				.publishPercentiles(0.5, 0.99).register(registry);
+		this.collector = new Thread(this::collect, "bulk-" + name);
+		this.collector.setDaemon(true);
+		this.collector.start();
+	}
+
+	public CompletableFuture<R> submit(final TraceableMessage<?> message, final T request) {
+		Entry<T, R> entry = new Entry<>(message, request);
+		if (!running) {
+			entry.result.completeExceptionally(new TransientDataAccessResourceException(name + " batcher is closed."));
+		} else {
+			queue.add(entry);
+		}
+		return entry.result;
+	}
+
+	public void close() {
+		running = false;
+		collector.interrupt();
+		List<Entry<T, R>> pending = new ArrayList<>();
+		queue.drainTo(pending);
+		fail(pending, new TransientDataAccessResourceException(name + " batcher closed before flush."));
+	}
+
+	private void collect() {
+		while (running) {
+			List<Entry<T, R>> batch = new ArrayList<>(maxBatchSize);
+			try {
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + lingerNanos;
+				queue.drainTo(batch, maxBatchSize - batch.size());
+				while (batch.size() < maxBatchSize) {
+					Entry<T, R> entry = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (entry == null) {
+						break;
+					}
+					batch.add(entry);
+					queue.drainTo(batch, maxBatchSize - batch.size());
+				}
+			} catch (InterruptedException ex) {
+				fail(batch, new TransientDataAccessResourceException(name + " batcher closed before flush."));
+				return;
+			}
+			try {
+				flushExecutor.execute(() -> flush(batch));
+			} catch (RejectedExecutionException ex) {
+				fail(batch, new TransientDataAccessResourceException(name + " flush rejected.", ex));
+			}
+		}
+	}
+
+	private void flush(List<Entry<T, R>> batch) {
+		batchSize.record(batch.size());
+		try {
+			flusher.accept(batch);
+		} catch (RuntimeException ex) {
+			log.warn("{} bulk flush of {} requests failed. {}", name, batch.size(), ex.getLocalizedMessage());
+			fail(batch, ex);
+			return;
+		}
+		fail(batch, new NonTransientDataAccessResourceException(name + " bulk response had no result for the request."));
+	}
+
+	private void fail(List<Entry<T, R>> batch, RuntimeException ex) {
+		for (Entry<T, R> entry : batch) {
+			entry.result.completeExceptionally(ex);
+		}
+	}
+
+	public static class Entry<T, R> {
+		private final TraceableMessage<?> message;
+		private final T request;
+		private final CompletableFuture<R> result = new CompletableFuture<>();
+
+		Entry(TraceableMessage<?> message, T request) {
+			this.message = message;
+			this.request = request;
+		}
+
+		public TraceableMessage<?> getMessage() {
+			return message;
+		}
+
+		public T getRequest() {
+			return request;
+		}
+
+		public CompletableFuture<R> getResult() {
+			return result;
+		}
+	}
+}
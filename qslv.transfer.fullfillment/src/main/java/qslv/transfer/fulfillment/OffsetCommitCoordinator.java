@@ -0,0 +1,229 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ConsumerStoppingEvent;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Replaces the container's commitSync per acknowledgment when kafkaAsyncCommits is set. An
+ * acknowledgment only records the partition's next offset; the consumer thread commits the
+ * recorded offsets with commitAsync once kafkaCommitCount acknowledgments have accumulated or
+ * kafkaCommitInterval has passed, and with commitSync when partitions are revoked or the consumer
+ * stops. Acknowledgments reach this class through PendingAcknowledgments or the
+ * KeyOrderedDispatcher, which release them in offset order, so the recorded offset only ever
+ * advances past contiguous completed records.
+ */
+@Component
+public class OffsetCommitCoordinator {
+	private static final Logger log = LoggerFactory.getLogger(OffsetCommitCoordinator.class);
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final ConcurrentHashMap<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Consumer<?, ?>, Long> lastCommit = new ConcurrentHashMap<>();
+	private Timer asyncLatency;
+	private Timer syncLatency;
+	private Counter asyncCommits;
+	private Counter syncCommits;
+	private Counter failures;
+
+	private static class PartitionState {
+		final AtomicLong acknowledged = new AtomicLong(-1L);	// next offset to commit
+		final AtomicInteger uncommitted = new AtomicInteger();
+		long committed = -1L;									// consumer thread only
+	}
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@PostConstruct
+	public void init() {
+		asyncLatency = Timer.builder("qslv.kafka.commit.latency").tag("mode", "async")
+				.publishPercentiles(0.5, 0.99).register(registry);
+		syncLatency = Timer.builder("qslv.kafka.commit.latency").tag("mode", "sync")
+				.publishPercentiles(0.5, 0.99).register(registry);
+		asyncCommits = Counter.builder("qslv.kafka.commits").tag("mode", "async").register(registry);
+		syncCommits = Counter.builder("qslv.kafka.commits").tag("mode", "sync").register(registry);
+		failures = Counter.builder("qslv.kafka.commit.failures").register(registry);
+	}
+
+	public boolean isEnabled() {
+		return config.isKafkaAsyncCommits();
+	}
+
+	/**
+	 * Called on the consumer thread before the record is processed.
+	 * @return the acknowledgment to hand on, unchanged when kafkaAsyncCommits is off.
+	 */
+	public Acknowledgment track(final ConsumerRecord<?, ?> data, final Acknowledgment acknowledgment) {
+		if (!isEnabled()) {
+			return acknowledgment;
+		}
+		PartitionState state = partitions.computeIfAbsent(new TopicPartition(data.topic(), data.partition()), tp -> new PartitionState());
+		return new CoordinatedAcknowledgment(data.offset(), state, acknowledgment);
+	}
+
+	/**
+	 * Consumer thread only. Commits asynchronously if a threshold has been reached.
+	 */
+	public void commitIfDue(Consumer<?, ?> consumer) {
+		if (!isEnabled()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Long last = lastCommit.putIfAbsent(consumer, now);
+		int count = 0;
+		for (TopicPartition partition : consumer.assignment()) {
+			PartitionState state = partitions.get(partition);
+			if (state != null) {
+				count += state.uncommitted.get();
+			}
+		}
+		if (count == 0 || (count < config.getKafkaCommitCount() && last != null && now - last < config.getKafkaCommitInterval())) {
+			return;
+		}
+		lastCommit.put(consumer, now);
+		final Map<TopicPartition, OffsetAndMetadata> offsets = collect(consumer.assignment());
+		if (offsets.isEmpty()) {
+			return;
+		}
+		final long start = System.nanoTime();
+		consumer.commitAsync(offsets, (committed, ex) -> {
+			if (ex == null) {
+				asyncLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				asyncCommits.increment();
+				return;
+			}
+			// send these offsets again with the next commit, unless that already carries higher ones
+			failures.increment();
+			log.warn("Offset commit failed. {}", ex.getLocalizedMessage());
+			for (TopicPartition partition : offsets.keySet()) {
+				PartitionState state = partitions.get(partition);
+				if (state != null && state.committed == offsets.get(partition).offset()) {
+					state.committed = -1L;
+					state.uncommitted.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Consumer thread only. Commits the given partitions before they are revoked or the consumer
+	 * closes, and forgets them if requested.
+	 */
+	public void commitSync(Consumer<?, ?> consumer, Collection<TopicPartition> revoked, boolean forget) {
+		if (!isEnabled()) {
+			return;
+		}
+		Map<TopicPartition, OffsetAndMetadata> offsets = collect(revoked);
+		if (!offsets.isEmpty()) {
+			long start = System.nanoTime();
+			try {
+				consumer.commitSync(offsets);
+				syncLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				syncCommits.increment();
+			} catch (KafkaException ex) {
+				failures.increment();
+				log.warn("Offset commit of {} failed. Records since the last commit will be redelivered. {}", offsets.keySet(),
+						ex.getLocalizedMessage());
+			}
+		}
+		if (forget) {
+			revoked.forEach(partitions::remove);
+			lastCommit.remove(consumer);
+		}
+	}
+
+	@EventListener
+	public void onIdle(ListenerContainerIdleEvent event) {
+		// published on the consumer thread when no records arrived for kafkaCommitInterval
+		if (event.getConsumer() != null) {
+			commitIfDue(event.getConsumer());
+		}
+	}
+
+	@EventListener
+	public void onStopping(ConsumerStoppingEvent event) {
+		if (event.getConsumer() != null && event.getPartitions() != null) {
+			commitSync(event.getConsumer(), event.getPartitions(), true);
+		}
+	}
+
+	private Map<TopicPartition, OffsetAndMetadata> collect(Collection<TopicPartition> candidates) {
+		Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+		for (TopicPartition partition : candidates) {
+			PartitionState state = partitions.get(partition);
+			if (state == null) {
+				continue;
+			}
+			state.uncommitted.set(0);
+			long acknowledged = state.acknowledged.get();
+			if (acknowledged > state.committed) {
+				offsets.put(partition, new OffsetAndMetadata(acknowledged));
+				state.committed = acknowledged;
+			}
+		}
+		return offsets;
+	}
+
+	private static class CoordinatedAcknowledgment implements Acknowledgment {
+		private final long offset;
+		private final PartitionState state;
+		private final Acknowledgment delegate;
+
+		CoordinatedAcknowledgment(long offset, PartitionState state, Acknowledgment delegate) {
+			this.offset = offset;
+			this.state = state;
+			this.delegate = delegate;
+		}
+
+		/**
+		 * Any thread.
+		 */
+		@Override
+		public void acknowledge() {
+			state.acknowledged.accumulateAndGet(offset + 1, Math::max);
+			state.uncommitted.incrementAndGet();
+		}
+
+		/**
+		 * Consumer thread only.
+		 */
+		@Override
+		public void nack(long sleep) {
+			delegate.nack(sleep);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Tracks in-flight offsets of one partition. Records may complete in any order, but
+ * only the highest offset below which every record has completed is released for commit.
+ * A record that must be redelivered but is found so off the consumer thread, as when its dead
+ * letter could not be sent, is marked failed. It holds back the commit of every later record
+ * until the consumer thread seeks the partition back to it in seekFailed().
+ */
+public class PartitionOffsetTracker {
+	private static final Logger log = LoggerFactory.getLogger(PartitionOffsetTracker.class);
+
+	private static class Entry {
+		final Acknowledgment acknowledgment;
+		boolean completed = false;
+
+		Entry(Acknowledgment acknowledgment) {
+			this.acknowledgment = acknowledgment;
+		}
+	}
+
+	private final TreeMap<Long, Entry> pending = new TreeMap<>();
+	private long failed = -1L;		// lowest failed offset not yet sought back to
+	private long staleAbove = -1L;	// after a seek back, records above this were fetched before it
+	private long resumeAt = 0L;		// the partition is paused until then
+
+	public synchronized void register(long offset, Acknowledgment acknowledgment) {
+		pending.put(offset, new Entry(acknowledgment));
+	}
+
+	/**
+	 * Mark an offset complete.
+	 * @return the acknowledgment of the highest contiguous completed offset, or null if
+	 * an earlier offset is still in flight.
+	 */
+	public synchronized Acknowledgment complete(long offset) {
+		Entry entry = pending.get(offset);
+		if (entry == null) {
+			return null;
+		}
+		entry.completed = true;
+
+		Acknowledgment release = null;
+		while (!pending.isEmpty() && pending.firstEntry().getValue().completed) {
+			Map.Entry<Long, Entry> first = pending.pollFirstEntry();
+			release = first.getValue().acknowledgment;
+		}
+		if (pending.isEmpty()) {
+			notifyAll();
+		}
+		return release;
+	}
+
+	/**
+	 * Forget an offset that will be redelivered, as after a nack.
+	 */
+	public synchronized void discard(long offset) {
+		pending.remove(offset);
+		if (pending.isEmpty()) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Any thread. The record is redelivered once the consumer thread calls seekFailed().
+	 */
+	public synchronized void fail(long offset) {
+		if (pending.containsKey(offset) && (failed < 0 || offset < failed)) {
+			failed = offset;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Consumer thread. Forgets the failed offset and every offset after it, which are all
+	 * redelivered from the seek.
+	 * @return the offset to seek back to, or -1.
+	 */
+	synchronized long takeFailed(long resumeAt) {
+		if (failed < 0) {
+			return -1L;
+		}
+		long offset = failed;
+		failed = -1L;
+		staleAbove = pending.lastKey();
+		pending.tailMap(offset, true).clear();
+		this.resumeAt = resumeAt;
+		if (pending.isEmpty()) {
+			notifyAll();
+		}
+		return offset;
+	}
+
+	synchronized boolean takeResume(long now) {
+		if (resumeAt == 0L || now < resumeAt) {
+			return false;
+		}
+		resumeAt = 0L;
+		return true;
+	}
+
+	/**
+	 * Consumer thread.
+	 * @return true for a record fetched before the partition was sought back, which must be
+	 * skipped: it is delivered again after the failed record.
+	 */
+	public synchronized boolean isStale(long offset) {
+		if (staleAbove < 0) {
+			return false;
+		}
+		if (offset > staleAbove) {
+			return true;
+		}
+		staleAbove = -1L;
+		return false;
+	}
+
+	/**
+	 * Consumer thread. Seeks every assigned partition with a failed record back to it and pauses
+	 * the partition for pauseMillis, as a nack() would sleep, before it is redelivered.
+	 */
+	public static void seekFailed(Consumer<?, ?> consumer, Map<TopicPartition, PartitionOffsetTracker> trackers, long pauseMillis) {
+		long now = System.currentTimeMillis();
+		for (TopicPartition partition : consumer.assignment()) {
+			PartitionOffsetTracker tracker = trackers.get(partition);
+			if (tracker == null) {
+				continue;
+			}
+			long offset = tracker.takeFailed(now + pauseMillis);
+			if (offset >= 0) {
+				log.warn("Offset {} of {} failed. Seeking back to redeliver it in {} ms.", offset, partition, pauseMillis);
+				consumer.seek(partition, offset);
+				consumer.pause(Collections.singleton(partition));
+			} else if (tracker.takeResume(now)) {
+				consumer.resume(Collections.singleton(partition));
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Wait until every registered offset has completed, or one has failed.
+	 * @return true if the tracker drained before the timeout.
+	 */
+	public synchronized boolean awaitEmpty(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		// nothing after a failed record can be committed, so there is no point in waiting for it
+		while (!pending.isEmpty() && failed < 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return pending.isEmpty();
+	}
+}
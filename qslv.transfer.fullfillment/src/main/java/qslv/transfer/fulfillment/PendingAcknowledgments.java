@@ -0,0 +1,130 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps commits in offset order for consumers that handle one record at a time on the consumer
+ * thread (RECORD mode and the retry tiers) but may acknowledge a record after moving on to later
+ * ones, as while its dead letter is still being sent. A later record's acknowledgment is held
+ * until every earlier record of the partition has been acknowledged. A record nacked off the
+ * consumer thread is sought back to by the consumer thread, before its next record or when it
+ * is idle, and the records fetched after it are skipped until it is redelivered.
+ */
+@Component
+public class PendingAcknowledgments {
+	private static final Logger log = LoggerFactory.getLogger(PendingAcknowledgments.class);
+
+	@Autowired
+	private ConfigProperties config;
+
+	private final ConcurrentHashMap<TopicPartition, PartitionOffsetTracker> trackers = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	/**
+	 * Called on the consumer thread before the record is processed.
+	 */
+	public Acknowledgment track(final ConsumerRecord<?, ?> data, final Acknowledgment acknowledgment) {
+		PartitionOffsetTracker tracker = trackers.computeIfAbsent(new TopicPartition(data.topic(), data.partition()),
+				tp -> new PartitionOffsetTracker());
+		tracker.register(data.offset(), acknowledgment);
+		return new TrackedAcknowledgment(data.offset(), tracker, acknowledgment, Thread.currentThread());
+	}
+
+	/**
+	 * Consumer thread, before track().
+	 * @return true if the record must be skipped because its partition was sought back to an
+	 * earlier failed record.
+	 */
+	public boolean isStale(final ConsumerRecord<?, ?> data) {
+		PartitionOffsetTracker tracker = trackers.get(new TopicPartition(data.topic(), data.partition()));
+		return tracker != null && tracker.isStale(data.offset());
+	}
+
+	/**
+	 * Consumer thread. Seeks back to records nacked from other threads.
+	 */
+	public void seekFailed(Consumer<?, ?> consumer) {
+		PartitionOffsetTracker.seekFailed(consumer, trackers, config.getKafkaTimeout());
+	}
+
+	@EventListener
+	public void onIdle(ListenerContainerIdleEvent event) {
+		// published on the consumer thread, so a failed record is redelivered without waiting for new ones
+		if (event.getConsumer() != null) {
+			seekFailed(event.getConsumer());
+		}
+	}
+
+	/**
+	 * Wait for outstanding acknowledgments of revoked partitions so they are committed with the revoke.
+	 */
+	public void drain(Collection<TopicPartition> partitions) {
+		for (TopicPartition partition : partitions) {
+			PartitionOffsetTracker tracker = trackers.get(partition);
+			if (tracker == null) {
+				continue;
+			}
+			try {
+				if (!tracker.awaitEmpty(config.getFulfillmentDrainTimeout())) {
+					log.warn("{} records of {} still unacknowledged after {} ms. They will be redelivered.",
+							tracker.size(), partition, config.getFulfillmentDrainTimeout());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			trackers.remove(partition, tracker);
+		}
+	}
+
+	private static class TrackedAcknowledgment implements Acknowledgment {
+		private final long offset;
+		private final PartitionOffsetTracker tracker;
+		private final Acknowledgment delegate;
+		private final Thread consumerThread;
+
+		TrackedAcknowledgment(long offset, PartitionOffsetTracker tracker, Acknowledgment delegate, Thread consumerThread) {
+			this.offset = offset;
+			this.tracker = tracker;
+			this.delegate = delegate;
+			this.consumerThread = consumerThread;
+		}
+
+		@Override
+		public void acknowledge() {
+			Acknowledgment release = tracker.complete(offset);
+			if (release != null) {
+				release.acknowledge();
+			}
+		}
+
+		/**
+		 * On the consumer thread the record is sought back and redelivered, so it is no longer
+		 * pending. From any other thread it is marked failed for seekFailed().
+		 */
+		@Override
+		public void nack(long sleep) {
+			if (Thread.currentThread() != consumerThread) {
+				tracker.fail(offset);
+				return;
+			}
+			tracker.discard(offset);
+			delegate.nack(sleep);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package qslv.transfer.fulfillment;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * The transfer's transaction is recorded but committing its reservation failed transiently.
+ * Thrown by the attempt that recorded it, so the retry path knows the transfer is half applied
+ * without consulting the CompletedStepCache: it is never expired and its retry commits only.
+ */
+public class RecordedTransferException extends TransientDataAccessResourceException {
+	private static final long serialVersionUID = 1L;
+
+	public RecordedTransferException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
@@ -1,43 +1,113 @@
 package qslv.transfer.fulfillment;
 
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.retry.backoff.ExponentialBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.backoff.ExponentialRandomBackOffPolicy;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.Metrics;
+
 
 @Configuration
 public class RestConfig {
 	@Autowired
 	private ConfigProperties config;
+	@Autowired
+	private AdaptiveTimeoutPolicy adaptiveTimeoutPolicy;
+	@Autowired
+	private TransferDeadline transferDeadline;
 	
+	@Bean(destroyMethod = "shutdown")
+	public InstrumentedConnectionManager connectionManager() {
+		InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(Metrics.globalRegistry, "transaction");
+		connectionManager.setDefaultMaxPerRoute(config.getRestPoolMaxPerRoute());
+		// per-route limits within one shared pool: a slow endpoint host can hold no more than maxPerRoute
+		// leases, and a total of at least routes x maxPerRoute leaves every other route its full share
+		int routes = EndpointBalancer.hosts(config.getPostTransactionUrl(), config.getCommitReservationUrl(),
+				config.getBulkTransactionUrl(), config.getBulkCommitReservationUrl()).size();
+		connectionManager.setMaxTotal(Math.max(config.getRestPoolMaxTotal(), routes * config.getRestPoolMaxPerRoute()));
+		connectionManager.setValidateAfterInactivity(config.getRestValidateAfterInactivity());
+		return connectionManager;
+	}
+
 	@Bean
 	public RestTemplate restTemplate() {
-        HttpComponentsClientHttpRequestFactory httpRequestFactory = new HttpComponentsClientHttpRequestFactory(HttpClients.createDefault());
+		CloseableHttpClient httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager())
+				.setKeepAliveStrategy(keepAliveStrategy())
+				.evictExpiredConnections()
+				.evictIdleConnections(config.getRestIdleTimeout(), TimeUnit.MILLISECONDS)
+				.build();
+        HttpComponentsClientHttpRequestFactory httpRequestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
         httpRequestFactory.setConnectionRequestTimeout(config.getRestConnectionRequestTimeout());;
         httpRequestFactory.setConnectTimeout(config.getRestConnectTimeout());
         httpRequestFactory.setReadTimeout(config.getRestTimeout());
+        if (!adaptiveTimeoutPolicy.isEnabled() && !transferDeadline.isEnabled()) {
+            return new RestTemplate(httpRequestFactory);
+        }
 
-        return new RestTemplate(httpRequestFactory);
+        // a request config of its own for each call, with the endpoint's current read timeout
+        // cut to the time left before the transfer's deadline
+        httpRequestFactory.setHttpContextFactory((method, uri) -> {
+            HttpClientContext context = HttpClientContext.create();
+            context.setRequestConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(config.getRestConnectionRequestTimeout())
+                    .setConnectTimeout(config.getRestConnectTimeout())
+                    .setSocketTimeout(transferDeadline.cap(adaptiveTimeoutPolicy.readTimeout(uri.toString())))
+                    .build());
+            return context;
+        });
+        RestTemplate restTemplate = new RestTemplate(httpRequestFactory);
+        if (adaptiveTimeoutPolicy.isEnabled()) {
+            restTemplate.getInterceptors().add(adaptiveTimeoutPolicy.interceptor());
+        }
+        return restTemplate;
 	}
 	
+	/**
+	 * Honor the server's Keep-Alive header, but never keep a connection longer than restKeepAlive.
+	 */
+	private ConnectionKeepAliveStrategy keepAliveStrategy() {
+		return (response, context) -> {
+			long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return serverKeepAlive > 0 ? Math.min(serverKeepAlive, config.getRestKeepAlive()) : config.getRestKeepAlive();
+		};
+	}
+
+	/**
+	 * One budget for the RetryTemplate and AsyncTransactionDao.
+	 */
+	@Bean
+	public RetryBudget retryBudget() {
+		return new RetryBudget(config.getRestRetryBudgetRatio(), config.getRestRetryBudgetMax(), Metrics.globalRegistry);
+	}
+
+	/**
+	 * Backoff from restBackoffDelay doubling up to restBackoffDelayMax, each sleep stretched by a
+	 * random factor between 1 and 2 so that consumer threads failing together do not retry together.
+	 */
 	@Bean 
 	RetryTemplate retryTemplate() {
-		ExponentialBackOffPolicy bop = new ExponentialBackOffPolicy();
-		bop.setMaxInterval(config.getRestBackoffDelay());
+		ExponentialRandomBackOffPolicy bop = new ExponentialRandomBackOffPolicy();
+		bop.setInitialInterval(config.getRestBackoffDelay());
 		bop.setMaxInterval(config.getRestBackoffDelayMax());
 		
-		SimpleRetryPolicy srp = new SimpleRetryPolicy();
-		srp.setMaxAttempts(config.getRestAttempts());
+		BudgetedRetryPolicy brp = new BudgetedRetryPolicy(config.getRestAttempts(), retryBudget());
 		
 		RetryTemplate retryTemplate = new RetryTemplate();
 		retryTemplate.setThrowLastExceptionOnExhausted(true);
-		retryTemplate.setRetryPolicy(srp);
+		retryTemplate.setRetryPolicy(brp);
 		retryTemplate.setBackOffPolicy(bop);
 		
 		return retryTemplate;
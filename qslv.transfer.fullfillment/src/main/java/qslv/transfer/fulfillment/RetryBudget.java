@@ -0,0 +1,101 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retry budget per endpoint of the transaction service, and the qslv.transaction.retries counters.
+ * Every call adds budgetRatio of a retry to its endpoint's budget, up to budgetMax, and every retry
+ * takes a whole one. Shared by the BudgetedRetryPolicy of TransactionDao and the retry loop of
+ * AsyncTransactionDao, so both modes are held to the same budget and report the same outcomes.
+ */
+public class RetryBudget {
+	public static final String RETRIED = "retried";
+	public static final String BUDGET_EXHAUSTED = "budget_exhausted";
+	public static final String NOT_RETRYABLE = "not_retryable";
+	public static final String EXHAUSTED = "exhausted";
+
+	private final double budgetRatio;
+	private final double budgetMax;
+	private final MeterRegistry registry;
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	public RetryBudget(double budgetRatio, double budgetMax, MeterRegistry registry) {
+		this.budgetRatio = budgetRatio;
+		this.budgetMax = budgetMax;
+		this.registry = registry;
+	}
+
+	/**
+	 * Once per call, when it ends.
+	 */
+	public void deposit(String endpoint) {
+		endpoint(endpoint).deposit();
+	}
+
+	/**
+	 * Takes a retry from the budget, counting it as retried or budget_exhausted.
+	 * @return false when the budget has no whole retry left.
+	 */
+	public boolean tryRetry(String endpoint) {
+		Endpoint budget = endpoint(endpoint);
+		if (!budget.tryWithdraw()) {
+			budget.budgetExhausted.increment();
+			return false;
+		}
+		budget.retried.increment();
+		return true;
+	}
+
+	/**
+	 * A failure that is not retried at all.
+	 */
+	public void notRetryable(String endpoint) {
+		endpoint(endpoint).notRetryable.increment();
+	}
+
+	/**
+	 * A retryable failure of the last attempt.
+	 */
+	public void exhausted(String endpoint) {
+		endpoint(endpoint).exhausted.increment();
+	}
+
+	private Endpoint endpoint(String name) {
+		Endpoint endpoint = endpoints.get(name);
+		return endpoint != null ? endpoint : endpoints.computeIfAbsent(name, Endpoint::new);
+	}
+
+	private class Endpoint {
+		final Counter retried;
+		final Counter budgetExhausted;
+		final Counter notRetryable;
+		final Counter exhausted;
+		private double budget = budgetMax;
+
+		Endpoint(String name) {
+			retried = counter(name, RETRIED);
+			budgetExhausted = counter(name, BUDGET_EXHAUSTED);
+			notRetryable = counter(name, NOT_RETRYABLE);
+			exhausted = counter(name, EXHAUSTED);
+		}
+
+		private Counter counter(String name, String outcome) {
+			return Counter.builder("qslv.transaction.retries").tag("endpoint", name).tag("outcome", outcome).register(registry);
+		}
+
+		synchronized void deposit() {
+			budget = Math.min(budgetMax, budget + budgetRatio);
+		}
+
+		synchronized boolean tryWithdraw() {
+			if (budget < 1.0) {
+				return false;
+			}
+			budget -= 1.0;
+			return true;
+		}
+	}
+}
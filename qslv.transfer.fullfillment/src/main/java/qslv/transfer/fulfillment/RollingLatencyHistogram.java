@@ -0,0 +1,113 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency histogram over the current and the previous window, for thresholds that must follow the
+ * recent latency, such as the hedging delay. Buckets are log-linear in microseconds, eight per
+ * power of two, so a percentile is accurate to about 12%. Recording is an array increment without
+ * allocation or locking, except for the one caller that rotates the windows.
+ */
+public class RollingLatencyHistogram {
+	private static final int SUB_BUCKETS = 8;
+	private static final int BUCKETS = 39 * SUB_BUCKETS;
+
+	private final long windowNanos;
+	private final LongSupplier nanoClock;
+	private final AtomicLongArray[] windows = { new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS) };
+	private volatile int current;
+	private volatile long windowStart;
+
+	public RollingLatencyHistogram(long windowMillis) {
+		this(windowMillis, System::nanoTime);
+	}
+
+	public RollingLatencyHistogram(long windowMillis, LongSupplier nanoClock) {
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.nanoClock = nanoClock;
+		this.windowStart = nanoClock.getAsLong();
+	}
+
+	public void record(long nanos) {
+		rotateIfDue();
+		windows[current].incrementAndGet(bucket(nanos));
+	}
+
+	public long getCount() {
+		rotateIfDue();
+		long count = 0;
+		for (AtomicLongArray window : windows) {
+			for (int index = 0; index < BUCKETS; index++) {
+				count += window.get(index);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the upper bound in nanos of the bucket holding the percentile, or 0 without samples.
+	 */
+	public long percentile(double percentile) {
+		rotateIfDue();
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (AtomicLongArray window : windows) {
+			for (int index = 0; index < BUCKETS; index++) {
+				long count = window.get(index);
+				counts[index] += count;
+				total += count;
+			}
+		}
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += counts[index];
+			if (seen >= rank) {
+				return TimeUnit.MICROSECONDS.toNanos(upperBound(index));
+			}
+		}
+		return TimeUnit.MICROSECONDS.toNanos(upperBound(BUCKETS - 1));
+	}
+
+	private void rotateIfDue() {
+		long now = nanoClock.getAsLong();
+		if (now - windowStart < windowNanos) {
+			return;
+		}
+		synchronized (this) {
+			if (now - windowStart < windowNanos) {
+				return;
+			}
+			int next = 1 - current;
+			for (int index = 0; index < BUCKETS; index++) {
+				windows[next].set(index, 0L);
+			}
+			current = next;
+			windowStart = now;
+		}
+	}
+
+	static int bucket(long nanos) {
+		long micros = Math.max(0L, nanos / 1000L);
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >> (exponent - 3)) & (SUB_BUCKETS - 1);
+		return Math.min(BUCKETS - 1, (exponent - 2) * SUB_BUCKETS + sub);
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket + 1;
+		}
+		int exponent = bucket / SUB_BUCKETS + 2;
+		int sub = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub + 1) << (exponent - 3);
+	}
+}
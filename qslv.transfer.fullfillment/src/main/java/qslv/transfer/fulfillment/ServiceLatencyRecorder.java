@@ -0,0 +1,105 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Splits each transaction service call into the time the service reports in its TimedResponse
+ * and the rest of the client-measured round trip. The client time covers the whole call including
+ * retries, so the overhead is everything outside the service: connection pool wait, DNS, TLS,
+ * the network, and earlier failed attempts. A rising client p99 with a flat server p99 points at
+ * the path, not the service.
+ *
+ * TimedResponse.serviceTimeElapsed is a bare long whose unit the TimedResponse does not carry. It is
+ * read in restServiceTimeUnit, NANOSECONDS by default, and converted with TimeUnit. A service time
+ * longer than the whole round trip means the setting does not match the service; that is logged
+ * once per endpoint.
+ */
+@Component
+public class ServiceLatencyRecorder {
+	private static final Logger log = LoggerFactory.getLogger(ServiceLatencyRecorder.class);
+	public static final String CLIENT_METRIC = "qslv.transaction.client.latency";
+	public static final String SERVER_METRIC = "qslv.transaction.server.latency";
+	public static final String OVERHEAD_METRIC = "qslv.transaction.overhead";
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final ConcurrentHashMap<String, EndpointTimers> endpoints = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * @param start a System.nanoTime() taken before the first attempt.
+	 * @param serviceTimeElapsed the service's own processing time from the TimedResponse, in restServiceTimeUnit.
+	 */
+	public void record(String endpoint, long start, long serviceTimeElapsed) {
+		long clientNanos = System.nanoTime() - start;
+		EndpointTimers timers = timers(endpoint);
+		timers.client.record(clientNanos, TimeUnit.NANOSECONDS);
+		if (serviceTimeElapsed > 0) {
+			TimeUnit unit = config == null ? TimeUnit.NANOSECONDS : config.getRestServiceTimeUnit();
+			long serverNanos = unit.toNanos(serviceTimeElapsed);
+			if (serverNanos > clientNanos && !timers.mismatchLogged) {
+				timers.mismatchLogged = true;
+				log.warn("POST {} reported {} {} of service time in a {} ns round trip. Check qslv.rest-service-time-unit.",
+						endpoint, serviceTimeElapsed, unit, clientNanos);
+			}
+			timers.server.record(serverNanos, TimeUnit.NANOSECONDS);
+			timers.overhead.record(Math.max(0L, clientNanos - serverNanos), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	public Timer client(String endpoint) {
+		return timers(endpoint).client;
+	}
+
+	public Timer server(String endpoint) {
+		return timers(endpoint).server;
+	}
+
+	public Timer overhead(String endpoint) {
+		return timers(endpoint).overhead;
+	}
+
+	private EndpointTimers timers(String endpoint) {
+		EndpointTimers timers = endpoints.get(endpoint);
+		return timers != null ? timers : endpoints.computeIfAbsent(endpoint, EndpointTimers::new);
+	}
+
+	private class EndpointTimers {
+		final Timer client;
+		final Timer server;
+		final Timer overhead;
+		volatile boolean mismatchLogged;
+
+		EndpointTimers(String endpoint) {
+			client = timer(CLIENT_METRIC, endpoint);
+			server = timer(SERVER_METRIC, endpoint);
+			overhead = timer(OVERHEAD_METRIC, endpoint);
+		}
+
+		private Timer timer(String name, String endpoint) {
+			return Timer.builder(name).tag("endpoint", endpoint)
+					.publishPercentiles(0.5, 0.9, 0.99)
+					.publishPercentileHistogram()
+					.register(registry);
+		}
+	}
+}
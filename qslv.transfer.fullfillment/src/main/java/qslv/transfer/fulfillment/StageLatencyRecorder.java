@@ -0,0 +1,70 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-stage latency of a transfer, published as qslv.fulfillment.stage.latency with a stage tag.
+ * The timers are registered once and looked up by the stage's ordinal, so recording a sample is a
+ * nanoTime() difference and a histogram update without allocation. Micrometer keeps the
+ * percentiles in HdrHistogram-backed buckets that rotate with the registry's step.
+ */
+@Component
+public class StageLatencyRecorder {
+	public static final String METRIC = "qslv.fulfillment.stage.latency";
+
+	public enum Stage {
+		QUEUE_WAIT,			// record timestamp to listener
+		DESERIALIZATION,
+		VALIDATION,
+		RECORD_TRANSACTION,
+		COMMIT_RESERVATION,
+		DLQ,				// dead letter publish to broker confirmation
+		ACK,
+		END_TO_END			// message creation time to completed transfer
+	}
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final Timer[] timers = new Timer[Stage.values().length];
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@PostConstruct
+	public void init() {
+		for (Stage stage : Stage.values()) {
+			timers[stage.ordinal()] = Timer.builder(METRIC)
+					.tag("stage", stage.name().toLowerCase())
+					.publishPercentiles(0.5, 0.9, 0.99, 0.999)
+					.publishPercentileHistogram()
+					.register(registry);
+		}
+	}
+
+	/**
+	 * @param start a System.nanoTime() taken when the stage began.
+	 */
+	public void recordSince(Stage stage, long start) {
+		record(stage, System.nanoTime() - start);
+	}
+
+	public void record(Stage stage, long nanos) {
+		Timer timer = timers[stage.ordinal()];
+		if (timer != null) {
+			// clock skew between producer and consumer hosts can make wall clock stages negative
+			timer.record(Math.max(0L, nanos), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	public Timer timer(Stage stage) {
+		return timers[stage.ordinal()];
+	}
+}
@@ -0,0 +1,246 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only journal of completed transfer steps in a memory-mapped file. At startup it is
+ * replayed into the CompletedStepCache, so a restarted instance does not repeat POSTs for
+ * transfers it had partly completed. Compaction periodically rewrites the file from its own
+ * records, merged per transfer and without those older than idempotencyCacheMaxAge, so entries
+ * the cache has evicted for size are not lost.
+ *
+ * Each record is 32 bytes: uuid high and low bits, completion time, step and a check word.
+ * Replay stops at the first record whose check word does not match, which is either the
+ * zero-filled tail or a record torn by a crash. Appends go to the page cache and survive a
+ * process crash; the file is forced to disk on compaction and shutdown.
+ * Disabled when stepJournalPath is not set.
+ */
+@Component
+public class StepJournal {
+	private static final Logger log = LoggerFactory.getLogger(StepJournal.class);
+	static final int RECORD_SIZE = 32;
+	private static final int MAGIC = 0x51534c56;
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private CompletedStepCache completedStepCache;
+
+	private Path path;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private ScheduledExecutorService compactor;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setCompletedStepCache(CompletedStepCache completedStepCache) {
+		this.completedStepCache = completedStepCache;
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		if (config.getStepJournalPath() == null || config.getStepJournalPath().isEmpty()) {
+			return;
+		}
+		path = Paths.get(config.getStepJournalPath());
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(config.getStepJournalSize(), channel.size()));
+		int replayed = replay();
+		log.info("Replayed {} step records from {}.", replayed, path);
+
+		compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "step-journal-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compactor.scheduleWithFixedDelay(this::compactQuietly,
+				config.getStepJournalCompactInterval(), config.getStepJournalCompactInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public synchronized void close() throws IOException {
+		if (compactor != null) {
+			compactor.shutdownNow();
+		}
+		if (channel != null) {
+			buffer.force();
+			channel.close();
+			unmap(buffer);
+			buffer = null;
+		}
+	}
+
+	public synchronized void append(UUID requestUuid, int step) {
+		if (buffer == null || requestUuid == null) {
+			return;
+		}
+		if (buffer.remaining() < RECORD_SIZE) {
+			compactQuietly();
+			if (buffer.remaining() < RECORD_SIZE) {
+				log.warn("Step journal {} is full. Step {} of {} not journaled.", path, step, requestUuid);
+				return;
+			}
+		}
+		write(buffer, requestUuid.getMostSignificantBits(), requestUuid.getLeastSignificantBits(), System.currentTimeMillis(), step);
+	}
+
+	/**
+	 * Rewrites the live records into a new file and swaps it in with an atomic rename.
+	 */
+	public synchronized void compact() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		Map<UUID, long[]> live = liveRecords();
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		Files.deleteIfExists(compacted);
+		long size = Math.max(config.getStepJournalSize(), 2L * live.size() * RECORD_SIZE);
+
+		FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer targetBuffer;
+		try {
+			targetBuffer = target.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			live.forEach((uuid, record) ->
+				write(targetBuffer, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), record[0], (int) record[1]));
+			targetBuffer.force();
+			Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException ex) {
+			target.close();
+			Files.deleteIfExists(compacted);
+			throw ex;
+		}
+		int before = buffer.position();
+		channel.close();
+		// the mapping would otherwise hold the replaced file's pages until the buffer is collected
+		unmap(buffer);
+		channel = target;
+		buffer = targetBuffer;
+		log.debug("Compacted step journal from {} to {} bytes in {} ms.", before, buffer.position(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * @return creation time and steps per transfer, in the order the transfers were first journaled.
+	 */
+	private Map<UUID, long[]> liveRecords() {
+		long now = System.currentTimeMillis();
+		Map<UUID, long[]> live = new LinkedHashMap<>();
+		ByteBuffer records = buffer.duplicate();
+		records.limit(buffer.position());
+		records.position(0);
+		while (records.remaining() >= RECORD_SIZE) {
+			long hi = records.getLong();
+			long lo = records.getLong();
+			long created = records.getLong();
+			int steps = records.getInt();
+			records.getInt();
+			if (now - created < config.getIdempotencyCacheMaxAge()) {
+				live.computeIfAbsent(new UUID(hi, lo), uuid -> new long[] { created, 0 })[1] |= steps;
+			}
+		}
+		return live;
+	}
+
+	private void compactQuietly() {
+		try {
+			compact();
+		} catch (IOException ex) {
+			log.error("Step journal compaction failed. {}", ex.getLocalizedMessage());
+		}
+	}
+
+	private int replay() {
+		int count = 0;
+		while (buffer.remaining() >= RECORD_SIZE) {
+			int start = buffer.position();
+			long hi = buffer.getLong();
+			long lo = buffer.getLong();
+			long created = buffer.getLong();
+			int steps = buffer.getInt();
+			int check = buffer.getInt();
+			if (steps == 0 || check != check(hi, lo, created, steps)) {
+				buffer.position(start);
+				break;
+			}
+			completedStepCache.restore(hi, lo, created, steps);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Releases the mapping now rather than when the buffer is garbage collected. The buffer must
+	 * not be used afterwards.
+	 */
+	private static void unmap(MappedByteBuffer mapped) {
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), mapped);
+			return;
+		} catch (NoSuchMethodException ex) {
+			// Java 8, below
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			log.debug("Step journal buffer not unmapped. {}", ex.toString());
+			return;
+		}
+		try {
+			Method cleaner = mapped.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object clean = cleaner.invoke(mapped);
+			if (clean != null) {
+				clean.getClass().getMethod("clean").invoke(clean);
+			}
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			log.debug("Step journal buffer not unmapped. {}", ex.toString());
+		}
+	}
+
+	private static void write(MappedByteBuffer target, long hi, long lo, long created, int steps) {
+		target.putLong(hi);
+		target.putLong(lo);
+		target.putLong(created);
+		target.putInt(steps);
+		target.putInt(check(hi, lo, created, steps));
+	}
+
+	private static int check(long hi, long lo, long created, int steps) {
+		long h = hi * 31 + lo;
+		h = h * 31 + created;
+		h = h * 31 + steps;
+		return (int) (h ^ (h >>> 32)) ^ MAGIC;
+	}
+}
@@ -0,0 +1,49 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Map;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Records the DESERIALIZATION stage of every value the wrapped deserializer reads.
+ */
+public class TimedDeserializer<T> implements Deserializer<T> {
+	private final Deserializer<T> delegate;
+	private final StageLatencyRecorder stageLatency;
+
+	public TimedDeserializer(Deserializer<T> delegate, StageLatencyRecorder stageLatency) {
+		this.delegate = delegate;
+		this.stageLatency = stageLatency;
+	}
+
+	@Override
+	public void configure(Map<String, ?> configs, boolean isKey) {
+		delegate.configure(configs, isKey);
+	}
+
+	@Override
+	public T deserialize(String topic, byte[] data) {
+		long start = System.nanoTime();
+		try {
+			return delegate.deserialize(topic, data);
+		} finally {
+			stageLatency.recordSince(StageLatencyRecorder.Stage.DESERIALIZATION, start);
+		}
+	}
+
+	@Override
+	public T deserialize(String topic, Headers headers, byte[] data) {
+		long start = System.nanoTime();
+		try {
+			return delegate.deserialize(topic, headers, data);
+		} finally {
+			stageLatency.recordSince(StageLatencyRecorder.Stage.DESERIALIZATION, start);
+		}
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+}
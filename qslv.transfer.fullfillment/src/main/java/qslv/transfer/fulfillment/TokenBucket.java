@@ -0,0 +1,68 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter. Tokens accrue at ratePerSecond up to capacity, so a caller may
+ * burst up to capacity after an idle period and is held to the rate after that.
+ */
+public class TokenBucket {
+	private final double ratePerNano;
+	private final double capacity;
+	private final LongSupplier nanoClock;
+	private double tokens;
+	private long refilled;
+
+	public TokenBucket(double ratePerSecond, double capacity) {
+		this(ratePerSecond, capacity, System::nanoTime);
+	}
+
+	public TokenBucket(double ratePerSecond, double capacity, LongSupplier nanoClock) {
+		if (ratePerSecond <= 0 || capacity < 1) {
+			throw new IllegalArgumentException(String.format("Invalid token bucket rate %f, capacity %f.", ratePerSecond, capacity));
+		}
+		this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.capacity = capacity;
+		this.nanoClock = nanoClock;
+		this.tokens = capacity;
+		this.refilled = nanoClock.getAsLong();
+	}
+
+	public synchronized boolean tryAcquire() {
+		refill();
+		if (tokens < 1) {
+			return false;
+		}
+		tokens -= 1;
+		return true;
+	}
+
+	/**
+	 * Take a token, sleeping until one is available.
+	 */
+	public void acquire() throws InterruptedException {
+		long wait;
+		while ((wait = reserve()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * @return 0 if a token was taken, or the nanos until the next token accrues.
+	 */
+	private synchronized long reserve() {
+		refill();
+		if (tokens >= 1) {
+			tokens -= 1;
+			return 0L;
+		}
+		return Math.max(1L, (long) Math.ceil((1 - tokens) / ratePerNano));
+	}
+
+	private void refill() {
+		long now = nanoClock.getAsLong();
+		tokens = Math.min(capacity, tokens + (now - refilled) * ratePerNano);
+		refilled = now;
+	}
+}
@@ -1,6 +1,11 @@
 package qslv.transfer.fulfillment;
 
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +22,7 @@ import org.springframework.retry.RetryCallback;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 
 import qslv.common.TimedResponse;
@@ -42,6 +48,18 @@ public class TransactionDao {
 	private RestTemplateProxy restTemplateProxy;
 	@Autowired
 	private RetryTemplate retryTemplate;
+	@Autowired
+	private BulkTransactionDao bulkTransactionDao;
+	@Autowired
+	private ServiceLatencyRecorder serviceLatencyRecorder;
+	@Autowired
+	private TransactionServiceGuard transactionServiceGuard;
+	@Autowired
+	private TransactionHedger transactionHedger;
+	@Autowired
+	private EndpointBalancer endpointBalancer;
+	@Autowired
+	private TransferDeadline transferDeadline;
 	
 	public ConfigProperties getConfig() {
 		return config;
@@ -54,15 +72,55 @@ public class TransactionDao {
 	public void setRestTemplateProxy(RestTemplateProxy restTemplateProxy) {
 		this.restTemplateProxy = restTemplateProxy;
 	}
+
+	public void setRetryTemplate(RetryTemplate retryTemplate) {
+		this.retryTemplate = retryTemplate;
+	}
+
+	public void setBulkTransactionDao(BulkTransactionDao bulkTransactionDao) {
+		this.bulkTransactionDao = bulkTransactionDao;
+	}
+
+	public void setServiceLatencyRecorder(ServiceLatencyRecorder serviceLatencyRecorder) {
+		this.serviceLatencyRecorder = serviceLatencyRecorder;
+	}
+
+	public void setTransactionServiceGuard(TransactionServiceGuard transactionServiceGuard) {
+		this.transactionServiceGuard = transactionServiceGuard;
+	}
+
+	public void setTransactionHedger(TransactionHedger transactionHedger) {
+		this.transactionHedger = transactionHedger;
+	}
+
+	public void setEndpointBalancer(EndpointBalancer endpointBalancer) {
+		this.endpointBalancer = endpointBalancer;
+	}
+
+	public void setTransferDeadline(TransferDeadline transferDeadline) {
+		this.transferDeadline = transferDeadline;
+	}
 	
 	public TransactionResponse recordTransaction(final TraceableMessage<?> message, final TransactionRequest request) {
+		return recordTransaction(message, request, deadline(message));
+	}
+
+	/**
+	 * @param deadline in epoch millis, or NONE to record whatever the message's age.
+	 */
+	public TransactionResponse recordTransaction(final TraceableMessage<?> message, final TransactionRequest request,
+			long deadline) {
 		log.warn("recordTransaction ENTRY");
 
+		if (isBulk()) {
+			return await(bulkTransactionDao.recordTransaction(message, request), deadline);
+		}
 		TransactionResponse response = callService(message, 
 				config.getPostTransactionUrl(), 
 				TransactionRequest.VERSION_1_0,
 				request, 
-				transactionResponseType);
+				transactionResponseType,
+				deadline);
 
 		log.warn("recordTransaction EXIT");
 		return response;
@@ -71,29 +129,40 @@ public class TransactionDao {
 	public CommitReservationResponse commitReservation(final TraceableMessage<?> message, final CommitReservationRequest request) {
 		log.warn("commitReservation ENTRY");
 
+		if (isBulk()) {
+			return await(bulkTransactionDao.commitReservation(message, request), TransferDeadline.NONE);
+		}
 		CommitReservationResponse response = callService(message, 
 				config.getCommitReservationUrl(), 
 				CommitReservationRequest.VERSION_1_0,
 				request, 
-				commitResponseType);
+				commitResponseType,
+				TransferDeadline.NONE);
 
 		log.warn("commitReservation EXIT");
 		return response;
 	}
 
-	private <M,R> R callService(final TraceableMessage<?> message, String url, String version, M request, ParameterizedTypeReference<TimedResponse<R>> typereference) {
+	/**
+	 * @param deadline of the transfer, or NONE for a step that must complete whatever the time.
+	 */
+	private <M,R> R callService(final TraceableMessage<?> message, String url, String version, M request, ParameterizedTypeReference<TimedResponse<R>> typereference,
+			long deadline) {
 		log.trace("commitReservation ENTRY");
 
 		HttpHeaders headers = buildHeaders(message);
 		headers.add(TraceableRequest.ACCEPT_VERSION, version);
 		ResponseEntity<TimedResponse<R>> response = null;
+		final long start = System.nanoTime();
 		try {
-			response = retryTemplate.execute(new RetryCallback<ResponseEntity<TimedResponse<R>>, ResourceAccessException>() {
-				public ResponseEntity<TimedResponse<R>> doWithRetry( RetryContext context) throws ResourceAccessException {
-					return restTemplateProxy.exchange(url, HttpMethod.POST,
-							new HttpEntity<M>(request, headers), typereference);
-			}});
-		} catch (ResourceAccessException ex) {
+			response = transactionServiceGuard == null
+					? exchange(url, headers, request, typereference, deadline)
+					: transactionServiceGuard.call(url, () -> exchange(url, headers, request, typereference, deadline));
+		} catch (TransferDeadlineExceededException ex) {
+			log.warn(ex.getLocalizedMessage());
+			throw ex;
+		} catch (ResourceAccessException | HttpServerErrorException ex) {
+			// the retry template rethrows the last failure once restAttempts are used up
 			String msg = String.format("Exhausted %d retries for POST %s.", config.getRestAttempts(), url);
 			log.warn(msg);
 			throw new TransientDataAccessResourceException(msg, ex);
@@ -106,10 +175,128 @@ public class TransactionDao {
 			log.error(msg);
 			throw new NonTransientDataAccessResourceException(msg);
 		}
+		if (serviceLatencyRecorder != null) {
+			serviceLatencyRecorder.record(url, start, response.getBody().getServiceTimeElapsed());
+		}
 		log.trace("commitReservation ENTRY");
 		return response.getBody().getPayload();
 	}
 	
+	private <M,R> ResponseEntity<TimedResponse<R>> exchange(String url, HttpHeaders headers, M request,
+			ParameterizedTypeReference<TimedResponse<R>> typereference, long deadline) {
+		return retryTemplate.execute(new RetryCallback<ResponseEntity<TimedResponse<R>>, ResourceAccessException>() {
+			public ResponseEntity<TimedResponse<R>> doWithRetry( RetryContext context) throws ResourceAccessException {
+				context.setAttribute(BudgetedRetryPolicy.ENDPOINT, url);
+				if (deadline != TransferDeadline.NONE) {
+					// not retryable, so an attempt that would start past the deadline ends the retries
+					transferDeadline.check(deadline, TransferDeadline.POST);
+				}
+				// only recording is hedged: the transaction service deduplicates it on the requestUuid, while a
+				// commit hedged behind a slow one would race it for the reservation
+				if (transactionHedger != null && transactionHedger.isEnabled() && url.equals(config.getPostTransactionUrl())) {
+					// each attempt may be hedged; the request carries the same requestUuid both times
+					return transactionHedger.call(url, () -> post(url, headers, request, typereference, deadline));
+				}
+				return post(url, headers, request, typereference, deadline);
+		}});
+	}
+
+	/**
+	 * One POST to one of the endpoints in the url setting. Retries and hedges choose again.
+	 * With a deadline, the POST carries the time left and its read timeout is capped to it.
+	 */
+	private <M,R> ResponseEntity<TimedResponse<R>> post(String url, HttpHeaders headers, M request,
+			ParameterizedTypeReference<TimedResponse<R>> typereference, long deadline) {
+		if (deadline != TransferDeadline.NONE) {
+			HttpHeaders budgeted = new HttpHeaders();
+			budgeted.putAll(headers);
+			budgeted.set(TransferDeadline.BUDGET_HEADER, Long.toString(Math.max(0L, transferDeadline.remaining(deadline))));
+			// on the thread that sends, which for a hedge is not the caller's
+			return transferDeadline.within(deadline, () -> post(url, new HttpEntity<M>(request, budgeted), typereference));
+		}
+		return post(url, new HttpEntity<M>(request, headers), typereference);
+	}
+
+	private <M,R> ResponseEntity<TimedResponse<R>> post(String url, HttpEntity<M> entity,
+			ParameterizedTypeReference<TimedResponse<R>> typereference) {
+		if (endpointBalancer == null) {
+			return restTemplateProxy.exchange(url, HttpMethod.POST, entity, typereference);
+		}
+		EndpointBalancer.Selection endpoint = endpointBalancer.select(url);
+		boolean success = false;
+		try {
+			ResponseEntity<TimedResponse<R>> response = restTemplateProxy.exchange(endpoint.getUrl(), HttpMethod.POST,
+					entity, typereference);
+			success = true;
+			return response;
+		} catch (RuntimeException ex) {
+			success = !TransactionServiceGuard.isFailure(ex);
+			throw ex;
+		} finally {
+			endpoint.complete(success);
+		}
+	}
+
+	private long deadline(final TraceableMessage<?> message) {
+		return transferDeadline == null ? TransferDeadline.NONE : transferDeadline.deadline(message);
+	}
+
+	private boolean isBulk() {
+		return bulkTransactionDao != null && bulkTransactionDao.isEnabled();
+	}
+
+	/**
+	 * Waits as long as the bulk POST can take, so a flush thread that never completes the future
+	 * cannot hold the consumer thread, while one that is still retrying is not given up on: a
+	 * transfer the caller retries could still be recorded by that POST. With a deadline, waits no
+	 * longer than the time left to it, as a single POST's read timeout is capped.
+	 * @throws TransferDeadlineExceededException the deadline passed first.
+	 */
+	private <R> R await(CompletableFuture<R> future, long deadline) {
+		long timeout = bulkTimeout();
+		boolean capped = false;
+		if (deadline != TransferDeadline.NONE) {
+			long remaining = transferDeadline.remaining(deadline);
+			if (remaining < timeout) {
+				timeout = Math.max(0L, remaining);
+				capped = true;
+			}
+		}
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new TransientDataAccessResourceException(ex.getLocalizedMessage(), ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new TransientDataAccessResourceException("Interrupted waiting for bulk POST.", ex);
+		} catch (TimeoutException ex) {
+			if (capped) {
+				TransferDeadlineExceededException exceeded = transferDeadline.exceeded(TransferDeadline.POST);
+				log.warn(exceeded.getLocalizedMessage());
+				throw exceeded;
+			}
+			String msg = String.format("No answer to bulk POST within %d ms.", timeout);
+			log.warn(msg);
+			throw new TransientDataAccessResourceException(msg, ex);
+		}
+	}
+
+	/**
+	 * The worst case of a bulk POST: the batch's linger, the guard's wait for a permit, and
+	 * restAttempts attempts of connection lease, connect and read timeout, with a backoff of up to
+	 * twice restBackoffDelayMax, after the random stretch, between them.
+	 */
+	long bulkTimeout() {
+		long attempt = (long) config.getRestConnectionRequestTimeout() + config.getRestConnectTimeout() + config.getRestTimeout();
+		long backoff = 2L * config.getRestBackoffDelayMax();
+		long guardWait = transactionServiceGuard == null ? 0L : transactionServiceGuard.getCallWait();
+		return config.getBulkLinger() + guardWait + attempt * config.getRestAttempts()
+				+ backoff * Math.max(0, config.getRestAttempts() - 1);
+	}
+
 	private HttpHeaders buildHeaders(final TraceableMessage<?> message) {
 		HttpHeaders headers = new HttpHeaders();
 		headers.setContentType(MediaType.APPLICATION_JSON);
@@ -0,0 +1,279 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Hedged POSTs for restHedging. A POST that has not answered after the restHedgePercentile latency
+ * of the endpoint's recent calls is sent a second time, and the first answer wins. The transaction
+ * service deduplicates on the requestUuid, so the second request cannot post twice. The loser is
+ * cancelled; a blocking socket read cannot be interrupted, so its answer is discarded when it
+ * arrives. Each call adds restHedgeBudget percent of a hedge to a budget and each hedge takes a whole
+ * one, so hedges stay below that share of the traffic even when the whole service slows down.
+ * Until the endpoint has restHedgeMinSamples recent latencies, calls are not hedged.
+ *
+ * A hedge is a call of its own: it takes a TransactionServiceGuard permit and is skipped when the
+ * circuit is open or the bulkhead full. Attempts run on at most restHedgeThreads threads; without
+ * a free one a call runs unhedged on the caller's thread and a hedge is skipped. Failed and timed
+ * out attempts count in the latency window like answers do, so a failing endpoint raises the
+ * threshold instead of hiding behind its few fast answers.
+ */
+@Component
+public class TransactionHedger {
+	private static final long THRESHOLD_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private TransactionServiceGuard transactionServiceGuard;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private ExecutorService executor;
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setTransactionServiceGuard(TransactionServiceGuard transactionServiceGuard) {
+		this.transactionServiceGuard = transactionServiceGuard;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public boolean isEnabled() {
+		return config.isRestHedging();
+	}
+
+	@PreDestroy
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	public <T> T call(String url, Supplier<T> post) {
+		if (!isEnabled()) {
+			return post.get();
+		}
+		Endpoint endpoint = endpoint(url);
+		endpoint.requests.increment();
+		endpoint.addBudget(config.getRestHedgeBudget() / 100.0);
+		long threshold = endpoint.threshold();
+		if (threshold <= 0) {
+			return timed(endpoint, post);
+		}
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+		AtomicInteger pending = new AtomicInteger(1);
+		Future<?> primary;
+		try {
+			primary = executor().submit(() -> attempt(endpoint, post, result, pending, false, null));
+		} catch (RejectedExecutionException ex) {
+			endpoint.saturated.increment();
+			return timed(endpoint, post);
+		}
+		try {
+			return result.get(threshold, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException ex) {
+			if (result.isDone() || !endpoint.tryHedge()) {
+				if (!result.isDone()) {
+					endpoint.exhausted.increment();
+				}
+				return await(result);
+			}
+			Future<?> hedge = hedge(url, endpoint, post, result, pending);
+			try {
+				return await(result);
+			} finally {
+				primary.cancel(true);
+				if (hedge != null) {
+					hedge.cancel(true);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			primary.cancel(true);
+			throw new TransientDataAccessResourceException("Interrupted waiting for POST " + url, ex);
+		} catch (ExecutionException ex) {
+			throw unwrap(ex.getCause());
+		}
+	}
+
+	/**
+	 * @return the hedge's future, or null when no permit or thread was free for it.
+	 */
+	private <T> Future<?> hedge(String url, Endpoint endpoint, Supplier<T> post, CompletableFuture<T> result, AtomicInteger pending) {
+		TransactionServiceGuard.Permit permit = null;
+		if (transactionServiceGuard != null) {
+			try {
+				permit = transactionServiceGuard.acquire(url, 0L);
+			} catch (TransactionServiceUnavailableException ex) {
+				endpoint.rejected.increment();
+				return null;
+			}
+		}
+		final TransactionServiceGuard.Permit hedgePermit = permit;
+		pending.incrementAndGet();
+		try {
+			Future<?> hedge = executor().submit(() -> attempt(endpoint, post, result, pending, true, hedgePermit));
+			endpoint.hedges.increment();
+			return hedge;
+		} catch (RejectedExecutionException ex) {
+			pending.decrementAndGet();
+			if (hedgePermit != null) {
+				hedgePermit.cancel();
+			}
+			endpoint.saturated.increment();
+			return null;
+		}
+	}
+
+	private <T> T timed(Endpoint endpoint, Supplier<T> post) {
+		long start = System.nanoTime();
+		try {
+			return post.get();
+		} finally {
+			endpoint.latency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * The first answer completes the result. A failure only does once the other attempt failed too.
+	 * @param permit the hedge's own guard permit, released when it ends.
+	 */
+	private <T> void attempt(Endpoint endpoint, Supplier<T> post, CompletableFuture<T> result, AtomicInteger pending, boolean hedge,
+			TransactionServiceGuard.Permit permit) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			T answer = post.get();
+			success = true;
+			if (result.complete(answer) && hedge) {
+				endpoint.wins.increment();
+			}
+		} catch (RuntimeException ex) {
+			success = !TransactionServiceGuard.isFailure(ex);
+			if (pending.decrementAndGet() == 0) {
+				result.completeExceptionally(ex);
+			}
+			return;
+		} finally {
+			endpoint.latency.record(System.nanoTime() - start);
+			if (permit != null) {
+				permit.release(success, start);
+			}
+		}
+		pending.decrementAndGet();
+	}
+
+	private <T> T await(CompletableFuture<T> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new TransientDataAccessResourceException("Interrupted waiting for hedged POST.", ex);
+		} catch (ExecutionException ex) {
+			throw unwrap(ex.getCause());
+		}
+	}
+
+	private RuntimeException unwrap(Throwable cause) {
+		return cause instanceof RuntimeException ? (RuntimeException) cause
+				: new TransientDataAccessResourceException(cause.getLocalizedMessage(), cause);
+	}
+
+	private synchronized ExecutorService executor() {
+		if (executor == null) {
+			AtomicInteger count = new AtomicInteger();
+			// no queue: an attempt that cannot start at once is not worth hedging
+			executor = new ThreadPoolExecutor(0, Math.max(1, config.getRestHedgeThreads()), 60L, TimeUnit.SECONDS,
+					new SynchronousQueue<>(), runnable -> {
+				Thread thread = new Thread(runnable, "transaction-hedge-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	private Endpoint endpoint(String url) {
+		Endpoint endpoint = endpoints.get(url);
+		return endpoint != null ? endpoint : endpoints.computeIfAbsent(url, Endpoint::new);
+	}
+
+	private class Endpoint {
+		final RollingLatencyHistogram latency = new RollingLatencyHistogram(config.getRestHedgeWindow());
+		final Counter requests;
+		final Counter hedges;
+		final Counter wins;
+		final Counter exhausted;
+		final Counter rejected;
+		final Counter saturated;
+		private double budget;
+		private long threshold;
+		private long thresholdAt = System.nanoTime() - THRESHOLD_REFRESH_NANOS;
+
+		Endpoint(String url) {
+			requests = Counter.builder("qslv.transaction.hedge.requests").tag("endpoint", url).register(registry);
+			hedges = Counter.builder("qslv.transaction.hedges").tag("endpoint", url).register(registry);
+			wins = Counter.builder("qslv.transaction.hedge.wins").tag("endpoint", url).register(registry);
+			exhausted = Counter.builder("qslv.transaction.hedge.budget.exhausted").tag("endpoint", url).register(registry);
+			rejected = Counter.builder("qslv.transaction.hedge.rejected").tag("endpoint", url).register(registry);
+			saturated = Counter.builder("qslv.transaction.hedge.saturated").tag("endpoint", url).register(registry);
+		}
+
+		synchronized void addBudget(double share) {
+			// a burst of slow calls may spend at most 10 hedges saved up while all was well
+			budget = Math.min(10.0, budget + share);
+		}
+
+		synchronized boolean tryHedge() {
+			if (budget < 1.0) {
+				return false;
+			}
+			budget -= 1.0;
+			return true;
+		}
+
+		/**
+		 * @return the hedging delay in nanos, or 0 while there are too few samples.
+		 */
+		synchronized long threshold() {
+			long now = System.nanoTime();
+			if (now - thresholdAt >= THRESHOLD_REFRESH_NANOS) {
+				thresholdAt = now;
+				threshold = latency.getCount() < config.getRestHedgeMinSamples() ? 0L
+						: Math.max(TimeUnit.MILLISECONDS.toNanos(config.getRestHedgeMinDelay()),
+								latency.percentile(config.getRestHedgePercentile()));
+			}
+			return threshold;
+		}
+	}
+}
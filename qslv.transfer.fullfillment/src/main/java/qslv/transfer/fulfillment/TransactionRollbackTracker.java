@@ -0,0 +1,121 @@
+package qslv.transfer.fulfillment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts how often the kafkaTransactional BATCH consumer rolled back a batch starting at the same
+ * offsets. The after-rollback processor reports each rollback; once a batch has rolled back
+ * kafkaTransactionMaxRollbacks times the controller sends its dead letters and retry records outside
+ * the transaction, where the DeadLetterPublisher and DlqSpillQueue bound them, so a topic the broker
+ * rejects at commit cannot hold the partition forever.
+ *
+ * A rolled back batch's partitions are paused for kafkaTimeout instead of sleeping the consumer
+ * thread. They resume from the listener or from a container idle event, both on the consumer thread.
+ */
+@Component
+public class TransactionRollbackTracker {
+	private static final Logger log = LoggerFactory.getLogger(TransactionRollbackTracker.class);
+
+	private static class Rollbacks {
+		final long offset;	// first offset of the batch on this partition
+		final int count;
+		final long resumeAt;	// 0 once resumed
+
+		Rollbacks(long offset, int count, long resumeAt) {
+			this.offset = offset;
+			this.count = count;
+			this.resumeAt = resumeAt;
+		}
+	}
+
+	@Autowired
+	private ConfigProperties config;
+
+	private final Map<TopicPartition, Rollbacks> rollbacks = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	/**
+	 * Consumer thread, after the batch was sought back.
+	 */
+	public void rolledBack(List<? extends ConsumerRecord<?, ?>> records, Consumer<?, ?> consumer) {
+		long resumeAt = System.currentTimeMillis() + config.getKafkaTimeout();
+		Map<TopicPartition, Long> heads = heads(records);
+		heads.forEach((partition, offset) -> {
+			Rollbacks previous = rollbacks.get(partition);
+			int count = (previous != null && previous.offset == offset) ? previous.count + 1 : 1;
+			rollbacks.put(partition, new Rollbacks(offset, count, resumeAt));
+			log.warn("Batch at {}-{} rolled back {} times.", partition, offset, count);
+		});
+		consumer.pause(heads.keySet());
+	}
+
+	/**
+	 * @return true when a partition of the batch has rolled back kafkaTransactionMaxRollbacks times at these offsets.
+	 */
+	public boolean isExhausted(List<? extends ConsumerRecord<?, ?>> records) {
+		for (Map.Entry<TopicPartition, Long> head : heads(records).entrySet()) {
+			Rollbacks previous = rollbacks.get(head.getKey());
+			if (previous != null && previous.offset == head.getValue() && previous.count >= config.getKafkaTransactionMaxRollbacks()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Consumer thread. Resumes the partitions whose pause is over.
+	 */
+	public void resumeDue(Consumer<?, ?> consumer) {
+		long now = System.currentTimeMillis();
+		List<TopicPartition> due = new ArrayList<>();
+		Collection<TopicPartition> assigned = consumer.assignment();
+		Collection<TopicPartition> paused = consumer.paused();
+		for (Map.Entry<TopicPartition, Rollbacks> entry : rollbacks.entrySet()) {
+			Rollbacks partition = entry.getValue();
+			// idle events of every container arrive here; only touch this consumer's partitions
+			if (assigned.contains(entry.getKey()) && partition.resumeAt != 0L && partition.resumeAt <= now) {
+				entry.setValue(new Rollbacks(partition.offset, partition.count, 0L));
+				if (paused.contains(entry.getKey())) {
+					due.add(entry.getKey());
+				}
+			}
+		}
+		if (!due.isEmpty()) {
+			consumer.resume(due);
+		}
+	}
+
+	@EventListener
+	public void onIdle(ListenerContainerIdleEvent event) {
+		// every partition may be paused, so no batch arrives to resume them
+		if (event.getConsumer() != null && !rollbacks.isEmpty()) {
+			resumeDue(event.getConsumer());
+		}
+	}
+
+	private static Map<TopicPartition, Long> heads(List<? extends ConsumerRecord<?, ?>> records) {
+		Map<TopicPartition, Long> heads = new LinkedHashMap<>();
+		for (ConsumerRecord<?, ?> record : records) {
+			heads.putIfAbsent(new TopicPartition(record.topic(), record.partition()), record.offset());
+		}
+		return heads;
+	}
+}
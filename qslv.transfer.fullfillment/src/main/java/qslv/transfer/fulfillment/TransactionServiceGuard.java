@@ -0,0 +1,268 @@
+package qslv.transfer.fulfillment;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Circuit breaker and bulkhead per transaction service endpoint. A call first needs the endpoint's
+ * circuit to be closed (or to be the half-open probe) and then one of restBulkheadMaxConcurrent
+ * permits, waiting at most restBulkheadWait for it. A refused call fails at once with a
+ * TransactionServiceUnavailableException, which takes the transient path like a timeout does but
+ * without holding a consumer thread for restAttempts x restTimeout. Timeouts, exhausted retries
+ * and 5xx answers count as failures; any other answer means the service is up.
+ * With restAdaptiveConcurrency the fixed bulkhead is replaced by an AdaptiveConcurrencyLimiter
+ * that finds the endpoint's concurrency between restAdaptiveMinLimit and restBulkheadMaxConcurrent.
+ * A blocking call then waits up to restTimeout for a permit, since a limit that has shrunk means the
+ * service is slow rather than down, and the BackpressureController pauses the consumers against the
+ * current limits rather than the ceiling, so work is held back instead of shed to the retry tiers.
+ */
+@Component
+public class TransactionServiceGuard {
+	private static final Logger log = LoggerFactory.getLogger(TransactionServiceGuard.class);
+
+	@Autowired
+	private ConfigProperties config;
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private final ConcurrentHashMap<String, Permit> endpoints = new ConcurrentHashMap<>();
+	// totals over all endpoints, sampled by the BackpressureController
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder latencyNanos = new LongAdder();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setPublisher(ApplicationEventPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Run a blocking call. The call's own exception is rethrown after it has been counted.
+	 */
+	public <T> T call(String endpoint, Supplier<T> call) {
+		Permit permit = acquire(endpoint, getCallWait());
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			T result = call.get();
+			success = true;
+			return result;
+		} catch (RuntimeException ex) {
+			success = !isFailure(ex);
+			throw ex;
+		} finally {
+			permit.release(success, start);
+		}
+	}
+
+	/**
+	 * @return the longest call() waits for a permit, in millis.
+	 */
+	public long getCallWait() {
+		return config.isRestAdaptiveConcurrency()
+				? Math.max(config.getRestBulkheadWait(), config.getRestTimeout()) : config.getRestBulkheadWait();
+	}
+
+	/**
+	 * Non-blocking callers pass a wait of 0 and release the permit when the call completes.
+	 * @throws TransactionServiceUnavailableException the circuit is open or the bulkhead full.
+	 */
+	public Permit acquire(String endpoint, long waitMillis) {
+		Permit permit = permit(endpoint);
+		if (!permit.breaker.tryAcquire()) {
+			permit.rejected.increment();
+			throw new TransactionServiceUnavailableException(String.format("Circuit open for POST %s.", endpoint));
+		}
+		boolean acquired;
+		try {
+			acquired = permit.acquireBulkhead(waitMillis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			acquired = false;
+		}
+		if (!acquired) {
+			// the call was never made, so a probe permit is handed back unused
+			permit.breaker.onCancel();
+			permit.full.increment();
+			throw new TransactionServiceUnavailableException(String.format("%d calls to POST %s in flight.",
+					permit.getLimit(), endpoint));
+		}
+		inFlight.incrementAndGet();
+		return permit;
+	}
+
+	public CircuitBreaker.State getState(String endpoint) {
+		return permit(endpoint).breaker.getState();
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the sum of the endpoints' current limits, restBulkheadMaxConcurrent before the first call.
+	 */
+	public int getLimit() {
+		int limit = 0;
+		for (Permit permit : endpoints.values()) {
+			limit += permit.getLimit();
+		}
+		return endpoints.isEmpty() ? config.getRestBulkheadMaxConcurrent() : limit;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getLatencyNanos() {
+		return latencyNanos.sum();
+	}
+
+	public static boolean isFailure(Throwable ex) {
+		if (ex instanceof TransactionServiceUnavailableException) {
+			return false;
+		}
+		return ex instanceof TransientDataAccessException || ex instanceof ResourceAccessException
+				|| ex instanceof HttpServerErrorException;
+	}
+
+	private Permit permit(String endpoint) {
+		Permit permit = endpoints.get(endpoint);
+		return permit != null ? permit : endpoints.computeIfAbsent(endpoint, Permit::new);
+	}
+
+	public class Permit implements CircuitBreaker.Listener {
+		private final CircuitBreaker breaker;
+		private final Semaphore bulkhead;
+		private final AdaptiveConcurrencyLimiter limiter;
+		private final Counter rejected;
+		private final Counter full;
+
+		Permit(String endpoint) {
+			breaker = new CircuitBreaker(endpoint, Math.max(1, config.getRestBreakerFailureThreshold()), config.getRestBreakerOpenTime(),
+					config.getRestBreakerFailureThreshold() > 0 ? this : null);
+			if (config.isRestAdaptiveConcurrency() && config.getRestBulkheadMaxConcurrent() > 0) {
+				// restBulkheadMaxConcurrent stays the ceiling of the adaptive limit
+				bulkhead = null;
+				limiter = new AdaptiveConcurrencyLimiter(config.getRestAdaptiveInitialLimit(), config.getRestAdaptiveMinLimit(),
+						config.getRestBulkheadMaxConcurrent(), config.getRestAdaptiveTolerance(),
+						config.getRestAdaptiveWindow());
+				Gauge.builder("qslv.transaction.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+						.tag("endpoint", endpoint).register(registry);
+			} else {
+				bulkhead = config.getRestBulkheadMaxConcurrent() > 0 ? new Semaphore(config.getRestBulkheadMaxConcurrent()) : null;
+				limiter = null;
+			}
+			rejected = Counter.builder("qslv.transaction.breaker.rejected").tag("endpoint", endpoint).register(registry);
+			full = Counter.builder("qslv.transaction.bulkhead.rejected").tag("endpoint", endpoint).register(registry);
+			Gauge.builder("qslv.transaction.breaker.state", breaker, b -> b.getState().ordinal())
+					.tag("endpoint", endpoint).register(registry);
+		}
+
+		private boolean acquireBulkhead(long waitMillis) throws InterruptedException {
+			if (limiter != null) {
+				return waitMillis > 0 ? limiter.tryAcquire(waitMillis) : limiter.tryAcquire();
+			}
+			if (bulkhead != null) {
+				return waitMillis > 0 ? bulkhead.tryAcquire(waitMillis, TimeUnit.MILLISECONDS) : bulkhead.tryAcquire();
+			}
+			return true;
+		}
+
+		public int getLimit() {
+			return limiter != null ? limiter.getLimit() : config.getRestBulkheadMaxConcurrent();
+		}
+
+		/**
+		 * Hands back a permit whose call was never made, without counting it.
+		 */
+		public void cancel() {
+			if (bulkhead != null) {
+				bulkhead.release();
+			}
+			if (limiter != null) {
+				limiter.release();
+			}
+			inFlight.decrementAndGet();
+			breaker.onCancel();
+		}
+
+		/**
+		 * @param start a System.nanoTime() taken when the call was made.
+		 */
+		public void release(boolean success, long start) {
+			long elapsed = System.nanoTime() - start;
+			if (bulkhead != null) {
+				bulkhead.release();
+			}
+			if (limiter != null) {
+				limiter.release(elapsed, success);
+			}
+			inFlight.decrementAndGet();
+			calls.increment();
+			latencyNanos.add(elapsed);
+			if (!success) {
+				failures.increment();
+			}
+			if (config.getRestBreakerFailureThreshold() <= 0) {
+				return;
+			}
+			if (success) {
+				breaker.onSuccess();
+			} else {
+				breaker.onFailure();
+			}
+		}
+
+		@Override
+		public void onTransition(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+			if (to == CircuitBreaker.State.OPEN) {
+				log.error("Circuit for POST {} opened for {} ms.", breaker.getName(), breaker.getOpenMillis());
+			} else {
+				log.warn("Circuit for POST {} {}.", breaker.getName(), to);
+			}
+			Counter.builder("qslv.transaction.breaker.transitions").tag("endpoint", breaker.getName()).tag("state", to.name())
+					.register(registry).increment();
+			if (publisher != null) {
+				publisher.publishEvent(new CircuitBreakerEvent(breaker.getName(), from, to, breaker.getOpenMillis()));
+			}
+		}
+
+		@Override
+		public void onProbe(CircuitBreaker breaker, boolean success) {
+			Counter.builder("qslv.transaction.breaker.probes").tag("endpoint", breaker.getName()).tag("result", success ? "success" : "failure")
+					.register(registry).increment();
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package qslv.transfer.fulfillment;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * The call was refused without reaching the transaction service: its circuit is open or its
+ * bulkhead is full. Transient, so the record takes the retry path.
+ */
+public class TransactionServiceUnavailableException extends TransientDataAccessResourceException {
+	private static final long serialVersionUID = 1L;
+
+	public TransactionServiceUnavailableException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,134 @@
+package qslv.transfer.fulfillment;
+
+import java.time.ZoneId;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import qslv.common.kafka.TraceableMessage;
+
+/**
+ * End-to-end deadlines for transferDeadline. A transfer must be fulfilled within transferDeadline
+ * millis of its messageCreationTime; after that it is expired and no longer sent to the
+ * transaction service. Each POST that records it carries the time left in the BUDGET_HEADER,
+ * and its read timeout is capped to it, so neither a slow call nor its retries run past the
+ * deadline. During a backlog catch-up, transfers that can no longer finish are skipped instead of
+ * taking capacity from those that still can. The deadline only decides whether a transfer is
+ * started: once its transaction is recorded, the reservation is committed however long that
+ * takes, so no transfer is left half done. A transferDeadline of 0 turns deadlines off.
+ */
+@Component
+public class TransferDeadline {
+	public static final String BUDGET_HEADER = "deadline-budget-ms";
+	public static final long NONE = Long.MAX_VALUE;
+	// where a transfer was found expired
+	public static final String RECORD = "record";
+	public static final String POST = "post";
+	public static final String RETRY = "retry";
+
+	@Autowired
+	private ConfigProperties config;
+
+	private MeterRegistry registry = Metrics.globalRegistry;
+	private LongSupplier clock = System::currentTimeMillis;
+	private final ThreadLocal<Long> current = new ThreadLocal<>();
+	private final ConcurrentHashMap<String, Counter> expired = new ConcurrentHashMap<>();
+
+	public void setConfig(ConfigProperties config) {
+		this.config = config;
+	}
+
+	public void setRegistry(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	public boolean isEnabled() {
+		return config.getTransferDeadline() > 0;
+	}
+
+	/**
+	 * @return the deadline of the message in epoch millis, or NONE.
+	 */
+	public long deadline(TraceableMessage<?> message) {
+		if (!isEnabled() || message.getMessageCreationTime() == null) {
+			return NONE;
+		}
+		return message.getMessageCreationTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+				+ config.getTransferDeadline();
+	}
+
+	/**
+	 * @return the millis left until the deadline, negative once it has passed, or NONE.
+	 */
+	public long remaining(long deadline) {
+		return deadline == NONE ? NONE : deadline - clock.getAsLong();
+	}
+
+	public boolean isExpired(TraceableMessage<?> message) {
+		return remaining(deadline(message)) <= 0;
+	}
+
+	/**
+	 * @param stage where the transfer was found expired, for the qslv.transfer.expired counter.
+	 * @throws TransferDeadlineExceededException the deadline has passed.
+	 */
+	public void check(long deadline, String stage) {
+		if (remaining(deadline) <= 0) {
+			throw exceeded(stage);
+		}
+	}
+
+	public void check(TraceableMessage<?> message, String stage) {
+		check(deadline(message), stage);
+	}
+
+	public TransferDeadlineExceededException exceeded(String stage) {
+		expired.computeIfAbsent(stage, s -> Counter.builder("qslv.transfer.expired").tag("stage", s).register(registry))
+				.increment();
+		return new TransferDeadlineExceededException(String.format("Transfer deadline of %d ms passed before %s.",
+				config.getTransferDeadline(), stage));
+	}
+
+	/**
+	 * Runs a blocking call with the deadline visible to cap() on this thread.
+	 */
+	public <T> T within(long deadline, Supplier<T> call) {
+		if (deadline == NONE) {
+			return call.get();
+		}
+		Long previous = current.get();
+		current.set(deadline);
+		try {
+			return call.get();
+		} finally {
+			if (previous == null) {
+				current.remove();
+			} else {
+				current.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * @return the timeout, no longer than the time left to the deadline of the call on this thread.
+	 */
+	public int cap(int timeout) {
+		Long deadline = current.get();
+		return deadline == null ? timeout : cap(timeout, deadline);
+	}
+
+	public int cap(int timeout, long deadline) {
+		// at least 1 ms, a socket timeout of 0 would wait forever
+		return (int) Math.max(1L, Math.min(timeout, remaining(deadline)));
+	}
+}
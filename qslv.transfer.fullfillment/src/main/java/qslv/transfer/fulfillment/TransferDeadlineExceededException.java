@@ -0,0 +1,15 @@
+package qslv.transfer.fulfillment;
+
+import org.springframework.dao.NonTransientDataAccessResourceException;
+
+/**
+ * The transfer is older than transferDeadline. Not transient: a retry could only finish it later
+ * still, so the record goes straight to kafkaExpiredQueue instead of the retry path.
+ */
+public class TransferDeadlineExceededException extends NonTransientDataAccessResourceException {
+	private static final long serialVersionUID = 1L;
+
+	public TransferDeadlineExceededException(String msg) {
+		super(msg);
+	}
+}
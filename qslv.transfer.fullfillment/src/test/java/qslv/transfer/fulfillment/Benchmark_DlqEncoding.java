@@ -0,0 +1,94 @@
+package qslv.transfer.fulfillment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import qslv.transfer.request.TransferFulfillmentMessage;
+import qslv.transfer.response.TransferFulfillmentDeadLetter;
+
+/**
+ * Bytes and encoding time per dead letter: the former pretty-printed JSON with a writer built per
+ * call, against the DeadLetterEncoder formats. AVRO needs a schema registry to register the
+ * writer schema, so it only runs when a registry URL is given.
+ *
+ * Not a unit test. Run with arguments: messages [schemaRegistryUrl]
+ */
+public class Benchmark_DlqEncoding {
+	private static final String TOPIC = "dlq.transfer.requests";
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		String registryUrl = args.length > 1 ? args[1] : null;
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.configure(SerializationFeature.WRAP_ROOT_VALUE, false);
+		objectMapper.registerModule(new JavaTimeModule());
+		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+		TransferFulfillmentDeadLetter[] letters = new TransferFulfillmentDeadLetter[1000];
+		for (int index = 0; index < letters.length; index++) {
+			letters[index] = setup_letter(index);
+		}
+
+		System.out.printf("%d dead letters%n", messages);
+		run("pretty json", messages, letters, letter -> objectMapper.writer().withDefaultPrettyPrinter().writeValueAsString(letter)
+				.getBytes(StandardCharsets.UTF_8));
+		DeadLetterEncoder json = encoder(objectMapper, ConfigProperties.DlqFormat.JSON, registryUrl);
+		run("compact json", messages, letters, letter -> json.encode(TOPIC, letter.getRequest().getFromAccountNumber(), letter).value());
+		if (registryUrl == null) {
+			System.out.println("avro skipped, no schema registry url");
+		} else {
+			DeadLetterEncoder avro = encoder(objectMapper, ConfigProperties.DlqFormat.AVRO, registryUrl);
+			run("avro", messages, letters, letter -> avro.encode(TOPIC, letter.getRequest().getFromAccountNumber(), letter).value());
+		}
+	}
+
+	static DeadLetterEncoder encoder(ObjectMapper objectMapper, ConfigProperties.DlqFormat format, String registryUrl) {
+		ConfigProperties config = new ConfigProperties();
+		config.setKafkaDlqFormat(format);
+		Map<String, Object> producerConfig = new HashMap<>();
+		producerConfig.put("schema.registry.url", registryUrl);
+		DeadLetterEncoder encoder = new DeadLetterEncoder();
+		encoder.setConfig(config);
+		encoder.setObjectMapper(objectMapper);
+		encoder.setProducerConfig(producerConfig);
+		encoder.init();
+		return encoder;
+	}
+
+	static void run(String name, int messages, TransferFulfillmentDeadLetter[] letters, Encoding encoding) throws Exception {
+		// warm up
+		for (int index = 0; index < Math.min(messages, 20000); index++) {
+			encoding.encode(letters[index % letters.length]);
+		}
+		long bytes = 0;
+		long start = System.nanoTime();
+		for (int index = 0; index < messages; index++) {
+			bytes += encoding.encode(letters[index % letters.length]).length;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-14s %7.1f bytes/message   %7.0f ns/message%n", name, (double) bytes / messages, (double) elapsed / messages);
+	}
+
+	static TransferFulfillmentDeadLetter setup_letter(int index) {
+		TransferFulfillmentMessage message = new TransferFulfillmentMessage();
+		message.setVersion(TransferFulfillmentMessage.version1_0);
+		message.setFromAccountNumber("70978" + index);
+		message.setRequestUuid(UUID.randomUUID());
+		message.setReservationUuid(UUID.randomUUID());
+		message.setToAccountNumber("238492834");
+		message.setTransactionAmount(8923489);
+		message.setTransactionMetaDataJson("{\"memo\":\"rent\"}");
+		return new TransferFulfillmentDeadLetter(message, new Exception("Malformed message. Invalid version."));
+	}
+
+	interface Encoding {
+		byte[] encode(TransferFulfillmentDeadLetter letter) throws Exception;
+	}
+}
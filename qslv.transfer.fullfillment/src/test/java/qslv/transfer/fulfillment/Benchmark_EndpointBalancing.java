@@ -0,0 +1,143 @@
+package qslv.transfer.fulfillment;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.TransactionRequest;
+
+/**
+ * Latency of TransactionDao.recordTransaction against several StubTransactionService instances,
+ * one of them degraded. The blind spread sends every call to the next endpoint in turn, as the
+ * cluster load balancer does; the balanced run lists all endpoints in postTransactionUrl and lets
+ * EndpointBalancer choose.
+ *
+ * Not a unit test. Run with arguments: calls threads endpoints fastLatencyMs slowLatencyMs
+ */
+public class Benchmark_EndpointBalancing {
+
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int endpoints = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		long fast = args.length > 3 ? Long.parseLong(args[3]) : 2L;
+		long slow = args.length > 4 ? Long.parseLong(args[4]) : 200L;
+
+		List<StubTransactionService> stubs = new ArrayList<>();
+		List<String> urls = new ArrayList<>();
+		for (int index = 0; index < endpoints; index++) {
+			StubTransactionService stub = new StubTransactionService(0);
+			stub.setLatency(index == 0 ? slow : fast);
+			stubs.add(stub);
+			urls.add(stub.url(StubTransactionService.TRANSACTION));
+		}
+		String setting = String.join(",", urls);
+
+		System.out.printf("%d calls on %d threads, %d endpoints at %d ms, one at %d ms%n", calls, threads, endpoints - 1, fast, slow);
+		// the first round warms up the JIT and the stubs
+		for (int round = 1; round <= 2; round++) {
+			run("blind spread " + round, new BlindSpread(urls), setting, calls, threads);
+			run("balanced " + round, new EndpointBalancer(), setting, calls, threads);
+		}
+
+		for (StubTransactionService stub : stubs) {
+			stub.stop();
+		}
+	}
+
+	static void run(String name, EndpointBalancer balancer, String setting, int calls, int threads) throws InterruptedException {
+		ConfigProperties config = new ConfigProperties();
+		config.setAitid("12345");
+		config.setPostTransactionUrl(setting);
+		balancer.setConfig(config);
+		balancer.setRegistry(new SimpleMeterRegistry());
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(threads);
+		connectionManager.setMaxTotal(threads * 4);
+		RestTemplateProxy restTemplateProxy = new RestTemplateProxy();
+		restTemplateProxy.setRestTemplate(new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+				HttpClients.custom().setConnectionManager(connectionManager).build())));
+
+		TransactionDao transactionDao = new TransactionDao();
+		transactionDao.setConfig(config);
+		transactionDao.setRestTemplateProxy(restTemplateProxy);
+		transactionDao.setRetryTemplate(new RetryTemplate());
+		transactionDao.setEndpointBalancer(balancer);
+
+		long[] latencies = new long[calls];
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int thread = 0; thread < threads; thread++) {
+			executor.execute(() -> {
+				for (int index = next.getAndIncrement(); index < calls; index = next.getAndIncrement()) {
+					long callStart = System.nanoTime();
+					transactionDao.recordTransaction(setup_message(), setup_request(index));
+					latencies[index] = System.nanoTime() - callStart;
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		connectionManager.shutdown();
+
+		Arrays.sort(latencies);
+		System.out.printf("%-16s %8.0f calls/s   p50 %6.1f ms   p99 %6.1f ms   p99.9 %6.1f ms%n", name,
+				calls / (elapsed / 1e9),
+				latencies[(int) (calls * 0.50)] / 1e6,
+				latencies[(int) (calls * 0.99)] / 1e6,
+				latencies[(int) (calls * 0.999)] / 1e6);
+	}
+
+	static TraceableMessage<?> setup_message() {
+		TraceableMessage<?> message = new TraceableMessage<>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("272834");
+		return message;
+	}
+
+	static TransactionRequest setup_request(int index) {
+		TransactionRequest request = new TransactionRequest();
+		request.setAccountNumber("70978" + index);
+		request.setRequestUuid(UUID.randomUUID());
+		request.setTransactionAmount(-2323);
+		request.setTransactionMetaDataJson("{}");
+		return request;
+	}
+
+	/**
+	 * Every call goes to the next endpoint, whatever its latency.
+	 */
+	static class BlindSpread extends EndpointBalancer {
+		final List<String> urls;
+		final AtomicInteger next = new AtomicInteger();
+
+		BlindSpread(List<String> urls) {
+			this.urls = urls;
+		}
+
+		@Override
+		public Selection select(String setting) {
+			return super.select(urls.get(Math.floorMod(next.getAndIncrement(), urls.size())));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package qslv.transfer.fulfillment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Throughput of the dead letter producer per transaction batch size, against the
+ * non-transactional producer. Each transaction writes one batch of records and its source offsets
+ * with sendOffsetsToTransaction, as the kafkaTransactional BATCH consumer does per poll. Every
+ * record is written here, so the figures are the worst case; in the service only dead letters are.
+ *
+ * Not a unit test. Needs a broker. Run with arguments: bootstrapServers [topic] [records]
+ */
+public class Benchmark_KafkaTransactions {
+	private static final int[] BATCH_SIZES = { 1, 10, 50, 100, 500, 1000 };
+
+	public static void main(String[] args) throws Exception {
+		String bootstrapServers = args.length > 0 ? args[0] : "localhost:9092";
+		String topic = args.length > 1 ? args[1] : "benchmark.dlq.transfer.requests";
+		int records = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		byte[] value = new byte[400];	// about one compact JSON dead letter
+
+		System.out.printf("%d records of %d bytes to %s%n", records, value.length, topic);
+		try (KafkaProducer<String, byte[]> producer = producer(bootstrapServers, null)) {
+			long start = System.nanoTime();
+			for (int index = 0; index < records; index++) {
+				producer.send(new ProducerRecord<>(topic, "key" + index, value));
+			}
+			producer.flush();
+			report("no transaction", records, System.nanoTime() - start, 0);
+		}
+
+		ConsumerGroupMetadata group = new ConsumerGroupMetadata("benchmark-" + UUID.randomUUID());
+		TopicPartition source = new TopicPartition(topic, 0);
+		for (int batchSize : BATCH_SIZES) {
+			try (KafkaProducer<String, byte[]> producer = producer(bootstrapServers, "benchmark-tx-" + UUID.randomUUID())) {
+				producer.initTransactions();
+				int transactions = 0;
+				long start = System.nanoTime();
+				for (int index = 0; index < records; ) {
+					producer.beginTransaction();
+					for (int inBatch = 0; inBatch < batchSize && index < records; inBatch++, index++) {
+						producer.send(new ProducerRecord<>(topic, "key" + index, value));
+					}
+					producer.sendOffsetsToTransaction(Collections.singletonMap(source, new OffsetAndMetadata(index)), group);
+					producer.commitTransaction();
+					transactions++;
+				}
+				report("batch of " + batchSize, records, System.nanoTime() - start, transactions);
+			}
+		}
+	}
+
+	static KafkaProducer<String, byte[]> producer(String bootstrapServers, String transactionalId) {
+		Map<String, Object> config = new HashMap<>();
+		config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+		config.put(ProducerConfig.ACKS_CONFIG, "all");
+		config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+		config.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+		if (transactionalId != null) {
+			config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+		}
+		return new KafkaProducer<>(config, new StringSerializer(), new ByteArraySerializer());
+	}
+
+	static void report(String name, int records, long elapsedNanos, int transactions) {
+		System.out.printf("%-16s %9.0f records/s   %8.2f ms/transaction%n", name, records * 1e9 / elapsedNanos,
+				transactions == 0 ? 0.0 : elapsedNanos / 1e6 / transactions);
+	}
+}
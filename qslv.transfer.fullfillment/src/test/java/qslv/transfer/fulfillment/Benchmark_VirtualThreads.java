@@ -0,0 +1,198 @@
+package qslv.transfer.fulfillment;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.resource.TransactionResource;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+/**
+ * Compares the platform-thread pool with one virtual thread per transfer. Transfers go through
+ * KeyOrderedDispatcher, FulfillmentController and FulfillmentService into a TransactionDao whose
+ * two calls block for a fixed latency, like RestTemplate waiting on the transaction service.
+ * The baseline is the RECORD mode: kafkaConcurrency consumer threads, each fulfilling the records
+ * of its partitions one at a time, as the listener container does.
+ *
+ * Not a unit test. Run on Java 21 (mvn -Pjava21 test-compile, then run this class) with
+ * arguments: transfers downstreamLatencyMs platformThreads maxInFlight kafkaConcurrency
+ */
+public class Benchmark_VirtualThreads {
+	private static final int PARTITIONS = 12;
+
+	public static void main(String[] args) throws Exception {
+		int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20L;
+		int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		int consumers = args.length > 4 ? Integer.parseInt(args[4]) : PARTITIONS;
+
+		System.out.printf("%d transfers, 2 x %d ms downstream, max %d in flight%n", transfers, latency, maxInFlight);
+		runRecordMode("record x" + consumers, consumers, transfers, latency);
+		run("platform x" + platformThreads, ExecutorConfig.platformThreadExecutor(platformThreads), transfers, latency, maxInFlight);
+
+		ExecutorService virtual = ExecutorConfig.virtualThreadExecutor();
+		if (virtual == null) {
+			System.out.printf("virtual threads not available on Java %s%n", System.getProperty("java.version"));
+		} else {
+			run("virtual", virtual, transfers, latency, maxInFlight);
+		}
+	}
+
+	static void run(String name, ExecutorService executor, int transfers, long latency, int maxInFlight) throws InterruptedException {
+		ConfigProperties config = new ConfigProperties();
+		config.setConsumerMode(ConfigProperties.ConsumerMode.KEY_ORDERED);
+		config.setFulfillmentMaxInFlight(maxInFlight);
+		config.setKafkaTimeout(1000);
+
+		BlockingTransactionDao transactionDao = new BlockingTransactionDao(latency, transfers);
+		FulfillmentService service = new FulfillmentService();
+		service.setTransactionDao(transactionDao);
+		FulfillmentController controller = new FulfillmentController();
+		controller.setConfig(config);
+		controller.setFulfillmentService(service);
+		controller.setExecutor(executor);
+		KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher();
+		dispatcher.setConfig(config);
+		dispatcher.setFulfillmentController(controller);
+		dispatcher.setExecutor(executor);
+		dispatcher.init();
+
+		long start = System.nanoTime();
+		for (int index = 0; index < transfers; index++) {
+			ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = setup_record(index);
+			transactionDao.started.put(record.value().getPayload().getRequestUuid(), System.nanoTime());
+			dispatcher.dispatch(record, () -> {});
+		}
+		transactionDao.done.await();
+		long elapsed = System.nanoTime() - start;
+		report(name, transactionDao, transfers, elapsed);
+
+		dispatcher.close();
+		executor.shutdownNow();
+	}
+
+	static void runRecordMode(String name, int consumers, int transfers, long latency) throws InterruptedException {
+		ConfigProperties config = new ConfigProperties();
+		config.setConsumerMode(ConfigProperties.ConsumerMode.RECORD);
+		config.setKafkaTimeout(1000);
+
+		BlockingTransactionDao transactionDao = new BlockingTransactionDao(latency, transfers);
+		FulfillmentService service = new FulfillmentService();
+		service.setTransactionDao(transactionDao);
+		FulfillmentController controller = new FulfillmentController();
+		controller.setConfig(config);
+		controller.setFulfillmentService(service);
+
+		// the container assigns each consumer its share of the partitions
+		List<List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>>> assigned = new ArrayList<>();
+		for (int consumer = 0; consumer < consumers; consumer++) {
+			assigned.add(new ArrayList<>());
+		}
+		for (int index = 0; index < transfers; index++) {
+			ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = setup_record(index);
+			assigned.get(record.partition() % consumers).add(record);
+		}
+
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<>();
+		for (List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> records : assigned) {
+			Thread thread = new Thread(() -> {
+				for (ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record : records) {
+					// every record waits in the topic from the start
+					transactionDao.started.put(record.value().getPayload().getRequestUuid(), start);
+					controller.fulfill(record, () -> {});
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		transactionDao.done.await();
+		long elapsed = System.nanoTime() - start;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		report(name, transactionDao, transfers, elapsed);
+	}
+
+	static void report(String name, BlockingTransactionDao transactionDao, int transfers, long elapsed) {
+		long[] latencies = Arrays.copyOf(transactionDao.latencies, transactionDao.count.get());
+		Arrays.sort(latencies);
+		System.out.printf("%-14s %9.0f transfers/s   p50 %7.1f ms   p99 %7.1f ms%n", name,
+				transfers / (elapsed / 1e9),
+				latencies[(int) (latencies.length * 0.50)] / 1e6,
+				latencies[(int) (latencies.length * 0.99)] / 1e6);
+	}
+
+	static ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> setup_record(int index) {
+		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("272834");
+
+		message.setPayload(new TransferFulfillmentMessage());
+		message.getPayload().setVersion(TransferFulfillmentMessage.version1_0);
+		message.getPayload().setFromAccountNumber("70978" + (index % 5000));
+		message.getPayload().setRequestUuid(UUID.randomUUID());
+		message.getPayload().setReservationUuid(UUID.randomUUID());
+		message.getPayload().setToAccountNumber("238492834");
+		message.getPayload().setTransactionAmount(8923489);
+		message.getPayload().setTransactionMetaDataJson("{}");
+		return new ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>("blah", index % PARTITIONS, index / PARTITIONS,
+				message.getPayload().getFromAccountNumber(), message);
+	}
+
+	/**
+	 * Blocks the calling thread for each POST and records the end-to-end time of every transfer.
+	 */
+	static class BlockingTransactionDao extends TransactionDao {
+		final long latency;
+		final ConcurrentHashMap<UUID, Long> started = new ConcurrentHashMap<>();
+		final long[] latencies;
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch done;
+
+		BlockingTransactionDao(long latency, int transfers) {
+			this.latency = latency;
+			this.latencies = new long[transfers];
+			this.done = new CountDownLatch(transfers);
+		}
+
+		@Override
+		public TransactionResponse recordTransaction(TraceableMessage<?> message, TransactionRequest request) {
+			block();
+			return new TransactionResponse(TransactionResponse.SUCCESS, new TransactionResource());
+		}
+
+		@Override
+		public CommitReservationResponse commitReservation(TraceableMessage<?> message, CommitReservationRequest request) {
+			block();
+			latencies[count.getAndIncrement()] = System.nanoTime() - started.remove(request.getRequestUuid());
+			done.countDown();
+			return new CommitReservationResponse(CommitReservationResponse.SUCCESS, new TransactionResource());
+		}
+
+		private void block() {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package qslv.transfer.fulfillment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import qslv.common.TimedResponse;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.resource.TransactionResource;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+
+/**
+ * In-process stand-in for the transaction service. Serves the single and bulk endpoints,
+ * counts calls per path, and can fail chosen requestUuids or add latency to every call.
+ * Run main() to use it from a locally started fulfillment service.
+ */
+public class StubTransactionService {
+	public static final String TRANSACTION = "/Transaction";
+	public static final String COMMIT_RESERVATION = "/CommitReservation";
+	public static final String BULK_TRANSACTION = "/BulkTransaction";
+	public static final String BULK_COMMIT_RESERVATION = "/BulkCommitReservation";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+	private final Map<UUID, Integer> failures = new ConcurrentHashMap<>();
+	private final HttpServer server;
+	private volatile long latency;
+
+	static {
+		// without TCP_NODELAY every response waits about 40 ms for the client's delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	public static void main(String[] args) throws IOException {
+		StubTransactionService stub = new StubTransactionService(args.length > 0 ? Integer.parseInt(args[0]) : 9091);
+		if (args.length > 1) {
+			stub.setLatency(Long.parseLong(args[1]));
+		}
+		System.out.println("Stub transaction service on " + stub.url(""));
+	}
+
+	public StubTransactionService(int port) throws IOException {
+		objectMapper.registerModule(new JavaTimeModule());
+		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext(TRANSACTION, exchange -> handle(exchange, () -> {
+			TransactionRequest request = objectMapper.readValue(exchange.getRequestBody(), TransactionRequest.class);
+			return single(status(request.getRequestUuid()), transaction(request));
+		}));
+		server.createContext(COMMIT_RESERVATION, exchange -> handle(exchange, () -> {
+			CommitReservationRequest request = objectMapper.readValue(exchange.getRequestBody(), CommitReservationRequest.class);
+			return single(status(request.getRequestUuid()), commit(request));
+		}));
+		server.createContext(BULK_TRANSACTION, exchange -> handle(exchange, () -> {
+			List<BulkItem<TransactionRequest>> items = objectMapper.readValue(exchange.getRequestBody(),
+					new TypeReference<List<BulkItem<TransactionRequest>>>() {});
+			List<BulkResult<TransactionResponse>> results = new ArrayList<>();
+			for (BulkItem<TransactionRequest> item : items) {
+				int code = status(item.getRequest().getRequestUuid());
+				results.add(new BulkResult<>(code, code == 201 ? null : "stub failure", code == 201 ? transaction(item.getRequest()) : null));
+			}
+			return new TimedResponse<>(1000L, results);
+		}));
+		server.createContext(BULK_COMMIT_RESERVATION, exchange -> handle(exchange, () -> {
+			List<BulkItem<CommitReservationRequest>> items = objectMapper.readValue(exchange.getRequestBody(),
+					new TypeReference<List<BulkItem<CommitReservationRequest>>>() {});
+			List<BulkResult<CommitReservationResponse>> results = new ArrayList<>();
+			for (BulkItem<CommitReservationRequest> item : items) {
+				int code = status(item.getRequest().getRequestUuid());
+				results.add(new BulkResult<>(code, code == 201 ? null : "stub failure", code == 201 ? commit(item.getRequest()) : null));
+			}
+			return new TimedResponse<>(1000L, results);
+		}));
+		server.start();
+	}
+
+	public String url(String path) {
+		return "http://localhost:" + server.getAddress().getPort() + path;
+	}
+
+	public int calls(String path) {
+		AtomicInteger count = calls.get(path);
+		return count == null ? 0 : count.get();
+	}
+
+	public void failWith(UUID requestUuid, int status) {
+		failures.put(requestUuid, status);
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void reset() {
+		calls.clear();
+		failures.clear();
+		latency = 0;
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	private int status(UUID requestUuid) {
+		Integer status = failures.get(requestUuid);
+		return status == null ? 201 : status;
+	}
+
+	private TimedResponse<?> single(int status, Object payload) {
+		if (status != 201) {
+			throw new StubFailure(status);
+		}
+		return new TimedResponse<>(1000L, payload);
+	}
+
+	private TransactionResponse transaction(TransactionRequest request) {
+		TransactionResource resource = new TransactionResource();
+		resource.setAccountNumber(request.getAccountNumber());
+		return new TransactionResponse(TransactionResponse.SUCCESS, resource);
+	}
+
+	private CommitReservationResponse commit(CommitReservationRequest request) {
+		return new CommitReservationResponse(CommitReservationResponse.SUCCESS, new TransactionResource());
+	}
+
+	private void handle(HttpExchange exchange, Handler handler) throws IOException {
+		calls.computeIfAbsent(exchange.getHttpContext().getPath(), path -> new AtomicInteger()).incrementAndGet();
+		int status = 201;
+		byte[] body;
+		try {
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+			body = objectMapper.writeValueAsBytes(handler.handle());
+		} catch (StubFailure ex) {
+			status = ex.status;
+			body = new byte[0];
+		} catch (Exception ex) {
+			status = 500;
+			body = new byte[0];
+		}
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private interface Handler {
+		TimedResponse<?> handle() throws Exception;
+	}
+
+	private static class StubFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		StubFailure(int status) {
+			this.status = status;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class Unit_AdaptiveConcurrencyLimiter {
+	private static final long RTT = 10_000_000L;
+
+	AtomicLong clock = new AtomicLong();
+	AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 2, 500, 1.5, 10000L, clock::get);
+
+	@Test
+	void test_grows_while_latency_is_flat() {
+		//--Execute--
+		for (int round = 0; round < 50; round++) {
+			run(RTT);
+		}
+
+		//--Verify--
+		assertTrue(limiter.getLimit() > 40, "limit " + limiter.getLimit());
+	}
+
+	@Test
+	void test_settles_near_downstream_capacity() {
+		//--Execute-- latency rises once more than 100 calls are in flight
+		for (int round = 0; round < 2000; round++) {
+			run(0L);
+		}
+
+		//--Verify-- grows to capacity and stops within the tolerance above it
+		int limit = limiter.getLimit();
+		assertTrue(limit >= 100 && limit <= 160, "limit " + limit);
+	}
+
+	@Test
+	void test_no_reset_at_window_start() {
+		//--Prepare-- settled at capacity
+		for (int round = 0; round < 2000; round++) {
+			run(0L);
+		}
+		int settled = limiter.getLimit();
+
+		//--Execute-- several more windows of the same load
+		int lowest = settled;
+		for (int round = 0; round < 500; round++) {
+			run(0L);
+			lowest = Math.min(lowest, limiter.getLimit());
+		}
+
+		//--Verify-- the limit is not halved when a window starts
+		assertTrue(lowest >= settled * 3 / 4, "settled " + settled + ", lowest " + lowest);
+	}
+
+	@Test
+	void test_adopts_slower_service() {
+		//--Prepare--
+		for (int round = 0; round < 50; round++) {
+			run(RTT);
+		}
+		int before = limiter.getLimit();
+
+		//--Execute-- the service is twice as slow for good, for more than two windows
+		for (int round = 0; round < 1500; round++) {
+			run(2 * RTT);
+		}
+
+		//--Verify-- the slower latency is the new baseline, not a reason to throttle
+		assertTrue(limiter.getLimit() >= before, "before " + before + ", after " + limiter.getLimit());
+	}
+
+	@Test
+	void test_failures_shrink_to_minimum() {
+		//--Execute--
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(RTT, false);
+		}
+
+		//--Verify--
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	void test_refuses_above_limit() throws InterruptedException {
+		//--Prepare--
+		for (int i = 0; i < 20; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+
+		//--Execute--
+		assertFalse(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire(10L));
+		limiter.release();
+
+		//--Verify--
+		assertTrue(limiter.tryAcquire(10L));
+		assertEquals(20, limiter.getInFlight());
+	}
+
+	/**
+	 * Fills the limit and completes every call. With rtt 0 the latency models a downstream that
+	 * serves 100 calls at once and queues the rest.
+	 */
+	private void run(long rtt) {
+		int acquired = 0;
+		while (limiter.tryAcquire()) {
+			acquired++;
+		}
+		long latency = rtt > 0 ? rtt : (long) (RTT * Math.max(1.0, acquired / 100.0));
+		for (int i = 0; i < acquired; i++) {
+			clock.addAndGet(latency / acquired);
+			limiter.release(latency, true);
+		}
+	}
+}
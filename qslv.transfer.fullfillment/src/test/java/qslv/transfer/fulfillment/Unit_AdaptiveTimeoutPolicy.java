@@ -0,0 +1,117 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_AdaptiveTimeoutPolicy {
+	private static final String URL = "http://localhost:9091/Transaction";
+
+	@Mock
+	HttpRequest request;
+
+	ConfigProperties config = new ConfigProperties();
+	AdaptiveTimeoutPolicy policy = new AdaptiveTimeoutPolicy();
+
+	@BeforeEach
+	public void setup() {
+		config.setRestAdaptiveTimeout(true);
+		config.setRestTimeout(1000);
+		config.setRestTimeoutMultiple(3.0);
+		config.setRestTimeoutPercentile(0.99);
+		config.setRestTimeoutFloor(50);
+		config.setRestTimeoutMinSamples(100);
+		config.setRestTimeoutWindow(10000);
+		policy.setConfig(config);
+		policy.setRegistry(new SimpleMeterRegistry());
+	}
+
+	@Test
+	void test_follows_percentile() {
+		//--Prepare--
+		record(200, 40L);
+
+		//--Execute--
+		int timeout = policy.readTimeout(URL);
+
+		//--Verify-- 3 x 40 ms, within the bucket resolution
+		assertTrue(timeout >= 120 && timeout <= 135, "timeout " + timeout);
+		assertEquals(1000, policy.readTimeout("http://localhost:9091/CommitReservation"));
+	}
+
+	@Test
+	void test_bounded_by_floor_and_ceiling() {
+		//--Execute--
+		record(200, 2L);
+
+		//--Verify--
+		assertEquals(50, policy.readTimeout(URL));
+
+		//--Execute--
+		record(200, 600L);
+
+		//--Verify--
+		assertEquals(1000, policy.readTimeout(URL));
+	}
+
+	@Test
+	void test_static_until_enough_samples() {
+		//--Prepare--
+		record(99, 40L);
+
+		//--Verify--
+		assertEquals(1000, policy.readTimeout(URL));
+
+		//--Prepare--
+		record(1, 40L);
+		config.setRestAdaptiveTimeout(false);
+
+		//--Verify--
+		assertEquals(1000, policy.readTimeout(URL));
+	}
+
+	@Test
+	void test_interceptor_records_answers_and_timeouts() throws Exception {
+		//--Prepare--
+		doReturn(URI.create(URL)).when(request).getURI();
+		ClientHttpRequestInterceptor interceptor = policy.interceptor();
+
+		//--Execute--
+		for (int i = 0; i < 60; i++) {
+			interceptor.intercept(request, new byte[0], (r, body) -> null);
+			assertThrows(SocketTimeoutException.class, () -> interceptor.intercept(request, new byte[0], (r, body) -> {
+				throw new SocketTimeoutException("Read timed out");
+			}));
+			assertThrows(ConnectException.class, () -> interceptor.intercept(request, new byte[0], (r, body) -> {
+				throw new ConnectException("Connection refused");
+			}));
+		}
+
+		//--Verify-- 60 answers and 60 timeouts count, refused connections do not
+		config.setRestTimeoutMinSamples(120);
+		assertEquals(50, policy.readTimeout(URL));
+		config.setRestTimeoutMinSamples(121);
+		assertEquals(1000, policy.readTimeout(URL));
+	}
+
+	private void record(int calls, long millis) {
+		for (int i = 0; i < calls; i++) {
+			policy.record(URL, TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.TimedResponse;
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.resource.TransactionResource;
+import qslv.transaction.response.TransactionResponse;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_AsyncTransactionDao {
+	@Mock
+	CloseableHttpAsyncClient httpClient;
+
+	AsyncTransactionDao transactionDao = new AsyncTransactionDao();
+	ConfigProperties config = new ConfigProperties();
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	ObjectMapper objectMapper = new ObjectMapper();
+
+	{
+		objectMapper.registerModule(new JavaTimeModule());
+		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+	}
+
+	@BeforeEach
+	public void setup() throws IOException {
+		config.setPostTransactionUrl("http://localhost:9091/Transaction");
+		config.setRestAttempts(3);
+		config.setRestBackoffDelay(1);
+		config.setRestBackoffDelayMax(2);
+		transactionDao.setConfig(config);
+		transactionDao.setObjectMapper(objectMapper);
+		transactionDao.setHttpClient(httpClient);
+		transactionDao.setRetryBudget(new RetryBudget(0.1, 10.0, registry));
+		transactionDao.init();
+	}
+
+	@AfterEach
+	public void teardown() throws IOException {
+		transactionDao.close();
+	}
+
+	@Test
+	void test_recordTransaction_success() throws Exception {
+		//-Prepare----------------
+		doAnswer(invocation -> respond(invocation.getArgument(1), 201)).when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		TransactionResponse callresult = transactionDao.recordTransaction(setup_message(), setup_request()).get();
+
+		//-Verify----------------
+		assertEquals(TransactionResponse.SUCCESS, callresult.getStatus());
+		assertEquals("12345679", callresult.getTransactions().get(0).getAccountNumber());
+	}
+
+	@Test
+	void test_recordTransaction_failsOnce() throws Exception {
+		//-Prepare----------------
+		doAnswer(invocation -> fail(invocation.getArgument(1)))
+			.doAnswer(invocation -> respond(invocation.getArgument(1), 201))
+			.when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		TransactionResponse callresult = transactionDao.recordTransaction(setup_message(), setup_request()).get();
+
+		//-Verify----------------
+		assertEquals(TransactionResponse.SUCCESS, callresult.getStatus());
+		verify(httpClient, times(2)).execute(any(HttpUriRequest.class), any());
+	}
+
+	@Test
+	void test_recordTransaction_failsThrice() {
+		//-Prepare----------------
+		doAnswer(invocation -> fail(invocation.getArgument(1))).when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request()).get();
+		});
+
+		//-Verify----------------
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+		verify(httpClient, times(3)).execute(any(HttpUriRequest.class), any());
+	}
+
+	@Test
+	void test_recordTransaction_serverFailure() {
+		//-Prepare----------------
+		doAnswer(invocation -> respond(invocation.getArgument(1), 503)).when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request()).get();
+		});
+
+		//-Verify---------------- retried like a failed connection, and transient once exhausted
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+		verify(httpClient, times(3)).execute(any(HttpUriRequest.class), any());
+		assertEquals(2.0, retries(RetryBudget.RETRIED));
+		assertEquals(1.0, retries(RetryBudget.EXHAUSTED));
+	}
+
+	@Test
+	void test_recordTransaction_serverFailsOnce() throws Exception {
+		//-Prepare----------------
+		doAnswer(invocation -> respond(invocation.getArgument(1), 503))
+			.doAnswer(invocation -> respond(invocation.getArgument(1), 201))
+			.when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		TransactionResponse callresult = transactionDao.recordTransaction(setup_message(), setup_request()).get();
+
+		//-Verify----------------
+		assertEquals(TransactionResponse.SUCCESS, callresult.getStatus());
+		verify(httpClient, times(2)).execute(any(HttpUriRequest.class), any());
+	}
+
+	@Test
+	void test_recordTransaction_clientFailure() {
+		//-Prepare----------------
+		doAnswer(invocation -> respond(invocation.getArgument(1), 400)).when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request()).get();
+		});
+
+		//-Verify----------------
+		assertTrue(ex.getCause() instanceof NonTransientDataAccessResourceException);
+		verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any());
+		assertEquals(1.0, retries(RetryBudget.NOT_RETRYABLE));
+	}
+
+	@Test
+	void test_recordTransaction_retryBudgetSpent() {
+		//-Prepare---------------- a budget with no retry in it
+		transactionDao.setRetryBudget(new RetryBudget(0.1, 0.0, registry));
+		doAnswer(invocation -> respond(invocation.getArgument(1), 504)).when(httpClient).execute(any(HttpUriRequest.class), any());
+
+		//-Execute----------------
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request()).get();
+		});
+
+		//-Verify----------------
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+		verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any());
+		assertEquals(1.0, retries(RetryBudget.BUDGET_EXHAUSTED));
+	}
+
+	@Test
+	void test_recordTransaction_readsOffCallbackThread() throws Exception {
+		//-Prepare----------------
+		doAnswer(invocation -> respond(invocation.getArgument(1), 201)).when(httpClient).execute(any(HttpUriRequest.class), any());
+		AtomicReference<String> readOn = new AtomicReference<>();
+		transactionDao.setServiceLatencyRecorder(new ServiceLatencyRecorder() {
+			@Override
+			public void record(String endpoint, long start, long serverNanos) {
+				readOn.set(Thread.currentThread().getName());
+			}
+		});
+
+		//-Execute----------------
+		transactionDao.recordTransaction(setup_message(), setup_request()).get();
+
+		//-Verify----------------
+		assertTrue(readOn.get().startsWith("async-transaction-response-"), readOn.get());
+	}
+
+	@Test
+	void test_recordTransaction_notStarted() throws IOException {
+		//-Prepare---------------- not the ASYNC mode, so init() starts nothing
+		AsyncTransactionDao idle = new AsyncTransactionDao();
+		idle.setConfig(config);
+		idle.setObjectMapper(objectMapper);
+		idle.init();
+
+		//-Execute----------------
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> {
+			idle.recordTransaction(setup_message(), setup_request());
+		});
+
+		//-Verify----------------
+		assertTrue(ex.getMessage().contains("ASYNC"));
+	}
+
+	private Object respond(FutureCallback<HttpResponse> callback, int status) throws Exception {
+		TransactionResource transaction = new TransactionResource();
+		transaction.setAccountNumber("12345679");
+		transaction.setDebitCardNumber("7823478239467");
+		TransactionResponse resourceResponse = new TransactionResponse(TransactionResponse.SUCCESS, transaction);
+
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+		response.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(new TimedResponse<>(123456L, resourceResponse))));
+		callback.completed(response);
+		return null;
+	}
+
+	private double retries(String outcome) {
+		return registry.get("qslv.transaction.retries").tag("endpoint", config.getPostTransactionUrl())
+				.tag("outcome", outcome).counter().count();
+	}
+
+	private Object fail(FutureCallback<HttpResponse> callback) {
+		callback.failed(new SocketTimeoutException());
+		return null;
+	}
+
+	TransactionRequest setup_request() {
+		TransactionRequest request = new TransactionRequest();
+		request.setAccountNumber("237489237492");
+		request.setRequestUuid(UUID.randomUUID());
+		request.setTransactionAmount(27384);
+		request.setTransactionMetaDataJson("{}");
+		return request;
+	}
+
+	TraceableMessage<TransactionRequest> setup_message() {
+		TraceableMessage<TransactionRequest> message = new TraceableMessage<TransactionRequest>();
+		message.setBusinessTaxonomyId("jskdfjsdjfls");
+		message.setCorrelationId("sdjfsjdlfjslkdfj");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("234234");
+		message.setPayload(setup_request());
+		return message;
+	}
+}
@@ -0,0 +1,140 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_BackpressureController {
+
+	@Mock
+	TransactionServiceGuard transactionServiceGuard;
+	@Mock
+	DeadLetterPublisher deadLetterPublisher;
+	@Mock
+	ConsumerPauseController consumerPauseController;
+
+	ConfigProperties config = new ConfigProperties();
+	BackpressureController controller = new BackpressureController();
+
+	@BeforeEach
+	public void setup() {
+		config.setBackpressureEnabled(false);
+		config.setBackpressureMinCalls(10);
+		config.setBackpressureErrorRate(0.5);
+		config.setBackpressureLatency(1000);
+		config.setRestBulkheadMaxConcurrent(100);
+		config.setBackpressureInFlight(0.9);
+		config.setKafkaDlqMaxInFlight(100);
+		config.setBackpressureDlqInFlight(0.9);
+		config.setBackpressureResumeRatio(0.5);
+		controller.setConfig(config);
+		controller.setTransactionServiceGuard(transactionServiceGuard);
+		controller.setDeadLetterPublisher(deadLetterPublisher);
+		controller.setConsumerPauseController(consumerPauseController);
+		controller.setRegistry(new SimpleMeterRegistry());
+		controller.init();
+	}
+
+	@Test
+	void test_error_rate_pauses() {
+		//--Prepare-- 20 calls, 12 failed, 10 ms each
+		signals(20L, 12L, 200_000_000L, 10, 0);
+
+		//--Execute--
+		double pressure = controller.evaluate();
+
+		//--Verify--
+		assertEquals(1.2, pressure, 0.001);
+		verify(consumerPauseController).pause(BackpressureController.BACKPRESSURE);
+	}
+
+	@Test
+	void test_hysteresis() {
+		//--Prepare-- paused, bulkhead 60% full
+		doReturn(true).when(consumerPauseController).isPaused(BackpressureController.BACKPRESSURE);
+		signals(0L, 0L, 0L, 60, 0);
+
+		//--Execute--
+		controller.evaluate();
+
+		//--Verify-- below the pause threshold but not below the resume threshold
+		verify(consumerPauseController, never()).resume(anyString());
+
+		//--Prepare--
+		signals(0L, 0L, 0L, 30, 0);
+
+		//--Execute--
+		controller.evaluate();
+
+		//--Verify--
+		verify(consumerPauseController).resume(BackpressureController.BACKPRESSURE);
+	}
+
+	@Test
+	void test_few_calls_ignore_error_rate() {
+		//--Prepare-- 4 of 5 calls failed, fast
+		signals(5L, 4L, 5_000_000L, 0, 0);
+
+		//--Execute--
+		double pressure = controller.evaluate();
+
+		//--Verify--
+		assertTrue(pressure < 1.0);
+		verify(consumerPauseController, never()).pause(anyString());
+	}
+
+	@Test
+	void test_few_calls_ignore_latency() {
+		//--Prepare-- 3 calls, 5 s each
+		signals(3L, 0L, 15_000_000_000L, 0, 0);
+
+		//--Execute--
+		double pressure = controller.evaluate();
+
+		//--Verify--
+		assertTrue(pressure < 1.0);
+		verify(consumerPauseController, never()).pause(anyString());
+	}
+
+	@Test
+	void test_dead_letters_in_flight_pause() {
+		//--Prepare--
+		signals(0L, 0L, 0L, 0, 95);
+
+		//--Execute--
+		controller.evaluate();
+
+		//--Verify--
+		verify(consumerPauseController).pause(BackpressureController.BACKPRESSURE);
+	}
+
+	@Test
+	void test_in_flight_against_adaptive_limit() {
+		//--Prepare-- 40 in flight against a limit that has shrunk to 40
+		signals(0L, 0L, 0L, 40, 0);
+		doReturn(40).when(transactionServiceGuard).getLimit();
+
+		//--Execute--
+		controller.evaluate();
+
+		//--Verify--
+		verify(consumerPauseController).pause(BackpressureController.BACKPRESSURE);
+	}
+
+	private void signals(long calls, long failures, long latencyNanos, int inFlight, int dlqInFlight) {
+		doReturn(calls).when(transactionServiceGuard).getCalls();
+		doReturn(failures).when(transactionServiceGuard).getFailures();
+		doReturn(latencyNanos).when(transactionServiceGuard).getLatencyNanos();
+		doReturn(inFlight).when(transactionServiceGuard).getInFlight();
+		doReturn(100).when(transactionServiceGuard).getLimit();
+		doReturn(dlqInFlight).when(deadLetterPublisher).getInFlight();
+	}
+}
@@ -0,0 +1,111 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.NoBackOffPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_BudgetedRetryPolicy {
+	private static final String URL = "http://localhost:9091/Transaction";
+
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void test_retries_connection_failures() {
+		//--Prepare--
+		RetryTemplate retryTemplate = retryTemplate(3, 0.1, 10);
+		AtomicInteger calls = new AtomicInteger();
+
+		//--Execute--
+		String result = retryTemplate.execute(callback(calls, 2, new ResourceAccessException("message", new SocketTimeoutException())));
+
+		//--Verify--
+		assertEquals("done", result);
+		assertEquals(3, calls.get());
+		assertEquals(2.0, count("retried"));
+	}
+
+	@Test
+	void test_retries_server_errors() {
+		//--Prepare--
+		RetryTemplate retryTemplate = retryTemplate(3, 0.1, 10);
+		AtomicInteger calls = new AtomicInteger();
+
+		//--Execute--
+		assertThrows(HttpServerErrorException.class, () -> retryTemplate.execute(
+				callback(calls, 5, new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))));
+
+		//--Verify--
+		assertEquals(3, calls.get());
+		assertEquals(1.0, count("exhausted"));
+	}
+
+	@Test
+	void test_client_errors_are_final() {
+		//--Prepare--
+		RetryTemplate retryTemplate = retryTemplate(3, 0.1, 10);
+		AtomicInteger calls = new AtomicInteger();
+
+		//--Execute--
+		assertThrows(HttpClientErrorException.class, () -> retryTemplate.execute(
+				callback(calls, 5, new HttpClientErrorException(HttpStatus.BAD_REQUEST))));
+
+		//--Verify--
+		assertEquals(1, calls.get());
+		assertEquals(1.0, count("not_retryable"));
+	}
+
+	@Test
+	void test_budget_limits_retries() {
+		//--Prepare-- room for 2 retries, a quarter of a retry per call after that
+		RetryTemplate retryTemplate = retryTemplate(3, 0.25, 2);
+		AtomicInteger calls = new AtomicInteger();
+
+		//--Execute--
+		for (int i = 0; i < 6; i++) {
+			assertThrows(ResourceAccessException.class, () -> retryTemplate.execute(
+					callback(calls, 5, new ResourceAccessException("message"))));
+		}
+
+		//--Verify-- the first call spends the budget, the fifth finds one retry saved up by the 4 before
+		assertEquals(9, calls.get());
+		assertEquals(3.0, count("retried"));
+		assertEquals(5.0, count("budget_exhausted"));
+	}
+
+	private RetryTemplate retryTemplate(int attempts, double ratio, double max) {
+		RetryTemplate retryTemplate = new RetryTemplate();
+		retryTemplate.setThrowLastExceptionOnExhausted(true);
+		retryTemplate.setRetryPolicy(new BudgetedRetryPolicy(attempts, ratio, max, registry));
+		retryTemplate.setBackOffPolicy(new NoBackOffPolicy());
+		return retryTemplate;
+	}
+
+	private RetryCallback<String, RuntimeException> callback(AtomicInteger calls, int failures, RuntimeException ex) {
+		AtomicInteger failed = new AtomicInteger();
+		return (RetryContext context) -> {
+			context.setAttribute(BudgetedRetryPolicy.ENDPOINT, URL);
+			calls.incrementAndGet();
+			if (failed.getAndIncrement() < failures) {
+				throw ex;
+			}
+			return "done";
+		};
+	}
+
+	private double count(String outcome) {
+		return registry.get("qslv.transaction.retries").tag("endpoint", URL).tag("outcome", outcome).counter().count();
+	}
+}
@@ -0,0 +1,228 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.response.TransactionResponse;
+
+class Unit_BulkTransactionDao {
+	static StubTransactionService stub;
+
+	ConfigProperties config = new ConfigProperties();
+	BulkTransactionDao bulkTransactionDao = new BulkTransactionDao();
+
+	@BeforeAll
+	static void startStub() throws IOException {
+		stub = new StubTransactionService(0);
+	}
+
+	@AfterAll
+	static void stopStub() {
+		stub.stop();
+	}
+
+	@BeforeEach
+	public void setup() {
+		config.setAitid("12345");
+		config.setRestAttempts(3);
+		config.setPostTransactionUrl(stub.url(StubTransactionService.TRANSACTION));
+		config.setBulkTransactionUrl(stub.url(StubTransactionService.BULK_TRANSACTION));
+		config.setBulkCommitReservationUrl(stub.url(StubTransactionService.BULK_COMMIT_RESERVATION));
+		config.setBulkMaxSize(10);
+		config.setBulkLinger(50);
+		config.setBulkFlushThreads(2);
+
+		RestTemplateProxy restTemplateProxy = new RestTemplateProxy();
+		restTemplateProxy.setRestTemplate(new RestTemplate());
+		bulkTransactionDao.setConfig(config);
+		bulkTransactionDao.setRestTemplateProxy(restTemplateProxy);
+		bulkTransactionDao.setRetryTemplate(new RetryTemplate());
+		bulkTransactionDao.setRegistry(new SimpleMeterRegistry());
+		bulkTransactionDao.init();
+	}
+
+	@AfterEach
+	public void teardown() {
+		bulkTransactionDao.close();
+		stub.reset();
+	}
+
+	@Test
+	void test_concurrent_requests_share_round_trips() throws Exception {
+		//--Prepare--
+		List<CompletableFuture<TransactionResponse>> futures = new ArrayList<>();
+
+		//--Execute--
+		for (int i = 0; i < 25; i++) {
+			futures.add(bulkTransactionDao.recordTransaction(setup_message(), setup_request("account" + i)));
+		}
+
+		//--Verify--
+		for (int i = 0; i < 25; i++) {
+			TransactionResponse response = futures.get(i).get();
+			assertEquals(TransactionResponse.SUCCESS, response.getStatus());
+			assertEquals("account" + i, response.getTransactions().get(0).getAccountNumber());
+		}
+		assertTrue(stub.calls(StubTransactionService.BULK_TRANSACTION) >= 3);
+		assertTrue(stub.calls(StubTransactionService.BULK_TRANSACTION) <= 6);
+	}
+
+	@Test
+	void test_item_failures_map_to_exceptions() throws Exception {
+		//--Prepare--
+		TransactionRequest ok = setup_request("ok");
+		TransactionRequest rejected = setup_request("rejected");
+		TransactionRequest unavailable = setup_request("unavailable");
+		stub.failWith(rejected.getRequestUuid(), 409);
+		stub.failWith(unavailable.getRequestUuid(), 503);
+
+		//--Execute--
+		CompletableFuture<TransactionResponse> okFuture = bulkTransactionDao.recordTransaction(setup_message(), ok);
+		CompletableFuture<TransactionResponse> rejectedFuture = bulkTransactionDao.recordTransaction(setup_message(), rejected);
+		CompletableFuture<TransactionResponse> unavailableFuture = bulkTransactionDao.recordTransaction(setup_message(), unavailable);
+
+		//--Verify--
+		assertEquals("ok", okFuture.get().getTransactions().get(0).getAccountNumber());
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> rejectedFuture.get());
+		assertTrue(ex.getCause() instanceof NonTransientDataAccessResourceException);
+		ex = assertThrows(ExecutionException.class, () -> unavailableFuture.get());
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+	}
+
+	@Test
+	void test_transactionDao_routes_through_bulk() {
+		//--Prepare--
+		TransactionDao transactionDao = new TransactionDao();
+		transactionDao.setConfig(config);
+		transactionDao.setBulkTransactionDao(bulkTransactionDao);
+
+		//--Execute--
+		TransactionResponse response = transactionDao.recordTransaction(setup_message(), setup_request("12345679"));
+
+		//--Verify--
+		assertEquals("12345679", response.getTransactions().get(0).getAccountNumber());
+		assertEquals(1, stub.calls(StubTransactionService.BULK_TRANSACTION));
+		assertEquals(0, stub.calls(StubTransactionService.TRANSACTION));
+	}
+
+	@Test
+	void test_transactionDao_stops_waiting_for_bulk() {
+		//--Prepare-- a batch that never completes
+		config.setRestTimeout(100);
+		config.setRestAttempts(2);
+		config.setRestConnectionRequestTimeout(10);
+		config.setRestConnectTimeout(10);
+		config.setRestBackoffDelayMax(50);
+		TransactionDao transactionDao = new TransactionDao();
+		transactionDao.setConfig(config);
+		transactionDao.setBulkTransactionDao(neverCompletes());
+
+		//--Execute--
+		long start = System.currentTimeMillis();
+		assertThrows(TransientDataAccessResourceException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request("12345679"));
+		});
+
+		//--Verify-- bulkLinger + restAttempts x (10 + 10 + restTimeout) + 2 x restBackoffDelayMax = 390 ms
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 390 && elapsed < 2000, Long.toString(elapsed));
+	}
+
+	@Test
+	void test_transactionDao_bulk_timeout_covers_retries() {
+		//--Prepare--
+		config.setRestTimeout(1000);
+		config.setRestAttempts(3);
+		config.setRestConnectionRequestTimeout(100);
+		config.setRestConnectTimeout(200);
+		config.setRestBackoffDelayMax(500);
+		config.setRestBulkheadWait(100);
+		TransactionServiceGuard guard = new TransactionServiceGuard();
+		guard.setConfig(config);
+		TransactionDao transactionDao = new TransactionDao();
+		transactionDao.setConfig(config);
+		transactionDao.setTransactionServiceGuard(guard);
+
+		//--Execute--
+		long timeout = transactionDao.bulkTimeout();
+
+		//--Verify-- linger + guard wait + 3 attempts + 2 backoffs of up to twice restBackoffDelayMax
+		assertEquals(50 + 100 + 3 * (100 + 200 + 1000) + 2 * 1000, timeout);
+	}
+
+	@Test
+	void test_transactionDao_bulk_wait_capped_by_deadline() {
+		//--Prepare-- a batch that never completes and a transfer with 200 ms left
+		ConfigProperties deadlineConfig = new ConfigProperties();
+		deadlineConfig.setTransferDeadline(200);
+		TransferDeadline transferDeadline = new TransferDeadline();
+		transferDeadline.setConfig(deadlineConfig);
+		transferDeadline.setRegistry(new SimpleMeterRegistry());
+		TransactionDao transactionDao = new TransactionDao();
+		transactionDao.setConfig(config);
+		transactionDao.setTransferDeadline(transferDeadline);
+		transactionDao.setBulkTransactionDao(neverCompletes());
+
+		//--Execute--
+		long start = System.currentTimeMillis();
+		assertThrows(TransferDeadlineExceededException.class, () -> {
+			transactionDao.recordTransaction(setup_message(), setup_request("12345679"));
+		});
+
+		//--Verify-- well before the seconds of the bulk timeout
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	private BulkTransactionDao neverCompletes() {
+		return new BulkTransactionDao() {
+			@Override
+			public boolean isEnabled() {
+				return true;
+			}
+
+			@Override
+			public CompletableFuture<TransactionResponse> recordTransaction(TraceableMessage<?> message, TransactionRequest request) {
+				return new CompletableFuture<>();
+			}
+		};
+	}
+
+	TransactionRequest setup_request(String accountNumber) {
+		TransactionRequest request = new TransactionRequest();
+		request.setAccountNumber(accountNumber);
+		request.setRequestUuid(UUID.randomUUID());
+		request.setTransactionAmount(27384);
+		request.setTransactionMetaDataJson("{}");
+		return request;
+	}
+
+	TraceableMessage<TransactionRequest> setup_message() {
+		TraceableMessage<TransactionRequest> message = new TraceableMessage<TransactionRequest>();
+		message.setBusinessTaxonomyId("jskdfjsdjfls");
+		message.setCorrelationId("sdjfsjdlfjslkdfj");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("234234");
+		return message;
+	}
+}
@@ -0,0 +1,105 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_CircuitBreaker {
+
+	@Mock
+	CircuitBreaker.Listener listener;
+
+	AtomicLong clock = new AtomicLong(1000L);
+	CircuitBreaker breaker;
+
+	@BeforeEach
+	public void setup() {
+		breaker = new CircuitBreaker("http://localhost:9091/Transaction", 3, 500L, listener, clock::get);
+	}
+
+	@Test
+	void test_opens_after_consecutive_failures() {
+		//--Execute-- a success resets the count
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+
+		//--Execute--
+		breaker.onFailure();
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		verify(listener).onTransition(breaker, CircuitBreaker.State.CLOSED, CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	void test_probe_success_closes() {
+		//--Prepare--
+		open();
+		clock.addAndGet(500L);
+
+		//--Execute--
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		breaker.onSuccess();
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		verify(listener).onTransition(breaker, CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN);
+		verify(listener).onTransition(breaker, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED);
+		verify(listener).onProbe(breaker, true);
+	}
+
+	@Test
+	void test_probe_failure_reopens() {
+		//--Prepare--
+		open();
+		clock.addAndGet(500L);
+
+		//--Execute--
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		verify(listener).onProbe(breaker, false);
+		verify(listener).onTransition(breaker, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	void test_cancelled_probe_lets_next_through() {
+		//--Prepare--
+		open();
+		clock.addAndGet(500L);
+		assertTrue(breaker.tryAcquire());
+
+		//--Execute--
+		breaker.onCancel();
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+	}
+
+	private void open() {
+		for (int i = 0; i < 3; i++) {
+			breaker.onFailure();
+		}
+	}
+}
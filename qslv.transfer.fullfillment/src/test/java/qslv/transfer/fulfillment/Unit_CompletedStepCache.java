@@ -0,0 +1,135 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_CompletedStepCache {
+
+	CompletedStepCache cache = new CompletedStepCache();
+	ConfigProperties config = new ConfigProperties();
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	AtomicLong now = new AtomicLong(1000000L);
+
+	@BeforeEach
+	public void setup() {
+		config.setIdempotencyCacheSize(4);
+		config.setIdempotencyCacheMaxAge(1000L);
+		cache.setConfig(config);
+		cache.setRegistry(registry);
+		cache.setClock(now::get);
+		cache.init();
+	}
+
+	@Test
+	void test_complete_steps() {
+		//--Prepare--
+		UUID uuid = UUID.randomUUID();
+
+		//--Execute--
+		cache.complete(uuid, CompletedStepCache.RECORDED);
+
+		//--Verify--
+		assertTrue(cache.isCompleted(uuid, CompletedStepCache.RECORDED));
+		assertFalse(cache.isCompleted(uuid, CompletedStepCache.COMMITTED));
+		assertFalse(cache.isCompleted(UUID.randomUUID(), CompletedStepCache.RECORDED));
+		cache.complete(uuid, CompletedStepCache.COMMITTED);
+		assertTrue(cache.isCompleted(uuid, CompletedStepCache.RECORDED));
+		assertTrue(cache.isCompleted(uuid, CompletedStepCache.COMMITTED));
+		assertEquals(1, cache.size());
+		assertEquals(2.0, registry.get("qslv.idempotency.cache").tag("step", "recorded").tag("result", "hit").counter().count());
+		assertEquals(1.0, registry.get("qslv.idempotency.cache").tag("step", "recorded").tag("result", "miss").counter().count());
+		assertEquals(1.0, registry.get("qslv.idempotency.cache").tag("step", "committed").tag("result", "hit").counter().count());
+		assertEquals(1.0, registry.get("qslv.idempotency.cache").tag("step", "committed").tag("result", "miss").counter().count());
+	}
+
+	@Test
+	void test_evict_oldest_when_full() {
+		//--Prepare--
+		List<UUID> uuids = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			uuids.add(UUID.randomUUID());
+		}
+
+		//--Execute--
+		for (UUID uuid : uuids) {
+			cache.complete(uuid, CompletedStepCache.RECORDED);
+		}
+
+		//--Verify--
+		assertEquals(4, cache.size());
+		assertFalse(cache.isCompleted(uuids.get(0), CompletedStepCache.RECORDED));
+		assertFalse(cache.isCompleted(uuids.get(1), CompletedStepCache.RECORDED));
+		for (int i = 2; i < 6; i++) {
+			assertTrue(cache.isCompleted(uuids.get(i), CompletedStepCache.RECORDED));
+		}
+		assertEquals(2.0, registry.get("qslv.idempotency.cache.evictions").tag("cause", "size").counter().count());
+	}
+
+	@Test
+	void test_evict_by_age() {
+		//--Prepare--
+		UUID old = UUID.randomUUID();
+		UUID young = UUID.randomUUID();
+		cache.complete(old, CompletedStepCache.RECORDED);
+		now.addAndGet(600L);
+		cache.complete(young, CompletedStepCache.RECORDED);
+
+		//--Execute--
+		now.addAndGet(600L);
+		cache.complete(UUID.randomUUID(), CompletedStepCache.RECORDED);
+
+		//--Verify--
+		assertFalse(cache.isCompleted(old, CompletedStepCache.RECORDED));
+		assertTrue(cache.isCompleted(young, CompletedStepCache.RECORDED));
+		assertEquals(2, cache.size());
+		assertEquals(1.0, registry.get("qslv.idempotency.cache.evictions").tag("cause", "age").counter().count());
+	}
+
+	@Test
+	void test_colliding_keys_survive_eviction() {
+		//--Prepare-- keys differing only in the high bits share probe runs
+		config.setIdempotencyCacheSize(64);
+		cache.init();
+		List<UUID> uuids = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			uuids.add(new UUID(i, 42L));
+		}
+
+		//--Execute--
+		for (UUID uuid : uuids) {
+			cache.complete(uuid, CompletedStepCache.COMMITTED);
+		}
+
+		//--Verify--
+		assertEquals(64, cache.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i >= 136, cache.isCompleted(uuids.get(i), CompletedStepCache.COMMITTED));
+		}
+	}
+
+	@Test
+	void test_disabled() {
+		//--Prepare--
+		config.setIdempotencyCacheSize(0);
+		CompletedStepCache disabled = new CompletedStepCache();
+		disabled.setConfig(config);
+		disabled.setRegistry(registry);
+		disabled.init();
+		UUID uuid = UUID.randomUUID();
+
+		//--Execute--
+		disabled.complete(uuid, CompletedStepCache.RECORDED);
+
+		//--Verify--
+		assertFalse(disabled.isCompleted(uuid, CompletedStepCache.RECORDED));
+	}
+}
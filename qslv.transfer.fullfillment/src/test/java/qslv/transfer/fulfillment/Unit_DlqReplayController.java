@@ -0,0 +1,103 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_DlqReplayController {
+
+	@Mock
+	DlqReplayService dlqReplayService;
+
+	DlqReplayController controller = new DlqReplayController();
+
+	@BeforeEach
+	public void setup() {
+		controller.setDlqReplayService(dlqReplayService);
+	}
+
+	@Test
+	void test_replay_accepted() {
+		//--Prepare--
+		doReturn(new CompletableFuture<DlqReplayReport>()).when(dlqReplayService).start(any());
+
+		//--Execute--
+		ResponseEntity<String> response = controller.replay(null);
+
+		//--Verify--
+		assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+		assertEquals(DlqReplayController.PATH, response.getHeaders().getFirst("Location"));
+		verify(dlqReplayService).start(any(DlqReplayRequest.class));
+	}
+
+	@Test
+	void test_replay_invalid_request() {
+		//--Prepare--
+		doThrow(new IllegalArgumentException("rate must be a positive number, not 0.0.")).when(dlqReplayService).start(any());
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setRate(0.0);
+
+		//--Execute--
+		ResponseEntity<String> response = controller.replay(request);
+
+		//--Verify--
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		assertEquals("rate must be a positive number, not 0.0.", response.getBody());
+	}
+
+	@Test
+	void test_replay_already_running() {
+		//--Prepare--
+		doThrow(new IllegalStateException("A DLQ replay is already running.")).when(dlqReplayService).start(any());
+
+		//--Execute--
+		ResponseEntity<String> response = controller.replay(new DlqReplayRequest());
+
+		//--Verify--
+		assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+	}
+
+	@Test
+	void test_status() throws Exception {
+		//--Prepare--
+		CompletableFuture<DlqReplayReport> replay = new CompletableFuture<>();
+		DlqReplayReport report = new DlqReplayReport();
+
+		//--Execute-- and --Verify--
+		doReturn(null).when(dlqReplayService).getLastReplay();
+		assertEquals(HttpStatus.NOT_FOUND, controller.status().getStatusCode());
+
+		doReturn(replay).when(dlqReplayService).getLastReplay();
+		assertEquals(HttpStatus.ACCEPTED, controller.status().getStatusCode());
+
+		replay.complete(report);
+		ResponseEntity<DlqReplayReport> response = controller.status();
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertSame(report, response.getBody());
+	}
+
+	@Test
+	void test_status_failed() throws Exception {
+		//--Prepare--
+		CompletableFuture<DlqReplayReport> replay = new CompletableFuture<>();
+		replay.completeExceptionally(new IllegalArgumentException("dead.letter.queue has no partition 3."));
+		doReturn(replay).when(dlqReplayService).getLastReplay();
+
+		//--Execute--
+		ResponseEntity<DlqReplayReport> response = controller.status();
+
+		//--Verify--
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+	}
+}
@@ -0,0 +1,248 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.resource.TransactionResource;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+import qslv.transfer.request.TransferFulfillmentMessage;
+import qslv.transfer.response.TransferFulfillmentDeadLetter;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_DlqReplayService {
+	private static final String TOPIC = "dead.test.letter.queue";
+
+	@Mock
+	FulfillmentService fulfillmentService;
+	@Mock
+	TransactionDao transactionDao;
+
+	ConfigProperties config = new ConfigProperties();
+	ObjectMapper objectMapper = new ObjectMapper();
+	DlqReplayService service = new DlqReplayService();
+	MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+	TopicPartition partition = new TopicPartition(TOPIC, 0);
+
+	@BeforeEach
+	public void setup() {
+		config.setAitid("12345");
+		config.setKafkaDeadLetterQueue(TOPIC);
+		config.setKafkaTimeout(100);
+		objectMapper.registerModule(new JavaTimeModule());
+		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+		service.setConfig(config);
+		service.setFulfillmentService(fulfillmentService);
+		service.setObjectMapper(objectMapper);
+		consumer.updatePartitions(TOPIC, Collections.singletonList(new PartitionInfo(TOPIC, 0, null, null, null)));
+		consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+	}
+
+	@Test
+	void test_replay_reports_each_record() throws Exception {
+		//--Prepare-- offset 1 fails, offset 2 is not a dead letter
+		TransferFulfillmentDeadLetter first = setup_letter();
+		TransferFulfillmentDeadLetter second = setup_letter();
+		TransferFulfillmentDeadLetter fourth = setup_letter();
+		publish(objectMapper.writeValueAsBytes(first), objectMapper.writeValueAsBytes(second),
+				"garbage".getBytes(StandardCharsets.UTF_8), objectMapper.writeValueAsBytes(fourth));
+		doNothing().doThrow(new TransientDataAccessResourceException("timeout")).doNothing()
+			.when(fulfillmentService).replayTransfer(any());
+
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setConcurrency(1);
+		request.setRate(1000.0);
+
+		//--Execute--
+		DlqReplayReport report = service.replay(consumer, request);
+
+		//--Verify--
+		assertEquals(4, report.getReplayed());
+		assertEquals(2, report.getSucceeded());
+		assertEquals(1, report.getFailed());
+		assertEquals(1, report.getSkipped());
+		List<DlqReplayResult> results = report.getResults();
+		assertEquals(DlqReplayResult.Status.SUCCEEDED, results.get(0).getStatus());
+		assertEquals(first.getRequest().getRequestUuid(), results.get(0).getRequestUuid());
+		assertEquals(DlqReplayResult.Status.FAILED, results.get(1).getStatus());
+		assertEquals("timeout", results.get(1).getMessage());
+		assertEquals(DlqReplayResult.Status.SKIPPED, results.get(2).getStatus());
+		assertEquals(DlqReplayResult.Status.SUCCEEDED, results.get(3).getStatus());
+		assertFalse(service.isRunning());
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<TraceableMessage<TransferFulfillmentMessage>> captor = ArgumentCaptor.forClass(TraceableMessage.class);
+		verify(fulfillmentService, times(3)).replayTransfer(captor.capture());
+		TraceableMessage<TransferFulfillmentMessage> message = captor.getAllValues().get(0);
+		assertEquals("12345", message.getProducerAit());
+		assertEquals(DlqReplayService.REPLAY_TAXONOMY_ID, message.getBusinessTaxonomyId());
+		assertEquals(TOPIC + "-0-0", message.getCorrelationId());
+		assertNotNull(message.getMessageCreationTime());
+		assertEquals(first.getRequest().getRequestUuid(), message.getPayload().getRequestUuid());
+	}
+
+	@Test
+	void test_replay_from_offset_with_limit() throws Exception {
+		//--Prepare--
+		TransferFulfillmentDeadLetter[] letters = { setup_letter(), setup_letter(), setup_letter(), setup_letter() };
+		publish(objectMapper.writeValueAsBytes(letters[0]), objectMapper.writeValueAsBytes(letters[1]),
+				objectMapper.writeValueAsBytes(letters[2]), objectMapper.writeValueAsBytes(letters[3]));
+
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setPartition(0);
+		request.setFromOffset(1L);
+		request.setMaxRecords(2);
+
+		//--Execute--
+		DlqReplayReport report = service.replay(consumer, request);
+
+		//--Verify--
+		assertEquals(2, report.getReplayed());
+		assertEquals(1L, report.getResults().get(0).getOffset());
+		assertEquals(letters[1].getRequest().getRequestUuid(), report.getResults().get(0).getRequestUuid());
+		assertEquals(2L, report.getResults().get(1).getOffset());
+		verify(fulfillmentService, times(2)).replayTransfer(any());
+	}
+
+	@Test
+	void test_replay_empty_queue() throws Exception {
+		//--Prepare--
+		consumer.updateEndOffsets(Collections.singletonMap(partition, 0L));
+
+		//--Execute--
+		DlqReplayReport report = service.replay(consumer, new DlqReplayRequest());
+
+		//--Verify--
+		assertEquals(0, report.getReplayed());
+		verify(fulfillmentService, never()).replayTransfer(any());
+	}
+
+	@Test
+	void test_replay_rejects_zero_rate() throws Exception {
+		//--Prepare--
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setRate(0.0);
+
+		//--Execute--
+		IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> service.replay(consumer, request));
+
+		//--Verify--
+		assertTrue(ex.getMessage().contains("rate"));
+		assertFalse(service.isRunning());
+		assertTrue(consumer.assignment().isEmpty());
+	}
+
+	@Test
+	void test_replay_rejects_offset_without_partition() throws Exception {
+		//--Prepare--
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setFromOffset(1L);
+
+		//--Execute--
+		assertThrows(IllegalArgumentException.class, () -> service.replay(consumer, request));
+
+		//--Verify--
+		assertTrue(consumer.assignment().isEmpty());
+		verify(fulfillmentService, never()).replayTransfer(any());
+	}
+
+	@Test
+	void test_replay_rejects_unknown_partition() throws Exception {
+		//--Prepare--
+		DlqReplayRequest request = new DlqReplayRequest();
+		request.setPartition(3);
+		request.setFromOffset(1L);
+
+		//--Execute--
+		assertThrows(IllegalArgumentException.class, () -> service.replay(consumer, request));
+
+		//--Verify--
+		assertFalse(service.isRunning());
+		verify(fulfillmentService, never()).replayTransfer(any());
+	}
+
+	@Test
+	void test_replay_past_transfer_deadline() throws Exception {
+		//--Prepare-- a real FulfillmentService and TransferDeadline; the letter was dead-lettered two hours ago
+		config.setTransferDeadline(60000);
+		TransferDeadline transferDeadline = new TransferDeadline();
+		transferDeadline.setConfig(config);
+		transferDeadline.setRegistry(new SimpleMeterRegistry());
+		FulfillmentService fulfillment = new FulfillmentService();
+		fulfillment.setTransactionDao(transactionDao);
+		fulfillment.setTransferDeadline(transferDeadline);
+		service.setFulfillmentService(fulfillment);
+
+		long timestamp = System.currentTimeMillis() - 7_200_000L;
+		byte[] letter = objectMapper.writeValueAsBytes(setup_letter());
+		consumer.updateEndOffsets(Collections.singletonMap(partition, 1L));
+		consumer.schedulePollTask(() -> consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0L, timestamp,
+				TimestampType.CREATE_TIME, 0L, 0, 0, "key", letter)));
+		doReturn(new TransactionResponse(TransactionResponse.SUCCESS, new TransactionResource()))
+			.when(transactionDao).recordTransaction(any(), any(TransactionRequest.class), anyLong());
+		doReturn(new CommitReservationResponse(CommitReservationResponse.SUCCESS, new TransactionResource()))
+			.when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		//--Execute--
+		DlqReplayReport report = service.replay(consumer, new DlqReplayRequest());
+
+		//--Verify--
+		assertEquals(1, report.getSucceeded());
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<TraceableMessage<TransferFulfillmentMessage>> captor = ArgumentCaptor.forClass(TraceableMessage.class);
+		verify(transactionDao).recordTransaction(captor.capture(), any(TransactionRequest.class), eq(TransferDeadline.NONE));
+		// the creation time reads back as the record time in the zone TransferDeadline uses
+		assertEquals(timestamp + 60000L, transferDeadline.deadline(captor.getValue()));
+		verify(fulfillmentService, never()).replayTransfer(any());
+	}
+
+	private void publish(byte[]... values) {
+		consumer.updateEndOffsets(Collections.singletonMap(partition, (long) values.length));
+		consumer.schedulePollTask(() -> {
+			// records before the consumer position are not returned by the poll
+			for (int offset = 0; offset < values.length; offset++) {
+				consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, "key", values[offset]));
+			}
+		});
+	}
+
+	private TransferFulfillmentDeadLetter setup_letter() {
+		TransferFulfillmentMessage message = new TransferFulfillmentMessage();
+		message.setFromAccountNumber("12345673234");
+		message.setRequestUuid(UUID.randomUUID());
+		message.setToAccountNumber("2374829347");
+		message.setReservationUuid(UUID.randomUUID());
+		message.setTransactionAmount(7232934L);
+		message.setTransactionMetaDataJson("{}");
+		return new TransferFulfillmentDeadLetter(message, new Exception("This is a test exception."));
+	}
+}
@@ -0,0 +1,199 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.transfer.request.TransferFulfillmentMessage;
+import qslv.transfer.response.TransferFulfillmentDeadLetter;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_DlqSpillQueue {
+	@TempDir
+	Path directory;
+	@Mock
+	KafkaTemplate<String, byte[]> kafkaTemplate;
+	@Captor
+	ArgumentCaptor<ProducerRecord<String, byte[]>> recordCaptor;
+
+	ConfigProperties config = new ConfigProperties();
+	DlqSpillQueue spillQueue;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		config.setKafkaDeadLetterQueue("dead.test.letter.queue");
+		config.setKafkaTimeout(1000);
+		config.setKafkaDlqSpillPath(directory.toString());
+		config.setKafkaDlqSpillSegmentSize(1024);
+		config.setKafkaDlqSpillDrainInterval(600000L);
+		open();
+	}
+
+	@AfterEach
+	public void teardown() throws IOException {
+		spillQueue.close();
+	}
+
+	@Test
+	void test_spilled_records_drain_in_order() throws Exception {
+		//--Prepare-- enough records to roll several segments
+		for (int i = 0; i < 100; i++) {
+			assertTrue(spillQueue.appendAsync(record("key" + i, "value" + i)).get());
+		}
+		doReturn(sent()).when(kafkaTemplate).send(any(ProducerRecord.class));
+
+		//--Execute--
+		spillQueue.drain();
+
+		//--Verify--
+		verify(kafkaTemplate, times(100)).send(recordCaptor.capture());
+		List<ProducerRecord<String, byte[]>> records = recordCaptor.getAllValues();
+		for (int i = 0; i < 100; i++) {
+			assertEquals("dead.test.letter.queue", records.get(i).topic());
+			assertEquals("key" + i, records.get(i).key());
+			assertEquals("value" + i, new String(records.get(i).value(), StandardCharsets.UTF_8));
+			assertEquals("JSON", new String(records.get(i).headers().lastHeader(DeadLetterEncoder.FORMAT_HEADER).value(), StandardCharsets.UTF_8));
+		}
+		assertEquals(0, spillQueue.depth());
+		assertFalse(spillQueue.hasBacklog());
+	}
+
+	@Test
+	void test_drain_waits_for_broker() throws Exception {
+		//--Prepare--
+		spillQueue.append(record("key1", "value1"));
+		spillQueue.append(record("key2", "value2"));
+		SettableListenableFuture<SendResult<String, byte[]>> failed = new SettableListenableFuture<>();
+		failed.setException(new org.apache.kafka.common.errors.TimeoutException("expired"));
+		doReturn(failed).doReturn(failed).doReturn(sent()).when(kafkaTemplate).send(any(ProducerRecord.class));
+
+		//--Execute--
+		spillQueue.drain();
+
+		//--Verify--
+		assertEquals(2, spillQueue.depth());
+
+		//--Execute--
+		spillQueue.drain();
+
+		//--Verify--
+		assertEquals(0, spillQueue.depth());
+	}
+
+	@Test
+	void test_restart_resumes_after_checkpoint() throws Exception {
+		//--Prepare--
+		doReturn(sent()).when(kafkaTemplate).send(any(ProducerRecord.class));
+		spillQueue.append(record("key1", "value1"));
+		spillQueue.drain();
+		spillQueue.append(record("key2", "value2"));
+		spillQueue.append(record("key3", "value3"));
+
+		//--Execute--
+		spillQueue.close();
+		open();
+
+		//--Verify--
+		assertEquals(2, spillQueue.depth());
+		spillQueue.drain();
+		verify(kafkaTemplate, times(3)).send(recordCaptor.capture());
+		assertEquals("key2", recordCaptor.getAllValues().get(1).key());
+		assertEquals("key3", recordCaptor.getAllValues().get(2).key());
+		assertEquals(0, spillQueue.depth());
+	}
+
+	@Test
+	void test_kafkaDao_spills_failed_send() throws Exception {
+		//--Prepare--
+		SettableListenableFuture<SendResult<String, byte[]>> failed = new SettableListenableFuture<>();
+		failed.setException(new org.apache.kafka.common.errors.TimeoutException("expired"));
+		doReturn(failed).when(kafkaTemplate).send(any(ProducerRecord.class));
+		KafkaDao kafkaDao = setup_kafkaDao();
+
+		//--Execute--
+		CompletableFuture<Void> first = kafkaDao.produceDLQMessageAsync(setup_letter());
+		first.get();
+		CompletableFuture<Void> second = kafkaDao.produceDLQMessageAsync(setup_letter());
+		second.get();
+
+		//--Verify-- the second dead letter queues behind the first without trying the broker
+		assertFalse(first.isCompletedExceptionally());
+		assertFalse(second.isCompletedExceptionally());
+		verify(kafkaTemplate, times(1)).send(any(ProducerRecord.class));
+		assertEquals(2, spillQueue.depth());
+	}
+
+	private void open() throws IOException {
+		spillQueue = new DlqSpillQueue();
+		spillQueue.setConfig(config);
+		spillQueue.setKafkaTemplate(kafkaTemplate);
+		spillQueue.setRegistry(new SimpleMeterRegistry());
+		spillQueue.init();
+	}
+
+	private SettableListenableFuture<SendResult<String, byte[]>> sent() {
+		SettableListenableFuture<SendResult<String, byte[]>> future = new SettableListenableFuture<>();
+		future.set(null);
+		return future;
+	}
+
+	private ProducerRecord<String, byte[]> record(String key, String value) {
+		ProducerRecord<String, byte[]> record = new ProducerRecord<>(config.getKafkaDeadLetterQueue(), key, value.getBytes(StandardCharsets.UTF_8));
+		record.headers().add(DeadLetterEncoder.FORMAT_HEADER, "JSON".getBytes(StandardCharsets.UTF_8));
+		return record;
+	}
+
+	private KafkaDao setup_kafkaDao() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.registerModule(new JavaTimeModule());
+		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+		DeadLetterEncoder deadLetterEncoder = new DeadLetterEncoder();
+		deadLetterEncoder.setConfig(config);
+		deadLetterEncoder.setObjectMapper(objectMapper);
+		deadLetterEncoder.init();
+		KafkaDao kafkaDao = new KafkaDao();
+		kafkaDao.setConfig(config);
+		kafkaDao.setKafkaTemplate(kafkaTemplate);
+		kafkaDao.setDeadLetterEncoder(deadLetterEncoder);
+		kafkaDao.setDlqSpillQueue(spillQueue);
+		return kafkaDao;
+	}
+
+	private TransferFulfillmentDeadLetter setup_letter() {
+		TransferFulfillmentMessage message = new TransferFulfillmentMessage();
+		message.setFromAccountNumber("12345673234");
+		message.setRequestUuid(UUID.randomUUID());
+		message.setToAccountNumber("2374829347");
+		message.setReservationUuid(UUID.randomUUID());
+		message.setTransactionAmount(7232934L);
+		message.setTransactionMetaDataJson("{}");
+		return new TransferFulfillmentDeadLetter(message, new Exception("This is a test exception."));
+	}
+}
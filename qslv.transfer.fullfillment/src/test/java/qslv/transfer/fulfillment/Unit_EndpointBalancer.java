@@ -0,0 +1,117 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_EndpointBalancer {
+	private static final String FAST = "http://fast:9091/Transaction";
+	private static final String SLOW = "http://slow:9091/Transaction";
+	private static final String OTHER = "http://other:9091/Transaction";
+	private static final String SETTING = FAST + ", " + SLOW + "," + OTHER;
+
+	AtomicLong clock = new AtomicLong();
+	ConfigProperties config = new ConfigProperties();
+	EndpointBalancer balancer = new EndpointBalancer();
+
+	@BeforeEach
+	public void setup() {
+		config.setRestTimeout(1000);
+		config.setRestBalancerDecay(10000);
+		config.setRestOutlierFailures(3);
+		config.setRestOutlierEjectTime(30000);
+		config.setRestOutlierMaxEjectedPercent(50);
+		balancer.setConfig(config);
+		balancer.setRegistry(new SimpleMeterRegistry());
+		balancer.setNanoClock(clock::get);
+	}
+
+	@Test
+	void test_single_url_passes_through() {
+		//--Execute--
+		EndpointBalancer.Selection selection = balancer.select(FAST);
+		selection.complete(false);
+
+		//--Verify--
+		assertEquals(FAST, selection.getUrl());
+	}
+
+	@Test
+	void test_prefers_fast_endpoint() {
+		//--Execute-- SLOW and OTHER answer in 50 ms, FAST in 2 ms
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 3000; i++) {
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			clock.addAndGet(selection.getUrl().equals(FAST) ? 2_000_000L : 50_000_000L);
+			selection.complete(true);
+			counts.merge(selection.getUrl(), 1, Integer::sum);
+		}
+
+		//--Verify-- FAST wins every pair it is part of
+		assertTrue(counts.get(FAST) > 1800, "counts " + counts);
+	}
+
+	@Test
+	void test_failing_endpoint_is_ejected() {
+		//--Prepare--
+		failUntilEjected(SLOW);
+
+		//--Execute--
+		for (int i = 0; i < 100; i++) {
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			assertNotEquals(SLOW, selection.getUrl());
+			selection.complete(true);
+		}
+
+		//--Verify-- back after the ejection time
+		clock.addAndGet(30_000_000_000L);
+		boolean returned = false;
+		for (int i = 0; i < 100 && !returned; i++) {
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			returned = selection.getUrl().equals(SLOW);
+			selection.complete(true);
+		}
+		assertTrue(returned);
+	}
+
+	@Test
+	void test_ejects_at_most_max_percent() {
+		//--Prepare--
+		failUntilEjected(SLOW);
+
+		//--Execute-- a second ejection would leave one of three endpoints
+		for (int i = 0; i < 100; i++) {
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			selection.complete(false);
+		}
+
+		//--Verify--
+		int other = 0;
+		for (int i = 0; i < 100; i++) {
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			assertNotEquals(SLOW, selection.getUrl());
+			other += selection.getUrl().equals(OTHER) ? 1 : 0;
+			selection.complete(true);
+		}
+		assertTrue(other > 0 && other < 100);
+	}
+
+	private void failUntilEjected(String url) {
+		int failures = 0;
+		while (failures < 3) {
+			// long enough for the failure latency to decay, so the failing endpoint is chosen again
+			clock.addAndGet(300_000_000_000L);
+			EndpointBalancer.Selection selection = balancer.select(SETTING);
+			boolean fail = selection.getUrl().equals(url);
+			selection.complete(!fail);
+			failures += fail ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_FulfillmentController_fulfillBatch {
+	@Mock
+	FulfillmentService fulfillmentService;
+	@Mock
+	Acknowledgment acknowledgment;
+	@Mock
+	Consumer<String, TraceableMessage<TransferFulfillmentMessage>> consumer;
+
+	FulfillmentController controller = new FulfillmentController();
+	ConfigProperties config = new ConfigProperties();
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	DeadLetterPublisher deadLetterPublisher = new DeadLetterPublisher();
+
+	@BeforeEach
+	public void setup() {
+		controller.setConfig(config);
+		controller.setFulfillmentService(fulfillmentService);
+		controller.setExecutor(executor);
+		deadLetterPublisher.setConfig(config);
+		deadLetterPublisher.setRegistry(new SimpleMeterRegistry());
+		deadLetterPublisher.init();
+		controller.setDeadLetterPublisher(deadLetterPublisher);
+	}
+
+	@AfterEach
+	public void teardown() {
+		executor.shutdownNow();
+		deadLetterPublisher.close();
+	}
+
+	@Test
+	void test_fulfillBatch_success() {
+		//-- Setup ------------------
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(5);
+
+		//--Prepare----------------------
+		doNothing().when(fulfillmentService).transferFunds(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------
+		verify(fulfillmentService, times(5)).transferFunds(any());
+		verify(acknowledgment).acknowledge();
+		verify(acknowledgment, never()).nack(anyInt(), anyLong());
+	}
+
+	@Test
+	void test_fulfillBatch_malformedGoesToDLQ() {
+		//-- Setup ------------------
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+		data.get(1).value().getPayload().setVersion("237482734982");
+
+		//--Prepare----------------------
+		doNothing().when(fulfillmentService).transferFunds(any());
+		doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------
+		verify(fulfillmentService, times(2)).transferFunds(any());
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	@Test
+	void test_fulfillBatch_transientReturnsRemainder() {
+		//-- Setup ------------------
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(4);
+		TraceableMessage<TransferFulfillmentMessage> failing = data.get(2).value();
+
+		//--Prepare----------------------
+		doAnswer(invocation -> {
+			if (invocation.getArgument(0) == failing) {
+				throw new TransientDataAccessResourceException("msg");
+			}
+			return null;
+		}).when(fulfillmentService).transferFunds(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------
+		verify(acknowledgment).nack(eq(2), anyLong());
+		verify(acknowledgment, never()).acknowledge();
+	}
+
+	@Test
+	void test_fulfillBatch_dlqFailsReturnsRemainder() {
+		//-- Setup ------------------
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+
+		//--Prepare----------------------
+		doNothing().doThrow(new NonTransientDataAccessResourceException("msg")).doNothing()
+			.when(fulfillmentService).transferFunds(any());
+		CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new NonTransientDataAccessResourceException("msg"));
+		doReturn(failed).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		verify(acknowledgment).nack(anyInt(), anyLong());
+		verify(acknowledgment, never()).acknowledge();
+	}
+
+	@Test
+	void test_fulfillBatch_transactionalDeadLettersOnConsumerThread() {
+		//-- Setup ------------------
+		config.setKafkaTransactional(true);
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+		data.get(0).value().getPayload().setVersion("237482734982");
+
+		//--Prepare----------------------
+		doNothing().doThrow(new NonTransientDataAccessResourceException("msg"))
+			.when(fulfillmentService).transferFunds(any());
+		final Thread consumer = Thread.currentThread();
+		doAnswer(invocation -> {
+			assertSame(consumer, Thread.currentThread());
+			return null;
+		}).when(fulfillmentService).sendToDeadLetterQueueInTransaction(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------ offsets go with the transaction, not the acknowledgment
+		verify(fulfillmentService, times(2)).transferFunds(any());
+		verify(fulfillmentService, times(2)).sendToDeadLetterQueueInTransaction(any());
+		verify(fulfillmentService, never()).sendToDeadLetterQueueAsync(any());
+		verifyNoInteractions(acknowledgment);
+	}
+
+	@Test
+	void test_fulfillBatch_transactionalTransientRollsBack() {
+		//-- Setup ------------------
+		config.setKafkaTransactional(true);
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+		data.get(0).value().getPayload().setVersion("237482734982");
+		TraceableMessage<TransferFulfillmentMessage> failing = data.get(2).value();
+
+		//--Prepare----------------------
+		doAnswer(invocation -> {
+			if (invocation.getArgument(0) == failing) {
+				throw new TransientDataAccessResourceException("msg");
+			}
+			return null;
+		}).when(fulfillmentService).transferFunds(any());
+
+		//--Execute-----------------------
+		assertThrows(TransientDataAccessResourceException.class, () -> controller.fulfillBatch(data, acknowledgment));
+
+		//--Verify------------------------
+		verify(fulfillmentService, never()).sendToDeadLetterQueueInTransaction(any());
+		verifyNoInteractions(acknowledgment);
+	}
+
+	@Test
+	void test_fulfillBatch_transactionalRetryTierInTransaction() {
+		//-- Setup ------------------
+		config.setKafkaTransactional(true);
+		config.setKafkaRetryQueues(Arrays.asList("retry-1s"));
+		config.setKafkaRetryDelays(Arrays.asList(1000L));
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+
+		//--Prepare----------------------
+		doNothing().doThrow(new TransientDataAccessResourceException("msg")).doNothing()
+			.when(fulfillmentService).transferFunds(any());
+		final Thread consumerThread = Thread.currentThread();
+		doAnswer(invocation -> {
+			assertSame(consumerThread, Thread.currentThread());
+			return null;
+		}).when(fulfillmentService).sendToRetryQueueInTransaction(any(), any(), anyBoolean());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------ the retry record commits or aborts with the batch
+		verify(fulfillmentService).sendToRetryQueueInTransaction(eq("retry-1s"), any(), eq(false));
+		verify(fulfillmentService, never()).sendToRetryQueue(any(), any(), anyBoolean());
+		verifyNoInteractions(acknowledgment);
+	}
+
+	@Test
+	void test_fulfillBatch_transactionalExhaustedDeadLettersOutsideTransaction() {
+		//-- Setup ------------------
+		config.setKafkaTransactional(true);
+		config.setKafkaTransactionMaxRollbacks(2);
+		TransactionRollbackTracker tracker = new TransactionRollbackTracker();
+		tracker.setConfig(config);
+		controller.setTransactionRollbackTracker(tracker);
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> data = setup_batch(3);
+		data.get(0).value().getPayload().setVersion("237482734982");
+		tracker.rolledBack(data, consumer);
+		tracker.rolledBack(data, consumer);
+
+		//--Prepare----------------------
+		doNothing().when(fulfillmentService).transferFunds(any());
+		doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+
+		//--Execute-----------------------
+		controller.fulfillBatch(data, acknowledgment);
+
+		//--Verify------------------------
+		verify(consumer, times(2)).pause(any());
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		verify(fulfillmentService, never()).sendToDeadLetterQueueInTransaction(any());
+	}
+
+	List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> setup_batch(int size) {
+		List<ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>> batch = new ArrayList<>();
+		for (int index = 0; index < size; index++) {
+			TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+			message.setBusinessTaxonomyId("28934.82934.89234");
+			message.setCorrelationId("2u3472938482374982");
+			message.setMessageCreationTime(LocalDateTime.now());
+			message.setProducerAit("272834");
+
+			message.setPayload(new TransferFulfillmentMessage());
+			message.getPayload().setVersion(TransferFulfillmentMessage.version1_0);
+			message.getPayload().setFromAccountNumber("70978934" + index);
+			message.getPayload().setRequestUuid(UUID.randomUUID());
+			message.getPayload().setReservationUuid(UUID.randomUUID());
+			message.getPayload().setToAccountNumber("238492834");
+			message.getPayload().setTransactionAmount(8923489);
+			message.getPayload().setTransactionMetaDataJson("{}");
+			batch.add(new ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>("blah", 1, index, "234234", message));
+		}
+		return batch;
+	}
+}
@@ -5,6 +5,7 @@ import static org.mockito.Mockito.*;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.junit.jupiter.api.BeforeEach;
@@ -66,7 +67,7 @@ class Unit_FulfillmentController_postTransferFunds {
 
 		//--Prepare----------------------
 		doThrow(new NonTransientDataAccessResourceException("msg")).when(fulfillmentService).transferFunds(any());
-		doNothing().when(fulfillmentService).sendToDeadLetterQueue(any());
+		doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
 		doNothing().when(acknowledgment).acknowledge();
 		
 		//--Execute-----------------------
@@ -74,7 +75,7 @@ class Unit_FulfillmentController_postTransferFunds {
 		
 		//--Verify------------------------
 		verify(fulfillmentService).transferFunds(captor.capture());
-		verify(fulfillmentService).sendToDeadLetterQueue(any());
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment).acknowledge();
 	}
 	
@@ -102,23 +103,46 @@ class Unit_FulfillmentController_postTransferFunds {
 		data.value().getPayload().setVersion("237482734982");
 
 		//--Prepare----------------------
-		doThrow(new TransientDataAccessResourceException("msg")).when(fulfillmentService).sendToDeadLetterQueue(any());
+		CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new NonTransientDataAccessResourceException("msg"));
+		doReturn(failed).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
 		doNothing().when(acknowledgment).nack(anyLong());
 		
 		//--Execute-----------------------
 		controller.fulfill(data, acknowledgment);
 		
 		//--Verify------------------------
-		verify(fulfillmentService).sendToDeadLetterQueue(any());
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment).nack(anyLong());
 	}
+
+	@Test
+	void test_onMessage_dlqResentUntilConfirmed() {
+		//-- Setup ------------------
+		ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> data = setup_response();
+		data.value().getPayload().setVersion("237482734982");
+
+		//--Prepare----------------------
+		CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new TransientDataAccessResourceException("msg"));
+		doReturn(failed).doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		doNothing().when(acknowledgment).acknowledge();
+		
+		//--Execute-----------------------
+		controller.fulfill(data, acknowledgment);
+		
+		//--Verify------------------------ acknowledged from the resend, not from the consumer thread
+		verify(acknowledgment, never()).nack(anyLong());
+		verify(acknowledgment, timeout(5000L)).acknowledge();
+		verify(fulfillmentService, times(2)).sendToDeadLetterQueueAsync(any());
+	}
 	
 	@Test
 	void test_onMessage_validateInput() {
 		int count = 0;
 
 		//-- Prepare ------------------
-		doNothing().when(fulfillmentService).sendToDeadLetterQueue(any());
+		doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
 		doNothing().when(acknowledgment).acknowledge();
 
 		//-- Setup ------------------
@@ -128,38 +152,38 @@ class Unit_FulfillmentController_postTransferFunds {
 
 		data.value().setProducerAit(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().setProducerAit("23423");
 		data.value().setBusinessTaxonomyId(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().setBusinessTaxonomyId("823942.8293423.2342");
 		data.value().setCorrelationId(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().setCorrelationId("23874293742893");
 		data.value().setMessageCreationTime(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().setMessageCreationTime(LocalDateTime.now());
 		data.value().getPayload().setVersion(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setVersion(TransferFulfillmentMessage.version1_0);
 		TransferFulfillmentMessage holdvalue = data.value().getPayload();
 		data.value().setPayload(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().setPayload(holdvalue);
@@ -167,42 +191,42 @@ class Unit_FulfillmentController_postTransferFunds {
 		//-- Payload ------------------
 		data.value().getPayload().setFromAccountNumber(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setFromAccountNumber("2389420834089234");
 		data.value().getPayload().setRequestUuid(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setRequestUuid(UUID.randomUUID());
 		data.value().getPayload().setReservationUuid(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setReservationUuid(UUID.randomUUID());
 		data.value().getPayload().setToAccountNumber(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setToAccountNumber("2389420834089234");
 		data.value().getPayload().setTransactionAmount(0L);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setTransactionAmount(-283948L);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setTransactionAmount(238942L);
 		data.value().getPayload().setTransactionMetaDataJson(null);
 		controller.fulfill(data, acknowledgment); count++;
-		verify(fulfillmentService, times(count)).sendToDeadLetterQueue(any());
+		verify(fulfillmentService, times(count)).sendToDeadLetterQueueAsync(any());
 		verify(acknowledgment, times(count)).acknowledge();
 		
 		data.value().getPayload().setTransactionMetaDataJson("2389420834089234");
@@ -0,0 +1,98 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_InstrumentedConnectionManager {
+	// leasing creates the connection without opening it, so no server is needed
+	private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("localhost", 9091));
+
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(registry, "transaction");
+
+	@BeforeEach
+	public void setup() {
+		connectionManager.setMaxTotal(4);
+		connectionManager.setDefaultMaxPerRoute(4);
+	}
+
+	@AfterEach
+	public void teardown() {
+		connectionManager.shutdown();
+	}
+
+	@Test
+	void test_lease_wait_recorded() throws Exception {
+		//--Execute--
+		HttpClientConnection connection = connectionManager.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+
+		//--Verify--
+		assertNotNull(connection);
+		assertEquals(1, leaseWait().count());
+		connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void test_lease_timeout_recorded() throws Exception {
+		//--Prepare-- the only connection is leased
+		connectionManager.setMaxTotal(1);
+		connectionManager.setDefaultMaxPerRoute(1);
+		HttpClientConnection connection = connectionManager.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+
+		//--Execute--
+		assertThrows(ConnectionPoolTimeoutException.class, () -> {
+			connectionManager.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+		});
+
+		//--Verify-- the starved lease is timed too; the pool's deadline is only millisecond accurate
+		assertEquals(2, leaseWait().count());
+		assertTrue(leaseWait().totalTime(TimeUnit.MILLISECONDS) >= 90.0);
+		assertEquals(1.0, gauge("qslv.http.pool.utilization"));
+		connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void test_gauges_report_pool_stats() throws Exception {
+		//--Prepare--
+		HttpClientConnection[] connections = new HttpClientConnection[3];
+		for (int i = 0; i < connections.length; i++) {
+			connections[i] = connectionManager.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+		}
+
+		//--Verify--
+		assertEquals(3.0, gauge("qslv.http.pool.leased"));
+		assertEquals(4.0, gauge("qslv.http.pool.max"));
+		assertEquals(0.0, gauge("qslv.http.pool.pending"));
+		assertEquals(0.75, gauge("qslv.http.pool.utilization"), 0.001);
+
+		//--Execute-- a connection that was never opened is not kept
+		connectionManager.releaseConnection(connections[0], null, 0, TimeUnit.MILLISECONDS);
+
+		//--Verify--
+		assertEquals(2.0, gauge("qslv.http.pool.leased"));
+		assertEquals(0.0, gauge("qslv.http.pool.available"));
+		assertEquals(0.5, gauge("qslv.http.pool.utilization"), 0.001);
+		connectionManager.releaseConnection(connections[1], null, 0, TimeUnit.MILLISECONDS);
+		connectionManager.releaseConnection(connections[2], null, 0, TimeUnit.MILLISECONDS);
+	}
+
+	private Timer leaseWait() {
+		return registry.get("qslv.http.pool.lease.wait").tag("pool", "transaction").timer();
+	}
+
+	private double gauge(String name) {
+		return registry.get(name).tag("pool", "transaction").gauge().value();
+	}
+}
@@ -3,9 +3,12 @@ package qslv.transfer.fulfillment;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -17,6 +20,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.LoggerFactory;
@@ -25,10 +29,10 @@ import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -41,14 +45,19 @@ import qslv.util.ElapsedTimeSLILogger;
 @ExtendWith(MockitoExtension.class)
 public class Unit_KafkaDao {
 	KafkaDao kafkaDao = new KafkaDao();
+	DeadLetterEncoder deadLetterEncoder = new DeadLetterEncoder();
 	ConfigProperties config = new ConfigProperties();
 	ElapsedTimeSLILogger kafkaTimer = new ElapsedTimeSLILogger(LoggerFactory.getLogger(KafkaDao.class), "2342342", "kafkaQueue", 
 				Collections.singletonList(TransientDataAccessResourceException.class)); 
 	
 	@Mock
-	KafkaTemplate<String, String> kafkaTemplate;
+	KafkaTemplate<String, byte[]> kafkaTemplate;
 	@Mock
-	ListenableFuture<SendResult<String, String>> future;
+	ListenableFuture<SendResult<String, byte[]>> future;
+	@Captor
+	ArgumentCaptor<ProducerRecord<String, byte[]>> recordCaptor;
+	@Mock
+	DlqSpillQueue dlqSpillQueue;
 	@Mock 
 	ObjectMapper mockMapper;
 	ObjectMapper objectMapper = new ObjectMapper();
@@ -61,20 +70,22 @@ public class Unit_KafkaDao {
 	public void setup() {
 		kafkaDao.setKafkaTemplate(kafkaTemplate);
 		kafkaDao.setConfig(config);
-		kafkaDao.setObjectMapper(objectMapper);
 		config.setKafkaDeadLetterQueue("dead.test.letter.queue");
 		config.setKafkaTimeout(23423);
+		deadLetterEncoder.setConfig(config);
+		deadLetterEncoder.setObjectMapper(objectMapper);
+		deadLetterEncoder.init();
+		kafkaDao.setDeadLetterEncoder(deadLetterEncoder);
 	}
 	
 	@Test
-	public void test_produceTransferMessage_Success() throws InterruptedException, ExecutionException, TimeoutException, JsonMappingException, JsonProcessingException {
+	public void test_produceTransferMessage_Success() throws InterruptedException, ExecutionException, TimeoutException, IOException {
 		
 		//-Prepare---------------
-		kafkaDao.setObjectMapper(objectMapper);
-		ProducerRecord<String, String> producerRecord = new ProducerRecord<>("mockTopicName", "message");
-		SendResult<String, String> sendResult = new SendResult<String, String>(producerRecord, new RecordMetadata(new TopicPartition("mockTopic", 1), 1, 1, 1, 1L, 1, 1));
+		ProducerRecord<String, byte[]> producerRecord = new ProducerRecord<>("mockTopicName", "message".getBytes(StandardCharsets.UTF_8));
+		SendResult<String, byte[]> sendResult = new SendResult<String, byte[]>(producerRecord, new RecordMetadata(new TopicPartition("mockTopic", 1), 1, 1, 1, 1L, 1, 1));
 		when( future.get(anyLong(), any(TimeUnit.class) ) ).thenReturn(sendResult);
-		when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(future);
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
 	
 		//--Setup ---------------------------
 		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
@@ -84,9 +95,14 @@ public class Unit_KafkaDao {
 
 		//-Verify----------------------------		
 		verify(future).get(anyLong(), any(TimeUnit.class) );
-		ArgumentCaptor<String> arg = ArgumentCaptor.forClass(String.class);
-		verify(kafkaTemplate).send(anyString(), anyString(), arg.capture());
-		TransferFulfillmentDeadLetter result = objectMapper.readValue(arg.getValue(), new TypeReference<TransferFulfillmentDeadLetter>() {});
+		verify(kafkaTemplate).send(recordCaptor.capture());
+		ProducerRecord<String, byte[]> record = recordCaptor.getValue();
+		assertEquals("dead.test.letter.queue", record.topic());
+		assertEquals(message.getPayload().getFromAccountNumber(), record.key());
+		assertEquals("JSON", new String(record.headers().lastHeader(DeadLetterEncoder.FORMAT_HEADER).value(), StandardCharsets.UTF_8));
+		assertEquals(DeadLetterEncoder.SCHEMA_VERSION, new String(record.headers().lastHeader(DeadLetterEncoder.SCHEMA_VERSION_HEADER).value(), StandardCharsets.UTF_8));
+		assertFalse(new String(record.value(), StandardCharsets.UTF_8).contains("\n"));
+		TransferFulfillmentDeadLetter result = objectMapper.readValue(record.value(), new TypeReference<TransferFulfillmentDeadLetter>() {});
 		
 		assertNotNull(result);
 
@@ -104,10 +120,9 @@ public class Unit_KafkaDao {
 	public void test_produceTransferMessage_throwsTransient() throws InterruptedException, ExecutionException, TimeoutException {
 		
 		//-Prepare---------------
-		kafkaDao.setObjectMapper(objectMapper);
 		when( future.get(anyLong(), any(TimeUnit.class) ) )
 			.thenThrow(new InterruptedException());
-		when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(future);
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
 	
 		//--Setup ---------------------------
 		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
@@ -118,6 +133,89 @@ public class Unit_KafkaDao {
 		});
 	}
 
+	@Test
+	public void test_produceDLQMessage_spillsOnFailure() throws InterruptedException, ExecutionException, TimeoutException {
+		
+		//-Prepare---------------
+		when( future.get(anyLong(), any(TimeUnit.class) ) )
+			.thenThrow(new TimeoutException());
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
+		when(dlqSpillQueue.isEnabled()).thenReturn(true);
+		when(dlqSpillQueue.append(any())).thenReturn(true);
+		kafkaDao.setDlqSpillQueue(dlqSpillQueue);
+	
+		//--Setup ---------------------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		
+		//--Execute--------------	
+		kafkaDao.produceDLQMessage(new TransferFulfillmentDeadLetter(message.getPayload(), new Exception("This is a test exception.")));
+
+		//--Verify--------------	
+		verify(dlqSpillQueue).append(recordCaptor.capture());
+		assertEquals("dead.test.letter.queue", recordCaptor.getValue().topic());
+	}
+
+	@Test
+	public void test_produceDLQMessage_queuesBehindBacklog() {
+		
+		//-Prepare---------------
+		when(dlqSpillQueue.isEnabled()).thenReturn(true);
+		when(dlqSpillQueue.hasBacklog()).thenReturn(true);
+		when(dlqSpillQueue.append(any())).thenReturn(false);
+		kafkaDao.setDlqSpillQueue(dlqSpillQueue);
+	
+		//--Setup ---------------------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		
+		//--Execute--------------	
+		assertThrows(TransientDataAccessResourceException.class, () -> {
+			kafkaDao.produceDLQMessage(new TransferFulfillmentDeadLetter(message.getPayload(), new Exception("This is a test exception.")));
+		});
+
+		//--Verify-- not sent ahead of the spilled dead letters
+		verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+	}
+
+	@Test
+	public void test_produceDLQMessageAsync_completesOnSend() throws Exception {
+		
+		//-Prepare---------------
+		SettableListenableFuture<SendResult<String, byte[]>> sent = new SettableListenableFuture<>();
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent);
+	
+		//--Setup ---------------------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+
+		//-Execute----------------------------		
+		CompletableFuture<Void> result = kafkaDao.produceDLQMessageAsync(new TransferFulfillmentDeadLetter(message.getPayload(), new Exception("This is a test exception.")));
+
+		//-Verify----------------------------		
+		assertFalse(result.isDone());
+		sent.set(new SendResult<String, byte[]>(new ProducerRecord<>("mockTopicName", "message".getBytes(StandardCharsets.UTF_8)),
+				new RecordMetadata(new TopicPartition("mockTopic", 1), 1, 1, 1, 1L, 1, 1)));
+		assertTrue(result.isDone());
+		assertFalse(result.isCompletedExceptionally());
+	}
+
+	@Test
+	public void test_produceDLQMessageAsync_failsTransient() {
+		
+		//-Prepare---------------
+		SettableListenableFuture<SendResult<String, byte[]>> sent = new SettableListenableFuture<>();
+		sent.setException(new org.apache.kafka.common.errors.TimeoutException("expired"));
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent);
+	
+		//--Setup ---------------------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+
+		//-Execute----------------------------		
+		CompletableFuture<Void> result = kafkaDao.produceDLQMessageAsync(new TransferFulfillmentDeadLetter(message.getPayload(), new Exception("This is a test exception.")));
+
+		//-Verify----------------------------		
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> result.get());
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+	}
+
 	class TestException extends JsonProcessingException {
 		private static final long serialVersionUID = 1L;
 		protected TestException(String msg) {
@@ -129,10 +227,10 @@ public class Unit_KafkaDao {
 	public void test_produceTransferMessage_throwsNontransient() throws InterruptedException, ExecutionException, TimeoutException, JsonProcessingException {
 		
 		//-Prepare---------------
-		kafkaDao.setObjectMapper(mockMapper);
-		doReturn(objWriter).when(objWriter).withDefaultPrettyPrinter();
-		doThrow(new TestException("message")).when(objWriter).writeValueAsString(any());
-		doReturn(objWriter).when(mockMapper).writer();
+		doThrow(new TestException("message")).when(objWriter).writeValueAsBytes(any());
+		doReturn(objWriter).when(mockMapper).writerFor(TransferFulfillmentDeadLetter.class);
+		deadLetterEncoder.setObjectMapper(mockMapper);
+		deadLetterEncoder.init();
 	
 		//--Setup ---------------------------
 		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
@@ -143,6 +241,25 @@ public class Unit_KafkaDao {
 		});
 	}
 	
+	@Test
+	public void test_produceDLQMessageInTransaction_doesNotWait() throws InterruptedException, ExecutionException, TimeoutException {
+
+		//-Prepare---------------
+		kafkaDao.setTransactionalKafkaTemplate(kafkaTemplate);
+		when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
+
+		//--Setup ---------------------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+
+		//-Execute----------------------------
+		kafkaDao.produceDLQMessageInTransaction(new TransferFulfillmentDeadLetter(message.getPayload(), new Exception("This is a test exception.")));
+
+		//-Verify---------------------------- the transaction commit flushes the send
+		verify(kafkaTemplate).send(recordCaptor.capture());
+		assertEquals("dead.test.letter.queue", recordCaptor.getValue().topic());
+		verify(future, never()).get(anyLong(), any(TimeUnit.class));
+	}
+
 	private TraceableMessage<TransferFulfillmentMessage> setup_message() {
 		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
 		message.setBusinessTaxonomyId("Business Tax");
@@ -0,0 +1,233 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_KafkaRetryListener {
+	@Mock
+	FulfillmentService fulfillmentService;
+	@Mock
+	Acknowledgment acknowledgment;
+	@Mock
+	Consumer<String, TraceableMessage<TransferFulfillmentMessage>> consumer;
+
+	ConfigProperties config = new ConfigProperties();
+	FulfillmentController controller = new FulfillmentController();
+	KafkaRetryListener listener = new KafkaRetryListener();
+	DeadLetterPublisher deadLetterPublisher = new DeadLetterPublisher();
+	PendingAcknowledgments pendingAcknowledgments = new PendingAcknowledgments();
+
+	@BeforeEach
+	public void setup() {
+		config.setKafkaTimeout(1000);
+		config.setKafkaRetryQueues(Arrays.asList("retry-1s", "retry-10s"));
+		config.setKafkaRetryDelays(Arrays.asList(1000L, 10000L));
+		controller.setConfig(config);
+		controller.setFulfillmentService(fulfillmentService);
+		deadLetterPublisher.setConfig(config);
+		deadLetterPublisher.setRegistry(new SimpleMeterRegistry());
+		deadLetterPublisher.init();
+		controller.setDeadLetterPublisher(deadLetterPublisher);
+		pendingAcknowledgments.setConfig(config);
+		listener.setConfig(config);
+		listener.setFulfillmentController(controller);
+		listener.setPendingAcknowledgments(pendingAcknowledgments);
+	}
+
+	@AfterEach
+	public void teardown() {
+		deadLetterPublisher.close();
+	}
+
+	@Test
+	void test_onMessage_notDue() {
+		//--Execute-----------------------
+		listener.onMessage(setup_record(System.currentTimeMillis()), acknowledgment, 1);
+
+		//--Verify------------------------
+		verify(acknowledgment).nack(longThat(wait -> wait > 0 && wait <= 10000L));
+		verifyNoInteractions(fulfillmentService);
+	}
+
+	@Test
+	void test_onMessage_notDueWaitIsCapped() {
+		//--Prepare----------------------
+		listener.setListenerConfig(Collections.singletonMap(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, "4000"));
+
+		//--Execute-----------------------
+		listener.onMessage(setup_record(System.currentTimeMillis()), acknowledgment, 1);
+
+		//--Verify------------------------ stays within max.poll.interval.ms of the 10s delay
+		verify(acknowledgment).nack(2000L);
+		verifyNoInteractions(fulfillmentService);
+	}
+
+	@Test
+	void test_onMessage_dueSucceeds() {
+		//--Prepare----------------------
+		doNothing().when(fulfillmentService).transferFunds(any());
+
+		//--Execute-----------------------
+		listener.onMessage(setup_record(System.currentTimeMillis() - 2000L), acknowledgment, 0);
+
+		//--Verify------------------------
+		verify(fulfillmentService).transferFunds(any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	@Test
+	void test_onMessage_transientMovesToNextTier() {
+		//--Prepare----------------------
+		doThrow(new TransientDataAccessResourceException("msg")).when(fulfillmentService).transferFunds(any());
+		doNothing().when(fulfillmentService).sendToRetryQueue(any(), any(), anyBoolean());
+
+		//--Execute-----------------------
+		listener.onMessage(setup_record(System.currentTimeMillis() - 2000L), acknowledgment, 0);
+
+		//--Verify------------------------
+		verify(fulfillmentService).sendToRetryQueue(eq("retry-10s"), any(), eq(false));
+		verify(acknowledgment).acknowledge();
+	}
+
+	@Test
+	void test_onMessage_lastTierGoesToDLQ() {
+		//--Prepare----------------------
+		doThrow(new TransientDataAccessResourceException("msg")).when(fulfillmentService).transferFunds(any());
+		doReturn(CompletableFuture.completedFuture(null)).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+
+		//--Execute-----------------------
+		listener.onMessage(setup_record(System.currentTimeMillis() - 20000L), acknowledgment, 1);
+
+		//--Verify------------------------
+		verify(fulfillmentService, never()).sendToRetryQueue(any(), any(), anyBoolean());
+		verify(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	@Test
+	void test_onMessage_dlqNeverSentSeeksBack() {
+		//--Prepare----------------------
+		TopicPartition partition = new TopicPartition("retry", 1);
+		CompletableFuture<Void> send = new CompletableFuture<>();
+		doThrow(new TransientDataAccessResourceException("msg")).when(fulfillmentService).transferFunds(any());
+		doReturn(send).when(fulfillmentService).sendToDeadLetterQueueAsync(any());
+		doReturn(Collections.singleton(partition)).when(consumer).assignment();
+
+		//--Execute----------------------- the dead letter fails after the consumer thread moved on
+		listener.onMessage(setup_record(System.currentTimeMillis() - 20000L, 1L), acknowledgment, 1);
+		CompletableFuture.runAsync(() -> send.completeExceptionally(new NonTransientDataAccessResourceException("msg"))).join();
+		pendingAcknowledgments.seekFailed(consumer);
+
+		//--Verify------------------------
+		verify(consumer).seek(partition, 1L);
+		verify(consumer).pause(Collections.singleton(partition));
+		verify(acknowledgment, never()).acknowledge();
+		verify(acknowledgment, never()).nack(anyLong());
+		// fetched before the seek, skipped until the failed record comes again
+		assertTrue(pendingAcknowledgments.isStale(setup_record(System.currentTimeMillis(), 2L)));
+		assertFalse(pendingAcknowledgments.isStale(setup_record(System.currentTimeMillis(), 1L)));
+		assertFalse(pendingAcknowledgments.isStale(setup_record(System.currentTimeMillis(), 2L)));
+	}
+
+	@Test
+	void test_fulfill_transientGoesToFirstTier() {
+		//--Prepare----------------------
+		doThrow(new TransientDataAccessResourceException("msg")).when(fulfillmentService).transferFunds(any());
+		doNothing().when(fulfillmentService).sendToRetryQueue(any(), any(), anyBoolean());
+
+		//--Execute-----------------------
+		controller.fulfill(setup_record(System.currentTimeMillis()), acknowledgment);
+
+		//--Verify------------------------
+		verify(fulfillmentService).sendToRetryQueue(eq("retry-1s"), any(), eq(false));
+		verify(acknowledgment).acknowledge();
+		verify(acknowledgment, never()).nack(anyLong());
+	}
+
+	@Test
+	void test_fulfill_recordedPastDeadlineGoesToRetryTier() {
+		//--Prepare---------------------- no step cache; the commit step reports the recorded transaction
+		doThrow(new RecordedTransferException("msg", new TransientDataAccessResourceException("msg")))
+			.when(fulfillmentService).transferFunds(any());
+		doNothing().when(fulfillmentService).sendToRetryQueue(any(), any(), anyBoolean());
+		ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = setup_record(System.currentTimeMillis());
+		record.value().setMessageCreationTime(LocalDateTime.now().minusSeconds(60));
+
+		//--Execute-----------------------
+		controller.fulfill(record, acknowledgment);
+
+		//--Verify------------------------
+		verify(fulfillmentService, never()).checkDeadline(any(), any());
+		verify(fulfillmentService).sendToRetryQueue(eq("retry-1s"), any(), eq(true));
+		verify(fulfillmentService, never()).sendToExpiredQueueAsync(any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	@Test
+	void test_onMessage_recordedCommitsOnly() {
+		//--Prepare----------------------
+		doNothing().when(fulfillmentService).commitRecorded(any());
+		ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> record = setup_record(System.currentTimeMillis() - 2000L);
+		record.headers().add(new RecordHeader(KafkaDao.RECORDED_HEADER, new byte[] { 1 }));
+
+		//--Execute-----------------------
+		listener.onMessage(record, acknowledgment, 0);
+
+		//--Verify------------------------
+		verify(fulfillmentService).commitRecorded(any());
+		verify(fulfillmentService, never()).transferFunds(any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> setup_record(long timestamp) {
+		return setup_record(timestamp, 1L);
+	}
+
+	ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> setup_record(long timestamp, long offset) {
+		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("272834");
+
+		message.setPayload(new TransferFulfillmentMessage());
+		message.getPayload().setVersion(TransferFulfillmentMessage.version1_0);
+		message.getPayload().setFromAccountNumber("709789345");
+		message.getPayload().setRequestUuid(UUID.randomUUID());
+		message.getPayload().setReservationUuid(UUID.randomUUID());
+		message.getPayload().setToAccountNumber("238492834");
+		message.getPayload().setTransactionAmount(8923489);
+		message.getPayload().setTransactionMetaDataJson("{}");
+		return new ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>("retry", 1, offset, timestamp,
+				TimestampType.CREATE_TIME, 0L, 0, 0, "709789345", message);
+	}
+}
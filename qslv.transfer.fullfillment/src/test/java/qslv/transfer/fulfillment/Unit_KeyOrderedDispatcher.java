@@ -0,0 +1,151 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_KeyOrderedDispatcher {
+	@Mock
+	FulfillmentController controller;
+
+	KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher();
+	ConfigProperties config = new ConfigProperties();
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@BeforeEach
+	public void setup() {
+		config.setFulfillmentMaxInFlight(100);
+		config.setFulfillmentDrainTimeout(5000);
+		dispatcher.setConfig(config);
+		dispatcher.setExecutor(executor);
+		dispatcher.setFulfillmentController(controller);
+		dispatcher.init();
+	}
+
+	@AfterEach
+	public void teardown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void test_dispatch_sameKeyInOrder() throws InterruptedException {
+		List<Long> processed = new CopyOnWriteArrayList<>();
+
+		//--Prepare----------------------
+		doAnswer(invocation -> {
+			ConsumerRecord<?, ?> record = invocation.getArgument(0);
+			Thread.sleep(10 - record.offset());
+			processed.add(record.offset());
+			((Acknowledgment) invocation.getArgument(1)).acknowledge();
+			return null;
+		}).when(controller).fulfill(any(), any());
+
+		//--Execute-----------------------
+		for (long offset = 0; offset < 5; offset++) {
+			dispatcher.dispatch(setup_record(offset, "12345"), mock(Acknowledgment.class));
+		}
+		dispatcher.drain(Collections.singletonList(new TopicPartition("blah", 1)));
+
+		//--Verify------------------------
+		assertEquals(5, processed.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, processed.get(i).longValue());
+		}
+	}
+
+	@Test
+	void test_dispatch_ackWaitsForEarlierOffsets() throws InterruptedException {
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		Acknowledgment first = mock(Acknowledgment.class);
+		Acknowledgment second = mock(Acknowledgment.class);
+
+		//--Prepare----------------------
+		doAnswer(invocation -> {
+			ConsumerRecord<?, ?> record = invocation.getArgument(0);
+			if (record.offset() == 0) {
+				releaseFirst.await(5, TimeUnit.SECONDS);
+			}
+			((Acknowledgment) invocation.getArgument(1)).acknowledge();
+			return null;
+		}).when(controller).fulfill(any(), any());
+
+		//--Execute-----------------------
+		dispatcher.dispatch(setup_record(0, "11111"), first);
+		dispatcher.dispatch(setup_record(1, "22222"), second);
+
+		//--Verify------------------------
+		Thread.sleep(200);
+		verify(first, never()).acknowledge();
+		verify(second, never()).acknowledge();
+
+		releaseFirst.countDown();
+		dispatcher.drain(Collections.singletonList(new TopicPartition("blah", 1)));
+
+		verify(first, never()).acknowledge();
+		verify(second).acknowledge();
+	}
+
+	@Test
+	void test_dispatch_nackRetriesInLane() throws InterruptedException {
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+		//--Prepare----------------------
+		doAnswer(invocation -> {
+			((Acknowledgment) invocation.getArgument(1)).nack(1L);
+			return null;
+		}).doAnswer(invocation -> {
+			((Acknowledgment) invocation.getArgument(1)).acknowledge();
+			return null;
+		}).when(controller).fulfill(any(), any());
+
+		//--Execute-----------------------
+		dispatcher.dispatch(setup_record(0, "12345"), acknowledgment);
+		dispatcher.drain(Collections.singletonList(new TopicPartition("blah", 1)));
+
+		//--Verify------------------------
+		verify(controller, times(2)).fulfill(any(), any());
+		verify(acknowledgment).acknowledge();
+	}
+
+	ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>> setup_record(long offset, String fromAccount) {
+		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("272834");
+
+		message.setPayload(new TransferFulfillmentMessage());
+		message.getPayload().setVersion(TransferFulfillmentMessage.version1_0);
+		message.getPayload().setFromAccountNumber(fromAccount);
+		message.getPayload().setRequestUuid(UUID.randomUUID());
+		message.getPayload().setReservationUuid(UUID.randomUUID());
+		message.getPayload().setToAccountNumber("238492834");
+		message.getPayload().setTransactionAmount(8923489);
+		message.getPayload().setTransactionMetaDataJson("{}");
+		return new ConsumerRecord<String, TraceableMessage<TransferFulfillmentMessage>>("blah", 1, offset, fromAccount, message);
+	}
+}
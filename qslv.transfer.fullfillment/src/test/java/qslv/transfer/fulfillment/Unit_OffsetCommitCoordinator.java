@@ -0,0 +1,149 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_OffsetCommitCoordinator {
+	private static final String TOPIC = "online.transfer.requests";
+
+	@Mock
+	Acknowledgment acknowledgment;
+
+	ConfigProperties config = new ConfigProperties();
+	OffsetCommitCoordinator coordinator = new OffsetCommitCoordinator();
+	PendingAcknowledgments pendingAcknowledgments = new PendingAcknowledgments();
+	MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+	TopicPartition partition0 = new TopicPartition(TOPIC, 0);
+	TopicPartition partition1 = new TopicPartition(TOPIC, 1);
+
+	@BeforeEach
+	public void setup() {
+		config.setKafkaAsyncCommits(true);
+		config.setKafkaCommitCount(3);
+		config.setKafkaCommitInterval(600000L);
+		config.setFulfillmentDrainTimeout(100);
+		coordinator.setConfig(config);
+		coordinator.setRegistry(new SimpleMeterRegistry());
+		coordinator.init();
+		pendingAcknowledgments.setConfig(config);
+		consumer.assign(Arrays.asList(partition0, partition1));
+	}
+
+	@Test
+	void test_commit_waits_for_count() {
+		//--Prepare-- the first call starts the interval
+		coordinator.commitIfDue(consumer);
+		Acknowledgment first = coordinator.track(record(0, 10), acknowledgment);
+		Acknowledgment second = coordinator.track(record(0, 11), acknowledgment);
+		Acknowledgment third = coordinator.track(record(1, 5), acknowledgment);
+
+		//--Execute--
+		first.acknowledge();
+		second.acknowledge();
+		coordinator.commitIfDue(consumer);
+
+		//--Verify--
+		assertNull(consumer.committed(Collections.singleton(partition0)).get(partition0));
+
+		//--Execute--
+		third.acknowledge();
+		coordinator.commitIfDue(consumer);
+
+		//--Verify--
+		assertEquals(12L, consumer.committed(Collections.singleton(partition0)).get(partition0).offset());
+		assertEquals(6L, consumer.committed(Collections.singleton(partition1)).get(partition1).offset());
+		verify(acknowledgment, never()).acknowledge();
+	}
+
+	@Test
+	void test_commit_stops_at_gap() {
+		//--Prepare-- offsets released in order by PendingAcknowledgments
+		coordinator.commitIfDue(consumer);
+		Acknowledgment first = pendingAcknowledgments.track(record(0, 10), coordinator.track(record(0, 10), acknowledgment));
+		Acknowledgment second = pendingAcknowledgments.track(record(0, 11), coordinator.track(record(0, 11), acknowledgment));
+		Acknowledgment third = pendingAcknowledgments.track(record(0, 12), coordinator.track(record(0, 12), acknowledgment));
+		Acknowledgment fourth = pendingAcknowledgments.track(record(0, 13), coordinator.track(record(0, 13), acknowledgment));
+
+		//--Execute--
+		first.acknowledge();
+		third.acknowledge();
+		fourth.acknowledge();
+		coordinator.commitSync(consumer, Collections.singleton(partition0), false);
+
+		//--Verify-- 11 is still in flight
+		assertEquals(11L, consumer.committed(Collections.singleton(partition0)).get(partition0).offset());
+
+		//--Execute--
+		second.acknowledge();
+		coordinator.commitSync(consumer, Collections.singleton(partition0), false);
+
+		//--Verify--
+		assertEquals(14L, consumer.committed(Collections.singleton(partition0)).get(partition0).offset());
+	}
+
+	@Test
+	void test_interval_commits_below_count() {
+		//--Prepare--
+		config.setKafkaCommitInterval(0L);
+		coordinator.track(record(1, 7), acknowledgment).acknowledge();
+
+		//--Execute--
+		coordinator.commitIfDue(consumer);
+
+		//--Verify--
+		assertEquals(8L, consumer.committed(Collections.singleton(partition1)).get(partition1).offset());
+	}
+
+	@Test
+	void test_revoke_commits_and_forgets() {
+		//--Prepare--
+		coordinator.commitIfDue(consumer);
+		coordinator.track(record(0, 3), acknowledgment).acknowledge();
+
+		//--Execute--
+		coordinator.commitSync(consumer, Collections.singleton(partition0), true);
+		consumer.commitSync(Collections.singletonMap(partition0, new OffsetAndMetadata(1L)));
+		coordinator.commitSync(consumer, Collections.singleton(partition0), true);
+
+		//--Verify-- nothing left to commit for the revoked partition
+		assertEquals(1L, consumer.committed(Collections.singleton(partition0)).get(partition0).offset());
+	}
+
+	@Test
+	void test_disabled_passes_acknowledgment_through() {
+		//--Prepare--
+		config.setKafkaAsyncCommits(false);
+
+		//--Execute--
+		Acknowledgment tracked = coordinator.track(record(0, 1), acknowledgment);
+		tracked.acknowledge();
+		coordinator.commitIfDue(consumer);
+
+		//--Verify--
+		assertSame(acknowledgment, tracked);
+		verify(acknowledgment).acknowledge();
+		assertNull(consumer.committed(Collections.singleton(partition0)).get(partition0));
+	}
+
+	private ConsumerRecord<String, String> record(int partition, long offset) {
+		return new ConsumerRecord<>(TOPIC, partition, offset, "key", "value");
+	}
+}
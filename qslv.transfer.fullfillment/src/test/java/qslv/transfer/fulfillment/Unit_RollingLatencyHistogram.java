@@ -0,0 +1,60 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class Unit_RollingLatencyHistogram {
+
+	AtomicLong clock = new AtomicLong();
+	RollingLatencyHistogram histogram = new RollingLatencyHistogram(1000L, clock::get);
+
+	@Test
+	void test_percentile_within_bucket_resolution() {
+		//--Prepare--
+		for (int millis = 1; millis <= 1000; millis++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+
+		//--Execute--
+		long p50 = histogram.percentile(0.5);
+		long p99 = histogram.percentile(0.99);
+
+		//--Verify--
+		assertEquals(1000L, histogram.getCount());
+		assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(500) && p50 <= TimeUnit.MILLISECONDS.toNanos(565), "p50 " + p50);
+		assertTrue(p99 >= TimeUnit.MILLISECONDS.toNanos(990) && p99 <= TimeUnit.MILLISECONDS.toNanos(1115), "p99 " + p99);
+	}
+
+	@Test
+	void test_bucket_bounds() {
+		for (long micros = 0; micros < 100_000; micros += 7) {
+			int bucket = RollingLatencyHistogram.bucket(TimeUnit.MICROSECONDS.toNanos(micros));
+			assertTrue(micros < RollingLatencyHistogram.upperBound(bucket), "micros " + micros);
+			assertTrue(bucket == 0 || micros >= RollingLatencyHistogram.upperBound(bucket - 1), "micros " + micros);
+		}
+	}
+
+	@Test
+	void test_old_windows_expire() {
+		//--Prepare--
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(900));
+
+		//--Execute-- the sample survives one rotation and not two
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+
+		//--Verify--
+		assertEquals(2L, histogram.getCount());
+
+		//--Execute--
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+		//--Verify--
+		assertEquals(1L, histogram.getCount());
+		assertTrue(histogram.percentile(0.99) < TimeUnit.MILLISECONDS.toNanos(2));
+	}
+}
@@ -0,0 +1,61 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_ServiceLatencyRecorder {
+	private static final String URL = "http://localhost:9091/Transaction";
+
+	ConfigProperties config = new ConfigProperties();
+	ServiceLatencyRecorder recorder = new ServiceLatencyRecorder();
+
+	@BeforeEach
+	public void setup() {
+		recorder.setConfig(config);
+		recorder.setRegistry(new SimpleMeterRegistry());
+	}
+
+	@Test
+	void test_nanoseconds_by_default() {
+		//--Prepare-- a 50 ms round trip
+		long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50);
+
+		//--Execute--
+		recorder.record(URL, start, TimeUnit.MILLISECONDS.toNanos(30));
+
+		//--Verify--
+		assertEquals(30.0, recorder.server(URL).totalTime(TimeUnit.MILLISECONDS), 0.001);
+		assertTrue(recorder.overhead(URL).totalTime(TimeUnit.MILLISECONDS) >= 20.0);
+	}
+
+	@Test
+	void test_converts_configured_unit() {
+		//--Prepare--
+		config.setRestServiceTimeUnit(TimeUnit.MILLISECONDS);
+		long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50);
+
+		//--Execute--
+		recorder.record(URL, start, 30L);
+
+		//--Verify--
+		assertEquals(30.0, recorder.server(URL).totalTime(TimeUnit.MILLISECONDS), 0.001);
+		assertTrue(recorder.overhead(URL).totalTime(TimeUnit.MILLISECONDS) >= 20.0);
+	}
+
+	@Test
+	void test_no_service_time() {
+		//--Execute--
+		recorder.record(URL, System.nanoTime(), 0L);
+
+		//--Verify-- only the round trip
+		assertEquals(1L, recorder.client(URL).count());
+		assertEquals(0L, recorder.server(URL).count());
+		assertEquals(0L, recorder.overhead(URL).count());
+	}
+}
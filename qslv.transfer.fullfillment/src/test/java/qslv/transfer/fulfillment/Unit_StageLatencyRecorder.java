@@ -0,0 +1,142 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import qslv.common.kafka.TraceableMessage;
+import qslv.transaction.request.CommitReservationRequest;
+import qslv.transaction.request.TransactionRequest;
+import qslv.transaction.resource.TransactionResource;
+import qslv.transaction.response.CommitReservationResponse;
+import qslv.transaction.response.TransactionResponse;
+import qslv.transfer.request.TransferFulfillmentMessage;
+
+class Unit_StageLatencyRecorder {
+
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	StageLatencyRecorder recorder = new StageLatencyRecorder();
+
+	@BeforeEach
+	public void setup() {
+		recorder.setRegistry(registry);
+		recorder.init();
+	}
+
+	@Test
+	void test_one_timer_per_stage() {
+		//--Verify--
+		for (StageLatencyRecorder.Stage stage : StageLatencyRecorder.Stage.values()) {
+			Timer timer = registry.get(StageLatencyRecorder.METRIC).tag("stage", stage.name().toLowerCase()).timer();
+			assertTrue(timer == recorder.timer(stage));
+		}
+	}
+
+	@Test
+	void test_record_goes_to_its_stage() {
+		//--Execute--
+		recorder.record(StageLatencyRecorder.Stage.VALIDATION, TimeUnit.MILLISECONDS.toNanos(3));
+		recorder.record(StageLatencyRecorder.Stage.VALIDATION, TimeUnit.MILLISECONDS.toNanos(5));
+
+		//--Verify--
+		Timer validation = recorder.timer(StageLatencyRecorder.Stage.VALIDATION);
+		assertEquals(2L, validation.count());
+		assertEquals(8.0, validation.totalTime(TimeUnit.MILLISECONDS), 0.001);
+		assertEquals(0L, recorder.timer(StageLatencyRecorder.Stage.ACK).count());
+	}
+
+	@Test
+	void test_negative_sample_counts_as_zero() {
+		//--Execute-- producer clock ahead of ours
+		recorder.record(StageLatencyRecorder.Stage.QUEUE_WAIT, -TimeUnit.MILLISECONDS.toNanos(40));
+
+		//--Verify--
+		Timer queueWait = recorder.timer(StageLatencyRecorder.Stage.QUEUE_WAIT);
+		assertEquals(1L, queueWait.count());
+		assertEquals(0.0, queueWait.totalTime(TimeUnit.NANOSECONDS), 0.001);
+	}
+
+	@Test
+	void test_recordSince() throws InterruptedException {
+		//--Prepare--
+		long start = System.nanoTime();
+		Thread.sleep(20L);
+
+		//--Execute--
+		recorder.recordSince(StageLatencyRecorder.Stage.ACK, start);
+
+		//--Verify--
+		assertTrue(recorder.timer(StageLatencyRecorder.Stage.ACK).totalTime(TimeUnit.MILLISECONDS) >= 20.0);
+	}
+
+	@Test
+	void test_transfer_records_both_calls() {
+		//--Prepare--
+		FulfillmentService service = new FulfillmentService();
+		service.setStageLatencyRecorder(recorder);
+		service.setTransactionDao(new TransactionDao() {
+			@Override
+			public TransactionResponse recordTransaction(TraceableMessage<?> message, TransactionRequest request) {
+				return new TransactionResponse(TransactionResponse.SUCCESS, new TransactionResource());
+			}
+
+			@Override
+			public CommitReservationResponse commitReservation(TraceableMessage<?> message, CommitReservationRequest request) {
+				return new CommitReservationResponse(CommitReservationResponse.SUCCESS, new TransactionResource());
+			}
+		});
+
+		//--Execute--
+		service.transferFunds(setup_message());
+
+		//--Verify--
+		assertEquals(1L, recorder.timer(StageLatencyRecorder.Stage.RECORD_TRANSACTION).count());
+		assertEquals(1L, recorder.timer(StageLatencyRecorder.Stage.COMMIT_RESERVATION).count());
+	}
+
+	@Test
+	void test_failed_call_is_recorded() {
+		//--Prepare--
+		FulfillmentService service = new FulfillmentService();
+		service.setStageLatencyRecorder(recorder);
+		service.setTransactionDao(new TransactionDao() {
+			@Override
+			public TransactionResponse recordTransaction(TraceableMessage<?> message, TransactionRequest request) {
+				throw new TransactionServiceUnavailableException("Circuit open.");
+			}
+		});
+
+		//--Execute--
+		assertThrows(TransactionServiceUnavailableException.class, () -> service.transferFunds(setup_message()));
+
+		//--Verify--
+		assertEquals(1L, recorder.timer(StageLatencyRecorder.Stage.RECORD_TRANSACTION).count());
+		assertEquals(0L, recorder.timer(StageLatencyRecorder.Stage.COMMIT_RESERVATION).count());
+	}
+
+	private TraceableMessage<TransferFulfillmentMessage> setup_message() {
+		TraceableMessage<TransferFulfillmentMessage> message = new TraceableMessage<TransferFulfillmentMessage>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(LocalDateTime.now());
+		message.setProducerAit("272834");
+
+		message.setPayload(new TransferFulfillmentMessage());
+		message.getPayload().setVersion(TransferFulfillmentMessage.version1_0);
+		message.getPayload().setFromAccountNumber("7097834");
+		message.getPayload().setRequestUuid(UUID.randomUUID());
+		message.getPayload().setReservationUuid(UUID.randomUUID());
+		message.getPayload().setToAccountNumber("238492834");
+		message.getPayload().setTransactionAmount(8923489);
+		message.getPayload().setTransactionMetaDataJson("{}");
+		return message;
+	}
+}
@@ -0,0 +1,145 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_StepJournal {
+	@TempDir
+	Path directory;
+
+	ConfigProperties config = new ConfigProperties();
+	CompletedStepCache cache;
+	StepJournal journal;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		config.setIdempotencyCacheSize(1000);
+		config.setStepJournalPath(directory.resolve("step.journal").toString());
+		config.setStepJournalSize(StepJournal.RECORD_SIZE * 16);
+		config.setStepJournalCompactInterval(600000L);
+		open();
+	}
+
+	@AfterEach
+	public void teardown() throws IOException {
+		journal.close();
+	}
+
+	@Test
+	void test_replay_restores_steps() throws IOException {
+		//--Prepare--
+		List<UUID> uuids = complete(10);
+
+		//--Execute--
+		journal.close();
+		open();
+
+		//--Verify--
+		assertEquals(10, cache.size());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(cache.isCompleted(uuids.get(i), CompletedStepCache.RECORDED));
+			assertEquals(i % 2 == 0, cache.isCompleted(uuids.get(i), CompletedStepCache.COMMITTED));
+		}
+	}
+
+	@Test
+	void test_full_journal_compacts() throws IOException {
+		//--Prepare-- 40 transfers write 60 records into a journal sized for 16
+		List<UUID> uuids = complete(40);
+
+		//--Execute--
+		journal.close();
+		open();
+
+		//--Verify--
+		assertEquals(40, cache.size());
+		assertTrue(Files.size(directory.resolve("step.journal")) < 60L * StepJournal.RECORD_SIZE * 2);
+		assertTrue(cache.isCompleted(uuids.get(0), CompletedStepCache.COMMITTED));
+		assertTrue(cache.isCompleted(uuids.get(39), CompletedStepCache.RECORDED));
+		assertFalse(Files.exists(directory.resolve("step.journal.compact")));
+	}
+
+	@Test
+	void test_compaction_keeps_records_evicted_from_cache() throws IOException {
+		//--Prepare-- a cache of 5 evicts most of the 40 transfers before the journal compacts
+		journal.close();
+		config.setIdempotencyCacheSize(5);
+		open();
+		List<UUID> uuids = complete(40);
+		assertEquals(5, cache.size());
+
+		//--Execute--
+		journal.close();
+		config.setIdempotencyCacheSize(1000);
+		open();
+
+		//--Verify--
+		assertEquals(40, cache.size());
+		for (int i = 0; i < 40; i++) {
+			assertTrue(cache.isCompleted(uuids.get(i), CompletedStepCache.RECORDED));
+			assertEquals(i % 2 == 0, cache.isCompleted(uuids.get(i), CompletedStepCache.COMMITTED));
+		}
+	}
+
+	@Test
+	void test_replay_stops_at_torn_record() throws IOException {
+		//--Prepare--
+		List<UUID> uuids = complete(3);
+		journal.close();
+		try (RandomAccessFile file = new RandomAccessFile(directory.resolve("step.journal").toFile(), "rw")) {
+			// corrupt the check word of the third record, the second transfer's RECORDED step
+			file.seek(StepJournal.RECORD_SIZE * 3 - 1);
+			int last = file.read();
+			file.seek(StepJournal.RECORD_SIZE * 3 - 1);
+			file.write(~last);
+		}
+
+		//--Execute--
+		open();
+
+		//--Verify--
+		assertTrue(cache.isCompleted(uuids.get(0), CompletedStepCache.COMMITTED));
+		assertFalse(cache.isCompleted(uuids.get(1), CompletedStepCache.RECORDED));
+		assertFalse(cache.isCompleted(uuids.get(2), CompletedStepCache.RECORDED));
+	}
+
+	private void open() throws IOException {
+		cache = new CompletedStepCache();
+		cache.setConfig(config);
+		cache.setRegistry(new SimpleMeterRegistry());
+		cache.init();
+		journal = new StepJournal();
+		journal.setConfig(config);
+		journal.setCompletedStepCache(cache);
+		journal.init();
+	}
+
+	private List<UUID> complete(int count) {
+		List<UUID> uuids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			UUID uuid = UUID.randomUUID();
+			uuids.add(uuid);
+			cache.complete(uuid, CompletedStepCache.RECORDED);
+			journal.append(uuid, CompletedStepCache.RECORDED);
+			if (i % 2 == 0) {
+				cache.complete(uuid, CompletedStepCache.COMMITTED);
+				journal.append(uuid, CompletedStepCache.COMMITTED);
+			}
+		}
+		return uuids;
+	}
+}
@@ -0,0 +1,87 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_TimedDeserializer {
+
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	StageLatencyRecorder recorder = new StageLatencyRecorder();
+	Timer deserialization;
+
+	@BeforeEach
+	public void setup() {
+		recorder.setRegistry(registry);
+		recorder.init();
+		deserialization = registry.get(StageLatencyRecorder.METRIC).tag("stage", "deserialization").timer();
+	}
+
+	@Test
+	void test_one_sample_per_message() {
+		//--Prepare--
+		TimedDeserializer<String> deserializer = new TimedDeserializer<>(new StringDeserializer(), recorder);
+
+		//--Execute--
+		String first = deserializer.deserialize("topic", "first".getBytes(StandardCharsets.UTF_8));
+		String second = deserializer.deserialize("topic", new RecordHeaders(), "second".getBytes(StandardCharsets.UTF_8));
+
+		//--Verify--
+		assertEquals("first", first);
+		assertEquals("second", second);
+		assertEquals(2L, deserialization.count());
+	}
+
+	@Test
+	void test_times_the_delegate() {
+		//--Prepare-- a delegate that takes 20 ms per message
+		TimedDeserializer<String> deserializer = new TimedDeserializer<>(new Deserializer<String>() {
+			@Override
+			public String deserialize(String topic, byte[] data) {
+				try {
+					Thread.sleep(20L);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				return new String(data, StandardCharsets.UTF_8);
+			}
+		}, recorder);
+
+		//--Execute--
+		deserializer.deserialize("topic", "first".getBytes(StandardCharsets.UTF_8));
+		deserializer.deserialize("topic", "second".getBytes(StandardCharsets.UTF_8));
+
+		//--Verify--
+		assertEquals(2L, deserialization.count());
+		assertTrue(deserialization.max(TimeUnit.MILLISECONDS) >= 20.0);
+		assertTrue(deserialization.totalTime(TimeUnit.MILLISECONDS) >= 40.0);
+	}
+
+	@Test
+	void test_failure_is_recorded() {
+		//--Prepare--
+		TimedDeserializer<String> deserializer = new TimedDeserializer<>(new Deserializer<String>() {
+			@Override
+			public String deserialize(String topic, byte[] data) {
+				throw new SerializationException("Not JSON.");
+			}
+		}, recorder);
+
+		//--Execute--
+		assertThrows(SerializationException.class, () -> deserializer.deserialize("topic", new byte[] { 1, 2, 3 }));
+
+		//--Verify--
+		assertEquals(1L, deserialization.count());
+	}
+}
@@ -0,0 +1,68 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class Unit_TokenBucket {
+	long now = 0L;
+
+	@Test
+	void test_burst_then_rate() {
+		//--Prepare--
+		TokenBucket bucket = new TokenBucket(10.0, 3.0, () -> now);
+
+		//--Execute-- / --Verify-- the full bucket allows a burst of capacity
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+
+		//--Execute-- / --Verify-- one token accrues every 100 ms
+		now += TimeUnit.MILLISECONDS.toNanos(99);
+		assertFalse(bucket.tryAcquire());
+		now += TimeUnit.MILLISECONDS.toNanos(1);
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+	@Test
+	void test_refill_capped_at_capacity() {
+		//--Prepare--
+		TokenBucket bucket = new TokenBucket(10.0, 2.0, () -> now);
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+
+		//--Execute--
+		now += TimeUnit.SECONDS.toNanos(60);
+
+		//--Verify--
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+	@Test
+	void test_acquire_holds_to_rate() throws InterruptedException {
+		//--Prepare--
+		TokenBucket bucket = new TokenBucket(100.0, 1.0);
+
+		//--Execute--
+		long start = System.nanoTime();
+		for (int i = 0; i < 11; i++) {
+			bucket.acquire();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		//--Verify-- first token from the full bucket, ten more at 10 ms each
+		assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(95));
+	}
+
+	@Test
+	void test_invalid_rate() {
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0.0, 1.0));
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1.0, 0.5));
+	}
+}
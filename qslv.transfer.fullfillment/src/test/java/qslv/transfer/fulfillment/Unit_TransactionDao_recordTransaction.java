@@ -8,6 +8,7 @@ import static org.mockito.Mockito.*;
 import java.net.SocketTimeoutException;
 import java.time.LocalDateTime;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -26,9 +27,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.retry.annotation.EnableRetry;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import qslv.common.TimedResponse;
 import qslv.common.kafka.TraceableMessage;
 import qslv.transaction.request.TransactionRequest;
@@ -75,6 +79,32 @@ class Unit_TransactionDao_recordTransaction {
 		assertEquals(resourceResponse.getTransactions().get(0).getDebitCardNumber(), callresult.getTransactions().get(0).getDebitCardNumber());
 	}
 
+	@Test
+	void test_recordTransaction_recordsServerAndOverhead() {
+		
+		setup_request();
+		setup_response();
+		ServiceLatencyRecorder recorder = new ServiceLatencyRecorder();
+		recorder.setRegistry(new SimpleMeterRegistry());
+		transactionDao.setServiceLatencyRecorder(recorder);
+		
+		//-Prepare----------------
+		doReturn(response).when(restTemplate).exchange(anyString(), eq(HttpMethod.POST), 
+				ArgumentMatchers.<HttpEntity<TransactionRequest>>any(), 
+				ArgumentMatchers.<ParameterizedTypeReference<TimedResponse<TransactionResponse>>>any());
+		
+		//-Execute----------------
+		transactionDao.recordTransaction(message, request);
+
+		//-Verify----------------
+		String url = config.getPostTransactionUrl();
+		assertEquals(1L, recorder.client(url).count());
+		assertEquals(123456.0, recorder.server(url).totalTime(TimeUnit.NANOSECONDS));
+		assertEquals(1L, recorder.overhead(url).count());
+		assertTrue(recorder.client(url).totalTime(TimeUnit.NANOSECONDS)
+				>= recorder.overhead(url).totalTime(TimeUnit.NANOSECONDS));
+	}
+
 	TransactionRequest request;
 	TraceableMessage<TransactionRequest> message;
 	
@@ -172,6 +202,26 @@ class Unit_TransactionDao_recordTransaction {
 
 	}
 	
+	@Test
+	void test_recordReservation_serverErrorThrice() {
+		
+		setup_request();
+		setup_response();
+		
+		//-----------------
+		when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), 
+				ArgumentMatchers.<HttpEntity<TransactionRequest>>any(), 
+				ArgumentMatchers.<ParameterizedTypeReference<TimedResponse<TransactionResource>>>any()))
+			.thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE) )
+			.thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE) )
+			.thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE) );
+		
+		assertThrows(TransientDataAccessResourceException.class, () -> {
+			transactionDao.recordTransaction(message, request);
+		});
+
+	}
+	
 	@Test
 	void test_recordReservation_serverFailure() {
 		
@@ -0,0 +1,155 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class Unit_TransactionHedger {
+	private static final String URL = "http://localhost:9091/Transaction";
+
+	ConfigProperties config = new ConfigProperties();
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	TransactionHedger hedger = new TransactionHedger();
+
+	@BeforeEach
+	public void setup() throws InterruptedException {
+		config.setRestHedging(true);
+		config.setRestHedgeMinSamples(100);
+		config.setRestHedgeMinDelay(5);
+		config.setRestHedgeBudget(5.0);
+		hedger.setConfig(config);
+		hedger.setRegistry(registry);
+		for (int i = 0; i < 100; i++) {
+			hedger.call(URL, () -> "warm");
+		}
+		// past the threshold refresh
+		TimeUnit.MILLISECONDS.sleep(150);
+	}
+
+	@Test
+	void test_slow_primary_is_hedged() {
+		//--Prepare--
+		AtomicInteger attempts = new AtomicInteger();
+
+		//--Execute--
+		String answer = hedger.call(URL, slowFirst(attempts, 2000L));
+
+		//--Verify--
+		assertEquals("fast", answer);
+		assertEquals(2, attempts.get());
+		assertEquals(1.0, registry.get("qslv.transaction.hedges").counter().count());
+		assertEquals(1.0, registry.get("qslv.transaction.hedge.wins").counter().count());
+	}
+
+	@Test
+	void test_budget_caps_hedges() {
+		//--Execute-- 105 calls at 5% leave budget for 5 hedges
+		int hedged = 0;
+		for (int i = 0; i < 7; i++) {
+			AtomicInteger attempts = new AtomicInteger();
+			hedger.call(URL, slowFirst(attempts, 30L));
+			hedged += attempts.get() - 1;
+		}
+
+		//--Verify--
+		assertEquals(5, hedged);
+		assertEquals(2.0, registry.get("qslv.transaction.hedge.budget.exhausted").counter().count());
+	}
+
+	@Test
+	void test_failure_waits_for_hedge() {
+		//--Prepare-- the primary fails slowly, the hedge answers
+		AtomicInteger attempts = new AtomicInteger();
+
+		//--Execute--
+		String answer = hedger.call(URL, () -> {
+			if (attempts.incrementAndGet() == 1) {
+				sleep(50L);
+				throw new ResourceAccessException("Read timed out");
+			}
+			sleep(100L);
+			return "hedge";
+		});
+
+		//--Verify--
+		assertEquals("hedge", answer);
+	}
+
+	@Test
+	void test_both_fail() {
+		//--Execute--
+		assertThrows(ResourceAccessException.class, () -> hedger.call(URL, () -> {
+			sleep(20L);
+			throw new ResourceAccessException("Read timed out");
+		}));
+	}
+
+	@Test
+	void test_full_bulkhead_skips_hedge() {
+		//--Prepare-- the caller holds the only permit
+		config.setRestBulkheadMaxConcurrent(1);
+		TransactionServiceGuard guard = new TransactionServiceGuard();
+		guard.setConfig(config);
+		guard.setRegistry(registry);
+		hedger.setTransactionServiceGuard(guard);
+		TransactionServiceGuard.Permit permit = guard.acquire(URL, 0L);
+		AtomicInteger attempts = new AtomicInteger();
+
+		//--Execute--
+		String answer = hedger.call(URL, slowFirst(attempts, 50L));
+		permit.release(true, System.nanoTime());
+
+		//--Verify--
+		assertEquals("slow", answer);
+		assertEquals(1, attempts.get());
+		assertEquals(1.0, registry.get("qslv.transaction.hedge.rejected").counter().count());
+		assertEquals(0, guard.getInFlight());
+	}
+
+	@Test
+	void test_failures_raise_threshold() throws InterruptedException {
+		//--Prepare-- slow failures make up half of the window
+		for (int i = 0; i < 100; i++) {
+			assertThrows(ResourceAccessException.class, () -> hedger.call(URL, () -> {
+				sleep(20L);
+				throw new ResourceAccessException("Read timed out");
+			}));
+		}
+		TimeUnit.MILLISECONDS.sleep(150);
+		AtomicInteger attempts = new AtomicInteger();
+
+		//--Execute--
+		String answer = hedger.call(URL, slowFirst(attempts, 10L));
+
+		//--Verify--
+		assertEquals("slow", answer);
+		assertEquals(1, attempts.get());
+	}
+
+	private Supplier<String> slowFirst(AtomicInteger attempts, long millis) {
+		return () -> {
+			if (attempts.incrementAndGet() == 1) {
+				sleep(millis);
+				return "slow";
+			}
+			return "fast";
+		};
+	}
+
+	private static void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException ex) {
+			throw new TransientDataAccessResourceException("interrupted", ex);
+		}
+	}
+}
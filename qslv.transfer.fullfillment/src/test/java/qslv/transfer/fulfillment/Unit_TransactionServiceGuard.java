@@ -0,0 +1,86 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class Unit_TransactionServiceGuard {
+	private static final String URL = "http://localhost:9091/Transaction";
+
+	@Mock
+	ApplicationEventPublisher publisher;
+
+	ConfigProperties config = new ConfigProperties();
+	TransactionServiceGuard guard = new TransactionServiceGuard();
+
+	@BeforeEach
+	public void setup() {
+		config.setRestBreakerFailureThreshold(2);
+		config.setRestBreakerOpenTime(60000);
+		config.setRestBulkheadMaxConcurrent(1);
+		config.setRestBulkheadWait(0);
+		guard.setConfig(config);
+		guard.setPublisher(publisher);
+		guard.setRegistry(new SimpleMeterRegistry());
+	}
+
+	@Test
+	void test_open_circuit_fails_fast() {
+		//--Prepare--
+		for (int i = 0; i < 2; i++) {
+			assertThrows(TransientDataAccessResourceException.class, () -> guard.call(URL, () -> {
+				throw new TransientDataAccessResourceException("timeout");
+			}));
+		}
+
+		//--Execute--
+		assertThrows(TransactionServiceUnavailableException.class, () -> guard.call(URL, () -> "never called"));
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.OPEN, guard.getState(URL));
+		ArgumentCaptor<CircuitBreakerEvent> event = ArgumentCaptor.forClass(CircuitBreakerEvent.class);
+		verify(publisher).publishEvent(event.capture());
+		assertEquals(CircuitBreaker.State.OPEN, event.getValue().getTo());
+		assertEquals(URL, event.getValue().getEndpoint());
+	}
+
+	@Test
+	void test_non_transient_answer_is_not_a_failure() {
+		//--Execute--
+		for (int i = 0; i < 3; i++) {
+			assertThrows(NonTransientDataAccessResourceException.class, () -> guard.call(URL, () -> {
+				throw new NonTransientDataAccessResourceException("Malformed");
+			}));
+		}
+
+		//--Verify--
+		assertEquals(CircuitBreaker.State.CLOSED, guard.getState(URL));
+		verify(publisher, never()).publishEvent(any(Object.class));
+	}
+
+	@Test
+	void test_bulkhead_rejects_when_full() {
+		//--Prepare--
+		TransactionServiceGuard.Permit permit = guard.acquire(URL, 0L);
+
+		//--Execute--
+		assertThrows(TransactionServiceUnavailableException.class, () -> guard.acquire(URL, 0L));
+		permit.release(true, System.nanoTime());
+
+		//--Verify--
+		assertEquals("ok", guard.call(URL, () -> "ok"));
+	}
+}
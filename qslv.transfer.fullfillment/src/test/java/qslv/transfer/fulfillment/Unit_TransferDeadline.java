@@ -0,0 +1,105 @@
+package qslv.transfer.fulfillment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import qslv.common.kafka.TraceableMessage;
+
+class Unit_TransferDeadline {
+	private static final LocalDateTime CREATED = LocalDateTime.of(2020, 8, 1, 12, 0, 0);
+	private static final long CREATED_MILLIS = CREATED.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+	ConfigProperties config = new ConfigProperties();
+	SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	AtomicLong now = new AtomicLong(CREATED_MILLIS);
+	TransferDeadline transferDeadline = new TransferDeadline();
+
+	@BeforeEach
+	public void setup() {
+		config.setTransferDeadline(30000);
+		transferDeadline.setConfig(config);
+		transferDeadline.setRegistry(registry);
+		transferDeadline.setClock(now::get);
+	}
+
+	@Test
+	void test_deadline_from_creation_time() {
+		//--Prepare--
+		TraceableMessage<?> message = setup_message();
+		now.addAndGet(10000);
+
+		//--Execute--
+		long deadline = transferDeadline.deadline(message);
+
+		//--Verify--
+		assertEquals(CREATED_MILLIS + 30000, deadline);
+		assertEquals(20000, transferDeadline.remaining(deadline));
+		assertFalse(transferDeadline.isExpired(message));
+	}
+
+	@Test
+	void test_check_after_deadline() {
+		//--Prepare--
+		TraceableMessage<?> message = setup_message();
+		transferDeadline.check(message, TransferDeadline.RECORD);
+		now.addAndGet(30000);
+
+		//--Execute--
+		assertThrows(TransferDeadlineExceededException.class, () -> transferDeadline.check(message, TransferDeadline.RECORD));
+		assertThrows(TransferDeadlineExceededException.class, () -> transferDeadline.check(message, TransferDeadline.POST));
+
+		//--Verify--
+		assertTrue(transferDeadline.isExpired(message));
+		assertEquals(1.0, registry.get("qslv.transfer.expired").tag("stage", TransferDeadline.RECORD).counter().count());
+		assertEquals(1.0, registry.get("qslv.transfer.expired").tag("stage", TransferDeadline.POST).counter().count());
+	}
+
+	@Test
+	void test_disabled() {
+		//--Prepare--
+		config.setTransferDeadline(0);
+		TraceableMessage<?> message = setup_message();
+		now.addAndGet(3600000);
+
+		//--Execute--
+		long deadline = transferDeadline.deadline(message);
+
+		//--Verify--
+		assertEquals(TransferDeadline.NONE, deadline);
+		assertEquals(TransferDeadline.NONE, transferDeadline.remaining(deadline));
+		assertFalse(transferDeadline.isExpired(message));
+		transferDeadline.check(message, TransferDeadline.RECORD);
+	}
+
+	@Test
+	void test_cap_within_deadline() {
+		//--Prepare--
+		long deadline = transferDeadline.deadline(setup_message());
+		now.addAndGet(29800);
+
+		//--Execute--
+		int capped = transferDeadline.within(deadline, () -> transferDeadline.cap(1000));
+
+		//--Verify-- capped only on the thread running the call, and never to 0
+		assertEquals(200, capped);
+		assertEquals(1000, transferDeadline.cap(1000));
+		now.addAndGet(1000);
+		assertEquals(1, transferDeadline.cap(1000, deadline));
+	}
+
+	private TraceableMessage<?> setup_message() {
+		TraceableMessage<?> message = new TraceableMessage<>();
+		message.setBusinessTaxonomyId("28934.82934.89234");
+		message.setCorrelationId("2u3472938482374982");
+		message.setMessageCreationTime(CREATED);
+		message.setProducerAit("272834");
+		return message;
+	}
+}
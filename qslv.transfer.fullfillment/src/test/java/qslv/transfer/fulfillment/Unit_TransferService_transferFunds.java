@@ -13,6 +13,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import qslv.common.kafka.TraceableMessage;
 import qslv.transaction.request.CommitReservationRequest;
@@ -70,6 +73,165 @@ class Unit_TransferService_transferFunds {
 
 	}
 
+	@Test
+	void test_transferFunds_recordsStageLatency() {
+
+		// --Setup-------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		StageLatencyRecorder recorder = new StageLatencyRecorder();
+		recorder.setRegistry(new SimpleMeterRegistry());
+		recorder.init();
+		service.setStageLatencyRecorder(recorder);
+
+		// --Prepare-------------
+		doReturn(setup_response()).when(transactionDao).recordTransaction(any(), any(TransactionRequest.class));
+		doThrow(new TransientDataAccessResourceException("msg")).when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		assertThrows(TransientDataAccessResourceException.class, () -> service.transferFunds(message));
+
+		// --Verify-------------
+		assertEquals(1L, recorder.timer(StageLatencyRecorder.Stage.RECORD_TRANSACTION).count());
+		assertEquals(1L, recorder.timer(StageLatencyRecorder.Stage.COMMIT_RESERVATION).count());
+		assertEquals(0L, recorder.timer(StageLatencyRecorder.Stage.DLQ).count());
+	}
+
+	@Test
+	void test_transferFunds_redeliveryResumesAtCommit() {
+
+		// --Setup-------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		ConfigProperties config = new ConfigProperties();
+		CompletedStepCache cache = new CompletedStepCache();
+		cache.setConfig(config);
+		cache.setRegistry(new SimpleMeterRegistry());
+		cache.init();
+		service.setCompletedStepCache(cache);
+
+		// --Prepare-------------
+		doReturn(setup_response()).when(transactionDao).recordTransaction(any(), any(TransactionRequest.class));
+		doThrow(new TransientDataAccessResourceException("timeout"))
+			.doReturn(setup_commit())
+			.when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		assertThrows(TransientDataAccessResourceException.class, () -> service.transferFunds(message));
+		service.transferFunds(message);
+		service.transferFunds(message);
+
+		// --Verify-------------
+		verify(transactionDao, times(1)).recordTransaction(any(), any(TransactionRequest.class));
+		verify(transactionDao, times(2)).commitReservation(any(), any(CommitReservationRequest.class));
+	}
+
+	@Test
+	void test_transferFunds_expiredSkipsTransactionService() {
+
+		// --Setup-------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		message.setMessageCreationTime(LocalDateTime.now().minusSeconds(60));
+		service.setTransferDeadline(setup_deadline(30000));
+
+		// --Execute-------------
+		assertThrows(TransferDeadlineExceededException.class, () -> service.transferFunds(message));
+
+		// --Verify-------------
+		verify(transactionDao, never()).recordTransaction(any(), any(TransactionRequest.class));
+		verify(transactionDao, never()).commitReservation(any(), any(CommitReservationRequest.class));
+	}
+
+	@Test
+	void test_replayTransfer_ignoresDeadline() {
+
+		// --Setup-------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		message.setMessageCreationTime(LocalDateTime.now().minusHours(2));
+		service.setTransferDeadline(setup_deadline(30000));
+
+		// --Prepare-------------
+		doReturn(setup_response()).when(transactionDao).recordTransaction(any(), any(TransactionRequest.class), anyLong());
+		doReturn(setup_commit()).when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		service.replayTransfer(message);
+
+		// --Verify-------------
+		verify(transactionDao).recordTransaction(any(), any(TransactionRequest.class), eq(TransferDeadline.NONE));
+		verify(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+	}
+
+	@Test
+	void test_transferFunds_recordedTransferCommitsAfterDeadline() {
+
+		// --Setup-------------
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		message.setMessageCreationTime(LocalDateTime.now().minusSeconds(60));
+		service.setTransferDeadline(setup_deadline(30000));
+		CompletedStepCache cache = new CompletedStepCache();
+		cache.setConfig(new ConfigProperties());
+		cache.setRegistry(new SimpleMeterRegistry());
+		cache.init();
+		cache.complete(message.getPayload().getRequestUuid(), CompletedStepCache.RECORDED);
+		service.setCompletedStepCache(cache);
+
+		// --Prepare-------------
+		doReturn(setup_commit()).when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		service.transferFunds(message);
+
+		// --Verify-------------
+		verify(transactionDao, never()).recordTransaction(any(), any(TransactionRequest.class));
+		verify(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+	}
+
+	@Test
+	void test_transferFunds_commitFailureReportsRecordedWithoutCache() {
+
+		// --Setup------------- no step cache
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		service.setTransferDeadline(setup_deadline(30000));
+
+		// --Prepare-------------
+		doReturn(setup_response()).when(transactionDao).recordTransaction(any(), any(TransactionRequest.class));
+		doThrow(new TransientDataAccessResourceException("timeout"))
+			.when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		RecordedTransferException ex = assertThrows(RecordedTransferException.class, () -> service.transferFunds(message));
+
+		// --Verify-------------
+		assertTrue(ex.getCause() instanceof TransientDataAccessResourceException);
+		verify(transactionDao).recordTransaction(any(), any(TransactionRequest.class));
+	}
+
+	@Test
+	void test_commitRecorded_afterDeadlineWithoutCache() {
+
+		// --Setup------------- no step cache
+		TraceableMessage<TransferFulfillmentMessage> message = setup_message();
+		message.setMessageCreationTime(LocalDateTime.now().minusSeconds(60));
+		service.setTransferDeadline(setup_deadline(30000));
+
+		// --Prepare-------------
+		doReturn(setup_commit()).when(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+
+		// --Execute-------------
+		service.commitRecorded(message);
+
+		// --Verify-------------
+		verify(transactionDao, never()).recordTransaction(any(), any(TransactionRequest.class));
+		verify(transactionDao).commitReservation(any(), any(CommitReservationRequest.class));
+	}
+
+	TransferDeadline setup_deadline(int millis) {
+		ConfigProperties config = new ConfigProperties();
+		config.setTransferDeadline(millis);
+		TransferDeadline deadline = new TransferDeadline();
+		deadline.setConfig(config);
+		deadline.setRegistry(new SimpleMeterRegistry());
+		return deadline;
+	}
 
 	TransactionResponse setup_response() {
 		TransactionResponse resourceResponse = new TransactionResponse(TransactionResponse.SUCCESS, new TransactionResource());